@@ -1,60 +1,127 @@
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
-import org.bson.Document;
 import java.util.Scanner;
+import java.util.function.Supplier;
+
+public class AcademiaApp {
+    private final Inicializacao inicializacao = new Inicializacao();
+    private final Scanner scanner = new Scanner(System.in);
+
+    // cada subsistema e criado na primeira escolha do menu e reaproveitado nas seguintes
+    private final Supplier<BeneficioCRUD> beneficios = preguicoso(() -> new BeneficioCRUD(
+        armazenamento().colecao("beneficios"), armazenamento().colecao("planos"), armazenamento().estatisticas(), scanner));
+    private final Supplier<PlanoCRUD> planos = preguicoso(() -> new PlanoCRUD(armazenamento(), scanner));
+    private final Supplier<ClienteCRUD> clientes = preguicoso(() -> new ClienteCRUD(armazenamento(), scanner));
+    private final Supplier<FuncionarioCRUD> funcionarios = preguicoso(() -> new FuncionarioCRUD(armazenamento(), scanner));
+    private final Supplier<TelefoneCRUD> telefones = preguicoso(() -> new TelefoneCRUD(armazenamento(), scanner));
+    private final Supplier<CargoCRUD> cargos = preguicoso(() -> new CargoCRUD(
+        armazenamento().colecao("cargos"), armazenamento().estatisticas(), scanner));
+    private final Supplier<ManutencaoCRUD> manutencoes = preguicoso(() -> new ManutencaoCRUD(
+        armazenamento(), new AgendaManutencoes(armazenamento()), scanner));
+    private final Supplier<EquipamentoCRUD> equipamentos = preguicoso(() -> new EquipamentoCRUD(armazenamento(), scanner));
+    private final Supplier<Relatorios> relatorios = preguicoso(() -> new Relatorios(armazenamento(), scanner));
+    // guardado tambem aqui para a saida gravar o que estiver na fila
+    private Checkins checkinsAbertos;
+    private final Supplier<Checkins> checkins = preguicoso(() -> checkinsAbertos = new Checkins(armazenamento(), scanner));
 
-public class AcademiaApp {    
     public static void main(String[] args) {
         try {
-            Conexao conexaoMongo   = new Conexao();
-            MongoDatabase database = conexaoMongo.getDatabase();
+            new AcademiaApp().executar();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void executar() {
+        while (true) {
+            System.out.println("\n=== SISTEMA ACADEMIA ===");
+            System.out.println("1. Benefícios");
+            System.out.println("2. Planos");
+            System.out.println("3. Clientes");
+            System.out.println("4. Funcionários");
+            System.out.println("5. Telefones");
+            System.out.println("6. Cargos");
+            System.out.println("7. Manutenções");
+            System.out.println("8. Equipamentos");
+            System.out.println("9. Relatórios");
+            System.out.println("10. Diagnósticos");
+            System.out.println("11. Arquivar inativos");
+            System.out.println("12. Check-ins");
+            System.out.println("13. Faturamento mensal");
+            System.out.println("14. Folha de pagamento");
+            System.out.println("0. Sair");
+            System.out.print("Escolha uma opção: ");
+            inicializacao.marcarPrompt();
+            
+            int opcao = scanner.nextInt();
+            scanner.nextLine();
             
-            MongoCollection<Document> beneficiosCollection   = database.getCollection("beneficios");
-            MongoCollection<Document> planosCollection       = database.getCollection("planos");
-            MongoCollection<Document> clientesCollection     = database.getCollection("clientes");
-            MongoCollection<Document> funcionariosCollection = database.getCollection("funcionarios");
-            MongoCollection<Document> telefonesCollection    = database.getCollection("telefones");
-            MongoCollection<Document> cargosCollection       = database.getCollection("cargos");
-            MongoCollection<Document> manutencoesCollection  = database.getCollection("manutencoes");
-            MongoCollection<Document> equipamentosCollection = database.getCollection("equipamentos");
-
-            Scanner scanner = new Scanner(System.in);
-            while (true) {
-                System.out.println("\n=== SISTEMA ACADEMIA ===");
-                System.out.println("1. Benefícios");
-                System.out.println("2. Planos");
-                System.out.println("3. Clientes");
-                System.out.println("4. Funcionários");
-                System.out.println("5. Telefones");
-                System.out.println("6. Cargos");
-                System.out.println("7. Manutenções");
-                System.out.println("8. Equipamentos");
-                System.out.println("9. Relatórios");
-                System.out.println("0. Sair");
-                System.out.print("Escolha uma opção: ");
-                
-                int opcao = scanner.nextInt();
-                scanner.nextLine();
-                
-                switch (opcao) {
-                    case 1 -> new BeneficioCRUD(beneficiosCollection, scanner).menu();
-                    case 2 -> new PlanoCRUD(database, scanner).menu();
-                    case 3 -> new ClienteCRUD(clientesCollection, telefonesCollection, planosCollection, scanner).menu();
-                    case 4 -> new FuncionarioCRUD(database, scanner).menu();
-                    case 5 -> new TelefoneCRUD(database, scanner).menu();
-                    case 6 -> new CargoCRUD(cargosCollection, scanner).menu();
-                    case 7 -> new ManutencaoCRUD(database, scanner).menu();
-                    case 8 -> new EquipamentoCRUD(database, scanner).menu();
-                    case 9 -> new Relatorios(database, scanner).menu();
-                    case 0 -> { 
-                        conexaoMongo.closeConnection();
-                        return; 
+            switch (opcao) {
+                case 1 -> beneficios.get().menu();
+                case 2 -> planos.get().menu();
+                case 3 -> clientes.get().menu();
+                case 4 -> funcionarios.get().menu();
+                case 5 -> telefones.get().menu();
+                case 6 -> cargos.get().menu();
+                case 7 -> manutencoes.get().menu();
+                case 8 -> equipamentos.get().menu();
+                case 9 -> relatorios.get().menu();
+                case 10 -> diagnosticos(armazenamento(), scanner);
+                case 11 -> Rastreio.executar("arquivamento.executar", "*", this::arquivar);
+                case 12 -> checkins.get().menu();
+                case 13 -> Faturamento.executarMenu(armazenamento(), scanner);
+                case 14 -> FolhaPagamento.executarMenu(armazenamento(), scanner);
+                case 0 -> { 
+                    if (checkinsAbertos != null) {
+                        checkinsAbertos.encerrar();
                     }
-                    default -> System.out.println("Opção inválida!");
+                    inicializacao.encerrar();
+                    System.out.println(inicializacao.resumo());
+                    return; 
                 }
+                default -> System.out.println("Opção inválida!");
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    private Armazenamento armazenamento() {
+        return inicializacao.armazenamento();
+    }
+
+    /**
+     * metodo auxiliar que cria o valor na primeira chamada e devolve o mesmo depois
+     */
+    private static <T> Supplier<T> preguicoso(Supplier<T> criar) {
+        return new Supplier<>() {
+            private T valor;
+
+            @Override
+            public T get() {
+                if (valor == null) {
+                    valor = criar.get();
+                }
+                return valor;
+            }
+        };
+    }
+
+    /**
+     * move para as collections _arquivo os clientes inativos e funcionarios demitidos
+     * ha mais de -Dacademia.arquivo.dias (Arquivamento)
+     */
+    private void arquivar() {
+        Arquivamento.Resultado resultado = new Arquivamento(armazenamento()).executar();
+        System.out.println("Arquivados: " + resultado.clientes() + " cliente(s), " + resultado.funcionarios()
+            + " funcionário(s)" + (resultado.funcionariosComManutencao() > 0
+                ? "; " + resultado.funcionariosComManutencao() + " funcionário(s) mantidos por terem manutenções" : "") + ".");
+    }
+
+    /**
+     * diagnosticos dependem dos listeners do driver, entao so existem no MongoDB
+     */
+    private static void diagnosticos(Armazenamento armazenamento, Scanner scanner) {
+        if (armazenamento instanceof ArmazenamentoMongo mongo && mongo.getConexao() != null) {
+            new Diagnosticos(mongo.getConexao(), scanner).menu();
+        } else {
+            System.out.println("Diagnósticos disponíveis apenas com o armazenamento MongoDB.");
+        }
+    }
+}
@@ -0,0 +1,274 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * agenda das manutencoes em aberto (status 0 pendente e 1 em andamento): uma fila
+ * em memoria ordenada por data_prevista (TreeSet), carregada uma vez pelo indice
+ * {status, data_prevista} e mantida a cada escrita do ManutencaoCRUD (registrar,
+ * remover). vencidas e proximos N dias sao faixas da fila; a carga por tecnico
+ * percorre so as manutencoes em aberto.
+ *
+ * escritas feitas fora desta aplicacao aparecem na proxima recarga, feita quando a
+ * fila tem mais de -Dacademia.agenda.cacheMs (padrao 60000) na hora de uma consulta.
+ */
+public class AgendaManutencoes {
+    private static final long CACHE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("academia.agenda.cacheMs", 60_000));
+    private static final ZoneId FUSO = ZoneId.systemDefault();
+
+    private final Colecao manutencoes;
+    private final Colecao equipamentos;
+    private final Colecao funcionarios;
+
+    /**
+     * manutencao em aberto; id null so nas sentinelas de busca por data
+     */
+    record Item(ObjectId id, Date dataPrevista, int status, Object idEquipamento, Object idFuncionario, double custo) {
+    }
+
+    /**
+     * manutencoes em aberto de um tecnico
+     */
+    record Carga(Object idFuncionario, int pendentes, int emAndamento, int vencidas, double custo, Date proxima) {
+    }
+
+    private static final Comparator<Item> ORDEM = Comparator.comparing(Item::dataPrevista)
+        .thenComparing(Item::id, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final NavigableSet<Item> fila = new TreeSet<>(ORDEM);
+    private final Map<ObjectId, Item> porId = new HashMap<>();
+    private long carregadoEm;
+    private boolean carregada;
+
+    public AgendaManutencoes(Armazenamento armazenamento) {
+        this.manutencoes = armazenamento.colecao("manutencoes");
+        this.equipamentos = armazenamento.colecao("equipamentos");
+        this.funcionarios = armazenamento.colecao("funcionarios");
+    }
+
+    /**
+     * filtro da carga a frio, tambem registrado em ConsultasRegistradas
+     */
+    static Bson emAberto() {
+        return Filters.in("status", 0, 1);
+    }
+
+    /**
+     * atualiza a fila com o estado gravado da manutencao; concluida ou sem data sai da fila
+     */
+    public synchronized void registrar(Document manutencao) {
+        if (!carregada) {
+            return;
+        }
+        ObjectId id = manutencao.getObjectId("_id");
+        Item anterior = porId.remove(id);
+        if (anterior != null) {
+            fila.remove(anterior);
+        }
+        Item item = item(manutencao);
+        if (item != null) {
+            fila.add(item);
+            porId.put(id, item);
+        }
+    }
+
+    public synchronized void remover(ObjectId id) {
+        Item anterior = porId.remove(id);
+        if (anterior != null) {
+            fila.remove(anterior);
+        }
+    }
+
+    /**
+     * em aberto com data_prevista antes de hoje, da mais antiga para a mais recente
+     */
+    public synchronized List<Item> vencidas() {
+        return new ArrayList<>(atual().headSet(sentinela(inicioDoDia(0)), false));
+    }
+
+    /**
+     * em aberto com data_prevista de hoje ate hoje + dias
+     */
+    public synchronized List<Item> proximas(int dias) {
+        return new ArrayList<>(atual().subSet(sentinela(inicioDoDia(0)), true, sentinela(inicioDoDia(dias + 1)), false));
+    }
+
+    /**
+     * manutencoes em aberto por tecnico, dos mais carregados para os menos
+     */
+    public synchronized List<Carga> cargaPorFuncionario() {
+        Date hoje = inicioDoDia(0);
+        Map<Object, Carga> cargas = new LinkedHashMap<>();
+        // a fila ja esta em ordem de data: a primeira de cada tecnico e a proxima
+        for (Item item : atual()) {
+            Carga c = cargas.get(item.idFuncionario());
+            cargas.put(item.idFuncionario(), new Carga(item.idFuncionario(),
+                (c != null ? c.pendentes() : 0) + (item.status() == 0 ? 1 : 0),
+                (c != null ? c.emAndamento() : 0) + (item.status() == 1 ? 1 : 0),
+                (c != null ? c.vencidas() : 0) + (item.dataPrevista().before(hoje) ? 1 : 0),
+                (c != null ? c.custo() : 0) + item.custo(),
+                c != null ? c.proxima() : item.dataPrevista()));
+        }
+        List<Carga> resultado = new ArrayList<>(cargas.values());
+        resultado.sort(Comparator.comparingInt((Carga c) -> c.pendentes() + c.emAndamento()).reversed());
+        return resultado;
+    }
+
+    public synchronized int tamanho() {
+        return atual().size();
+    }
+
+    /**
+     * fila carregada e dentro do prazo de cache
+     */
+    private NavigableSet<Item> atual() {
+        if (!carregada || System.nanoTime() - carregadoEm > CACHE_NANOS) {
+            fila.clear();
+            porId.clear();
+            for (Document manutencao : manutencoes.find(emAberto())
+                    .projection(Projections.include("data_prevista", "status", "id_equipamento", "id_funcionario", "custo"))
+                    .sort(Sorts.ascending("data_prevista"))) {
+                Item item = item(manutencao);
+                if (item != null) {
+                    fila.add(item);
+                    porId.put(item.id(), item);
+                }
+            }
+            carregadoEm = System.nanoTime();
+            carregada = true;
+        }
+        return fila;
+    }
+
+    private static Item item(Document manutencao) {
+        int status = manutencao.getInteger("status", 2);
+        Date dataPrevista = manutencao.getDate("data_prevista");
+        if ((status != 0 && status != 1) || dataPrevista == null) {
+            return null;
+        }
+        Object custo = manutencao.get("custo");
+        return new Item(manutencao.getObjectId("_id"), dataPrevista, status,
+            manutencao.get("id_equipamento"), manutencao.get("id_funcionario"),
+            custo instanceof Number n ? n.doubleValue() : 0);
+    }
+
+    private static Item sentinela(Date data) {
+        return new Item(null, data, 0, null, null, 0);
+    }
+
+    private static Date inicioDoDia(int diasAPartirDeHoje) {
+        return Date.from(LocalDate.now(FUSO).plusDays(diasAPartirDeHoje).atStartOfDay(FUSO).toInstant());
+    }
+
+    public void menu(Scanner scanner) {
+        while (true) {
+            System.out.println("\n=== AGENDA DE MANUTENÇÕES ===");
+            System.out.println("1. Vencidas");
+            System.out.println("2. Próximos dias");
+            System.out.println("3. Carga por técnico");
+            System.out.println("4. Voltar");
+            System.out.print("Escolha: ");
+
+            int opcao = scanner.nextInt();
+            scanner.nextLine();
+
+            switch (opcao) {
+                case 1 -> Rastreio.executar("agenda.vencidas", "manutencoes",
+                    () -> imprimir("MANUTENÇÕES VENCIDAS", vencidas(), "Nenhuma manutenção vencida."));
+                case 2 -> {
+                    System.out.print("Dias [7]: ");
+                    String valor = scanner.nextLine().trim();
+                    int dias;
+                    try {
+                        dias = valor.isEmpty() ? 7 : Math.max(0, Integer.parseInt(valor));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Erro: Número inválido!");
+                        continue;
+                    }
+                    Rastreio.executar("agenda.proximas", "manutencoes",
+                        () -> imprimir("MANUTENÇÕES DOS PRÓXIMOS " + dias + " DIAS", proximas(dias),
+                                       "Nenhuma manutenção prevista no período."));
+                }
+                case 3 -> Rastreio.executar("agenda.cargaPorFuncionario", "manutencoes", this::imprimirCarga);
+                case 4 -> { return; }
+                default -> System.out.println("Opção inválida!");
+            }
+        }
+    }
+
+    private void imprimir(String titulo, List<Item> itens, String vazia) {
+        Tabela tabela = new Tabela(titulo,
+            Tabela.coluna("Data Prevista", 13), Tabela.coluna("Status", 12), Tabela.coluna("Equipamento", 25),
+            Tabela.coluna("Técnico", 25), Tabela.numero("Custo", 12));
+        if (itens.isEmpty()) {
+            tabela.vazia(vazia);
+            return;
+        }
+        Map<Object, String> modelos = nomes(equipamentos, "modelo", itens.stream().map(Item::idEquipamento).toList());
+        Map<Object, String> tecnicos = nomes(funcionarios, "nome", itens.stream().map(Item::idFuncionario).toList());
+        tabela.cabecalho();
+        for (Item item : itens) {
+            tabela.data(item.dataPrevista())
+                  .texto(item.status() == 0 ? "Pendente" : "Em Andamento")
+                  .texto(modelos.get(item.idEquipamento()))
+                  .texto(tecnicos.get(item.idFuncionario()))
+                  .moeda(item.custo())
+                  .fimLinha();
+        }
+        tabela.rodape("Total: " + itens.size() + " manutenção(ões)");
+    }
+
+    private void imprimirCarga() {
+        List<Carga> cargas = cargaPorFuncionario();
+        Tabela tabela = new Tabela("CARGA POR TÉCNICO",
+            Tabela.coluna("Técnico", 25), Tabela.numero("Pendentes", 9), Tabela.numero("Em Andamento", 12),
+            Tabela.numero("Vencidas", 8), Tabela.numero("Custo", 12), Tabela.coluna("Próxima", 10));
+        if (cargas.isEmpty()) {
+            tabela.vazia("Nenhuma manutenção em aberto.");
+            return;
+        }
+        Map<Object, String> tecnicos = nomes(funcionarios, "nome", cargas.stream().map(Carga::idFuncionario).toList());
+        tabela.cabecalho();
+        for (Carga carga : cargas) {
+            tabela.texto(tecnicos.get(carga.idFuncionario()))
+                  .inteiro(carga.pendentes())
+                  .inteiro(carga.emAndamento())
+                  .inteiro(carga.vencidas())
+                  .moeda(carga.custo())
+                  .data(carga.proxima())
+                  .fimLinha();
+        }
+        tabela.rodape("Total: " + cargas.size() + " técnico(s)");
+    }
+
+    /**
+     * metodo auxiliar que busca o campo de exibicao dos ids em uma consulta ($in)
+     */
+    private static Map<Object, String> nomes(Colecao colecao, String campo, List<Object> ids) {
+        Map<Object, String> nomes = new HashMap<>();
+        List<Object> distintos = ids.stream().filter(id -> id != null).distinct().toList();
+        if (!distintos.isEmpty()) {
+            for (Document doc : colecao.find(Filters.in("_id", distintos)).projection(Projections.include(campo))) {
+                nomes.put(doc.get("_id"), doc.getString(campo));
+            }
+        }
+        return nomes;
+    }
+}
@@ -0,0 +1,760 @@
+import com.mongodb.MongoExecutionTimeoutException;
+import org.bson.Document;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * execucao de pipelines de agregacao sobre documentos em memoria.
+ * estagios: $match $project $addFields/$set $unset $lookup $unwind $group
+ * $sort $skip $limit $count $replaceRoot/$replaceWith.
+ * as expressoes cobrem o que os relatorios usam ($size, $filter, $eq, ...) e
+ * os operadores aritmeticos, logicos e de data mais comuns (com timezone e $dateTrunc).
+ */
+final class AgregacaoMemoria {
+    private final ArmazenamentoMemoria armazenamento;
+    // System.nanoTime() limite para o pipeline, ou 0 sem limite
+    private final long prazo;
+
+    AgregacaoMemoria(ArmazenamentoMemoria armazenamento, long prazo) {
+        this.armazenamento = armazenamento;
+        this.prazo = prazo;
+    }
+
+    /**
+     * executa os estagios sobre os documentos de entrada (ja copiados, podem ser alterados)
+     */
+    List<Document> executar(List<Document> entrada, List<Document> estagios) {
+        List<Document> atual = entrada;
+        for (Document estagio : estagios) {
+            if (prazo != 0 && System.nanoTime() - prazo > 0) {
+                // mesmo erro do servidor ao estourar maxTimeMS
+                throw new MongoExecutionTimeoutException(50, "operation exceeded time limit");
+            }
+            String nome = estagio.keySet().iterator().next();
+            Object spec = estagio.get(nome);
+            atual = switch (nome) {
+                case "$match" -> filtrar(atual, (Document) spec);
+                case "$project" -> projetar(atual, (Document) spec);
+                case "$addFields", "$set" -> adicionarCampos(atual, (Document) spec);
+                case "$unset" -> remover(atual, spec);
+                case "$lookup" -> lookup(atual, (Document) spec);
+                case "$unwind" -> unwind(atual, spec);
+                case "$group" -> agrupar(atual, (Document) spec);
+                case "$sort" -> ordenar(atual, (Document) spec);
+                case "$skip" -> atual.subList(Math.min(atual.size(), ((Number) spec).intValue()), atual.size());
+                case "$limit" -> atual.subList(0, Math.min(atual.size(), ((Number) spec).intValue()));
+                case "$count" -> atual.isEmpty() ? new ArrayList<>()
+                                                 : new ArrayList<>(List.of(new Document((String) spec, atual.size())));
+                case "$replaceRoot" -> substituirRaiz(atual, ((Document) spec).get("newRoot"));
+                case "$replaceWith" -> substituirRaiz(atual, spec);
+                default -> throw FiltroMemoria.naoSuportado(nome);
+            };
+        }
+        return atual;
+    }
+
+    private static List<Document> filtrar(List<Document> docs, Document filtro) {
+        List<Document> saida = new ArrayList<>();
+        for (Document doc : docs) {
+            if (FiltroMemoria.corresponde(doc, filtro)) {
+                saida.add(doc);
+            }
+        }
+        return saida;
+    }
+
+    // $project e projecao de find
+
+    static List<Document> projetar(List<Document> docs, Document spec) {
+        List<Document> saida = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            saida.add(projetar(doc, spec));
+        }
+        return saida;
+    }
+
+    static Document projetar(Document doc, Document spec) {
+        // {_id: 1} sozinho e inclusao; junto de outros campos, _id nao decide o modo
+        boolean exclusao = true;
+        for (Map.Entry<String, Object> campo : spec.entrySet()) {
+            if ((!campo.getKey().equals("_id") || spec.size() == 1) && !falso(campo.getValue())) {
+                exclusao = false;
+            }
+        }
+
+        if (exclusao) {
+            Document saida = BsonMemoria.copiar(doc);
+            for (String campo : spec.keySet()) {
+                removerCaminho(saida, campo);
+            }
+            return saida;
+        }
+
+        Document saida = new Document();
+        if (!spec.containsKey("_id") && doc.containsKey("_id")) {
+            saida.put("_id", doc.get("_id"));
+        }
+        for (Map.Entry<String, Object> campo : spec.entrySet()) {
+            Object valor = campo.getValue();
+            if (falso(valor)) {
+                continue;
+            }
+            if (verdadeiro(valor)) {
+                incluirCaminho(doc, saida, campo.getKey());
+            } else {
+                definirCaminho(saida, campo.getKey(), avaliar(valor, doc, Collections.emptyMap()));
+            }
+        }
+        return saida;
+    }
+
+    private static boolean falso(Object valor) {
+        return Boolean.FALSE.equals(valor) || (valor instanceof Number n && n.doubleValue() == 0);
+    }
+
+    private static boolean verdadeiro(Object valor) {
+        return Boolean.TRUE.equals(valor) || (valor instanceof Number n && n.doubleValue() != 0);
+    }
+
+    private static void incluirCaminho(Document origem, Document destino, String caminho) {
+        int ponto = caminho.indexOf('.');
+        if (ponto < 0) {
+            if (origem.containsKey(caminho)) {
+                destino.put(caminho, origem.get(caminho));
+            }
+            return;
+        }
+        String primeiro = caminho.substring(0, ponto);
+        String resto = caminho.substring(ponto + 1);
+        Object filho = origem.get(primeiro);
+        if (filho instanceof Document sub) {
+            Document alvo = destino.get(primeiro) instanceof Document d ? d : new Document();
+            incluirCaminho(sub, alvo, resto);
+            destino.put(primeiro, alvo);
+        } else if (filho instanceof List<?> lista) {
+            List<Object> alvo = new ArrayList<>();
+            for (Object item : lista) {
+                if (item instanceof Document sub) {
+                    Document parcial = new Document();
+                    incluirCaminho(sub, parcial, resto);
+                    alvo.add(parcial);
+                }
+            }
+            destino.put(primeiro, alvo);
+        }
+    }
+
+    private static void definirCaminho(Document destino, String caminho, Object valor) {
+        int ponto = caminho.indexOf('.');
+        if (ponto < 0) {
+            destino.put(caminho, valor);
+            return;
+        }
+        String primeiro = caminho.substring(0, ponto);
+        Document sub = destino.get(primeiro) instanceof Document d ? d : new Document();
+        destino.put(primeiro, sub);
+        definirCaminho(sub, caminho.substring(ponto + 1), valor);
+    }
+
+    private static void removerCaminho(Document doc, String caminho) {
+        int ponto = caminho.indexOf('.');
+        if (ponto < 0) {
+            doc.remove(caminho);
+        } else if (doc.get(caminho.substring(0, ponto)) instanceof Document sub) {
+            removerCaminho(sub, caminho.substring(ponto + 1));
+        }
+    }
+
+    private static List<Document> adicionarCampos(List<Document> docs, Document spec) {
+        for (Document doc : docs) {
+            Map<String, Object> valores = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> campo : spec.entrySet()) {
+                valores.put(campo.getKey(), avaliar(campo.getValue(), doc, Collections.emptyMap()));
+            }
+            valores.forEach((campo, valor) -> definirCaminho(doc, campo, valor));
+        }
+        return docs;
+    }
+
+    private static List<Document> remover(List<Document> docs, Object spec) {
+        List<?> campos = spec instanceof List<?> l ? l : List.of(spec);
+        for (Document doc : docs) {
+            for (Object campo : campos) {
+                removerCaminho(doc, (String) campo);
+            }
+        }
+        return docs;
+    }
+
+    private static List<Document> substituirRaiz(List<Document> docs, Object expressao) {
+        List<Document> saida = new ArrayList<>(docs.size());
+        for (Document doc : docs) {
+            Object raiz = avaliar(expressao, doc, Collections.emptyMap());
+            if (!(raiz instanceof Document d)) {
+                throw new IllegalArgumentException("newRoot precisa resultar em documento: " + raiz);
+            }
+            saida.add(d);
+        }
+        return saida;
+    }
+
+    // $lookup: hash join pelo campo estrangeiro, montado uma vez por execucao do estagio
+
+    private List<Document> lookup(List<Document> docs, Document spec) {
+        if (spec.containsKey("pipeline")) {
+            throw FiltroMemoria.naoSuportado("$lookup com pipeline");
+        }
+        String campoLocal = spec.getString("localField");
+        String campoEstrangeiro = spec.getString("foreignField");
+        String como = spec.getString("as");
+        ColecaoMemoria estrangeira = armazenamento.colecaoMemoria(spec.getString("from"));
+
+        Function<Object, List<Document>> porChave = estrangeira.juncao(campoEstrangeiro);
+
+        for (Document doc : docs) {
+            List<Object> chaves = BsonMemoria.chavesIndice(doc, campoLocal);
+            List<Document> encontrados = new ArrayList<>();
+            List<Document> jaIncluidos = chaves.size() > 1 ? new ArrayList<>() : null;
+            for (Object chave : chaves) {
+                for (Document estrangeiro : porChave.apply(chave)) {
+                    // com localField array, um documento estrangeiro entra uma vez so
+                    if (jaIncluidos != null) {
+                        if (jaIncluidos.stream().anyMatch(d -> d == estrangeiro)) continue;
+                        jaIncluidos.add(estrangeiro);
+                    }
+                    encontrados.add(BsonMemoria.copiar(estrangeiro));
+                }
+            }
+            definirCaminho(doc, como, encontrados);
+        }
+        return docs;
+    }
+
+    private static List<Document> unwind(List<Document> docs, Object spec) {
+        String caminho;
+        boolean preservar = false;
+        String campoIndice = null;
+        if (spec instanceof Document d) {
+            caminho = d.getString("path");
+            preservar = Boolean.TRUE.equals(d.getBoolean("preserveNullAndEmptyArrays"));
+            campoIndice = d.getString("includeArrayIndex");
+        } else {
+            caminho = (String) spec;
+        }
+        caminho = caminho.substring(1);
+
+        List<Document> saida = new ArrayList<>();
+        for (Document doc : docs) {
+            Object valor = BsonMemoria.valor(doc, caminho);
+            if (valor instanceof List<?> lista && !lista.isEmpty()) {
+                for (int i = 0; i < lista.size(); i++) {
+                    Document copia = i == lista.size() - 1 ? doc : BsonMemoria.copiar(doc);
+                    definirCaminho(copia, caminho, lista.get(i));
+                    if (campoIndice != null) {
+                        copia.put(campoIndice, (long) i);
+                    }
+                    saida.add(copia);
+                }
+            } else if (valor != null && !(valor instanceof List<?>)) {
+                if (campoIndice != null) {
+                    doc.put(campoIndice, null);
+                }
+                saida.add(doc);
+            } else if (preservar) {
+                if (campoIndice != null) {
+                    doc.put(campoIndice, null);
+                }
+                saida.add(doc);
+            }
+        }
+        return saida;
+    }
+
+    // $group
+
+    private static final class Grupo {
+        final Object id;
+        final Map<String, Object> acumulados = new LinkedHashMap<>();
+        final Map<String, Long> contagens = new HashMap<>();
+
+        Grupo(Object id) {
+            this.id = id;
+        }
+    }
+
+    private static List<Document> agrupar(List<Document> docs, Document spec) {
+        Map<Object, Grupo> grupos = new LinkedHashMap<>();
+        for (Document doc : docs) {
+            Object id = avaliar(spec.get("_id"), doc, Collections.emptyMap());
+            Grupo grupo = grupos.computeIfAbsent(chaveGrupo(id), k -> new Grupo(id));
+            for (Map.Entry<String, Object> campo : spec.entrySet()) {
+                if (campo.getKey().equals("_id")) {
+                    continue;
+                }
+                Document acumulador = (Document) campo.getValue();
+                String operador = acumulador.keySet().iterator().next();
+                Object valor = avaliar(acumulador.get(operador), doc, Collections.emptyMap());
+                acumular(grupo, campo.getKey(), operador, valor);
+            }
+        }
+
+        List<Document> saida = new ArrayList<>(grupos.size());
+        for (Grupo grupo : grupos.values()) {
+            Document doc = new Document("_id", grupo.id);
+            for (Map.Entry<String, Object> campo : spec.entrySet()) {
+                if (campo.getKey().equals("_id")) {
+                    continue;
+                }
+                String nome = campo.getKey();
+                String operador = ((Document) campo.getValue()).keySet().iterator().next();
+                Object valor = grupo.acumulados.get(nome);
+                if (operador.equals("$avg")) {
+                    long n = grupo.contagens.getOrDefault(nome, 0L);
+                    valor = n == 0 ? null : ((Number) valor).doubleValue() / n;
+                } else if (operador.equals("$sum") && valor == null) {
+                    valor = 0;
+                }
+                doc.put(nome, valor);
+            }
+            saida.add(doc);
+        }
+        return saida;
+    }
+
+    /**
+     * chave de agrupamento: valores iguais para o servidor (1 e 1.0) caem no mesmo grupo
+     */
+    private static Object chaveGrupo(Object id) {
+        if (id instanceof Document d) {
+            List<Object> partes = new ArrayList<>();
+            for (Map.Entry<String, Object> campo : d.entrySet()) {
+                partes.add(campo.getKey());
+                partes.add(chaveGrupo(campo.getValue()));
+            }
+            return partes;
+        }
+        return BsonMemoria.chave(id);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void acumular(Grupo grupo, String nome, String operador, Object valor) {
+        Map<String, Object> acumulados = grupo.acumulados;
+        switch (operador) {
+            case "$sum" -> {
+                if (valor instanceof Number n) {
+                    acumulados.put(nome, BsonMemoria.somar((Number) acumulados.get(nome), n));
+                }
+            }
+            case "$avg" -> {
+                if (valor instanceof Number n) {
+                    acumulados.put(nome, BsonMemoria.somar((Number) acumulados.get(nome), n.doubleValue()));
+                    grupo.contagens.merge(nome, 1L, Long::sum);
+                }
+            }
+            case "$min" -> {
+                if (valor != null && (!acumulados.containsKey(nome) || BsonMemoria.comparar(valor, acumulados.get(nome)) < 0)) {
+                    acumulados.put(nome, valor);
+                }
+            }
+            case "$max" -> {
+                if (valor != null && (!acumulados.containsKey(nome) || BsonMemoria.comparar(valor, acumulados.get(nome)) > 0)) {
+                    acumulados.put(nome, valor);
+                }
+            }
+            case "$first" -> acumulados.putIfAbsent(nome, valor);
+            case "$last" -> acumulados.put(nome, valor);
+            case "$push" -> ((List<Object>) acumulados.computeIfAbsent(nome, k -> new ArrayList<>())).add(valor);
+            case "$addToSet" -> {
+                List<Object> lista = (List<Object>) acumulados.computeIfAbsent(nome, k -> new ArrayList<>());
+                if (lista.stream().noneMatch(existente -> BsonMemoria.iguais(existente, valor))) {
+                    lista.add(valor);
+                }
+            }
+            default -> throw FiltroMemoria.naoSuportado(operador);
+        }
+    }
+
+    // $sort e ordenacao de find
+
+    static List<Document> ordenar(List<Document> docs, Document spec) {
+        docs.sort(comparador(spec));
+        return docs;
+    }
+
+    static Comparator<Document> comparador(Document spec) {
+        Comparator<Document> comparador = null;
+        for (Map.Entry<String, Object> campo : spec.entrySet()) {
+            String caminho = campo.getKey();
+            int direcao = ((Number) campo.getValue()).intValue() < 0 ? -1 : 1;
+            Comparator<Document> atual = (a, b) ->
+                direcao * BsonMemoria.comparar(BsonMemoria.valor(a, caminho), BsonMemoria.valor(b, caminho));
+            comparador = comparador == null ? atual : comparador.thenComparing(atual);
+        }
+        return comparador != null ? comparador : (a, b) -> 0;
+    }
+
+    // expressoes
+
+    /**
+     * avalia uma expressao de agregacao: "$campo", "$$variavel", {$operador: ...},
+     * documento literal com expressoes nos campos, array ou literal
+     */
+    static Object avaliar(Object expressao, Document doc, Map<String, Object> variaveis) {
+        if (expressao instanceof String s && s.startsWith("$")) {
+            if (s.startsWith("$$")) {
+                return variavel(s.substring(2), doc, variaveis);
+            }
+            return caminho(doc, s.substring(1));
+        }
+        if (expressao instanceof List<?> lista) {
+            List<Object> saida = new ArrayList<>(lista.size());
+            for (Object item : lista) {
+                saida.add(avaliar(item, doc, variaveis));
+            }
+            return saida;
+        }
+        if (expressao instanceof Document d) {
+            if (d.size() == 1 && d.keySet().iterator().next().startsWith("$")) {
+                String operador = d.keySet().iterator().next();
+                return operador(operador, d.get(operador), doc, variaveis);
+            }
+            Document saida = new Document();
+            for (Map.Entry<String, Object> campo : d.entrySet()) {
+                saida.put(campo.getKey(), avaliar(campo.getValue(), doc, variaveis));
+            }
+            return saida;
+        }
+        return expressao;
+    }
+
+    private static Object variavel(String referencia, Document doc, Map<String, Object> variaveis) {
+        int ponto = referencia.indexOf('.');
+        String nome = ponto < 0 ? referencia : referencia.substring(0, ponto);
+        Object valor = switch (nome) {
+            case "ROOT", "CURRENT" -> doc;
+            default -> {
+                if (!variaveis.containsKey(nome)) {
+                    throw new IllegalArgumentException("Variável não definida: $$" + nome);
+                }
+                yield variaveis.get(nome);
+            }
+        };
+        if (ponto < 0) {
+            return valor;
+        }
+        return valor instanceof Document d ? caminho(d, referencia.substring(ponto + 1)) : null;
+    }
+
+    /**
+     * "$a.b" em agregacao: atravessando um array, o resultado e o array dos valores
+     */
+    private static Object caminho(Object atual, String caminho) {
+        for (String parte : caminho.split("\\.")) {
+            if (atual instanceof Document d) {
+                atual = d.get(parte);
+            } else if (atual instanceof List<?> lista) {
+                List<Object> valores = new ArrayList<>();
+                for (Object item : lista) {
+                    if (item instanceof Document d && d.containsKey(parte)) {
+                        valores.add(d.get(parte));
+                    }
+                }
+                atual = valores;
+            } else {
+                return null;
+            }
+        }
+        return atual;
+    }
+
+    // operadores que avaliam os argumentos sob demanda; os demais recebem os argumentos ja avaliados
+    private static final Object ARGUMENTOS_AVALIADOS = new Object();
+
+    private static Object operador(String operador, Object arg, Document doc, Map<String, Object> variaveis) {
+        Object preguicoso = switch (operador) {
+            case "$literal" -> arg;
+            case "$filter" -> filtrarArray((Document) arg, doc, variaveis);
+            case "$map" -> mapearArray((Document) arg, doc, variaveis);
+            case "$cond" -> condicional(arg, doc, variaveis);
+            case "$ifNull" -> {
+                List<?> l = (List<?>) arg;
+                for (int i = 0; i < l.size() - 1; i++) {
+                    Object valor = avaliar(l.get(i), doc, variaveis);
+                    if (valor != null) yield valor;
+                }
+                yield avaliar(l.get(l.size() - 1), doc, variaveis);
+            }
+            case "$and" -> {
+                for (Object item : (List<?>) arg) {
+                    if (!verdadeiroExpr(avaliar(item, doc, variaveis))) yield false;
+                }
+                yield true;
+            }
+            case "$or" -> {
+                for (Object item : (List<?>) arg) {
+                    if (verdadeiroExpr(avaliar(item, doc, variaveis))) yield true;
+                }
+                yield false;
+            }
+            default -> ARGUMENTOS_AVALIADOS;
+        };
+        if (preguicoso != ARGUMENTOS_AVALIADOS) {
+            return preguicoso;
+        }
+
+        List<Object> args = argumentos(arg, doc, variaveis);
+        return switch (operador) {
+            case "$eq"  -> BsonMemoria.comparar(args.get(0), args.get(1)) == 0;
+            case "$ne"  -> BsonMemoria.comparar(args.get(0), args.get(1)) != 0;
+            case "$gt"  -> BsonMemoria.comparar(args.get(0), args.get(1)) > 0;
+            case "$gte" -> BsonMemoria.comparar(args.get(0), args.get(1)) >= 0;
+            case "$lt"  -> BsonMemoria.comparar(args.get(0), args.get(1)) < 0;
+            case "$lte" -> BsonMemoria.comparar(args.get(0), args.get(1)) <= 0;
+            case "$cmp" -> Integer.signum(BsonMemoria.comparar(args.get(0), args.get(1)));
+            case "$not" -> !verdadeiroExpr(args.get(0));
+            case "$in"  -> ((List<?>) args.get(1)).stream().anyMatch(x -> BsonMemoria.iguais(x, args.get(0)));
+            case "$size" -> {
+                if (!(args.get(0) instanceof List<?> lista)) {
+                    throw new IllegalArgumentException("$size exige um array, recebeu: " + args.get(0));
+                }
+                yield lista.size();
+            }
+            case "$arrayElemAt" -> {
+                List<?> lista = (List<?>) args.get(0);
+                if (lista == null) yield null;
+                int idx = ((Number) args.get(1)).intValue();
+                idx = idx < 0 ? lista.size() + idx : idx;
+                yield idx >= 0 && idx < lista.size() ? lista.get(idx) : null;
+            }
+            case "$first" -> args.get(0) instanceof List<?> l && !l.isEmpty() ? l.get(0) : null;
+            case "$last" -> args.get(0) instanceof List<?> l && !l.isEmpty() ? l.get(l.size() - 1) : null;
+            case "$sum", "$avg", "$min", "$max" -> agregarValores(operador, args.size() == 1 && args.get(0) instanceof List<?> l ? l : args);
+            case "$add" -> {
+                Number soma = 0;
+                Date data = null;
+                for (Object item : args) {
+                    if (item == null) yield null;
+                    if (item instanceof Date d) data = d;
+                    else soma = BsonMemoria.somar(soma, (Number) item);
+                }
+                yield data != null ? new Date(data.getTime() + soma.longValue()) : soma;
+            }
+            case "$subtract" -> {
+                Object a = args.get(0), b = args.get(1);
+                if (a == null || b == null) yield null;
+                if (a instanceof Date da && b instanceof Date db) yield da.getTime() - db.getTime();
+                if (a instanceof Date da) yield new Date(da.getTime() - ((Number) b).longValue());
+                yield BsonMemoria.somar((Number) a, BsonMemoria.multiplicar((Number) b, -1));
+            }
+            case "$multiply" -> {
+                Number produto = 1;
+                for (Object item : args) {
+                    if (item == null) yield null;
+                    produto = BsonMemoria.multiplicar(produto, (Number) item);
+                }
+                yield produto;
+            }
+            case "$divide" -> args.get(0) == null || args.get(1) == null ? null
+                : ((Number) args.get(0)).doubleValue() / ((Number) args.get(1)).doubleValue();
+            case "$mod" -> args.get(0) == null || args.get(1) == null ? null
+                : BsonMemoria.inteiro(args.get(0)) && BsonMemoria.inteiro(args.get(1))
+                    ? (Object) (((Number) args.get(0)).longValue() % ((Number) args.get(1)).longValue())
+                    : (Object) (((Number) args.get(0)).doubleValue() % ((Number) args.get(1)).doubleValue());
+            case "$round" -> {
+                if (args.get(0) == null) yield null;
+                int casas = args.size() > 1 ? ((Number) args.get(1)).intValue() : 0;
+                double fator = Math.pow(10, casas);
+                yield Math.round(((Number) args.get(0)).doubleValue() * fator) / fator;
+            }
+            case "$concat" -> {
+                StringBuilder sb = new StringBuilder();
+                for (Object item : args) {
+                    if (item == null) yield null;
+                    sb.append(item);
+                }
+                yield sb.toString();
+            }
+            case "$toLower" -> args.get(0) == null ? "" : args.get(0).toString().toLowerCase();
+            case "$toUpper" -> args.get(0) == null ? "" : args.get(0).toString().toUpperCase();
+            case "$year" -> data(args.get(0)).getYear();
+            case "$month" -> data(args.get(0)).getMonthValue();
+            case "$dayOfMonth" -> data(args.get(0)).getDayOfMonth();
+            case "$hour" -> data(args.get(0)).getHour();
+            case "$minute" -> data(args.get(0)).getMinute();
+            // $dayOfWeek vai de 1 (domingo) a 7 (sabado); $isoDayOfWeek de 1 (segunda) a 7 (domingo)
+            case "$dayOfWeek" -> data(args.get(0)).getDayOfWeek() == DayOfWeek.SUNDAY ? 1
+                                 : data(args.get(0)).getDayOfWeek().getValue() + 1;
+            case "$isoDayOfWeek" -> data(args.get(0)).getDayOfWeek().getValue();
+            case "$dateTrunc" -> truncarData((Document) args.get(0));
+            default -> throw FiltroMemoria.naoSuportado(operador);
+        };
+    }
+
+    private static Object filtrarArray(Document spec, Document doc, Map<String, Object> variaveis) {
+        Object entrada = avaliar(spec.get("input"), doc, variaveis);
+        if (entrada == null) return null;
+        String nome = spec.getString("as") != null ? spec.getString("as") : "this";
+        List<Object> saida = new ArrayList<>();
+        for (Object item : (List<?>) entrada) {
+            if (verdadeiroExpr(avaliar(spec.get("cond"), doc, com(variaveis, nome, item)))) {
+                saida.add(item);
+            }
+        }
+        return saida;
+    }
+
+    private static Object mapearArray(Document spec, Document doc, Map<String, Object> variaveis) {
+        Object entrada = avaliar(spec.get("input"), doc, variaveis);
+        if (entrada == null) return null;
+        String nome = spec.getString("as") != null ? spec.getString("as") : "this";
+        List<Object> saida = new ArrayList<>();
+        for (Object item : (List<?>) entrada) {
+            saida.add(avaliar(spec.get("in"), doc, com(variaveis, nome, item)));
+        }
+        return saida;
+    }
+
+    private static Object condicional(Object arg, Document doc, Map<String, Object> variaveis) {
+        Object se, entao, senao;
+        if (arg instanceof Document d) {
+            se = d.get("if");
+            entao = d.get("then");
+            senao = d.get("else");
+        } else {
+            List<?> l = (List<?>) arg;
+            se = l.get(0);
+            entao = l.get(1);
+            senao = l.get(2);
+        }
+        return avaliar(verdadeiroExpr(avaliar(se, doc, variaveis)) ? entao : senao, doc, variaveis);
+    }
+
+    private static List<Object> argumentos(Object arg, Document doc, Map<String, Object> variaveis) {
+        if (arg instanceof List<?> lista) {
+            List<Object> saida = new ArrayList<>(lista.size());
+            for (Object item : lista) {
+                saida.add(avaliar(item, doc, variaveis));
+            }
+            return saida;
+        }
+        List<Object> saida = new ArrayList<>(1);
+        saida.add(avaliar(arg, doc, variaveis));
+        return saida;
+    }
+
+    private static Object agregarValores(String operador, List<?> valores) {
+        Number soma = null;
+        Object extremo = null;
+        int n = 0;
+        for (Object valor : valores) {
+            if (valor instanceof Number numero) {
+                soma = BsonMemoria.somar(soma, numero);
+                n++;
+            }
+            if (valor != null && (extremo == null
+                    || (operador.equals("$min") && BsonMemoria.comparar(valor, extremo) < 0)
+                    || (operador.equals("$max") && BsonMemoria.comparar(valor, extremo) > 0))) {
+                extremo = valor;
+            }
+        }
+        return switch (operador) {
+            case "$sum" -> soma != null ? soma : 0;
+            case "$avg" -> n == 0 ? null : soma.doubleValue() / n;
+            default -> extremo;
+        };
+    }
+
+    /**
+     * argumento de operador de data: a data (em UTC) ou {date, timezone}
+     */
+    private static ZonedDateTime data(Object valor) {
+        if (valor instanceof Document spec) {
+            String fuso = spec.getString("timezone");
+            return data(spec.get("date")).withZoneSameInstant(fuso != null ? ZoneId.of(fuso) : ZoneOffset.UTC);
+        }
+        if (!(valor instanceof Date d)) {
+            throw new IllegalArgumentException("Operador de data exige uma data, recebeu: " + valor);
+        }
+        return Instant.ofEpochMilli(d.getTime()).atZone(ZoneOffset.UTC);
+    }
+
+    /**
+     * $dateTrunc {date, unit, binSize, timezone, startOfWeek}: inicio do intervalo que
+     * contem a data, no fuso pedido. binSize maior que 1 so para minute, hour e day,
+     * contado a partir de 2000-01-01 como no servidor
+     */
+    private static Date truncarData(Document spec) {
+        if (spec.get("date") == null) {
+            return null;
+        }
+        ZonedDateTime data = data(spec);
+        String unidade = spec.getString("unit");
+        long tamanho = spec.get("binSize") instanceof Number n ? n.longValue() : 1;
+        ZonedDateTime inicio = switch (unidade) {
+            case "year" -> data.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+            case "quarter" -> data.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1)
+                                  .withMonth((data.getMonthValue() - 1) / 3 * 3 + 1);
+            case "month" -> data.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+            case "week" -> {
+                String primeiro = spec.getString("startOfWeek");
+                DayOfWeek inicioSemana = primeiro == null ? DayOfWeek.SUNDAY : switch (primeiro.toLowerCase().substring(0, 3)) {
+                    case "mon" -> DayOfWeek.MONDAY;
+                    case "tue" -> DayOfWeek.TUESDAY;
+                    case "wed" -> DayOfWeek.WEDNESDAY;
+                    case "thu" -> DayOfWeek.THURSDAY;
+                    case "fri" -> DayOfWeek.FRIDAY;
+                    case "sat" -> DayOfWeek.SATURDAY;
+                    default -> DayOfWeek.SUNDAY;
+                };
+                yield data.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(inicioSemana));
+            }
+            case "day", "hour", "minute", "second" -> {
+                ChronoUnit passo = switch (unidade) {
+                    case "day" -> ChronoUnit.DAYS;
+                    case "hour" -> ChronoUnit.HOURS;
+                    case "minute" -> ChronoUnit.MINUTES;
+                    default -> ChronoUnit.SECONDS;
+                };
+                ZonedDateTime truncada = data.truncatedTo(passo);
+                if (tamanho > 1) {
+                    ZonedDateTime referencia = ZonedDateTime.of(2000, 1, 1, 0, 0, 0, 0, data.getZone());
+                    long unidades = passo.between(referencia, truncada);
+                    truncada = referencia.plus(Math.floorDiv(unidades, tamanho) * tamanho, passo);
+                }
+                yield truncada;
+            }
+            default -> throw FiltroMemoria.naoSuportado("$dateTrunc unit " + unidade);
+        };
+        if (tamanho > 1 && !List.of("day", "hour", "minute", "second").contains(unidade)) {
+            throw FiltroMemoria.naoSuportado("$dateTrunc binSize com unit " + unidade);
+        }
+        return Date.from(inicio.toInstant());
+    }
+
+    static boolean verdadeiroExpr(Object valor) {
+        if (valor == null || Boolean.FALSE.equals(valor)) return false;
+        if (valor instanceof Number n) return n.doubleValue() != 0;
+        return true;
+    }
+
+    private static Map<String, Object> com(Map<String, Object> variaveis, String nome, Object valor) {
+        Map<String, Object> novas = new HashMap<>(variaveis);
+        novas.put(nome, valor);
+        return novas;
+    }
+}
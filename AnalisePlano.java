@@ -0,0 +1,129 @@
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * leitura do resultado de um explain("executionStats"), tanto de find quanto de
+ * aggregate: estagios do plano vencedor, indices usados, documentos examinados
+ * versus retornados e varreduras feitas pelos $lookup do pipeline.
+ */
+public record AnalisePlano(List<String> estagios, List<String> indices,
+                           long examinados, long chaves, long retornados,
+                           long varredurasLookup) {
+
+    public static AnalisePlano de(Document explain) {
+        List<String> estagios = new ArrayList<>();
+        List<String> indices = new ArrayList<>();
+
+        Document planner = procurar(explain, "queryPlanner");
+        if (planner != null && planner.get("winningPlan") instanceof Document plano) {
+            // no motor SBE (6.0+) a arvore classica fica em winningPlan.queryPlan
+            percorrer(plano.get("queryPlan") instanceof Document qp ? qp : plano, estagios, indices);
+        }
+
+        Document stats = procurar(explain, "executionStats");
+        long examinados = stats != null ? numero(stats.get("totalDocsExamined")) : 0;
+        long chaves = stats != null ? numero(stats.get("totalKeysExamined")) : 0;
+        long retornados = stats != null ? numero(stats.get("nReturned")) : 0;
+
+        // no aggregate, cada $lookup informa quantas varreduras fez na collection estrangeira
+        long varredurasLookup = 0;
+        if (explain.get("stages") instanceof List<?> stages) {
+            for (Object stage : stages) {
+                if (stage instanceof Document d && d.containsKey("$lookup")) {
+                    varredurasLookup += numero(d.get("collectionScans"));
+                    for (Object usado : d.getList("indexesUsed", Object.class, List.of())) {
+                        indices.add("$lookup:" + usado);
+                    }
+                }
+            }
+            // o total retornado do pipeline e o nReturned do ultimo estagio
+            if (!stages.isEmpty() && stages.get(stages.size() - 1) instanceof Document ultimo
+                    && ultimo.containsKey("nReturned")) {
+                retornados = numero(ultimo.get("nReturned"));
+            }
+        }
+
+        return new AnalisePlano(estagios, indices, examinados, chaves, retornados, varredurasLookup);
+    }
+
+    public boolean varreduraCompleta() {
+        return estagios.contains("COLLSCAN");
+    }
+
+    public boolean ordenacaoEmMemoria() {
+        return estagios.contains("SORT");
+    }
+
+    /**
+     * documentos examinados por documento retornado
+     */
+    public double razaoExaminados() {
+        return (double) examinados / Math.max(1, retornados);
+    }
+
+    public String resumo() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("plano=").append(estagios.isEmpty() ? "?" : String.join(">", estagios));
+        sb.append(" | indice=").append(indices.isEmpty() ? "nenhum" : String.join(",", indices));
+        sb.append(" | examinados=").append(examinados)
+          .append(" chaves=").append(chaves)
+          .append(" retornados=").append(retornados);
+        if (varreduraCompleta()) {
+            sb.append(" | COLLSCAN");
+        }
+        if (ordenacaoEmMemoria()) {
+            sb.append(" | SORT em memória");
+        }
+        if (varredurasLookup > 0) {
+            sb.append(" | $lookup com ").append(varredurasLookup).append(" varredura(s)");
+        }
+        return sb.toString();
+    }
+
+    // helpers
+
+    private static void percorrer(Document estagio, List<String> estagios, List<String> indices) {
+        if (estagio == null) return;
+        estagios.add(estagio.getString("stage"));
+        if (estagio.getString("indexName") != null) {
+            indices.add(estagio.getString("indexName"));
+        }
+        if (estagio.get("inputStage") instanceof Document filho) {
+            percorrer(filho, estagios, indices);
+        }
+        if (estagio.get("inputStages") instanceof List<?> filhos) {
+            for (Object filho : filhos) {
+                if (filho instanceof Document d) {
+                    percorrer(d, estagios, indices);
+                }
+            }
+        }
+    }
+
+    /**
+     * busca em profundidade o primeiro subdocumento com o nome informado
+     */
+    private static Document procurar(Object valor, String chave) {
+        if (valor instanceof Document doc) {
+            if (doc.get(chave) instanceof Document encontrado) {
+                return encontrado;
+            }
+            for (Object filho : doc.values()) {
+                Document encontrado = procurar(filho, chave);
+                if (encontrado != null) return encontrado;
+            }
+        } else if (valor instanceof List<?> lista) {
+            for (Object filho : lista) {
+                Document encontrado = procurar(filho, chave);
+                if (encontrado != null) return encontrado;
+            }
+        }
+        return null;
+    }
+
+    private static long numero(Object valor) {
+        return valor instanceof Number n ? n.longValue() : 0;
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.function.Supplier;
+
+/**
+ * ponto de extensao do armazenamento: os CRUDs e relatorios so conhecem
+ * Armazenamento e Colecao. ha duas implementacoes, ArmazenamentoMongo (o banco
+ * real) e ArmazenamentoMemoria (tudo em memoria, para demonstracoes, testes de
+ * carga e benchmarks sem mongod). a escolhida vem de -Dacademia.armazenamento.
+ */
+public interface Armazenamento {
+
+    Colecao colecao(String nome);
+
+    /**
+     * contagens em cache das collections deste armazenamento
+     */
+    Estatisticas estatisticas();
+
+    /**
+     * descricao curta para mensagens (ex.: "MongoDB academia_bd", "memória")
+     */
+    String descricao();
+
+    void fechar();
+
+    /**
+     * executa o trabalho como uma unidade: no MongoDB, uma transacao multi-documento
+     * (quando o servidor aceita); em memoria, direto, sem isolamento entre collections.
+     * quem usa deve manter o trabalho idempotente para poder repeti-lo.
+     */
+    default <T> T transacao(Supplier<T> trabalho) {
+        return trabalho.get();
+    }
+
+    /**
+     * cria a collection como serie temporal (campoTempo, agrupada por campoMeta), se
+     * ainda nao existir. em memoria, e em servidores sem series temporais (< 5.0),
+     * a collection continua comum; as consultas sobre ela nao usam operadores do 5.0
+     * ($dateTrunc), entao sao as mesmas nos dois casos.
+     * @return true se a collection e (ou ja era) uma serie temporal
+     */
+    default boolean criarSerieTemporal(String nome, String campoTempo, String campoMeta) {
+        return false;
+    }
+
+    /**
+     * prepara o armazenamento para a primeira consulta (selecao de servidor, pool);
+     * chamado pela Inicializacao em segundo plano
+     */
+    default void aquecer() {
+    }
+
+    /**
+     * abre o armazenamento escolhido por -Dacademia.armazenamento=mongo|memoria (padrao mongo)
+     */
+    static Armazenamento abrir() {
+        String tipo = System.getProperty("academia.armazenamento", "mongo");
+        return switch (tipo) {
+            case "mongo"   -> new ArmazenamentoMongo(new Conexao());
+            case "memoria" -> new ArmazenamentoMemoria();
+            default -> throw new IllegalArgumentException("Armazenamento desconhecido: " + tipo + " (use mongo ou memoria)");
+        };
+    }
+}
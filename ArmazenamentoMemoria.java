@@ -0,0 +1,36 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * armazenamento inteiramente em memoria, sem mongod. as collections sao criadas
+ * no primeiro acesso, como no MongoDB, e os indices vem de Indices.garantir.
+ * os dados se perdem ao encerrar a aplicacao.
+ */
+public class ArmazenamentoMemoria implements Armazenamento {
+    private final ConcurrentHashMap<String, ColecaoMemoria> colecoes = new ConcurrentHashMap<>();
+    // a contagem em memoria ja e exata e O(1); sem cache nao ha o que invalidar
+    private final Estatisticas estatisticas = new Estatisticas(0);
+
+    @Override
+    public Colecao colecao(String nome) {
+        return colecaoMemoria(nome);
+    }
+
+    ColecaoMemoria colecaoMemoria(String nome) {
+        return colecoes.computeIfAbsent(nome, n -> new ColecaoMemoria(this, n));
+    }
+
+    @Override
+    public Estatisticas estatisticas() {
+        return estatisticas;
+    }
+
+    @Override
+    public String descricao() {
+        return "memória";
+    }
+
+    @Override
+    public void fechar() {
+        colecoes.clear();
+    }
+}
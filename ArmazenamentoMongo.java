@@ -0,0 +1,400 @@
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoServerException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoIterable;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * armazenamento no MongoDB: cada Colecao delega para a MongoCollection correspondente
+ */
+public class ArmazenamentoMongo implements Armazenamento {
+    // codigo 20 (IllegalOperation): transacoes exigem replica set ou mongos
+    private static final int SEM_SUPORTE_A_TRANSACOES = 20;
+    // codigo 48 (NamespaceExists): a collection ja existe
+    private static final int COLECAO_EXISTENTE = 48;
+
+    private final Conexao conexao;
+    private final MongoDatabase database;
+    private final Estatisticas estatisticas = new Estatisticas();
+    // sessao da transacao em curso nesta thread; as colecoes a usam em cada operacao
+    private final ThreadLocal<ClientSession> sessao = new ThreadLocal<>();
+    // collections escritas pela transacao em curso nesta thread
+    private final ThreadLocal<Set<String>> escritas = new ThreadLocal<>();
+    private volatile boolean semTransacoes;
+
+    public ArmazenamentoMongo(Conexao conexao) {
+        this.conexao = conexao;
+        this.database = conexao.getDatabase();
+    }
+
+    /**
+     * sobre um banco ja aberto; fechar() nao encerra a conexao
+     */
+    public ArmazenamentoMongo(MongoDatabase database) {
+        this.conexao = null;
+        this.database = database;
+    }
+
+    public MongoDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * conexao com monitor e detector de lentas, ou null se criado sobre um MongoDatabase
+     */
+    public Conexao getConexao() {
+        return conexao;
+    }
+
+    @Override
+    public Colecao colecao(String nome) {
+        return new ColecaoMongo(database.getCollection(nome), estatisticas, sessao, escritas);
+    }
+
+    @Override
+    public Estatisticas estatisticas() {
+        return estatisticas;
+    }
+
+    @Override
+    public String descricao() {
+        return "MongoDB " + database.getName();
+    }
+
+    /**
+     * ping seleciona o servidor e abre a primeira conexao; as demais ate o minimo do
+     * pool (Conexao) sao abertas pelo proprio driver em segundo plano
+     */
+    @Override
+    public void aquecer() {
+        database.runCommand(new Document("ping", 1));
+    }
+
+    /**
+     * create com a opcao timeseries (granularidade de minutos, ja que os relatorios
+     * agrupam por hora). uma collection existente fica como esta: se ja era serie
+     * temporal o create responde NamespaceExists; se era comum, continua comum.
+     */
+    @Override
+    public boolean criarSerieTemporal(String nome, String campoTempo, String campoMeta) {
+        try {
+            database.runCommand(new Document("create", nome)
+                .append("timeseries", new Document("timeField", campoTempo)
+                    .append("metaField", campoMeta)
+                    .append("granularity", "minutes")));
+            return true;
+        } catch (MongoCommandException e) {
+            if (e.getErrorCode() != COLECAO_EXISTENTE) {
+                // servidor sem series temporais: a collection e criada comum na primeira escrita
+                return false;
+            }
+            for (Document info : database.listCollections().filter(new Document("name", nome))) {
+                return "timeseries".equals(info.getString("type"));
+            }
+            return false;
+        }
+    }
+
+    /**
+     * executa o trabalho numa transacao multi-documento (withTransaction, que repete
+     * o trabalho em erros transitorios). sem cliente (criado sobre um MongoDatabase)
+     * ou num mongod standalone, que nao aceita transacoes, o trabalho roda sem
+     * transacao; o aviso aparece uma vez. o standalone responde IllegalOperation na
+     * primeira operacao da sessao, que pode ser um comando ou uma consulta.
+     */
+    @Override
+    public <T> T transacao(Supplier<T> trabalho) {
+        MongoClient cliente = conexao != null ? conexao.getClient() : null;
+        if (cliente == null || semTransacoes || sessao.get() != null) {
+            return trabalho.get();
+        }
+        try (ClientSession s = cliente.startSession()) {
+            sessao.set(s);
+            escritas.set(new HashSet<>());
+            try {
+                return s.withTransaction(trabalho::get);
+            } catch (MongoServerException e) {
+                if (e.getCode() != SEM_SUPORTE_A_TRANSACOES) {
+                    throw e;
+                }
+                semTransacoes = true;
+                System.out.println("Aviso: o servidor não aceita transações (standalone); executando sem transação.");
+            } finally {
+                sessao.remove();
+                // escritas de tentativas abortadas ja foram somadas aos totais em cache
+                escritas.get().forEach(estatisticas::invalidar);
+                escritas.remove();
+            }
+        }
+        return trabalho.get();
+    }
+
+    @Override
+    public void fechar() {
+        if (conexao != null) {
+            conexao.closeConnection();
+        }
+    }
+
+    static class ColecaoMongo implements Colecao {
+        private final MongoCollection<Document> collection;
+        // escritas mantem o total em cache em dia
+        private final Estatisticas estatisticas;
+        private final ThreadLocal<ClientSession> sessao;
+        private final ThreadLocal<Set<String>> escritas;
+
+        ColecaoMongo(MongoCollection<Document> collection, Estatisticas estatisticas, ThreadLocal<ClientSession> sessao,
+                     ThreadLocal<Set<String>> escritas) {
+            this.collection = collection;
+            this.estatisticas = estatisticas;
+            this.sessao = sessao;
+            this.escritas = escritas;
+        }
+
+        /**
+         * metodo auxiliar que soma a escrita ao total em cache; dentro de uma transacao
+         * anota a collection, cujo total e descartado quando a transacao termina
+         */
+        private void registrar(long delta) {
+            Set<String> daTransacao = escritas.get();
+            if (daTransacao != null) {
+                daTransacao.add(getNome());
+            }
+            estatisticas.registrar(getNome(), delta);
+        }
+
+        @Override
+        public String getNome() {
+            return collection.getNamespace().getCollectionName();
+        }
+
+        @Override
+        public Busca find() {
+            ClientSession s = sessao.get();
+            return new BuscaMongo(s != null ? collection.find(s) : collection.find());
+        }
+
+        @Override
+        public Busca find(Bson filtro) {
+            ClientSession s = sessao.get();
+            return new BuscaMongo(s != null ? collection.find(s, filtro) : collection.find(filtro));
+        }
+
+        @Override
+        public Resultados aggregate(List<? extends Bson> pipeline) {
+            ClientSession s = sessao.get();
+            return new ResultadosMongo(s != null ? collection.aggregate(s, pipeline) : collection.aggregate(pipeline));
+        }
+
+        @Override
+        public Resultados aggregate(List<? extends Bson> pipeline, long maxTimeMs) {
+            ClientSession s = sessao.get();
+            return new ResultadosMongo((s != null ? collection.aggregate(s, pipeline) : collection.aggregate(pipeline))
+                .maxTime(maxTimeMs, TimeUnit.MILLISECONDS));
+        }
+
+        @Override
+        public void insertOne(Document documento) {
+            ClientSession s = sessao.get();
+            if (s != null) {
+                collection.insertOne(s, documento);
+            } else {
+                collection.insertOne(documento);
+            }
+            registrar(1);
+        }
+
+        @Override
+        public void insertMany(List<Document> documentos, boolean ordenado) {
+            try {
+                InsertManyOptions opcoes = new InsertManyOptions().ordered(ordenado);
+                ClientSession s = sessao.get();
+                if (s != null) {
+                    collection.insertMany(s, documentos, opcoes);
+                } else {
+                    collection.insertMany(documentos, opcoes);
+                }
+            } catch (RuntimeException e) {
+                // insercao parcial: quantos entraram fica para a proxima leitura
+                estatisticas.invalidar(getNome());
+                throw e;
+            }
+            registrar(documentos.size());
+        }
+
+        @Override
+        public UpdateResult updateOne(Bson filtro, Bson atualizacao, UpdateOptions opcoes) {
+            ClientSession s = sessao.get();
+            UpdateResult resultado = s != null ? collection.updateOne(s, filtro, atualizacao, opcoes)
+                                               : collection.updateOne(filtro, atualizacao, opcoes);
+            if (resultado.wasAcknowledged() && resultado.getUpsertedId() != null) {
+                registrar(1);
+            }
+            return resultado;
+        }
+
+        @Override
+        public UpdateResult updateMany(Bson filtro, Bson atualizacao, UpdateOptions opcoes) {
+            ClientSession s = sessao.get();
+            UpdateResult resultado = s != null ? collection.updateMany(s, filtro, atualizacao, opcoes)
+                                               : collection.updateMany(filtro, atualizacao, opcoes);
+            if (resultado.wasAcknowledged() && resultado.getUpsertedId() != null) {
+                registrar(1);
+            }
+            return resultado;
+        }
+
+        @Override
+        public BulkWriteResult bulkWrite(List<? extends WriteModel<Document>> operacoes, boolean ordenado) {
+            BulkWriteResult resultado;
+            try {
+                BulkWriteOptions opcoes = new BulkWriteOptions().ordered(ordenado);
+                ClientSession s = sessao.get();
+                resultado = s != null ? collection.bulkWrite(s, operacoes, opcoes) : collection.bulkWrite(operacoes, opcoes);
+            } catch (RuntimeException e) {
+                estatisticas.invalidar(getNome());
+                throw e;
+            }
+            if (resultado.wasAcknowledged()) {
+                registrar(resultado.getInsertedCount() + resultado.getUpserts().size()
+                                                  - resultado.getDeletedCount());
+            }
+            return resultado;
+        }
+
+        @Override
+        public DeleteResult deleteOne(Bson filtro) {
+            ClientSession s = sessao.get();
+            DeleteResult resultado = s != null ? collection.deleteOne(s, filtro) : collection.deleteOne(filtro);
+            if (resultado.wasAcknowledged()) {
+                registrar(-resultado.getDeletedCount());
+            }
+            return resultado;
+        }
+
+        @Override
+        public DeleteResult deleteMany(Bson filtro) {
+            ClientSession s = sessao.get();
+            DeleteResult resultado = s != null ? collection.deleteMany(s, filtro) : collection.deleteMany(filtro);
+            if (resultado.wasAcknowledged()) {
+                registrar(-resultado.getDeletedCount());
+            }
+            return resultado;
+        }
+
+        @Override
+        public long countDocuments(Bson filtro) {
+            ClientSession s = sessao.get();
+            return s != null ? collection.countDocuments(s, filtro) : collection.countDocuments(filtro);
+        }
+
+        @Override
+        public long estimatedDocumentCount() {
+            return collection.estimatedDocumentCount();
+        }
+
+        @Override
+        public String createIndex(Bson chaves, IndexOptions opcoes) {
+            return collection.createIndex(chaves, opcoes);
+        }
+
+        @Override
+        public void drop() {
+            collection.drop();
+            estatisticas.invalidar(getNome());
+        }
+    }
+
+    static class ResultadosMongo implements Resultados {
+        private final MongoIterable<Document> iterable;
+
+        ResultadosMongo(MongoIterable<Document> iterable) {
+            this.iterable = iterable;
+        }
+
+        @Override
+        public Cursor iterator() {
+            MongoCursor<Document> cursor = iterable.iterator();
+            return new Cursor() {
+                @Override
+                public boolean hasNext() {
+                    return cursor.hasNext();
+                }
+
+                @Override
+                public Document next() {
+                    return cursor.next();
+                }
+
+                @Override
+                public void close() {
+                    cursor.close();
+                }
+            };
+        }
+
+        @Override
+        public Document first() {
+            return iterable.first();
+        }
+    }
+
+    static class BuscaMongo extends ResultadosMongo implements Busca {
+        private final FindIterable<Document> find;
+
+        BuscaMongo(FindIterable<Document> find) {
+            super(find);
+            this.find = find;
+        }
+
+        @Override
+        public Busca projection(Bson projecao) {
+            find.projection(projecao);
+            return this;
+        }
+
+        @Override
+        public Busca sort(Bson ordem) {
+            find.sort(ordem);
+            return this;
+        }
+
+        @Override
+        public Busca skip(int quantidade) {
+            find.skip(quantidade);
+            return this;
+        }
+
+        @Override
+        public Busca limit(int quantidade) {
+            find.limit(quantidade);
+            return this;
+        }
+
+        @Override
+        public Busca batchSize(int tamanho) {
+            find.batchSize(tamanho);
+            return this;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * separacao quente/frio: clientes inativos e funcionarios demitidos ha mais de N
+ * dias (-Dacademia.arquivo.dias, padrao 365) saem de clientes/funcionarios para
+ * clientes_arquivo/funcionarios_arquivo, para que listagens, indices e os $lookup
+ * dos relatorios so percorram os registros em uso.
+ *
+ * - em lotes: cada lote le ate LOTE documentos por _id e move numa transacao
+ *   (Armazenamento.transacao): replaceOne com upsert no arquivo, depois deleteMany
+ *   no original. o lote e idempotente, entao repetir um lote interrompido (ou rodar
+ *   sem transacao, num mongod standalone ou em memoria) nao duplica nem perde nada
+ * - clientes: status 0 com data_inativacao anterior ao corte. a data e gravada pelo
+ *   ClienteCRUD ao inativar; inativos antigos, sem a data, recebem a de hoje na
+ *   primeira execucao e so sao arquivados depois do prazo
+ * - funcionarios: data_demissao anterior ao corte, exceto os que ainda aparecem em
+ *   manutencoes (a listagem de manutencoes faz $lookup em funcionarios)
+ * - um registro restaurado (restaurado_em) so volta ao arquivo depois de outro prazo
+ *
+ * buscar() consulta as duas collections quando pedido, marcando os arquivados, e
+ * restaurar() devolve um registro para a collection quente.
+ */
+public class Arquivamento {
+    static final String SUFIXO = "_arquivo";
+    private static final int LOTE = 500;
+
+    private final Armazenamento armazenamento;
+    private final long idadeDias;
+
+    /**
+     * resultado de uma execucao, por collection
+     */
+    record Resultado(long clientes, long funcionarios, long funcionariosComManutencao) {
+    }
+
+    public Arquivamento(Armazenamento armazenamento) {
+        this(armazenamento, Long.getLong("academia.arquivo.dias", 365));
+    }
+
+    public Arquivamento(Armazenamento armazenamento, long idadeDias) {
+        this.armazenamento = armazenamento;
+        this.idadeDias = idadeDias;
+    }
+
+    /**
+     * filtro dos clientes arquivaveis, tambem registrado em ConsultasRegistradas
+     */
+    static Bson clientesArquivaveis(Date corte) {
+        return Filters.and(Filters.eq("status", 0), Filters.lt("data_inativacao", corte), naoRestaurado(corte));
+    }
+
+    static Bson funcionariosArquivaveis(Date corte) {
+        return Filters.and(Filters.lt("data_demissao", corte), naoRestaurado(corte));
+    }
+
+    private static Bson naoRestaurado(Date corte) {
+        return Filters.not(Filters.gte("restaurado_em", corte));
+    }
+
+    public Resultado executar() {
+        Date corte = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(idadeDias));
+        Colecao clientes = armazenamento.colecao("clientes");
+        clientes.updateMany(
+            Filters.and(Filters.eq("status", 0), Filters.exists("data_inativacao", false)),
+            Updates.set("data_inativacao", new Date()));
+
+        long clientesMovidos = mover(clientes, clientesArquivaveis(corte), null);
+        long[] comManutencao = new long[1];
+        long funcionariosMovidos = mover(armazenamento.colecao("funcionarios"), funcionariosArquivaveis(corte), comManutencao);
+        return new Resultado(clientesMovidos, funcionariosMovidos, comManutencao[0]);
+    }
+
+    /**
+     * move os documentos do filtro em lotes; retidos (so funcionarios) recebe quantos
+     * ficaram por ainda serem referenciados em manutencoes
+     */
+    private long mover(Colecao origem, Bson filtro, long[] retidos) {
+        Colecao destino = armazenamento.colecao(origem.getNome() + SUFIXO);
+        Colecao manutencoes = armazenamento.colecao("manutencoes");
+        long movidos = 0;
+        Object ultimoId = null;
+        while (!Thread.currentThread().isInterrupted()) {
+            Bson pagina = ultimoId != null ? Filters.and(filtro, Filters.gt("_id", ultimoId)) : filtro;
+            List<Document> lote = origem.find(pagina).sort(Sorts.ascending("_id")).limit(LOTE).into(new ArrayList<>());
+            if (lote.isEmpty()) {
+                break;
+            }
+            ultimoId = lote.get(lote.size() - 1).get("_id");
+
+            if (retidos != null) {
+                Set<Object> referenciados = new HashSet<>();
+                for (Document m : manutencoes.find(Filters.in("id_funcionario", ids(lote)))
+                                             .projection(Projections.include("id_funcionario"))) {
+                    referenciados.add(m.get("id_funcionario"));
+                }
+                int antes = lote.size();
+                lote.removeIf(doc -> referenciados.contains(doc.get("_id")));
+                retidos[0] += antes - lote.size();
+                if (lote.isEmpty()) {
+                    continue;
+                }
+            }
+
+            List<WriteModel<Document>> copias = new ArrayList<>(lote.size());
+            for (Document doc : lote) {
+                copias.add(new ReplaceOneModel<>(Filters.eq("_id", doc.get("_id")),
+                    new Document(doc).append("arquivado_em", new Date()), new ReplaceOptions().upsert(true)));
+            }
+            List<Object> ids = ids(lote);
+            movidos += armazenamento.transacao(() -> {
+                destino.bulkWrite(copias, false);
+                // o delete repete o filtro: quem mudou desde a leitura (ex.: reativado) fica
+                // no original, e a copia dele sai do arquivo
+                long apagados = origem.deleteMany(Filters.and(Filters.in("_id", ids), filtro)).getDeletedCount();
+                if (apagados < ids.size()) {
+                    destino.deleteMany(Filters.in("_id", ids(origem.find(Filters.in("_id", ids))
+                        .projection(Projections.include("_id")).into(new ArrayList<>()))));
+                }
+                return apagados;
+            });
+        }
+        return movidos;
+    }
+
+    private static List<Object> ids(List<Document> documentos) {
+        List<Object> ids = new ArrayList<>(documentos.size());
+        for (Document doc : documentos) {
+            ids.add(doc.get("_id"));
+        }
+        return ids;
+    }
+
+    /**
+     * busca na collection quente e, se pedido, tambem no arquivo; os arquivados vem
+     * com "arquivado": true
+     */
+    static List<Document> buscar(Armazenamento armazenamento, String colecao, Bson filtro, boolean incluirArquivados) {
+        List<Document> resultados = armazenamento.colecao(colecao).find(filtro).into(new ArrayList<>());
+        if (incluirArquivados) {
+            for (Document doc : armazenamento.colecao(colecao + SUFIXO).find(filtro)) {
+                resultados.add(doc.append("arquivado", true));
+            }
+        }
+        return resultados;
+    }
+
+    /**
+     * devolve um registro arquivado para a collection quente, na mesma transacao em
+     * que o remove do arquivo
+     */
+    static boolean restaurar(Armazenamento armazenamento, String colecao, Object id) {
+        Colecao origem = armazenamento.colecao(colecao + SUFIXO);
+        Colecao destino = armazenamento.colecao(colecao);
+        return armazenamento.transacao(() -> {
+            Document doc = origem.find(Filters.eq("_id", id)).first();
+            if (doc == null) {
+                return false;
+            }
+            doc.remove("arquivado_em");
+            doc.put("restaurado_em", new Date());
+            destino.bulkWrite(List.of(new ReplaceOneModel<>(Filters.eq("_id", id), doc, new ReplaceOptions().upsert(true))), true);
+            origem.deleteOne(Filters.eq("_id", id));
+            return true;
+        });
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+        long dias = Long.getLong("academia.arquivo.dias", 365);
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"   -> uri = args[++i];
+                case "--banco" -> banco = args[++i];
+                case "--dias"  -> dias = Long.parseLong(args[++i]);
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Armazenamento armazenamento = new ArmazenamentoMongo(new Conexao(uri, banco));
+        try {
+            Indices.garantir(armazenamento);
+            Resultado resultado = new Arquivamento(armazenamento, dias).executar();
+            System.out.printf("Arquivados: %d cliente(s), %d funcionário(s); %d funcionário(s) mantidos por manutenções%n",
+                resultado.clientes(), resultado.funcionarios(), resultado.funcionariosComManutencao());
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * aplicacao de operadores de update sobre um documento em memoria.
+ * suporta $set $unset $inc $mul $min $max $push ($each) $addToSet ($each)
+ * $pull $pullAll $currentDate e $setOnInsert, com caminhos com ponto,
+ * indice numerico, $[] e $[identificador] com arrayFilters.
+ */
+final class AtualizacaoMemoria {
+    private final Document atualizacao;
+    private final List<Document> filtrosArray;
+
+    AtualizacaoMemoria(Document atualizacao, List<Document> filtrosArray) {
+        this.atualizacao = atualizacao;
+        this.filtrosArray = filtrosArray != null ? filtrosArray : Collections.emptyList();
+        for (String operador : atualizacao.keySet()) {
+            if (!operador.startsWith("$")) {
+                throw new IllegalArgumentException("Update inválido: documento de substituição em vez de operadores");
+            }
+        }
+    }
+
+    /**
+     * uma posicao dentro do documento: campo de um subdocumento ou elemento de um array
+     */
+    private interface Posicao {
+        Object get();
+        boolean existe();
+        void set(Object valor);
+        void remover();
+    }
+
+    private interface Acao {
+        void aplicar(Posicao posicao, Object argumento);
+    }
+
+    /**
+     * aplica o update em doc (alterando-o); inserindo=true tambem aplica $setOnInsert
+     */
+    void aplicar(Document doc, boolean inserindo) {
+        for (Map.Entry<String, Object> entrada : atualizacao.entrySet()) {
+            String operador = entrada.getKey();
+            Document campos = (Document) entrada.getValue();
+            Acao acao = switch (operador) {
+                case "$set" -> (p, v) -> p.set(BsonMemoria.copiar(v));
+                case "$setOnInsert" -> inserindo ? (p, v) -> p.set(BsonMemoria.copiar(v)) : null;
+                case "$unset" -> (p, v) -> p.remover();
+                case "$inc" -> (p, v) -> p.set(BsonMemoria.somar(numero(p), (Number) v));
+                case "$mul" -> (p, v) -> p.set(p.existe() ? BsonMemoria.multiplicar(numero(p), (Number) v)
+                                                          : BsonMemoria.multiplicar(0, (Number) v));
+                case "$min" -> (p, v) -> {
+                    if (!p.existe() || BsonMemoria.comparar(v, p.get()) < 0) p.set(BsonMemoria.copiar(v));
+                };
+                case "$max" -> (p, v) -> {
+                    if (!p.existe() || BsonMemoria.comparar(v, p.get()) > 0) p.set(BsonMemoria.copiar(v));
+                };
+                case "$currentDate" -> (p, v) -> p.set(new Date());
+                case "$push" -> (p, v) -> {
+                    List<Object> lista = lista(p);
+                    for (Object item : cada(v)) {
+                        lista.add(BsonMemoria.copiar(item));
+                    }
+                };
+                case "$addToSet" -> (p, v) -> {
+                    List<Object> lista = lista(p);
+                    for (Object item : cada(v)) {
+                        if (lista.stream().noneMatch(existente -> BsonMemoria.iguais(existente, item))) {
+                            lista.add(BsonMemoria.copiar(item));
+                        }
+                    }
+                };
+                case "$pull" -> (p, v) -> {
+                    if (p.get() instanceof List<?> lista) {
+                        lista.removeIf(item -> removivel(item, v));
+                    }
+                };
+                case "$pullAll" -> (p, v) -> {
+                    if (p.get() instanceof List<?> lista) {
+                        lista.removeIf(item -> ((List<?>) v).stream().anyMatch(x -> BsonMemoria.iguais(item, x)));
+                    }
+                };
+                default -> throw FiltroMemoria.naoSuportado(operador);
+            };
+            if (acao == null) {
+                continue;
+            }
+            for (Map.Entry<String, Object> campo : campos.entrySet()) {
+                String[] partes = campo.getKey().split("\\.");
+                percorrer(doc, partes, 0, acao, campo.getValue(), criaCaminho(operador));
+            }
+        }
+    }
+
+    private static boolean criaCaminho(String operador) {
+        return !operador.equals("$unset") && !operador.equals("$pull") && !operador.equals("$pullAll");
+    }
+
+    private void percorrer(Object alvo, String[] partes, int i, Acao acao, Object argumento, boolean criar) {
+        String parte = partes[i];
+        boolean ultimo = i == partes.length - 1;
+
+        if (alvo instanceof Document doc) {
+            if (ultimo) {
+                acao.aplicar(campo(doc, parte), argumento);
+                return;
+            }
+            Object filho = doc.get(parte);
+            if (filho == null && criar) {
+                filho = new Document();
+                doc.put(parte, filho);
+            }
+            if (filho != null) {
+                percorrer(filho, partes, i + 1, acao, argumento, criar);
+            }
+        } else if (alvo instanceof List<?> bruto) {
+            @SuppressWarnings("unchecked")
+            List<Object> lista = (List<Object>) bruto;
+            if (parte.equals("$[]") || (parte.startsWith("$[") && parte.endsWith("]"))) {
+                String identificador = parte.substring(2, parte.length() - 1);
+                for (int idx = 0; idx < lista.size(); idx++) {
+                    if (identificador.isEmpty() || elementoSelecionado(identificador, lista.get(idx))) {
+                        seguirElemento(lista, idx, partes, i, acao, argumento, criar);
+                    }
+                }
+            } else if (BsonMemoria.indice(parte) >= 0) {
+                int idx = BsonMemoria.indice(parte);
+                while (criar && lista.size() <= idx) {
+                    lista.add(null);
+                }
+                if (idx < lista.size()) {
+                    seguirElemento(lista, idx, partes, i, acao, argumento, criar);
+                }
+            } else {
+                throw new IllegalArgumentException("Caminho inválido em array: " + String.join(".", partes));
+            }
+        }
+    }
+
+    private void seguirElemento(List<Object> lista, int idx, String[] partes, int i, Acao acao,
+                                Object argumento, boolean criar) {
+        if (i == partes.length - 1) {
+            acao.aplicar(elemento(lista, idx), argumento);
+        } else {
+            Object filho = lista.get(idx);
+            if (filho == null && criar) {
+                filho = new Document();
+                lista.set(idx, filho);
+            }
+            if (filho != null) {
+                percorrer(filho, partes, i + 1, acao, argumento, criar);
+            }
+        }
+    }
+
+    /**
+     * verifica se o elemento atende aos arrayFilters do identificador ($[func] -> {"func.status": 1})
+     */
+    private boolean elementoSelecionado(String identificador, Object elemento) {
+        Document envelope = new Document(identificador, elemento);
+        boolean algumFiltro = false;
+        for (Document filtro : filtrosArray) {
+            String primeira = filtro.keySet().iterator().next();
+            if (primeira.equals(identificador) || primeira.startsWith(identificador + ".")) {
+                algumFiltro = true;
+                if (!FiltroMemoria.corresponde(envelope, filtro)) {
+                    return false;
+                }
+            }
+        }
+        if (!algumFiltro) {
+            throw new IllegalArgumentException("Nenhum arrayFilter para o identificador " + identificador);
+        }
+        return true;
+    }
+
+    private static boolean removivel(Object item, Object criterio) {
+        if (criterio instanceof Document condicao && !condicao.isEmpty()) {
+            if (FiltroMemoria.ehOperadores(condicao)) {
+                return FiltroMemoria.campo(Collections.singletonList(item), condicao);
+            }
+            return item instanceof Document d && FiltroMemoria.corresponde(d, condicao);
+        }
+        return BsonMemoria.iguais(item, criterio);
+    }
+
+    private static List<?> cada(Object valor) {
+        if (valor instanceof Document d && d.containsKey("$each")) {
+            return (List<?>) d.get("$each");
+        }
+        return Collections.singletonList(valor);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> lista(Posicao posicao) {
+        Object atual = posicao.get();
+        if (atual == null) {
+            List<Object> nova = new ArrayList<>();
+            posicao.set(nova);
+            return nova;
+        }
+        if (!(atual instanceof List<?>)) {
+            throw new IllegalArgumentException("O campo não é um array: " + atual);
+        }
+        return (List<Object>) atual;
+    }
+
+    private static Number numero(Posicao posicao) {
+        Object atual = posicao.get();
+        if (atual == null) {
+            return 0;
+        }
+        if (!(atual instanceof Number n)) {
+            throw new IllegalArgumentException("O campo não é numérico: " + atual);
+        }
+        return n;
+    }
+
+    private static Posicao campo(Document doc, String nome) {
+        return new Posicao() {
+            public Object get() { return doc.get(nome); }
+            public boolean existe() { return doc.containsKey(nome); }
+            public void set(Object valor) { doc.put(nome, valor); }
+            public void remover() { doc.remove(nome); }
+        };
+    }
+
+    private static Posicao elemento(List<Object> lista, int idx) {
+        return new Posicao() {
+            public Object get() { return lista.get(idx); }
+            public boolean existe() { return true; }
+            public void set(Object valor) { lista.set(idx, valor); }
+            // $unset em elemento de array deixa null no lugar, como no servidor
+            public void remover() { lista.set(idx, null); }
+        };
+    }
+}
@@ -0,0 +1,507 @@
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * suite de benchmarks das operacoes de dados dos CRUDs e dos relatorios.
+ * mede vazao, percentis de latencia e alocacao por operacao, para comparar
+ * mudancas de forma objetiva. no MongoDB, rode depois de popular o banco com o
+ * GeradorDados; com --armazenamento memoria a carga e gerada em memoria antes
+ * das medicoes (--clientes), sem precisar de mongod.
+ *
+ * uso: java -cp ".:lib/*" Benchmarks [--aquecimento 200] [--medicoes 2000]
+ *      [--medicoes-relatorio 20] [--uri mongodb://...] [--banco academia_bd]
+ *      [--armazenamento mongo|memoria] [--clientes 10000] [--concorrencia 64]
+ */
+public class Benchmarks {
+    private static final String COLECAO_INSERCAO = "bench_clientes";
+
+    // evita que o JIT elimine o trabalho medido
+    private static long consumo;
+
+    private final Armazenamento armazenamento;
+    private final int aquecimento;
+    private final int medicoes;
+    private final int medicoesRelatorio;
+    private final int concorrencia;
+    private final List<Resultado> resultados = new ArrayList<>();
+
+    public Benchmarks(Armazenamento armazenamento, int aquecimento, int medicoes, int medicoesRelatorio,
+                      int concorrencia) {
+        this.armazenamento = armazenamento;
+        this.aquecimento = aquecimento;
+        this.medicoes = medicoes;
+        this.medicoesRelatorio = medicoesRelatorio;
+        this.concorrencia = concorrencia;
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+        int aquecimento = 200;
+        int medicoes = 2000;
+        int medicoesRelatorio = 20;
+        String tipo = "mongo";
+        long clientes = 10_000;
+        int concorrencia = 64;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"                -> uri = args[++i];
+                case "--banco"              -> banco = args[++i];
+                case "--aquecimento"        -> aquecimento = Integer.parseInt(args[++i]);
+                case "--medicoes"           -> medicoes = Integer.parseInt(args[++i]);
+                case "--medicoes-relatorio" -> medicoesRelatorio = Integer.parseInt(args[++i]);
+                case "--armazenamento"      -> tipo = args[++i];
+                case "--clientes"           -> clientes = Long.parseLong(args[++i]);
+                case "--concorrencia"       -> concorrencia = Integer.parseInt(args[++i]);
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Armazenamento armazenamento;
+        if (tipo.equals("memoria")) {
+            armazenamento = new ArmazenamentoMemoria();
+            Indices.garantir(armazenamento);
+            new GeradorDados(armazenamento, clientes, 42, Runtime.getRuntime().availableProcessors(), 1000).gerarTudo();
+        } else {
+            armazenamento = new ArmazenamentoMongo(new Conexao(uri, banco));
+        }
+        try {
+            System.out.println("Armazenamento: " + armazenamento.descricao());
+            Benchmarks benchmarks = new Benchmarks(armazenamento, aquecimento, medicoes, medicoesRelatorio, concorrencia);
+            benchmarks.executarTodos();
+            benchmarks.imprimir();
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+
+    public void executarTodos() {
+        Colecao clientes = armazenamento.colecao("clientes");
+
+        // amostra de ids e nomes usada pelas buscas
+        List<ObjectId> ids = new ArrayList<>();
+        List<String> nomes = new ArrayList<>();
+        for (Document doc : clientes.find().projection(Projections.include("nome")).limit(1000)) {
+            ids.add(doc.getObjectId("_id"));
+            nomes.add(doc.getString("nome").split(" ")[0]);
+        }
+
+        benchmarkInsercao();
+
+        if (ids.isEmpty()) {
+            System.out.println("Collection 'clientes' vazia: rode o GeradorDados para medir buscas e relatórios.");
+        } else {
+            medir("cliente.buscarPorId", aquecimento, medicoes, i -> {
+                Document doc = clientes.find(Filters.eq("_id", ids.get(i % ids.size()))).first();
+                return doc != null ? 1 : 0;
+            });
+
+            medir("cliente.buscarPorNome", aquecimento, medicoes / 10, i -> {
+                List<Document> encontrados = new ArrayList<>();
+                clientes.find(Filters.regex("nome", ".*" + nomes.get(i % nomes.size()) + ".*", "i"))
+                        .limit(100)
+                        .into(encontrados);
+                return encontrados.size();
+            });
+
+            benchmarkListagem(clientes);
+            benchmarkRenderizacao(clientes);
+            benchmarkAssincrono(clientes, ids);
+        }
+
+        medir("relatorio.clientesPorPlano", 2, medicoesRelatorio,
+            i -> contar(armazenamento.colecao("planos").aggregate(Relatorios.pipelineClientesPorPlano()).iterator()));
+        medir("relatorio.manutencoesPendentes", 2, medicoesRelatorio,
+            i -> contar(armazenamento.colecao("manutencoes").aggregate(Relatorios.pipelineManutencoesPendentes()).iterator()));
+        medir("relatorio.funcionariosAtivosPorCargo", 2, medicoesRelatorio,
+            i -> contar(armazenamento.colecao("cargos").aggregate(Relatorios.pipelineFuncionariosAtivosPorCargo()).iterator()));
+        // os tres relatorios em paralelo: deve ficar perto do mais lento, nao da soma
+        Relatorios relatorios = new Relatorios(armazenamento, null);
+        medir("relatorio.painel", 2, medicoesRelatorio, i -> relatorios.executarTodos().size());
+
+        benchmarkDecodificacao(ids.isEmpty() ? null : clientes.find(Filters.eq("_id", ids.get(0))).first());
+    }
+
+    private void benchmarkInsercao() {
+        Colecao destino = armazenamento.colecao(COLECAO_INSERCAO);
+        destino.drop();
+        try {
+            medir("cliente.inserir", aquecimento, medicoes, i -> {
+                destino.insertOne(clienteSintetico(i));
+                return 1;
+            });
+        } finally {
+            destino.drop();
+        }
+    }
+
+    /**
+     * listagem de 1000 documentos por operacao; no MongoDB tambem compara a
+     * decodificacao para Document, para RawBsonDocument e para um codec especifico
+     */
+    private void benchmarkListagem(Colecao clientes) {
+        medir("cliente.listar[Document]", 5, medicoes / 20,
+            i -> contar(clientes.find().limit(1000).iterator()));
+
+        if (!(armazenamento instanceof ArmazenamentoMongo mongo)) {
+            return;
+        }
+        MongoCollection<Document> colecao = mongo.getDatabase().getCollection(clientes.getNome());
+        MongoCollection<RawBsonDocument> brutos = colecao.withDocumentClass(RawBsonDocument.class);
+        medir("cliente.listar[RawBson]", 5, medicoes / 20,
+            i -> contar(brutos.find().limit(1000).iterator()));
+
+        CodecRegistry registro = CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(new ClienteResumoCodec()),
+            MongoClientSettings.getDefaultCodecRegistry());
+        MongoCollection<ClienteResumo> resumos = colecao
+            .withCodecRegistry(registro)
+            .withDocumentClass(ClienteResumo.class);
+        medir("cliente.listar[Codec]", 5, medicoes / 20,
+            i -> contar(resumos.find().limit(1000).iterator()));
+    }
+
+    /**
+     * formatacao de uma pagina de 1000 clientes ja lidos, sem o banco: printf linha a
+     * linha com SimpleDateFormat (como as listagens faziam) contra a Tabela. a saida
+     * vai para um stream descartavel, entao mede so formatacao e escrita.
+     */
+    private void benchmarkRenderizacao(Colecao clientes) {
+        List<Document> pagina = clientes.find().limit(1000).into(new ArrayList<>());
+        PrintStream descarte = new PrintStream(OutputStream.nullOutputStream());
+
+        medir("cliente.renderizar[printf]", 5, medicoes / 20, i -> {
+            SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
+            for (Document c : pagina) {
+                descarte.printf("ID: %s | Nome: %s | Nascimento: %s | Adesão: %s | Status: %s\n",
+                    c.getObjectId("_id").toString(),
+                    c.getString("nome"),
+                    sdf.format(c.getDate("data_nascimento")),
+                    sdf.format(c.getDate("data_adesao")),
+                    c.getInteger("status") == 1 ? "Ativo" : "Inativo");
+            }
+            return pagina.size();
+        });
+
+        medir("cliente.renderizar[Tabela]", 5, medicoes / 20, i -> {
+            Tabela tabela = new Tabela(descarte, "CLIENTES",
+                Tabela.coluna("ID", 24), Tabela.coluna("Nome", 30), Tabela.coluna("Nascimento", 10),
+                Tabela.coluna("Adesão", 10), Tabela.coluna("Status", 0)).cabecalho();
+            for (Document c : pagina) {
+                tabela.texto(c.getObjectId("_id").toHexString())
+                      .texto(c.getString("nome"))
+                      .data(c.getDate("data_nascimento"))
+                      .data(c.getDate("data_adesao"))
+                      .texto(c.getInteger("status") == 1 ? "Ativo" : "Inativo")
+                      .fimLinha();
+            }
+            tabela.fechar();
+            return (int) tabela.getLinhas();
+        });
+    }
+
+    /**
+     * caminho sincrono contra o RepositorioAssincrono: lotes de leituras independentes
+     * por _id, uma pagina de 100 clientes com telefone e plano resolvidos (o que a
+     * listagem de clientes faz) e a listagem transmitida por Flow com contrapressao
+     */
+    private void benchmarkAssincrono(Colecao clientes, List<ObjectId> ids) {
+        try (RepositorioAssincrono repositorio = new RepositorioAssincrono(armazenamento, concorrencia)) {
+            medir("cliente.lote" + concorrencia + "PorId[sync]", aquecimento / 10, medicoes / 10, i -> {
+                int encontrados = 0;
+                for (int j = 0; j < concorrencia; j++) {
+                    if (clientes.find(Filters.eq("_id", ids.get((i * concorrencia + j) % ids.size()))).first() != null) {
+                        encontrados++;
+                    }
+                }
+                return encontrados;
+            });
+
+            medir("cliente.lote" + concorrencia + "PorId[async]", aquecimento / 10, medicoes / 10, i -> {
+                List<CompletableFuture<Document>> futuros = new ArrayList<>(concorrencia);
+                for (int j = 0; j < concorrencia; j++) {
+                    futuros.add(repositorio.buscarPorId("clientes", ids.get((i * concorrencia + j) % ids.size())));
+                }
+                int encontrados = 0;
+                for (CompletableFuture<Document> futuro : futuros) {
+                    if (futuro.join() != null) {
+                        encontrados++;
+                    }
+                }
+                return encontrados;
+            });
+
+            Colecao telefones = armazenamento.colecao("telefones");
+            Colecao planos = armazenamento.colecao("planos");
+            medir("cliente.paginaDetalhada[sync]", 5, medicoes / 20, i -> {
+                int n = 0;
+                for (Document c : clientes.find().skip((i * 100) % Math.max(1, ids.size())).limit(100)) {
+                    Document telefone = c.get("id_telefone") != null
+                        ? telefones.find(Filters.eq("_id", c.get("id_telefone"))).first() : null;
+                    Document plano = c.get("id_plano") != null
+                        ? planos.find(Filters.eq("_id", c.get("id_plano"))).first() : null;
+                    n += (telefone != null ? 1 : 0) + (plano != null ? 1 : 0);
+                }
+                return n;
+            });
+
+            medir("cliente.paginaDetalhada[async]", 5, medicoes / 20, i -> {
+                List<Document> pagina = clientes.find().skip((i * 100) % Math.max(1, ids.size())).limit(100)
+                    .into(new ArrayList<>());
+                int n = 0;
+                for (Document c : repositorio.detalharClientes(pagina).join()) {
+                    n += (c.get("telefone") != null ? 1 : 0) + (c.get("plano") != null ? 1 : 0);
+                }
+                return n;
+            });
+
+            medir("cliente.listar[Flow]", 5, medicoes / 20, i -> consumir(
+                repositorio.transmitir("clientes", new Document(), 100), 100, 1000));
+        }
+    }
+
+    /**
+     * assina o publisher pedindo lotes de n e cancela ao atingir o maximo; devolve quantos recebeu
+     */
+    private static int consumir(Flow.Publisher<Document> publicador, int lote, int maximo) throws Exception {
+        CompletableFuture<Integer> fim = new CompletableFuture<>();
+        publicador.subscribe(new Flow.Subscriber<Document>() {
+            private Flow.Subscription assinatura;
+            private int recebidos;
+
+            @Override
+            public void onSubscribe(Flow.Subscription assinatura) {
+                this.assinatura = assinatura;
+                assinatura.request(lote);
+            }
+
+            @Override
+            public void onNext(Document doc) {
+                recebidos++;
+                if (recebidos >= maximo) {
+                    assinatura.cancel();
+                    fim.complete(recebidos);
+                } else if (recebidos % lote == 0) {
+                    assinatura.request(lote);
+                }
+            }
+
+            @Override
+            public void onError(Throwable erro) {
+                fim.completeExceptionally(erro);
+            }
+
+            @Override
+            public void onComplete() {
+                fim.complete(recebidos);
+            }
+        });
+        return fim.get(60, TimeUnit.SECONDS);
+    }
+
+    /**
+     * decodificacao pura em memoria, sem rede: o mesmo documento BSON decodificado
+     * como Document e pelo codec especifico
+     */
+    private void benchmarkDecodificacao(Document amostra) {
+        Document doc = amostra != null ? amostra : clienteSintetico(0).append("_id", new ObjectId());
+        RawBsonDocument bruto = new RawBsonDocument(doc, new DocumentCodec());
+        DocumentCodec documentCodec = new DocumentCodec();
+        ClienteResumoCodec resumoCodec = new ClienteResumoCodec();
+        DecoderContext contexto = DecoderContext.builder().build();
+
+        medir("decodificar[Document]", 10_000, medicoes * 50, i -> {
+            BsonReader reader = new BsonBinaryReader(bruto.getByteBuffer().asNIO());
+            return documentCodec.decode(reader, contexto).size();
+        });
+
+        medir("decodificar[Codec]", 10_000, medicoes * 50, i -> {
+            BsonReader reader = new BsonBinaryReader(bruto.getByteBuffer().asNIO());
+            return resumoCodec.decode(reader, contexto).nome().length();
+        });
+    }
+
+    // infraestrutura de medicao
+
+    interface Operacao {
+        /**
+         * executa uma operacao e retorna quantos documentos ela processou
+         */
+        int executar(int iteracao) throws Exception;
+    }
+
+    record Resultado(String nome, int operacoes, long documentos, double segundos,
+                     long[] latenciasOrdenadas, long bytesAlocados) {
+        double opsPorSegundo() { return operacoes / segundos; }
+        double docsPorSegundo() { return documentos / segundos; }
+        long bytesPorOperacao() { return bytesAlocados < 0 ? -1 : bytesAlocados / Math.max(1, operacoes); }
+
+        double percentilMicros(double p) {
+            int idx = (int) Math.ceil(p / 100.0 * latenciasOrdenadas.length) - 1;
+            return latenciasOrdenadas[Math.max(0, Math.min(idx, latenciasOrdenadas.length - 1))] / 1000.0;
+        }
+    }
+
+    private void medir(String nome, int aquecimento, int medicoes, Operacao operacao) {
+        medicoes = Math.max(1, medicoes);
+        try {
+            for (int i = 0; i < aquecimento; i++) {
+                consumo += operacao.executar(i);
+            }
+
+            long[] latencias = new long[medicoes];
+            long documentos = 0;
+            long alocadoAntes = bytesAlocados();
+            long inicio = System.nanoTime();
+            for (int i = 0; i < medicoes; i++) {
+                long t0 = System.nanoTime();
+                documentos += operacao.executar(aquecimento + i);
+                latencias[i] = System.nanoTime() - t0;
+            }
+            long fim = System.nanoTime();
+            long alocadoDepois = bytesAlocados();
+
+            Arrays.sort(latencias);
+            consumo += documentos;
+            resultados.add(new Resultado(nome, medicoes, documentos, (fim - inicio) / 1e9, latencias,
+                alocadoAntes < 0 ? -1 : alocadoDepois - alocadoAntes));
+            System.out.println("  ok: " + nome);
+        } catch (Exception e) {
+            System.out.println("  falhou: " + nome + " (" + e.getMessage() + ")");
+        }
+    }
+
+    public void imprimir() {
+        System.out.println();
+        System.out.printf("%-36s %12s %12s %10s %10s %10s %10s %12s%n",
+            "operação", "ops/s", "docs/s", "p50 µs", "p99 µs", "p99.9 µs", "max µs", "bytes/op");
+        for (Resultado r : resultados) {
+            System.out.printf("%-36s %,12.0f %,12.0f %,10.1f %,10.1f %,10.1f %,10.1f %,12d%n",
+                r.nome(), r.opsPorSegundo(), r.docsPorSegundo(),
+                r.percentilMicros(50), r.percentilMicros(99), r.percentilMicros(99.9),
+                r.percentilMicros(100), r.bytesPorOperacao());
+        }
+        if (consumo == 42) {
+            System.out.println();
+        }
+    }
+
+    // helpers
+
+    private static <C extends Iterator<?> & Closeable> int contar(C cursor) throws IOException {
+        int n = 0;
+        try {
+            while (cursor.hasNext()) {
+                cursor.next();
+                n++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return n;
+    }
+
+    private static long bytesAlocados() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean mx
+                && mx.isThreadAllocatedMemorySupported()) {
+            return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static Document clienteSintetico(int i) {
+        return new Document("nome", "Bench Cliente " + i)
+            .append("data_nascimento", new Date(946684800000L))
+            .append("data_adesao", new Date())
+            .append("status", 1)
+            .append("id_telefone", new ObjectId())
+            .append("id_plano", null);
+    }
+
+    /**
+     * visao reduzida de um cliente, decodificada direto do BSON sem passar por Document
+     */
+    record ClienteResumo(ObjectId id, String nome, int status, ObjectId idPlano) {
+    }
+
+    static class ClienteResumoCodec implements Codec<ClienteResumo> {
+        @Override
+        public ClienteResumo decode(BsonReader reader, DecoderContext decoderContext) {
+            ObjectId id = null;
+            String nome = null;
+            int status = 0;
+            ObjectId idPlano = null;
+
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                String campo = reader.readName();
+                if (reader.getCurrentBsonType() == BsonType.NULL) {
+                    reader.readNull();
+                    continue;
+                }
+                switch (campo) {
+                    case "_id"      -> id = reader.readObjectId();
+                    case "nome"     -> nome = reader.readString();
+                    case "status"   -> status = reader.readInt32();
+                    case "id_plano" -> idPlano = reader.readObjectId();
+                    default         -> reader.skipValue();
+                }
+            }
+            reader.readEndDocument();
+            return new ClienteResumo(id, nome, status, idPlano);
+        }
+
+        @Override
+        public void encode(BsonWriter writer, ClienteResumo value, EncoderContext encoderContext) {
+            writer.writeStartDocument();
+            writer.writeObjectId("_id", value.id());
+            writer.writeString("nome", value.nome());
+            writer.writeInt32("status", value.status());
+            if (value.idPlano() != null) {
+                writer.writeObjectId("id_plano", value.idPlano());
+            } else {
+                writer.writeNull("id_plano");
+            }
+            writer.writeEndDocument();
+        }
+
+        @Override
+        public Class<ClienteResumo> getEncoderClass() {
+            return ClienteResumo.class;
+        }
+    }
+}
@@ -1,5 +1,3 @@
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
@@ -11,11 +9,15 @@ import java.util.List;
 import java.util.Scanner;
 
 public class BeneficioCRUD {
-    private MongoCollection<Document> collection;
+    private Colecao collection;
+    private Colecao planos;
+    private Estatisticas estatisticas;
     private Scanner scanner;
     
-    public BeneficioCRUD(MongoCollection<Document> collection, Scanner scanner) {
+    public BeneficioCRUD(Colecao collection, Colecao planos, Estatisticas estatisticas, Scanner scanner) {
         this.collection = collection;
+        this.planos = planos;
+        this.estatisticas = estatisticas;
         this.scanner = scanner;
     }
     
@@ -34,7 +36,7 @@ public class BeneficioCRUD {
             
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("beneficio.listar", "beneficios", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
                 case 5 -> { return; }
@@ -54,7 +56,8 @@ public class BeneficioCRUD {
         }
         
         // verifica se ja existe um beneficio com o mesmo nome
-        Document beneficioExistente = collection.find(Filters.eq("nome", nome)).first();
+        Document beneficioExistente = Rastreio.executar("beneficio.cadastrar", "beneficios",
+            () -> collection.find(Filters.eq("nome", nome)).first());
         if (beneficioExistente != null) {
             System.out.println("Erro: Já existe um benefício com este nome!");
             return;
@@ -72,34 +75,30 @@ public class BeneficioCRUD {
         Document beneficio = new Document("nome", nome)
                 .append("descricao", descricao);
         
-        collection.insertOne(beneficio);
+        Rastreio.executar("beneficio.cadastrar", "beneficios", () -> collection.insertOne(beneficio));
         System.out.println("Benefício cadastrado com sucesso!");
     }
     
     private void listar() {
-        long total = collection.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(collection)) {
             System.out.println("Nenhum benefício cadastrado.");
             return;
         }
         
-        System.out.println("\n--- BENEFÍCIOS CADASTRADOS ---");
-        MongoCursor<Document> cursor = collection.find().iterator();
-        int contador = 0;
+        Tabela tabela = new Tabela("BENEFÍCIOS CADASTRADOS",
+            Tabela.coluna("ID", 24), Tabela.coluna("Nome", 20), Tabela.coluna("Descrição", 0)).cabecalho();
+        Resultados.Cursor cursor = collection.find().iterator();
         
         while (cursor.hasNext()) {
             Document doc = cursor.next();
-            ObjectId id = doc.getObjectId("_id");
-            String nome = doc.getString("nome");
-            String descricao = doc.getString("descricao");
-            
-            System.out.printf("ID: %s | Nome: %s | Descrição: %s\n",
-                id.toString(), nome, descricao);
-            contador++;
+            tabela.texto(doc.getObjectId("_id").toHexString())
+                  .texto(doc.getString("nome"))
+                  .texto(doc.getString("descricao"))
+                  .fimLinha();
         }
         cursor.close();
         
-        System.out.printf("Total: %d benefício(s)\n", contador);
+        tabela.rodape("Total: " + tabela.getLinhas() + " benefício(s)");
     }
     
     private void atualizar() {
@@ -120,12 +119,12 @@ public class BeneficioCRUD {
         
         // verifica se o novo nome ja existe (exceto para o proprio beneficio)
         if (!novoNome.equals(nomeAtual)) {
-            Document beneficioExistente = collection.find(
+            Document beneficioExistente = Rastreio.executar("beneficio.atualizar", "beneficios", () -> collection.find(
                 Filters.and(
                     Filters.eq("nome", novoNome),
                     Filters.ne("_id", id)
                 )
-            ).first();
+            ).first());
             
             if (beneficioExistente != null) {
                 System.out.println("Erro: Já existe outro benefício com este nome!");
@@ -146,9 +145,19 @@ public class BeneficioCRUD {
             new Document("nome", novoNome)
                 .append("descricao", novaDescricao));
         
-        UpdateResult result = collection.updateOne(new Document("_id", id), updateDoc);
+        // mantem o resumo {_id, nome} embutido nos planos; -1 quando nada mudou
+        long planosAlterados = Rastreio.executar("beneficio.atualizar", "beneficios", () -> {
+            UpdateResult result = collection.updateOne(new Document("_id", id), updateDoc);
+            if (result.getModifiedCount() == 0) {
+                return -1L;
+            }
+            return novoNome.equals(nomeAtual) ? 0L : PlanoCRUD.renomearBeneficio(planos, id, novoNome);
+        });
         
-        if (result.getModifiedCount() > 0) {
+        if (planosAlterados >= 0) {
+            if (planosAlterados > 0) {
+                System.out.println("Nome atualizado em " + planosAlterados + " plano(s).");
+            }
             System.out.println("Benefício atualizado com sucesso!");
         } else {
             System.out.println("Nenhuma alteração realizada.");
@@ -167,7 +176,16 @@ public class BeneficioCRUD {
         String confirmacao = scanner.nextLine();
         
         if (confirmacao.equalsIgnoreCase("s")) {
-            DeleteResult result = collection.deleteOne(new Document("_id", id));
+            DeleteResult result = Rastreio.executar("beneficio.deletar", "beneficios", () -> {
+                DeleteResult removido = collection.deleteOne(new Document("_id", id));
+                if (removido.getDeletedCount() > 0) {
+                    // beneficios e a lista completa: planos antigos podem nao ter o resumo
+                    planos.updateMany(Filters.eq("beneficios", id), Updates.combine(
+                        Updates.pull("beneficios", id),
+                        Updates.pull("beneficios_resumo", new Document("_id", id))));
+                }
+                return removido;
+            });
             
             if (result.getDeletedCount() > 0) {
                 System.out.println("Benefício deletado com sucesso!");
@@ -185,17 +203,17 @@ public class BeneficioCRUD {
      * @return Document do beneficio selecionado ou null se cancelado
      */
     private Document selecionarBeneficio(String operacao) {
-        long total = collection.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(collection)) {
             System.out.println("Nenhum benefício cadastrado.");
             return null;
         }
+        long total = estatisticas.total(collection);
         
         // se ha poucos beneficios, mostra lista completa
         if (total <= 10) {
             System.out.println("\n--- LISTA DE BENEFÍCIOS ---");
-            List<Document> todosBeneficios = new ArrayList<>();
-            collection.find().into(todosBeneficios);
+            List<Document> todosBeneficios = Rastreio.executar("beneficio.buscar", "beneficios",
+                () -> collection.find().into(new ArrayList<>()));
             
             for (int i = 0; i < todosBeneficios.size(); i++) {
                 Document doc = todosBeneficios.get(i);
@@ -236,9 +254,9 @@ public class BeneficioCRUD {
         }
         
         // busca por beneficios que contenham o texto no nome
-        List<Document> resultados = new ArrayList<>();
-        collection.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
-                 .into(resultados);
+        List<Document> resultados = Rastreio.executar("beneficio.buscar", "beneficios",
+            () -> collection.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
+                            .into(new ArrayList<>()));
         
         if (resultados.isEmpty()) {
             System.out.println("Nenhum benefício encontrado com: '" + busca + "'");
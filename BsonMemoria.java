@@ -0,0 +1,305 @@
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * operacoes sobre valores BSON ja decodificados (Document, List, Integer, Date, ...)
+ * usadas pelo armazenamento em memoria: conversao, copia, comparacao na ordem do
+ * MongoDB e resolucao de caminhos com ponto ("equipamento.modelo").
+ */
+final class BsonMemoria {
+    static final CodecRegistry REGISTRO = MongoClientSettings.getDefaultCodecRegistry();
+    private static final DocumentCodec CODEC = new DocumentCodec(REGISTRO);
+    private static final DecoderContext CONTEXTO = DecoderContext.builder().build();
+
+    /**
+     * chave usada nos indices para campo ausente ou nulo (ConcurrentHashMap nao aceita null)
+     */
+    static final Object NULO = new Object() {
+        @Override
+        public String toString() {
+            return "null";
+        }
+    };
+
+    private BsonMemoria() {
+    }
+
+    /**
+     * converte qualquer Bson (Filters, Updates, Document) em Document com tipos canonicos
+     */
+    static Document documento(Bson bson) {
+        if (bson == null) {
+            return new Document();
+        }
+        return documento(bson.toBsonDocument(Document.class, REGISTRO));
+    }
+
+    static Document documento(BsonDocument bson) {
+        return CODEC.decode(new BsonDocumentReader(bson), CONTEXTO);
+    }
+
+    static BsonValue bsonValor(Object valor) {
+        return new Document("v", valor).toBsonDocument(Document.class, REGISTRO).get("v");
+    }
+
+    /**
+     * copia profunda; documentos guardados nunca sao entregues diretamente
+     */
+    static Object copiar(Object valor) {
+        if (valor instanceof Document doc) {
+            return copiar(doc);
+        }
+        if (valor instanceof List<?> lista) {
+            List<Object> copia = new ArrayList<>(lista.size());
+            for (Object item : lista) {
+                copia.add(copiar(item));
+            }
+            return copia;
+        }
+        if (valor instanceof Date data) {
+            return new Date(data.getTime());
+        }
+        return valor;
+    }
+
+    static Document copiar(Document doc) {
+        Document copia = new Document();
+        for (Map.Entry<String, Object> campo : doc.entrySet()) {
+            copia.put(campo.getKey(), copiar(campo.getValue()));
+        }
+        return copia;
+    }
+
+    // ordem de comparacao entre tipos diferentes, a mesma do servidor
+    static int tipo(Object valor) {
+        if (valor == null || valor == NULO) return 1;
+        if (valor instanceof Number || valor instanceof Decimal128) return 2;
+        if (valor instanceof String) return 3;
+        if (valor instanceof Document || valor instanceof Map<?, ?>) return 4;
+        if (valor instanceof List<?>) return 5;
+        if (valor instanceof Binary || valor instanceof byte[]) return 6;
+        if (valor instanceof ObjectId) return 7;
+        if (valor instanceof Boolean) return 8;
+        if (valor instanceof Date) return 9;
+        return 10;
+    }
+
+    static int comparar(Object a, Object b) {
+        int ta = tipo(a);
+        int tb = tipo(b);
+        if (ta != tb) {
+            return Integer.compare(ta, tb);
+        }
+        return switch (ta) {
+            case 1 -> 0;
+            case 2 -> compararNumeros(a, b);
+            case 3 -> ((String) a).compareTo((String) b);
+            case 4 -> compararDocumentos((Map<?, ?>) a, (Map<?, ?>) b);
+            case 5 -> compararListas((List<?>) a, (List<?>) b);
+            case 7 -> ((ObjectId) a).compareTo((ObjectId) b);
+            case 8 -> Boolean.compare((Boolean) a, (Boolean) b);
+            case 9 -> ((Date) a).compareTo((Date) b);
+            default -> a.equals(b) ? 0 : Integer.compare(a.hashCode(), b.hashCode());
+        };
+    }
+
+    static boolean iguais(Object a, Object b) {
+        return comparar(a, b) == 0;
+    }
+
+    private static int compararNumeros(Object a, Object b) {
+        if (inteiro(a) && inteiro(b)) {
+            return Long.compare(((Number) a).longValue(), ((Number) b).longValue());
+        }
+        if (a instanceof Decimal128 || b instanceof Decimal128 || a instanceof BigDecimal || b instanceof BigDecimal) {
+            return decimal(a).compareTo(decimal(b));
+        }
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+    }
+
+    private static int compararDocumentos(Map<?, ?> a, Map<?, ?> b) {
+        Iterator<? extends Map.Entry<?, ?>> ia = a.entrySet().iterator();
+        Iterator<? extends Map.Entry<?, ?>> ib = b.entrySet().iterator();
+        while (ia.hasNext() && ib.hasNext()) {
+            Map.Entry<?, ?> ea = ia.next();
+            Map.Entry<?, ?> eb = ib.next();
+            int c = comparar(ea.getValue(), eb.getValue());
+            if (c == 0) {
+                c = String.valueOf(ea.getKey()).compareTo(String.valueOf(eb.getKey()));
+            }
+            if (c != 0) return c;
+        }
+        return Boolean.compare(ia.hasNext(), ib.hasNext());
+    }
+
+    private static int compararListas(List<?> a, List<?> b) {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = comparar(a.get(i), b.get(i));
+            if (c != 0) return c;
+        }
+        return Integer.compare(a.size(), b.size());
+    }
+
+    static boolean inteiro(Object valor) {
+        return valor instanceof Integer || valor instanceof Long || valor instanceof Short || valor instanceof Byte;
+    }
+
+    static BigDecimal decimal(Object valor) {
+        if (valor instanceof Decimal128 d) return d.bigDecimalValue();
+        if (valor instanceof BigDecimal d) return d;
+        if (inteiro(valor)) return BigDecimal.valueOf(((Number) valor).longValue());
+        return BigDecimal.valueOf(((Number) valor).doubleValue());
+    }
+
+    /**
+     * chave de hash para indices: numeros iguais em tipos diferentes (1, 1L, 1.0) viram a mesma chave
+     */
+    static Object chave(Object valor) {
+        if (valor == null) {
+            return NULO;
+        }
+        if (inteiro(valor)) {
+            return ((Number) valor).longValue();
+        }
+        if (valor instanceof Double || valor instanceof Float) {
+            double d = ((Number) valor).doubleValue();
+            return d == Math.rint(d) && !Double.isInfinite(d) && Math.abs(d) < 0x1p63 ? (Object) (long) d : (Object) d;
+        }
+        return valor;
+    }
+
+    /**
+     * soma preservando o tipo como o servidor: int + int continua int enquanto couber,
+     * qualquer double promove para double
+     */
+    static Number somar(Number a, Number b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (inteiro(a) && inteiro(b)) {
+            long soma = a.longValue() + b.longValue();
+            if (a instanceof Integer && b instanceof Integer && soma == (int) soma) {
+                return (int) soma;
+            }
+            return soma;
+        }
+        return a.doubleValue() + b.doubleValue();
+    }
+
+    static Number multiplicar(Number a, Number b) {
+        if (inteiro(a) && inteiro(b)) {
+            long produto = a.longValue() * b.longValue();
+            if (a instanceof Integer && b instanceof Integer && produto == (int) produto) {
+                return (int) produto;
+            }
+            return produto;
+        }
+        return a.doubleValue() * b.doubleValue();
+    }
+
+    /**
+     * valor em um caminho com ponto, sem expandir arrays; null se ausente
+     */
+    static Object valor(Document doc, String caminho) {
+        if (caminho.indexOf('.') < 0) {
+            return doc.get(caminho);
+        }
+        Object atual = doc;
+        for (String parte : caminho.split("\\.")) {
+            if (atual instanceof Document d) {
+                atual = d.get(parte);
+            } else if (atual instanceof List<?> lista && indice(parte) >= 0 && indice(parte) < lista.size()) {
+                atual = lista.get(indice(parte));
+            } else {
+                return null;
+            }
+        }
+        return atual;
+    }
+
+    /**
+     * valores candidatos de um caminho para comparacao em filtros, com a semantica
+     * de arrays do MongoDB: {"a.b": x} olha o campo b de cada elemento de a, e um
+     * array no fim do caminho conta tanto inteiro quanto elemento a elemento.
+     * lista vazia significa campo ausente; [null] significa presente e nulo.
+     */
+    static List<Object> valores(Document doc, String caminho) {
+        List<Object> saida = new ArrayList<>(2);
+        coletar(doc, caminho.indexOf('.') < 0 ? new String[] { caminho } : caminho.split("\\."), 0, saida);
+        return saida;
+    }
+
+    private static void coletar(Object atual, String[] partes, int i, List<Object> saida) {
+        if (i == partes.length) {
+            saida.add(atual);
+            if (atual instanceof List<?> lista) {
+                saida.addAll(lista);
+            }
+            return;
+        }
+        if (atual instanceof Document d) {
+            if (d.containsKey(partes[i])) {
+                coletar(d.get(partes[i]), partes, i + 1, saida);
+            }
+        } else if (atual instanceof List<?> lista) {
+            int idx = indice(partes[i]);
+            if (idx >= 0) {
+                if (idx < lista.size()) {
+                    coletar(lista.get(idx), partes, i + 1, saida);
+                }
+            } else {
+                for (Object item : lista) {
+                    if (item instanceof Document) {
+                        coletar(item, partes, i, saida);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * valores de um caminho para indexacao: elementos de arrays separados (indice multikey)
+     * e NULO quando o campo esta ausente
+     */
+    static List<Object> chavesIndice(Document doc, String caminho) {
+        List<Object> brutos = valores(doc, caminho);
+        List<Object> chaves = new ArrayList<>(brutos.size());
+        if (brutos.isEmpty()) {
+            chaves.add(NULO);
+            return chaves;
+        }
+        for (Object valor : brutos) {
+            if (!(valor instanceof List<?>)) {
+                Object chave = chave(valor);
+                if (!chaves.contains(chave)) {
+                    chaves.add(chave);
+                }
+            }
+        }
+        return chaves;
+    }
+
+    static int indice(String parte) {
+        if (parte.isEmpty() || parte.length() > 9) return -1;
+        for (int i = 0; i < parte.length(); i++) {
+            if (!Character.isDigit(parte.charAt(i))) return -1;
+        }
+        return Integer.parseInt(parte);
+    }
+}
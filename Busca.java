@@ -0,0 +1,20 @@
+import org.bson.conversions.Bson;
+
+/**
+ * find configuravel, no mesmo estilo do FindIterable do driver
+ */
+public interface Busca extends Resultados {
+
+    Busca projection(Bson projecao);
+
+    Busca sort(Bson ordem);
+
+    Busca skip(int quantidade);
+
+    Busca limit(int quantidade);
+
+    /**
+     * quantos documentos o cursor busca por vez; so afeta o MongoDB
+     */
+    Busca batchSize(int tamanho);
+}
@@ -1,5 +1,3 @@
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
@@ -11,11 +9,13 @@ import java.util.List;
 import java.util.Scanner;
 
 public class CargoCRUD {
-    private MongoCollection<Document> collection;
+    private Colecao collection;
+    private Estatisticas estatisticas;
     private Scanner scanner;
     
-    public CargoCRUD(MongoCollection<Document> collection, Scanner scanner) {
+    public CargoCRUD(Colecao collection, Estatisticas estatisticas, Scanner scanner) {
         this.collection = collection;
+        this.estatisticas = estatisticas;
         this.scanner = scanner;
     }
     
@@ -34,7 +34,7 @@ public class CargoCRUD {
             
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("cargo.listar", "cargos", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
                 case 5 -> { return; }
@@ -54,7 +54,8 @@ public class CargoCRUD {
         }
         
         // verifica se ja existe cargo com mesmo nome
-        Document cargoExistente = collection.find(Filters.eq("nome", nome)).first();
+        Document cargoExistente = Rastreio.executar("cargo.cadastrar", "cargos",
+            () -> collection.find(Filters.eq("nome", nome)).first());
         if (cargoExistente != null) {
             System.out.println("Erro: Já existe um cargo com este nome!");
             return;
@@ -89,33 +90,32 @@ public class CargoCRUD {
                 .append("descricao", descricao)
                 .append("salario", salario);
         
-        collection.insertOne(cargo);
+        Rastreio.executar("cargo.cadastrar", "cargos", () -> collection.insertOne(cargo));
         System.out.println("Cargo cadastrado com sucesso!");
     }
     
     private void listar() {
-        long total = collection.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(collection)) {
             System.out.println("Nenhum cargo cadastrado.");
             return;
         }
+        long total = estatisticas.total(collection);
         
-        System.out.println("\n--- CARGOS CADASTRADOS ---");
-        MongoCursor<Document> cursor = collection.find().iterator();
+        Tabela tabela = new Tabela("CARGOS CADASTRADOS",
+            Tabela.coluna("ID", 24), Tabela.coluna("Nome", 20), Tabela.coluna("Descrição", 30),
+            Tabela.numero("Salário", 12)).cabecalho();
+        Resultados.Cursor cursor = collection.find().iterator();
         
         try {
             while (cursor.hasNext()) {
                 Document doc = cursor.next();
-                
-                ObjectId id = doc.getObjectId("_id");
-                String nome = doc.getString("nome");
-                String descricao = doc.getString("descricao");
-                double salario = doc.getDouble("salario");
-                
-                System.out.printf("ID: %s | Nome: %s | Descrição: %s | Salário: R$ %.2f\n",
-                    id.toString(), nome, descricao, salario);
+                tabela.texto(doc.getObjectId("_id").toHexString())
+                      .texto(doc.getString("nome"))
+                      .texto(doc.getString("descricao"))
+                      .moeda(doc.getDouble("salario"))
+                      .fimLinha();
             }
-            System.out.printf("Total: %d cargo(s)\n", total);
+            tabela.rodape("Total: " + total + " cargo(s)");
         } finally {
             cursor.close();
         }
@@ -138,12 +138,12 @@ public class CargoCRUD {
         
         // verifica se o novo nome ja existe (exceto para o proprio cargo)
         if (!novoNome.equals(nomeAtual)) {
-            Document cargoExistente = collection.find(
+            Document cargoExistente = Rastreio.executar("cargo.atualizar", "cargos", () -> collection.find(
                 Filters.and(
                     Filters.eq("nome", novoNome),
                     Filters.ne("_id", id)
                 )
-            ).first();
+            ).first());
             
             if (cargoExistente != null) {
                 System.out.println("Erro: Já existe um cargo com este nome!");
@@ -181,7 +181,8 @@ public class CargoCRUD {
                 .append("salario", novoSalario)
         );
         
-        UpdateResult result = collection.updateOne(new Document("_id", id), updateDoc);
+        UpdateResult result = Rastreio.executar("cargo.atualizar", "cargos",
+            () -> collection.updateOne(new Document("_id", id), updateDoc));
         
         if (result.getModifiedCount() > 0) {
             System.out.println("Cargo atualizado com sucesso!");
@@ -202,7 +203,8 @@ public class CargoCRUD {
         String confirmacao = scanner.nextLine();
         
         if (confirmacao.equalsIgnoreCase("s")) {
-            DeleteResult result = collection.deleteOne(new Document("_id", id));
+            DeleteResult result = Rastreio.executar("cargo.deletar", "cargos",
+                () -> collection.deleteOne(new Document("_id", id)));
             
             if (result.getDeletedCount() > 0) {
                 System.out.println("Cargo deletado com sucesso!");
@@ -229,9 +231,9 @@ public class CargoCRUD {
         }
         
         // busca por cargos que contenham o texto digitado (case insensitive)
-        List<Document> resultados = new ArrayList<>();
-        collection.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
-                 .into(resultados);
+        List<Document> resultados = Rastreio.executar("cargo.buscar", "cargos",
+            () -> collection.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
+                            .into(new ArrayList<>()));
         
         if (resultados.isEmpty()) {
             System.out.println("Nenhum cargo encontrado com: '" + busca + "'");
@@ -0,0 +1,443 @@
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import org.bson.conversions.Bson;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * registro de entradas pelas catracas. os produtores (catracas, importacao em lote)
+ * so validam o cliente e colocam o check-in numa fila circular limitada
+ * (ArrayBlockingQueue, -Dacademia.checkins.capacidade, padrao 10000); uma thread
+ * gravadora esvazia a fila em lotes de ate -Dacademia.checkins.lote (padrao 500)
+ * com insertMany nao ordenado em checkins.
+ *
+ * - documento: {data_hora, meta: {id_cliente, id_plano}, catraca}. checkins e uma
+ *   serie temporal com metaField meta (Indices.garantir), entao o servidor guarda os
+ *   check-ins de cada cliente em buckets por periodo e os relatorios de ocupacao
+ *   (Relatorios) agrupam por hora e por plano sem um $lookup em clientes
+ * - validacao: cliente com status 1 e id_plano de um plano existente, contra um
+ *   mapa de ativos (cliente -> plano) em memoria recarregado a cada -Dacademia.checkins.cacheMs
+ *   (padrao 30000) pela propria gravadora; cliente fora do conjunto (cadastrado
+ *   depois da carga) e conferido no banco e entra no mapa se estiver ativo. o id
+ *   recusado no banco fica num conjunto de recusados ate a proxima recarga, entao
+ *   um cliente inativo ou desconhecido na catraca custa uma consulta por recarga, e
+ *   um cliente ativado nesse meio tempo entra depois da recarga
+ * - contrapressao: se o banco atrasa, a gravadora repete o lote com espera crescente
+ *   (so o que nao chegou ao banco: ver gravarLote) e a fila enche; o produtor espera ate -Dacademia.checkins.esperaMs (padrao 200)
+ *   por espaco e depois recebe FILA_CHEIA, em vez de a memoria crescer sem limite
+ * - metricas: profundidade atual e maxima da fila, aceitos, recusados, gravados e
+ *   latencia de cada gravacao (media e maxima)
+ */
+public class Checkins {
+    private static final int CAPACIDADE = Integer.getInteger("academia.checkins.capacidade", 10_000);
+    private static final int LOTE = Integer.getInteger("academia.checkins.lote", 500);
+    private static final long ESPERA_MS = Long.getLong("academia.checkins.esperaMs", 200);
+    private static final long CACHE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("academia.checkins.cacheMs", 30_000));
+    // espera maxima da gravadora por um primeiro check-in antes de conferir o cache
+    private static final long INTERVALO_MS = 100;
+    private static final long ESPERA_MAXIMA_REPETICAO_MS = 5_000;
+
+    private final Colecao clientes;
+    private final Colecao planos;
+    private final Colecao checkins;
+    private final Scanner scanner;
+    private final ArrayBlockingQueue<Document> fila = new ArrayBlockingQueue<>(CAPACIDADE);
+    private final Thread gravadora;
+    private volatile boolean executando = true;
+
+    private volatile Map<Object, Object> ativos;
+    // conferidos no banco e recusados desde a ultima carga
+    private volatile Set<Object> recusados;
+    private volatile Set<Object> planosExistentes;
+    private volatile long carregadoEm;
+
+    private final LongAdder aceitos = new LongAdder();
+    private final LongAdder recusadosInativos = new LongAdder();
+    private final LongAdder recusadosFilaCheia = new LongAdder();
+    private final LongAdder gravados = new LongAdder();
+    private final LongAdder descartados = new LongAdder();
+    private final LongAdder falhasGravacao = new LongAdder();
+    private final LongAdder lotes = new LongAdder();
+    private final AtomicLong nanosGravacao = new AtomicLong();
+    private final LongAccumulator maiorGravacaoNanos = new LongAccumulator(Math::max, 0);
+    private final LongAccumulator maiorProfundidade = new LongAccumulator(Math::max, 0);
+
+    public enum Resultado { ACEITO, CLIENTE_INATIVO, FILA_CHEIA }
+
+    /**
+     * retrato das metricas
+     */
+    record Metricas(int profundidade, long profundidadeMaxima, int capacidade, long aceitos,
+                    long recusadosInativos, long recusadosFilaCheia, long gravados, long descartados,
+                    long falhasGravacao, long lotes, double latenciaMediaMs, double latenciaMaximaMs) {
+    }
+
+    public Checkins(Armazenamento armazenamento, Scanner scanner) {
+        this.clientes = armazenamento.colecao("clientes");
+        this.planos = armazenamento.colecao("planos");
+        this.checkins = armazenamento.colecao("checkins");
+        this.scanner = scanner;
+        recarregarAtivos();
+        this.gravadora = new Thread(this::gravar, "academia-checkins");
+        this.gravadora.setDaemon(true);
+        this.gravadora.start();
+    }
+
+    public void menu() {
+        while (true) {
+            System.out.println("\n=== CHECK-INS ===");
+            System.out.println("1. Registrar check-in");
+            System.out.println("2. Simular horário de pico");
+            System.out.println("3. Métricas");
+            System.out.println("4. Voltar");
+            System.out.print("Escolha: ");
+
+            int opcao = scanner.nextInt();
+            scanner.nextLine();
+
+            switch (opcao) {
+                case 1 -> registrarManual();
+                case 2 -> simular();
+                case 3 -> imprimirMetricas();
+                case 4 -> { return; }
+                default -> System.out.println("Opção inválida!");
+            }
+        }
+    }
+
+    /**
+     * produtor: valida o cliente e enfileira o check-in; nao espera a gravacao
+     */
+    public Resultado registrar(ObjectId idCliente, String catraca) {
+        Object idPlano = planoSeAtivo(idCliente);
+        if (idPlano == null) {
+            recusadosInativos.increment();
+            return Resultado.CLIENTE_INATIVO;
+        }
+        Document checkin = new Document("_id", new ObjectId())
+            .append("data_hora", new Date())
+            .append("meta", new Document("id_cliente", idCliente).append("id_plano", idPlano))
+            .append("catraca", catraca);
+        try {
+            if (!fila.offer(checkin, ESPERA_MS, TimeUnit.MILLISECONDS)) {
+                recusadosFilaCheia.increment();
+                return Resultado.FILA_CHEIA;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recusadosFilaCheia.increment();
+            return Resultado.FILA_CHEIA;
+        }
+        aceitos.increment();
+        maiorProfundidade.accumulate(fila.size());
+        return Resultado.ACEITO;
+    }
+
+    /**
+     * produtor em lote (ex.: arquivo exportado por uma catraca offline)
+     * @return quantidade de check-ins aceitos
+     */
+    public int registrarLote(List<ObjectId> idsClientes, String catraca) {
+        int aceitosLote = 0;
+        for (ObjectId id : idsClientes) {
+            if (registrar(id, catraca) == Resultado.ACEITO) {
+                aceitosLote++;
+            }
+        }
+        return aceitosLote;
+    }
+
+    public Metricas metricas() {
+        long quantidadeLotes = lotes.sum();
+        return new Metricas(fila.size(), maiorProfundidade.get(), CAPACIDADE, aceitos.sum(),
+            recusadosInativos.sum(), recusadosFilaCheia.sum(), gravados.sum(), descartados.sum(),
+            falhasGravacao.sum(), quantidadeLotes,
+            quantidadeLotes > 0 ? nanosGravacao.get() / 1e6 / quantidadeLotes : 0,
+            maiorGravacaoNanos.get() / 1e6);
+    }
+
+    /**
+     * grava o que ficou na fila e encerra a gravadora
+     * (espera ate 10 s se o banco estiver fora)
+     */
+    public void encerrar() {
+        executando = false;
+        try {
+            gravadora.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        gravadora.interrupt();
+        if (!fila.isEmpty()) {
+            System.out.println("Aviso: " + fila.size() + " check-in(s) não gravado(s).");
+        }
+    }
+
+    /**
+     * plano do cliente se ele pode entrar, ou null
+     */
+    private Object planoSeAtivo(ObjectId idCliente) {
+        Object idPlano = ativos.get(idCliente);
+        if (idPlano != null) {
+            return idPlano;
+        }
+        Set<Object> jaRecusados = recusados;
+        if (jaRecusados.contains(idCliente)) {
+            return null;
+        }
+        // cadastrado ou ativado depois da ultima carga
+        Document cliente = clientes.find(Filters.eq("_id", idCliente))
+            .projection(Projections.include("status", "id_plano")).first();
+        if (cliente == null || cliente.getInteger("status", 0) != 1 || cliente.get("id_plano") == null
+                || !planosExistentes.contains(cliente.get("id_plano"))) {
+            jaRecusados.add(idCliente);
+            return null;
+        }
+        ativos.put(idCliente, cliente.get("id_plano"));
+        return cliente.get("id_plano");
+    }
+
+    /**
+     * clientes ativos com plano existente; roda na criacao e depois na gravadora
+     */
+    private void recarregarAtivos() {
+        Set<Object> idsPlanos = ConcurrentHashMap.newKeySet();
+        for (Document plano : planos.find().projection(Projections.include("_id"))) {
+            idsPlanos.add(plano.get("_id"));
+        }
+        Map<Object, Object> planosAtivos = new ConcurrentHashMap<>();
+        if (!idsPlanos.isEmpty()) {
+            for (Document cliente : clientes.find(Filters.and(Filters.eq("status", 1), Filters.in("id_plano", idsPlanos)))
+                                            .projection(Projections.include("id_plano"))) {
+                planosAtivos.put(cliente.get("_id"), cliente.get("id_plano"));
+            }
+        }
+        planosExistentes = idsPlanos;
+        ativos = planosAtivos;
+        recusados = ConcurrentHashMap.newKeySet();
+        carregadoEm = System.nanoTime();
+    }
+
+    /**
+     * laco da gravadora: espera o primeiro check-in, junta o que houver na fila ate
+     * LOTE e grava; continua ate a fila esvaziar depois de encerrar()
+     */
+    private void gravar() {
+        List<Document> lote = new ArrayList<>(LOTE);
+        while (executando || !fila.isEmpty()) {
+            try {
+                if (System.nanoTime() - carregadoEm > CACHE_NANOS) {
+                    recarregarAtivos();
+                }
+                Document primeiro = fila.poll(INTERVALO_MS, TimeUnit.MILLISECONDS);
+                if (primeiro == null) {
+                    continue;
+                }
+                lote.add(primeiro);
+                fila.drainTo(lote, LOTE - 1);
+                try {
+                    gravarLote(lote);
+                } finally {
+                    lote.clear();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                // falha na recarga do cache (ou erro inesperado no lote): segue com o cache atual
+                carregadoEm = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * check-ins do lote ja gravados: _id (gerado no registro) dentro da janela de
+     * data_hora do lote. a serie temporal nao tem indice unico de _id, entao o filtro
+     * por periodo e o que limita a leitura aos buckets do lote
+     */
+    static Bson gravadosDoLote(List<Object> ids, Date de, Date ate) {
+        return Filters.and(Filters.gte("data_hora", de), Filters.lte("data_hora", ate), Filters.in("_id", ids));
+    }
+
+    /**
+     * grava o lote, repetindo com espera crescente enquanto o banco estiver
+     * indisponivel; erros de documento descartam so os documentos com erro.
+     * checkins nao rejeita _id repetido (serie temporal), e um erro de rede ou
+     * timeout nao diz se o servidor aplicou parte do lote, entao antes de cada
+     * repeticao os ja gravados saem do lote em vez de serem inseridos de novo
+     */
+    private void gravarLote(List<Document> lote) throws InterruptedException {
+        long esperaMs = 100;
+        List<Document> pendentes = lote;
+        boolean incerto = false;
+        while (true) {
+            long inicio = System.nanoTime();
+            try {
+                if (incerto) {
+                    pendentes = naoGravados(pendentes);
+                    incerto = false;
+                }
+                if (!pendentes.isEmpty()) {
+                    checkins.insertMany(pendentes, false);
+                }
+                registrarGravacao(lote.size(), System.nanoTime() - inicio);
+                return;
+            } catch (MongoBulkWriteException e) {
+                int perdidos = e.getWriteErrors().size();
+                descartados.add(perdidos);
+                registrarGravacao(lote.size() - perdidos, System.nanoTime() - inicio);
+                return;
+            } catch (MongoException e) {
+                falhasGravacao.increment();
+                incerto = true;
+                if (!executando && esperaMs >= ESPERA_MAXIMA_REPETICAO_MS) {
+                    descartados.add(pendentes.size());
+                    return;
+                }
+                Thread.sleep(esperaMs);
+                esperaMs = Math.min(esperaMs * 2, ESPERA_MAXIMA_REPETICAO_MS);
+            }
+        }
+    }
+
+    /**
+     * metodo auxiliar que tira do lote os check-ins que uma tentativa anterior gravou
+     */
+    private List<Document> naoGravados(List<Document> lote) {
+        List<Object> ids = new ArrayList<>(lote.size());
+        Date de = null;
+        Date ate = null;
+        for (Document checkin : lote) {
+            ids.add(checkin.get("_id"));
+            Date dataHora = checkin.getDate("data_hora");
+            de = de == null || dataHora.before(de) ? dataHora : de;
+            ate = ate == null || dataHora.after(ate) ? dataHora : ate;
+        }
+        Set<Object> jaGravados = new HashSet<>();
+        for (Document checkin : checkins.find(gravadosDoLote(ids, de, ate)).projection(Projections.include("_id"))) {
+            jaGravados.add(checkin.get("_id"));
+        }
+        if (jaGravados.isEmpty()) {
+            return lote;
+        }
+        List<Document> pendentes = new ArrayList<>(lote.size() - jaGravados.size());
+        for (Document checkin : lote) {
+            if (!jaGravados.contains(checkin.get("_id"))) {
+                pendentes.add(checkin);
+            }
+        }
+        return pendentes;
+    }
+
+    private void registrarGravacao(int documentos, long nanos) {
+        gravados.add(documentos);
+        lotes.increment();
+        nanosGravacao.addAndGet(nanos);
+        maiorGravacaoNanos.accumulate(nanos);
+    }
+
+    private void registrarManual() {
+        System.out.print("ID do cliente: ");
+        String id = scanner.nextLine().trim();
+        if (!ObjectId.isValid(id)) {
+            System.out.println("Erro: ID inválido!");
+            return;
+        }
+        System.out.print("Catraca: ");
+        String catraca = scanner.nextLine().trim();
+
+        Resultado resultado = Rastreio.executar("checkin.registrar", "checkins",
+            () -> registrar(new ObjectId(id), catraca.isEmpty() ? "principal" : catraca));
+        switch (resultado) {
+            case ACEITO -> System.out.println("Entrada liberada.");
+            case CLIENTE_INATIVO -> System.out.println("Entrada negada: cliente inativo ou sem plano.");
+            case FILA_CHEIA -> System.out.println("Entrada não registrada: sistema sobrecarregado, tente novamente.");
+        }
+    }
+
+    /**
+     * varias catracas registrando ao mesmo tempo, com ~10% de clientes inativos ou
+     * inexistentes; mostra a vazao e as metricas da fila
+     */
+    private void simular() {
+        List<Object> candidatos = new ArrayList<>(ativos.keySet());
+        if (candidatos.isEmpty()) {
+            System.out.println("Nenhum cliente ativo com plano.");
+            return;
+        }
+        int catracas = lerInteiro("Catracas: ", 4);
+        int porCatraca = lerInteiro("Check-ins por catraca: ", 10_000);
+        Rastreio.executar("checkin.simular", "checkins", () -> simular(candidatos, catracas, porCatraca));
+    }
+
+    private void simular(List<Object> candidatos, int catracas, int porCatraca) {
+        CountDownLatch fim = new CountDownLatch(catracas);
+        long inicio = System.nanoTime();
+        for (int c = 0; c < catracas; c++) {
+            String catraca = "catraca-" + (c + 1);
+            Thread produtor = new Thread(() -> {
+                ThreadLocalRandom aleatorio = ThreadLocalRandom.current();
+                for (int i = 0; i < porCatraca; i++) {
+                    ObjectId id = aleatorio.nextInt(10) == 0 ? new ObjectId()
+                        : (ObjectId) candidatos.get(aleatorio.nextInt(candidatos.size()));
+                    registrar(id, catraca);
+                }
+                fim.countDown();
+            }, "academia-" + catraca);
+            produtor.setDaemon(true);
+            produtor.start();
+        }
+        try {
+            fim.await();
+            // espera a fila esvaziar para medir ate a gravacao
+            while (!fila.isEmpty()) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("%d check-in(s) enviados em %.2f s (%,.0f/s)%n",
+            (long) catracas * porCatraca, segundos, catracas * porCatraca / segundos);
+        imprimirMetricas();
+    }
+
+    private void imprimirMetricas() {
+        Metricas m = metricas();
+        System.out.println("\n--- MÉTRICAS DE CHECK-IN ---");
+        System.out.printf("Fila: %d/%d (máxima %d)%n", m.profundidade(), m.capacidade(), m.profundidadeMaxima());
+        System.out.printf("Aceitos: %d | Recusados (inativo): %d | Recusados (fila cheia): %d%n",
+            m.aceitos(), m.recusadosInativos(), m.recusadosFilaCheia());
+        System.out.printf("Gravados: %d em %d lote(s) | Descartados: %d | Falhas de gravação: %d%n",
+            m.gravados(), m.lotes(), m.descartados(), m.falhasGravacao());
+        System.out.printf("Latência de gravação: média %.2f ms, máxima %.2f ms%n",
+            m.latenciaMediaMs(), m.latenciaMaximaMs());
+    }
+
+    private int lerInteiro(String rotulo, int padrao) {
+        System.out.print(rotulo + "[" + padrao + "] ");
+        String valor = scanner.nextLine().trim();
+        try {
+            return valor.isEmpty() ? padrao : Math.max(1, Integer.parseInt(valor));
+        } catch (NumberFormatException e) {
+            return padrao;
+        }
+    }
+}
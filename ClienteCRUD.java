@@ -1,11 +1,11 @@
-import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoCursor;
-import com.mongodb.client.MongoDatabase;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
@@ -15,18 +15,19 @@ import java.util.List;
 import java.util.Scanner;
 
 public class ClienteCRUD {
-    private MongoCollection<Document> clientes;
-    private MongoCollection<Document> telefones;
-    private MongoCollection<Document> planos;
+    private Armazenamento armazenamento;
+    private Colecao clientes;
+    private Colecao telefones;
+    private Colecao planos;
+    private Estatisticas estatisticas;
     private Scanner scanner;
     
-    public ClienteCRUD(MongoCollection<Document> clientes,
-                       MongoCollection<Document> telefones,
-                       MongoCollection<Document> planos,
-                       Scanner scanner) {
-        this.clientes  = clientes;
-        this.telefones = telefones;
-        this.planos    = planos;
+    public ClienteCRUD(Armazenamento armazenamento, Scanner scanner) {
+        this.armazenamento = armazenamento;
+        this.clientes  = armazenamento.colecao("clientes");
+        this.telefones = armazenamento.colecao("telefones");
+        this.planos    = armazenamento.colecao("planos");
+        this.estatisticas = armazenamento.estatisticas();
         this.scanner   = scanner;
     }
     
@@ -38,7 +39,8 @@ public class ClienteCRUD {
             System.out.println("3. Atualizar");
             System.out.println("4. Deletar");
             System.out.println("5. Vincular Plano");
-            System.out.println("6. Voltar");
+            System.out.println("6. Buscar (incluindo arquivados)");
+            System.out.println("7. Voltar");
             System.out.print("Escolha: ");
             
             int opcao = scanner.nextInt();
@@ -46,11 +48,12 @@ public class ClienteCRUD {
             
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("cliente.listar", "clientes", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
                 case 5 -> vincular();
-                case 6 -> { return; }
+                case 6 -> buscarComArquivados();
+                case 7 -> { return; }
                 default -> System.out.println("Opção inválida!");
             }
         }
@@ -95,11 +98,27 @@ public class ClienteCRUD {
             return;
         }
 
+        Document cliente = new Document("nome", nome)
+                .append("data_nascimento", dataNascimento)
+                .append("data_adesao", dataAdesao)
+                .append("status", status);
+        Rastreio.executar("cliente.cadastrar", "clientes", () -> inserir(cliente, telefone));
+    }
+
+    /**
+     * metodo auxiliar que grava o telefone (ou reaproveita um existente livre) e o
+     * cliente com os campos ja digitados
+     */
+    private void inserir(Document cliente, String telefone) {
         // verifica se o telefone ja existe
         Document telefoneExistente = telefones.find(Filters.eq("numero", telefone)).first();
         ObjectId idTelefone;
         
         if (telefoneExistente != null) {
+            if (telefoneEmUso(telefoneExistente, null)) {
+                System.out.println("Erro: Telefone já vinculado a outro cliente!");
+                return;
+            }
             System.out.println("Aviso: Telefone já cadastrado! Usando telefone existente.");
             idTelefone = telefoneExistente.getObjectId("_id");
         } else {
@@ -108,36 +127,48 @@ public class ClienteCRUD {
             idTelefone = docTelefone.getObjectId("_id");
         }
 
-        Document cliente = new Document("nome", nome)
-                .append("data_nascimento", dataNascimento)
-                .append("data_adesao", dataAdesao)
-                .append("status", status)
-                .append("id_telefone", idTelefone)
-                .append("id_plano", null);
+        cliente.append("id_telefone", idTelefone)
+               .append("telefone", MigracaoTelefones.telefoneEmbutido(idTelefone, telefone))
+               .append("id_plano", null)
+               .append("data_fim_contrato", null)
+               .append("data_fim_fidelidade", null);
+        // inicio do prazo para o Arquivamento
+        if (cliente.getInteger("status") == 0) {
+            cliente.append("data_inativacao", new Date());
+        }
 
-        clientes.insertOne(cliente);
+        try {
+            clientes.insertOne(cliente);
+        } catch (MongoWriteException e) {
+            // indice unico em telefone.numero: outro cliente gravou o mesmo numero ao mesmo tempo
+            if (e.getError().getCode() != 11000) throw e;
+            System.out.println("Erro: Telefone já vinculado a outro cliente!");
+            return;
+        }
         System.out.println("Cliente cadastrado com sucesso!");
     }
     
     private void listar() {
-        long total = clientes.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(clientes)) {
             System.out.println("Nenhum cliente cadastrado.");
             return;
         }
+        long total = estatisticas.total(clientes);
 
-        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
-        
-        System.out.println("\n--- CLIENTES CADASTRADOS ---");
-        MongoCursor<Document> cursor = clientes.find().iterator();
+        Tabela tabela = new Tabela("CLIENTES CADASTRADOS",
+            Tabela.coluna("ID", 24), Tabela.coluna("Nome", 30), Tabela.coluna("Nascimento", 10),
+            Tabela.coluna("Adesão", 10), Tabela.coluna("Status", 7), Tabela.coluna("Telefone", 15),
+            Tabela.coluna("Plano", 0)).cabecalho();
+        Resultados.Cursor cursor = clientes.find().iterator();
         
         while (cursor.hasNext()) {
             Document c = cursor.next();
-            ObjectId id = c.getObjectId("_id");
             
-            Document telefone = null;
-            if (c.get("id_telefone") != null) {
-                telefone = telefones.find(new Document("_id", c.getObjectId("id_telefone"))).first();
+            // formato novo: telefone embutido; antigo: consulta em telefones
+            String telefone = MigracaoTelefones.numeroEmbutido(c);
+            if (telefone == null && c.get("id_telefone") != null) {
+                Document doc = telefones.find(new Document("_id", c.getObjectId("id_telefone"))).first();
+                telefone = doc != null ? doc.getString("numero") : null;
             }
 
             Document plano = null;
@@ -145,26 +176,23 @@ public class ClienteCRUD {
                 plano = planos.find(new Document("_id", c.getObjectId("id_plano"))).first();
             }
 
-            System.out.printf(
-                "ID: %s | Nome: %s | Nascimento: %s | Adesão: %s | Status: %s | Telefone: %s | Plano: %s\n",
-                id.toString(),
-                c.getString("nome"),
-                sdf.format(c.getDate("data_nascimento")),
-                sdf.format(c.getDate("data_adesao")),
-                c.getInteger("status") == 1 ? "Ativo" : "Inativo",
-                telefone != null ? telefone.getString("numero") : "Não cadastrado",
-                plano != null ? plano.getString("nome") : "Nenhum"
-            );
-        }
-        System.out.printf("Total: %d cliente(s)\n", total);
+            tabela.texto(c.getObjectId("_id").toHexString())
+                  .texto(c.getString("nome"))
+                  .data(c.getDate("data_nascimento"))
+                  .data(c.getDate("data_adesao"))
+                  .texto(c.getInteger("status") == 1 ? "Ativo" : "Inativo")
+                  .texto(telefone != null ? telefone : "Não cadastrado")
+                  .texto(plano != null ? plano.getString("nome") : "Nenhum")
+                  .fimLinha();
+        }
+        cursor.close();
+        tabela.rodape("Total: " + total + " cliente(s)");
     }
     
     private void atualizar() {
         Document cliente = selecionarCliente("atualizar");
         if (cliente == null) return;
 
-        ObjectId id = cliente.getObjectId("_id");
-
         System.out.print("Novo nome (Enter para manter '" + cliente.getString("nome") + "'): ");
         String nome = scanner.nextLine().trim();
         if (nome.isEmpty()) {
@@ -197,30 +225,86 @@ public class ClienteCRUD {
         }
 
         System.out.print("Novo telefone (Enter para manter): ");
-        String telefone = scanner.nextLine().trim();
+        String novoTelefone = scanner.nextLine().trim();
+
+        Document campos = new Document("nome", nome)
+                .append("data_nascimento", dataNascimento)
+                .append("data_adesao", dataAdesao)
+                .append("status", status);
+        Rastreio.executar("cliente.atualizar", "clientes", () -> gravarAtualizacao(cliente, campos, novoTelefone));
+    }
+
+    /**
+     * metodo auxiliar que resolve o telefone digitado (vazio mantem o atual) e grava
+     * os campos do cliente
+     */
+    private void gravarAtualizacao(Document cliente, Document campos, String novoTelefone) {
+        ObjectId id = cliente.getObjectId("_id");
+        Date dataAdesao = campos.getDate("data_adesao");
+        int status = campos.getInteger("status");
+        String telefone = novoTelefone;
         ObjectId idTelefone = cliente.getObjectId("id_telefone");
         
-        if (!telefone.isEmpty()) {
+        if (telefone.isEmpty()) {
+            // mantem o atual: so embute o numero que existe em telefones
+            Document atual = idTelefone != null ? telefones.find(Filters.eq("_id", idTelefone)).first() : null;
+            telefone = atual != null ? atual.getString("numero") : null;
+        } else {
             Document telefoneExistente = telefones.find(Filters.eq("numero", telefone)).first();
             if (telefoneExistente != null) {
+                if (telefoneEmUso(telefoneExistente, id)) {
+                    System.out.println("Erro: Telefone já vinculado a outro cliente!");
+                    return;
+                }
                 idTelefone = telefoneExistente.getObjectId("_id");
-            } else {
+            } else if (idTelefone != null) {
                 telefones.updateOne(
                     Filters.eq("_id", idTelefone),
                     Updates.set("numero", telefone)
                 );
+            } else {
+                Document docTelefone = new Document("numero", telefone);
+                telefones.insertOne(docTelefone);
+                idTelefone = docTelefone.getObjectId("_id");
             }
         }
 
-        Document update = new Document("$set",
-            new Document("nome", nome)
-                .append("data_nascimento", dataNascimento)
-                .append("data_adesao", dataAdesao)
-                .append("status", status)
-                .append("id_telefone", idTelefone)
-        );
+        campos.append("id_telefone", idTelefone);
+        // grava os dois formatos enquanto a migracao de telefones nao termina; sem
+        // numero em telefones a copia embutida sai (o indice unico de telefone.numero
+        // nao pode receber texto de exibicao)
+        Document remover = new Document();
+        if (idTelefone != null && telefone != null) {
+            campos.append("telefone", MigracaoTelefones.telefoneEmbutido(idTelefone, telefone));
+        } else {
+            remover.append("telefone", "");
+        }
+        // as datas do contrato contam a partir da adesao
+        if (!dataAdesao.equals(cliente.getDate("data_adesao"))) {
+            Document plano = cliente.get("id_plano") != null
+                ? planos.find(Filters.eq("_id", cliente.get("id_plano"))).first() : null;
+            campos.putAll(Contratos.campos(dataAdesao, plano));
+        }
 
-        UpdateResult result = clientes.updateOne(new Document("_id", id), update);
+        Document update = new Document("$set", campos);
+        // data_inativacao marca o inicio do prazo para o Arquivamento; reativar a remove
+        if (status == 0 && cliente.getInteger("status") != 0) {
+            campos.append("data_inativacao", new Date());
+        } else if (status == 1) {
+            remover.append("data_inativacao", "");
+        }
+        if (!remover.isEmpty()) {
+            update.append("$unset", remover);
+        }
+
+        UpdateResult result;
+        try {
+            result = clientes.updateOne(new Document("_id", id), update);
+        } catch (MongoWriteException e) {
+            if (e.getError().getCode() != 11000) throw e;
+            System.out.println("Erro: Telefone já vinculado a outro cliente!");
+            return;
+        }
 
         if (result.getModifiedCount() > 0) {
             System.out.println("Cliente atualizado com sucesso!");
@@ -241,9 +325,10 @@ public class ClienteCRUD {
         
         if (confirmacao.equalsIgnoreCase("s")) {
             ObjectId idTelefone = cliente.getObjectId("id_telefone");
-            telefones.deleteOne(Filters.eq("_id", idTelefone));
-            
-            DeleteResult result = clientes.deleteOne(new Document("_id", id));
+            DeleteResult result = Rastreio.executar("cliente.deletar", "clientes", () -> {
+                telefones.deleteOne(Filters.eq("_id", idTelefone));
+                return clientes.deleteOne(new Document("_id", id));
+            });
             
             if (result.getDeletedCount() > 0) {
                 System.out.println("Cliente deletado com sucesso!");
@@ -265,10 +350,12 @@ public class ClienteCRUD {
         ObjectId idCliente = cliente.getObjectId("_id");
         ObjectId idPlano = plano.getObjectId("_id");
 
-        UpdateResult result = clientes.updateOne(
+        Document campos = new Document("id_plano", idPlano);
+        campos.putAll(Contratos.campos(cliente.getDate("data_adesao"), plano));
+        UpdateResult result = Rastreio.executar("cliente.vincular", "clientes", () -> clientes.updateOne(
             new Document("_id", idCliente),
-            new Document("$set", new Document("id_plano", idPlano))
-        );
+            new Document("$set", campos)
+        ));
 
         if (result.getModifiedCount() > 0) {
             System.out.println("Cliente '" + cliente.getString("nome") + 
@@ -278,6 +365,64 @@ public class ClienteCRUD {
         }
     }
 
+    /**
+     * busca por nome em clientes e em clientes_arquivo; um arquivado pode ser
+     * restaurado para voltar a ser editado
+     */
+    private void buscarComArquivados() {
+        System.out.print("Digite o nome ou parte do nome do cliente para buscar: ");
+        String busca = scanner.nextLine().trim();
+        if (busca.isEmpty()) {
+            System.out.println("Busca não pode estar vazia!");
+            return;
+        }
+
+        List<Document> resultados = Rastreio.executar("cliente.buscarArquivados", "clientes",
+            () -> Arquivamento.buscar(armazenamento, "clientes", Filters.regex("nome", ".*" + busca + ".*", "i"), true));
+        if (resultados.isEmpty()) {
+            System.out.println("Nenhum cliente encontrado com: '" + busca + "'");
+            return;
+        }
+
+        Tabela tabela = new Tabela("CLIENTES ENCONTRADOS",
+            Tabela.numero("#", 3), Tabela.coluna("Nome", 25), Tabela.coluna("Telefone", 15),
+            Tabela.coluna("Status", 8), Tabela.coluna("Situação", 0)).cabecalho();
+        int arquivados = 0;
+        for (int i = 0; i < resultados.size(); i++) {
+            Document doc = resultados.get(i);
+            boolean arquivado = doc.getBoolean("arquivado", false);
+            if (arquivado) arquivados++;
+            tabela.inteiro(i + 1)
+                  .texto(doc.getString("nome"))
+                  .texto(getTelefoneCliente(doc))
+                  .texto(doc.getInteger("status") == 1 ? "Ativo" : "Inativo")
+                  .texto(arquivado ? "Arquivado em " + Tabela.formatarData(doc.getDate("arquivado_em")) : "Em uso")
+                  .fimLinha();
+        }
+        tabela.rodape("Total: " + resultados.size() + " cliente(s), " + arquivados + " arquivado(s)");
+        if (arquivados == 0) return;
+
+        System.out.print("Número do cliente arquivado para restaurar (Enter para voltar): ");
+        String escolha = scanner.nextLine().trim();
+        if (escolha.isEmpty()) return;
+        try {
+            Document doc = resultados.get(Integer.parseInt(escolha) - 1);
+            if (!doc.getBoolean("arquivado", false)) {
+                System.out.println("Este cliente não está arquivado.");
+            } else if (Rastreio.executar("cliente.restaurar", "clientes",
+                           () -> Arquivamento.restaurar(armazenamento, "clientes", doc.get("_id")))) {
+                System.out.println("Cliente restaurado com sucesso!");
+            } else {
+                System.out.println("Cliente não encontrado no arquivo.");
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.out.println("Seleção inválida!");
+        } catch (MongoBulkWriteException e) {
+            // indice unico em telefone.numero
+            System.out.println("Erro: o telefone deste cliente já está vinculado a outro cliente!");
+        }
+    }
+
     /**
      * metodo auxiliar para selecionar um cliente pelo nome
      */
@@ -291,9 +436,9 @@ public class ClienteCRUD {
         }
 
         // busca por nomes que contenham o texto digitado (case insensitive)
-        List<Document> resultados = new ArrayList<>();
-        clientes.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
-                 .into(resultados);
+        List<Document> resultados = Rastreio.executar("cliente.buscar", "clientes",
+            () -> clientes.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
+                          .into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhum cliente encontrado com: '" + busca + "'");
@@ -344,8 +489,7 @@ public class ClienteCRUD {
      * metodo auxiliar para selecionar um plano
      */
     private Document selecionarPlano() {
-        long totalPlanos = planos.countDocuments();
-        if (totalPlanos == 0) {
+        if (estatisticas.vazia(planos)) {
             System.out.println("Nenhum plano cadastrado!");
             return null;
         }
@@ -353,17 +497,10 @@ public class ClienteCRUD {
         System.out.print("Digite o nome ou parte do nome do plano para buscar: ");
         String busca = scanner.nextLine().trim();
 
-        List<Document> resultados;
-        if (busca.isEmpty()) {
-            // se busca vazia, mostra todos os planos
-            resultados = new ArrayList<>();
-            planos.find().into(resultados);
-        } else {
-            // busca por nomes que contenham o texto digitado (case insensitive)
-            resultados = new ArrayList<>();
-            planos.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
-                   .into(resultados);
-        }
+        // busca vazia mostra todos os planos; senao, nomes que contenham o texto (case insensitive)
+        List<Document> resultados = Rastreio.executar("plano.buscar", "planos", () -> busca.isEmpty()
+            ? planos.find().into(new ArrayList<>())
+            : planos.find(Filters.regex("nome", ".*" + busca + ".*", "i")).into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhum plano encontrado com: '" + busca + "'");
@@ -409,9 +546,14 @@ public class ClienteCRUD {
     }
 
     /**
-     * obtem o telefone do cliente
+     * obtem o telefone do cliente: o embutido, se o cliente ja foi migrado, ou o
+     * documento de telefones apontado por id_telefone
      */
     private String getTelefoneCliente(Document cliente) {
+        String embutido = MigracaoTelefones.numeroEmbutido(cliente);
+        if (embutido != null) {
+            return embutido;
+        }
         if (cliente.get("id_telefone") == null) {
             return "Não cadastrado";
         }
@@ -421,6 +563,19 @@ public class ClienteCRUD {
         return telefone != null ? telefone.getString("numero") : "Não encontrado";
     }
 
+    /**
+     * metodo auxiliar que verifica se o telefone ja pertence a outro cliente, no
+     * formato novo (telefone embutido) ou no antigo (id_telefone)
+     */
+    private boolean telefoneEmUso(Document telefone, ObjectId idCliente) {
+        Bson outroCliente = idCliente != null ? Filters.ne("_id", idCliente) : new Document();
+        return clientes.find(Filters.and(
+            Filters.or(
+                Filters.eq("telefone.numero", telefone.getString("numero")),
+                Filters.eq("id_telefone", telefone.getObjectId("_id"))),
+            outroCliente)).first() != null;
+    }
+
     // conversao de data para Date (obrigatorio)
     private Date inputDate(String msg) {
         SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
@@ -0,0 +1,92 @@
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+
+/**
+ * collection de documentos de um Armazenamento. espelha o subconjunto da
+ * MongoCollection que a aplicacao usa, com os mesmos filtros e updates
+ * (Filters, Updates, Document) e os mesmos tipos de resultado do driver.
+ */
+public interface Colecao {
+
+    String getNome();
+
+    Busca find();
+
+    Busca find(Bson filtro);
+
+    Resultados aggregate(List<? extends Bson> pipeline);
+
+    /**
+     * aggregate com tempo maximo de execucao; estourado, a iteracao lanca
+     * MongoExecutionTimeoutException
+     */
+    Resultados aggregate(List<? extends Bson> pipeline, long maxTimeMs);
+
+    /**
+     * insere o documento; se ele nao tiver _id, um ObjectId e gerado e gravado nele
+     */
+    void insertOne(Document documento);
+
+    /**
+     * insere os documentos; com ordenado=false continua depois de um erro
+     * e reporta todos no final, como o insertMany nao ordenado do driver
+     */
+    void insertMany(List<Document> documentos, boolean ordenado);
+
+    default void insertMany(List<Document> documentos) {
+        insertMany(documentos, true);
+    }
+
+    UpdateResult updateOne(Bson filtro, Bson atualizacao, UpdateOptions opcoes);
+
+    default UpdateResult updateOne(Bson filtro, Bson atualizacao) {
+        return updateOne(filtro, atualizacao, new UpdateOptions());
+    }
+
+    UpdateResult updateMany(Bson filtro, Bson atualizacao, UpdateOptions opcoes);
+
+    default UpdateResult updateMany(Bson filtro, Bson atualizacao) {
+        return updateMany(filtro, atualizacao, new UpdateOptions());
+    }
+
+    /**
+     * varias escritas (InsertOneModel, UpdateOneModel, UpdateManyModel, DeleteOneModel,
+     * DeleteManyModel) em uma ida ao servidor; com ordenado=false continua depois de um
+     * erro e lanca MongoBulkWriteException com todos no final
+     */
+    BulkWriteResult bulkWrite(List<? extends WriteModel<Document>> operacoes, boolean ordenado);
+
+    DeleteResult deleteOne(Bson filtro);
+
+    DeleteResult deleteMany(Bson filtro);
+
+    long countDocuments(Bson filtro);
+
+    default long countDocuments() {
+        return countDocuments(new Document());
+    }
+
+    /**
+     * contagem pelos metadados da collection, sem filtro e sem varredura
+     */
+    long estimatedDocumentCount();
+
+    /**
+     * cria o indice se ainda nao existir e retorna o nome dele
+     */
+    String createIndex(Bson chaves, IndexOptions opcoes);
+
+    default String createIndex(Bson chaves) {
+        return createIndex(chaves, new IndexOptions());
+    }
+
+    void drop();
+}
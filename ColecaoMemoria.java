@@ -0,0 +1,903 @@
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.DeleteManyModel;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * collection em memoria. os documentos ficam em um ConcurrentHashMap por _id e
+ * em um mapa ordenado pela ordem de insercao (a "ordem natural" das listagens).
+ * cada indice secundario e um ConcurrentHashMap de valor -> _ids, usado para
+ * igualdade e $in; os demais filtros varrem a collection.
+ *
+ * leituras nao bloqueiam: os documentos guardados nunca sao alterados no lugar
+ * (cada escrita grava uma nova versao) e toda leitura entrega copias. as escritas
+ * sao serializadas por collection, para manter documentos e indices consistentes.
+ */
+class ColecaoMemoria implements Colecao {
+    private static final ServerAddress ENDERECO = new ServerAddress("memoria");
+    private static final int CHAVE_DUPLICADA = 11000;
+
+    private final ArmazenamentoMemoria armazenamento;
+    private final String nome;
+
+    /**
+     * versao guardada de um documento; seq da a ordem de insercao
+     */
+    private record Registro(long seq, Document doc) {
+    }
+
+    private final ConcurrentHashMap<Object, Registro> porId = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Registro> ordem = new ConcurrentSkipListMap<>();
+    private final List<Indice> indices = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequencia = new AtomicLong();
+    private final ReentrantLock escrita = new ReentrantLock();
+
+    ColecaoMemoria(ArmazenamentoMemoria armazenamento, String nome) {
+        this.armazenamento = armazenamento;
+        this.nome = nome;
+    }
+
+    /**
+     * indice secundario: os _id de cada valor do primeiro campo (multikey para arrays).
+     * os campos seguintes so entram na verificacao de unicidade.
+     */
+    private static final class Indice {
+        final String nome;
+        final List<String> campos;
+        final Document especificacao;
+        final boolean unico;
+        final Document parcial;
+        final ConcurrentHashMap<Object, Set<Object>> entradas = new ConcurrentHashMap<>();
+
+        Indice(String nome, Document especificacao, boolean unico, Document parcial) {
+            this.nome = nome;
+            this.campos = new ArrayList<>(especificacao.keySet());
+            this.especificacao = especificacao;
+            this.unico = unico;
+            this.parcial = parcial;
+        }
+
+        boolean cobre(Document doc) {
+            return parcial == null || FiltroMemoria.corresponde(doc, parcial);
+        }
+
+        void adicionar(Object id, Document doc) {
+            if (!cobre(doc)) return;
+            for (Object chave : BsonMemoria.chavesIndice(doc, campos.get(0))) {
+                entradas.computeIfAbsent(chave, k -> ConcurrentHashMap.newKeySet()).add(id);
+            }
+        }
+
+        void remover(Object id, Document doc) {
+            if (!cobre(doc)) return;
+            for (Object chave : BsonMemoria.chavesIndice(doc, campos.get(0))) {
+                removerChave(chave, id);
+            }
+        }
+
+        /**
+         * tira as entradas da versao antiga que a nova versao do mesmo _id nao tem
+         */
+        void removerObsoletas(Object id, Document antigo, Document novo) {
+            if (!cobre(antigo)) return;
+            Set<Object> mantidas = cobre(novo) ? new HashSet<>(BsonMemoria.chavesIndice(novo, campos.get(0))) : Set.of();
+            for (Object chave : BsonMemoria.chavesIndice(antigo, campos.get(0))) {
+                if (!mantidas.contains(chave)) {
+                    removerChave(chave, id);
+                }
+            }
+        }
+
+        private void removerChave(Object chave, Object id) {
+            Set<Object> ids = entradas.get(chave);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    entradas.remove(chave, ids);
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getNome() {
+        return nome;
+    }
+
+    // leitura
+
+    @Override
+    public Busca find() {
+        return new BuscaMemoria(new Document());
+    }
+
+    @Override
+    public Busca find(Bson filtro) {
+        return new BuscaMemoria(BsonMemoria.documento(filtro));
+    }
+
+    @Override
+    public Resultados aggregate(List<? extends Bson> pipeline) {
+        return aggregate(pipeline, 0);
+    }
+
+    @Override
+    public Resultados aggregate(List<? extends Bson> pipeline, long maxTimeMs) {
+        List<Document> estagios = new ArrayList<>(pipeline.size());
+        for (Bson estagio : pipeline) {
+            estagios.add(BsonMemoria.documento(estagio));
+        }
+        return () -> {
+            // um $match inicial aproveita os indices, como no servidor
+            Document filtro = new Document();
+            List<Document> resto = estagios;
+            if (!estagios.isEmpty() && estagios.get(0).get("$match") instanceof Document match) {
+                filtro = match;
+                resto = estagios.subList(1, estagios.size());
+            }
+            List<Document> entrada = new ArrayList<>();
+            for (Registro registro : candidatos(filtro)) {
+                if (FiltroMemoria.corresponde(registro.doc(), filtro)) {
+                    entrada.add(BsonMemoria.copiar(registro.doc()));
+                }
+            }
+            long prazo = maxTimeMs > 0 ? System.nanoTime() + maxTimeMs * 1_000_000 : 0;
+            List<Document> saida = new AgregacaoMemoria(armazenamento, prazo).executar(entrada, resto);
+            registrar(saida.size());
+            return cursor(saida.iterator());
+        };
+    }
+
+    @Override
+    public long countDocuments(Bson filtro) {
+        Document condicao = BsonMemoria.documento(filtro);
+        if (condicao.isEmpty()) {
+            return porId.size();
+        }
+        long total = 0;
+        for (Registro registro : candidatos(condicao)) {
+            if (FiltroMemoria.corresponde(registro.doc(), condicao)) {
+                total++;
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public long estimatedDocumentCount() {
+        return porId.size();
+    }
+
+    /**
+     * busca dos documentos com um valor no campo, para o $lookup: pelo _id ou por um
+     * indice quando houver, senao por um mapa montado uma vez com a collection inteira
+     */
+    Function<Object, List<Document>> juncao(String campo) {
+        if (campo.equals("_id")) {
+            return chave -> {
+                Registro registro = porId.get(chave);
+                return registro != null ? List.of(registro.doc()) : List.of();
+            };
+        }
+        Indice indice = indiceSimples(campo);
+        if (indice != null) {
+            return chave -> {
+                List<Document> docs = new ArrayList<>();
+                for (Object id : indice.entradas.getOrDefault(chave, Collections.emptySet())) {
+                    Registro registro = porId.get(id);
+                    if (registro != null) {
+                        docs.add(registro.doc());
+                    }
+                }
+                return docs;
+            };
+        }
+        Map<Object, List<Document>> grupos = new HashMap<>();
+        for (Registro registro : ordem.values()) {
+            for (Object chave : BsonMemoria.chavesIndice(registro.doc(), campo)) {
+                grupos.computeIfAbsent(chave, k -> new ArrayList<>()).add(registro.doc());
+            }
+        }
+        return chave -> grupos.getOrDefault(chave, List.of());
+    }
+
+    /**
+     * registros que podem atender ao filtro: pelo _id, por um indice de igualdade/$in
+     * ou, sem indice aplicavel, a collection inteira na ordem de insercao
+     */
+    private Iterable<Registro> candidatos(Document filtro) {
+        Collection<Object> ids = planejar(filtro);
+        if (ids == null) {
+            return ordem.values();
+        }
+        List<Registro> registros = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            Registro registro = porId.get(id);
+            if (registro != null) {
+                registros.add(registro);
+            }
+        }
+        if (registros.size() > 1) {
+            registros.sort(Comparator.comparingLong(Registro::seq));
+        }
+        return registros;
+    }
+
+    private Collection<Object> planejar(Document filtro) {
+        for (Map.Entry<String, Object> entrada : filtro.entrySet()) {
+            String campo = entrada.getKey();
+            if (campo.equals("$and")) {
+                for (Object sub : (List<?>) entrada.getValue()) {
+                    Collection<Object> ids = planejar((Document) sub);
+                    if (ids != null) return ids;
+                }
+                continue;
+            }
+            if (campo.startsWith("$")) {
+                continue;
+            }
+            List<?> valores = valoresIgualdade(entrada.getValue());
+            if (valores == null) {
+                continue;
+            }
+            if (campo.equals("_id")) {
+                Set<Object> ids = new LinkedHashSet<>();
+                for (Object valor : valores) {
+                    ids.add(BsonMemoria.chave(valor));
+                }
+                return ids;
+            }
+            Indice indice = indiceSimples(campo);
+            if (indice != null) {
+                Set<Object> ids = new LinkedHashSet<>();
+                for (Object valor : valores) {
+                    ids.addAll(indice.entradas.getOrDefault(BsonMemoria.chave(valor), Collections.emptySet()));
+                }
+                return ids;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * valores de uma condicao de igualdade ou $in que um indice de hash consegue atender
+     */
+    private static List<?> valoresIgualdade(Object condicao) {
+        if (condicao instanceof Document d && FiltroMemoria.ehOperadores(d)) {
+            if (d.size() == 1 && d.get("$eq") != null && indexavel(d.get("$eq"))) {
+                return List.of(d.get("$eq"));
+            }
+            if (d.size() == 1 && d.get("$in") instanceof List<?> opcoes && opcoes.stream().allMatch(ColecaoMemoria::indexavel)) {
+                return opcoes;
+            }
+            return null;
+        }
+        return indexavel(condicao) ? Collections.singletonList(condicao) : null;
+    }
+
+    private static boolean indexavel(Object valor) {
+        return !(valor instanceof Document) && !(valor instanceof List<?>) && FiltroMemoria.regex(valor) == null;
+    }
+
+    private Indice indiceSimples(String campo) {
+        for (Indice indice : indices) {
+            if (indice.parcial == null && indice.campos.get(0).equals(campo)) {
+                return indice;
+            }
+        }
+        return null;
+    }
+
+    // escrita
+
+    @Override
+    public void insertOne(Document documento) {
+        escrita.lock();
+        try {
+            inserir(documento);
+        } finally {
+            escrita.unlock();
+        }
+        registrar(1);
+    }
+
+    @Override
+    public void insertMany(List<Document> documentos, boolean ordenado) {
+        List<BulkWriteError> erros = new ArrayList<>();
+        int inseridos = 0;
+        escrita.lock();
+        try {
+            for (int i = 0; i < documentos.size(); i++) {
+                try {
+                    inserir(documentos.get(i));
+                    inseridos++;
+                } catch (MongoWriteException e) {
+                    erros.add(new BulkWriteError(e.getError().getCode(), e.getError().getMessage(), new BsonDocument(), i));
+                    if (ordenado) break;
+                }
+            }
+        } finally {
+            escrita.unlock();
+        }
+        registrar(inseridos);
+        if (!erros.isEmpty()) {
+            throw new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(inseridos, 0, 0, 0, Collections.emptyList()),
+                erros, null, ENDERECO);
+        }
+    }
+
+    /**
+     * insere com a trava de escrita ja adquirida; gera o _id no documento original, como o driver
+     */
+    private void inserir(Document documento) {
+        if (!documento.containsKey("_id")) {
+            documento.put("_id", new ObjectId());
+        }
+        Document doc = normalizar(documento);
+        Object id = BsonMemoria.chave(doc.get("_id"));
+        if (porId.containsKey(id)) {
+            throw duplicada("_id_", doc.get("_id"));
+        }
+        verificarUnicos(id, doc);
+        Registro registro = new Registro(sequencia.incrementAndGet(), doc);
+        porId.put(id, registro);
+        ordem.put(registro.seq(), registro);
+        for (Indice indice : indices) {
+            indice.adicionar(id, doc);
+        }
+    }
+
+    @Override
+    public UpdateResult updateOne(Bson filtro, Bson atualizacao, UpdateOptions opcoes) {
+        return atualizar(filtro, atualizacao, opcoes, false);
+    }
+
+    @Override
+    public UpdateResult updateMany(Bson filtro, Bson atualizacao, UpdateOptions opcoes) {
+        return atualizar(filtro, atualizacao, opcoes, true);
+    }
+
+    private UpdateResult atualizar(Bson filtro, Bson atualizacao, UpdateOptions opcoes, boolean varios) {
+        UpdateResult resultado;
+        escrita.lock();
+        try {
+            resultado = atualizarTravado(filtro, atualizacao, opcoes, varios);
+        } finally {
+            escrita.unlock();
+        }
+        registrar(escritos(resultado));
+        return resultado;
+    }
+
+    /**
+     * updateOne/updateMany com a trava de escrita ja adquirida; nao registra no evento
+     * JFR (quem chama registra uma vez so, como o bulkWrite)
+     */
+    private UpdateResult atualizarTravado(Bson filtro, Bson atualizacao, UpdateOptions opcoes, boolean varios) {
+        Document condicao = BsonMemoria.documento(filtro);
+        List<Document> filtrosArray = new ArrayList<>();
+        if (opcoes.getArrayFilters() != null) {
+            for (Bson filtroArray : opcoes.getArrayFilters()) {
+                filtrosArray.add(BsonMemoria.documento(filtroArray));
+            }
+        }
+        AtualizacaoMemoria update = new AtualizacaoMemoria(BsonMemoria.documento(atualizacao), filtrosArray);
+
+        long encontrados = 0;
+        long modificados = 0;
+        for (Registro registro : candidatos(condicao)) {
+            if (!FiltroMemoria.corresponde(registro.doc(), condicao)) {
+                continue;
+            }
+            encontrados++;
+            Document novo = BsonMemoria.copiar(registro.doc());
+            update.aplicar(novo, false);
+            if (!novo.equals(registro.doc())) {
+                substituir(registro, novo);
+                modificados++;
+            }
+            if (!varios) break;
+        }
+
+        if (encontrados == 0 && opcoes.isUpsert()) {
+            Document novo = documentoUpsert(condicao);
+            update.aplicar(novo, true);
+            inserir(novo);
+            return UpdateResult.acknowledged(0, 0L, BsonMemoria.bsonValor(novo.get("_id")));
+        }
+        return UpdateResult.acknowledged(encontrados, modificados, null);
+    }
+
+    /**
+     * documentos gravados por um update ou replace: os modificados ou o inserido pelo upsert
+     */
+    private static long escritos(UpdateResult resultado) {
+        return resultado.getModifiedCount() + (resultado.getUpsertedId() != null ? 1 : 0);
+    }
+
+    /**
+     * replaceOne: troca o primeiro documento do filtro inteiro, mantendo o _id; com
+     * upsert, insere o substituto (com o _id do filtro, se ele nao trouxer um). so
+     * existe no bulkWrite, que ja tem a trava de escrita e registra no evento JFR
+     */
+    private UpdateResult substituirPorFiltro(Bson filtro, Document substituto, boolean upsert) {
+        Document condicao = BsonMemoria.documento(filtro);
+        for (Registro registro : candidatos(condicao)) {
+            if (!FiltroMemoria.corresponde(registro.doc(), condicao)) {
+                continue;
+            }
+            Document novo = BsonMemoria.copiar(substituto);
+            if (!novo.containsKey("_id")) {
+                novo.put("_id", registro.doc().get("_id"));
+            }
+            if (novo.equals(registro.doc())) {
+                return UpdateResult.acknowledged(1, 0L, null);
+            }
+            substituir(registro, novo);
+            return UpdateResult.acknowledged(1, 1L, null);
+        }
+        if (!upsert) {
+            return UpdateResult.acknowledged(0, 0L, null);
+        }
+        Document novo = documentoUpsert(condicao);
+        novo.putAll(BsonMemoria.copiar(substituto));
+        inserir(novo);
+        return UpdateResult.acknowledged(0, 0L, BsonMemoria.bsonValor(novo.get("_id")));
+    }
+
+    /**
+     * documento inicial de um upsert: os campos de igualdade do filtro
+     */
+    private static Document documentoUpsert(Document condicao) {
+        Document novo = new Document();
+        for (Map.Entry<String, Object> entrada : condicao.entrySet()) {
+            String campo = entrada.getKey();
+            Object valor = entrada.getValue();
+            if (campo.equals("$and")) {
+                for (Object sub : (List<?>) valor) {
+                    novo.putAll(documentoUpsert((Document) sub));
+                }
+            } else if (!campo.startsWith("$") && !campo.contains(".")) {
+                if (!FiltroMemoria.ehOperadores(valor) && FiltroMemoria.regex(valor) == null) {
+                    novo.put(campo, BsonMemoria.copiar(valor));
+                } else if (valor instanceof Document d && d.size() == 1 && d.containsKey("$eq")) {
+                    novo.put(campo, BsonMemoria.copiar(d.get("$eq")));
+                }
+            }
+        }
+        return novo;
+    }
+
+    /**
+     * troca a versao guardada de um documento, com a trava de escrita ja adquirida.
+     * as leituras nao pegam a trava: as entradas novas entram nos indices antes de a
+     * versao nova ser publicada, e as antigas so saem depois, entao uma busca pelo
+     * indice sempre encontra o documento (o filtro e reaplicado sobre a versao lida)
+     */
+    private void substituir(Registro antigo, Document novo) {
+        Object id = BsonMemoria.chave(antigo.doc().get("_id"));
+        if (!BsonMemoria.iguais(antigo.doc().get("_id"), novo.get("_id"))) {
+            throw new MongoWriteException(new WriteError(66,
+                "Performing an update on the path '_id' would modify the immutable field '_id'", new BsonDocument()), ENDERECO);
+        }
+        novo = normalizar(novo);
+        verificarUnicos(id, novo);
+        Registro registro = new Registro(antigo.seq(), novo);
+        for (Indice indice : indices) {
+            indice.adicionar(id, novo);
+        }
+        porId.put(id, registro);
+        ordem.put(registro.seq(), registro);
+        for (Indice indice : indices) {
+            indice.removerObsoletas(id, antigo.doc(), novo);
+        }
+    }
+
+    @Override
+    public BulkWriteResult bulkWrite(List<? extends WriteModel<Document>> operacoes, boolean ordenado) {
+        List<BulkWriteError> erros = new ArrayList<>();
+        List<BulkWriteUpsert> upserts = new ArrayList<>();
+        int inseridos = 0;
+        int encontrados = 0;
+        int modificados = 0;
+        int excluidos = 0;
+        // as operacoes rodam pelos caminhos internos dentro de uma trava so, sem
+        // intercalar com outras escritas, e o lote registra no evento JFR uma vez
+        escrita.lock();
+        try {
+            for (int i = 0; i < operacoes.size(); i++) {
+                WriteModel<Document> operacao = operacoes.get(i);
+                try {
+                    if (operacao instanceof InsertOneModel<Document> m) {
+                        inserir(m.getDocument());
+                        inseridos++;
+                    } else if (operacao instanceof UpdateOneModel<Document> m) {
+                        UpdateResult r = atualizarTravado(m.getFilter(), m.getUpdate(), m.getOptions(), false);
+                        if (r.getUpsertedId() != null) {
+                            upserts.add(new BulkWriteUpsert(i, r.getUpsertedId()));
+                        }
+                        encontrados += (int) r.getMatchedCount();
+                        modificados += (int) r.getModifiedCount();
+                    } else if (operacao instanceof UpdateManyModel<Document> m) {
+                        UpdateResult r = atualizarTravado(m.getFilter(), m.getUpdate(), m.getOptions(), true);
+                        if (r.getUpsertedId() != null) {
+                            upserts.add(new BulkWriteUpsert(i, r.getUpsertedId()));
+                        }
+                        encontrados += (int) r.getMatchedCount();
+                        modificados += (int) r.getModifiedCount();
+                    } else if (operacao instanceof ReplaceOneModel<Document> m) {
+                        UpdateResult r = substituirPorFiltro(m.getFilter(), m.getReplacement(), m.getReplaceOptions().isUpsert());
+                        if (r.getUpsertedId() != null) {
+                            upserts.add(new BulkWriteUpsert(i, r.getUpsertedId()));
+                        }
+                        encontrados += (int) r.getMatchedCount();
+                        modificados += (int) r.getModifiedCount();
+                    } else if (operacao instanceof DeleteOneModel<Document> m) {
+                        excluidos += (int) excluirTravado(m.getFilter(), false);
+                    } else if (operacao instanceof DeleteManyModel<Document> m) {
+                        excluidos += (int) excluirTravado(m.getFilter(), true);
+                    } else {
+                        throw FiltroMemoria.naoSuportado(operacao.getClass().getSimpleName());
+                    }
+                } catch (MongoWriteException e) {
+                    erros.add(new BulkWriteError(e.getError().getCode(), e.getError().getMessage(), new BsonDocument(), i));
+                    if (ordenado) break;
+                }
+            }
+        } finally {
+            escrita.unlock();
+        }
+        registrar(inseridos + modificados + upserts.size() + excluidos);
+        BulkWriteResult resultado = BulkWriteResult.acknowledged(inseridos, encontrados, excluidos, modificados, upserts);
+        if (!erros.isEmpty()) {
+            throw new MongoBulkWriteException(resultado, erros, null, ENDERECO);
+        }
+        return resultado;
+    }
+
+    @Override
+    public DeleteResult deleteOne(Bson filtro) {
+        return excluir(filtro, false);
+    }
+
+    @Override
+    public DeleteResult deleteMany(Bson filtro) {
+        return excluir(filtro, true);
+    }
+
+    private DeleteResult excluir(Bson filtro, boolean varios) {
+        long excluidos;
+        escrita.lock();
+        try {
+            excluidos = excluirTravado(filtro, varios);
+        } finally {
+            escrita.unlock();
+        }
+        registrar(excluidos);
+        return DeleteResult.acknowledged(excluidos);
+    }
+
+    /**
+     * deleteOne/deleteMany com a trava de escrita ja adquirida, sem registrar no evento JFR
+     */
+    private long excluirTravado(Bson filtro, boolean varios) {
+        Document condicao = BsonMemoria.documento(filtro);
+        long excluidos = 0;
+        for (Registro registro : candidatos(condicao)) {
+            if (!FiltroMemoria.corresponde(registro.doc(), condicao)) {
+                continue;
+            }
+            Object id = BsonMemoria.chave(registro.doc().get("_id"));
+            porId.remove(id);
+            ordem.remove(registro.seq());
+            for (Indice indice : indices) {
+                indice.remover(id, registro.doc());
+            }
+            excluidos++;
+            if (!varios) break;
+        }
+        return excluidos;
+    }
+
+    @Override
+    public String createIndex(Bson chaves, IndexOptions opcoes) {
+        Document especificacao = BsonMemoria.documento(chaves);
+        StringBuilder nomePadrao = new StringBuilder();
+        for (Map.Entry<String, Object> campo : especificacao.entrySet()) {
+            if (nomePadrao.length() > 0) nomePadrao.append('_');
+            nomePadrao.append(campo.getKey()).append('_').append(campo.getValue());
+        }
+        String nomeIndice = opcoes.getName() != null ? opcoes.getName() : nomePadrao.toString();
+        Document parcial = opcoes.getPartialFilterExpression() != null
+            ? BsonMemoria.documento(opcoes.getPartialFilterExpression()) : null;
+
+        escrita.lock();
+        try {
+            for (Indice existente : indices) {
+                if (existente.especificacao.equals(especificacao) || existente.nome.equals(nomeIndice)) {
+                    return existente.nome;
+                }
+            }
+            Indice indice = new Indice(nomeIndice, especificacao, opcoes.isUnique(), parcial);
+            for (Registro registro : ordem.values()) {
+                Object id = BsonMemoria.chave(registro.doc().get("_id"));
+                if (indice.unico && duplicadoEm(indice, id, registro.doc())) {
+                    throw new MongoCommandException(new BsonDocument("ok", new BsonInt32(0))
+                        .append("code", new BsonInt32(CHAVE_DUPLICADA))
+                        .append("errmsg", new BsonString("E11000 duplicate key error collection: " + nome
+                            + " index: " + nomeIndice)), ENDERECO);
+                }
+                indice.adicionar(id, registro.doc());
+            }
+            indices.add(indice);
+            return nomeIndice;
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    @Override
+    public void drop() {
+        escrita.lock();
+        try {
+            porId.clear();
+            ordem.clear();
+            indices.clear();
+        } finally {
+            escrita.unlock();
+        }
+    }
+
+    // auxiliares
+
+    private void verificarUnicos(Object id, Document doc) {
+        for (Indice indice : indices) {
+            if (indice.unico && duplicadoEm(indice, id, doc)) {
+                throw duplicada(indice.nome, BsonMemoria.valor(doc, indice.campos.get(0)));
+            }
+        }
+    }
+
+    private boolean duplicadoEm(Indice indice, Object id, Document doc) {
+        if (!indice.cobre(doc)) {
+            return false;
+        }
+        for (Object chave : BsonMemoria.chavesIndice(doc, indice.campos.get(0))) {
+            for (Object outroId : indice.entradas.getOrDefault(chave, Collections.emptySet())) {
+                if (outroId.equals(id)) continue;
+                Registro outro = porId.get(outroId);
+                if (outro != null && mesmosCamposSeguintes(indice, doc, outro.doc())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean mesmosCamposSeguintes(Indice indice, Document a, Document b) {
+        for (int i = 1; i < indice.campos.size(); i++) {
+            String campo = indice.campos.get(i);
+            if (!BsonMemoria.iguais(BsonMemoria.valor(a, campo), BsonMemoria.valor(b, campo))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MongoWriteException duplicada(String indice, Object valor) {
+        return new MongoWriteException(new WriteError(CHAVE_DUPLICADA,
+            "E11000 duplicate key error collection: " + nome + " index: " + indice + " dup key: { : " + valor + " }",
+            new BsonDocument()), ENDERECO);
+    }
+
+    /**
+     * copia o documento para a forma canonica (tipos do codec padrao, _id primeiro)
+     */
+    private static Document normalizar(Document documento) {
+        Document doc = BsonMemoria.documento(documento);
+        if (!doc.keySet().iterator().next().equals("_id")) {
+            Document reordenado = new Document("_id", doc.get("_id"));
+            for (Map.Entry<String, Object> campo : doc.entrySet()) {
+                reordenado.putIfAbsent(campo.getKey(), campo.getValue());
+            }
+            doc = reordenado;
+        }
+        return doc;
+    }
+
+    /**
+     * soma os documentos no evento JFR da operacao em andamento, como o MonitorComandos faz no MongoDB
+     */
+    private static void registrar(long documentos) {
+        Rastreio.Contexto contexto = Rastreio.atual();
+        if (contexto != null) {
+            contexto.registrar(0, 0, documentos);
+        }
+    }
+
+    private static Resultados.Cursor cursor(Iterator<Document> documentos) {
+        return new Resultados.Cursor() {
+            @Override
+            public boolean hasNext() {
+                return documentos.hasNext();
+            }
+
+            @Override
+            public Document next() {
+                return documentos.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * find preguicoso: sem sort, percorre os candidatos sob demanda e para no limit;
+     * com sort, materializa os documentos que atendem ao filtro e ordena
+     */
+    private final class BuscaMemoria implements Busca {
+        private final Document filtro;
+        private Document projecao;
+        private Document ordenacao;
+        private int pular;
+        private int limite;
+
+        BuscaMemoria(Document filtro) {
+            this.filtro = filtro;
+        }
+
+        @Override
+        public Busca projection(Bson projecao) {
+            this.projecao = projecao != null ? BsonMemoria.documento(projecao) : null;
+            return this;
+        }
+
+        @Override
+        public Busca sort(Bson ordem) {
+            this.ordenacao = ordem != null ? BsonMemoria.documento(ordem) : null;
+            return this;
+        }
+
+        @Override
+        public Busca skip(int quantidade) {
+            this.pular = quantidade;
+            return this;
+        }
+
+        @Override
+        public Busca limit(int quantidade) {
+            // limit negativo no driver significa "um lote so", com o mesmo total
+            this.limite = Math.abs(quantidade);
+            return this;
+        }
+
+        @Override
+        public Busca batchSize(int tamanho) {
+            // sem rede nao ha lotes: o cursor em memoria ja e preguicoso
+            return this;
+        }
+
+        @Override
+        public Cursor iterator() {
+            if (ordenacao != null && !ordenacao.isEmpty()) {
+                List<Document> todos = new ArrayList<>();
+                for (Registro registro : candidatos(filtro)) {
+                    if (FiltroMemoria.corresponde(registro.doc(), filtro)) {
+                        todos.add(registro.doc());
+                    }
+                }
+                todos.sort(AgregacaoMemoria.comparador(ordenacao));
+                int fim = limite > 0 ? Math.min(todos.size(), pular + limite) : todos.size();
+                List<Document> pagina = new ArrayList<>();
+                for (int i = pular; i < fim; i++) {
+                    pagina.add(entregar(todos.get(i)));
+                }
+                registrar(pagina.size());
+                return cursor(pagina.iterator());
+            }
+            return new CursorPreguicoso(candidatos(filtro).iterator());
+        }
+
+        private Document entregar(Document guardado) {
+            if (projecao == null || projecao.isEmpty()) {
+                return BsonMemoria.copiar(guardado);
+            }
+            return BsonMemoria.copiar(AgregacaoMemoria.projetar(guardado, projecao));
+        }
+
+        private final class CursorPreguicoso implements Cursor {
+            private final Iterator<Registro> registros;
+            private Document proximo;
+            private int pulados;
+            private int entregues;
+            private boolean fechado;
+
+            CursorPreguicoso(Iterator<Registro> registros) {
+                this.registros = registros;
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (proximo != null) return true;
+                if (fechado || (limite > 0 && entregues >= limite)) {
+                    close();
+                    return false;
+                }
+                while (registros.hasNext()) {
+                    Document doc = registros.next().doc();
+                    if (!FiltroMemoria.corresponde(doc, filtro)) continue;
+                    if (pulados < pular) {
+                        pulados++;
+                        continue;
+                    }
+                    proximo = entregar(doc);
+                    return true;
+                }
+                close();
+                return false;
+            }
+
+            @Override
+            public Document next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Document doc = proximo;
+                proximo = null;
+                entregues++;
+                return doc;
+            }
+
+            @Override
+            public void close() {
+                if (!fechado) {
+                    fechado = true;
+                    registrar(entregues);
+                }
+            }
+        }
+    }
+}
@@ -1,3 +1,5 @@
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoDatabase;
@@ -7,18 +9,33 @@ import java.util.logging.Logger;
 public class Conexao {
     private MongoClient mongoClient;
     private MongoDatabase database;
+    private MonitorComandos monitor = new MonitorComandos();
+    private DetectorLentas detector = new DetectorLentas();
     
     public Conexao() {
+        // string de conexao - ajuste se necessario
+        this("mongodb://localhost:27017", "academia_bd");
+    }
+
+    public Conexao(String connectionString, String databaseName) {
         try {
             // log apenas de nivel severo
             Logger mongoLogger = Logger.getLogger("org.mongodb.driver");
             mongoLogger.setLevel(Level.SEVERE);
-
-            // string de conexao - ajuste se necessario
-            String connectionString = "mongodb://localhost:27017";
-            String databaseName = "academia_bd";
             
-            this.mongoClient = MongoClients.create(connectionString);
+            // registra o monitor de comandos e do pool de conexoes e o detector de operacoes lentas
+            MongoClientSettings settings = MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(connectionString))
+                .addCommandListener(monitor)
+                .addCommandListener(detector)
+                // conexoes mantidas abertas desde o inicio, para as primeiras consultas nao pagarem handshake
+                .applyToConnectionPoolSettings(pool -> pool
+                    .minSize(Integer.getInteger("academia.pool.minimo", 4))
+                    .addConnectionPoolListener(monitor.getPoolListener()))
+                .build();
+
+            this.mongoClient = MongoClients.create(settings);
+            this.detector.setClient(mongoClient);
             this.database = mongoClient.getDatabase(databaseName);
         } catch (Exception ex) {
             Logger.getLogger(Conexao.class.getName()).log(Level.SEVERE, null, ex);
@@ -31,8 +48,21 @@ public class Conexao {
         return database;
     }
     
+    public MongoClient getClient() {
+        return mongoClient;
+    }
+
+    public MonitorComandos getMonitor() {
+        return monitor;
+    }
+    
+    public DetectorLentas getDetector() {
+        return detector;
+    }
+    
     public void closeConnection() {
         try {
+            detector.encerrar();
             if (this.mongoClient != null) {
                 this.mongoClient.close();
             }
@@ -0,0 +1,245 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.time.YearMonth;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * registro central de todas as formas de consulta e pipeline que a aplicacao
+ * executa, com valores de exemplo compativeis com os dados do GeradorDados.
+ * o VerificadorPlanos roda cada uma com explain e falha se alguma deixar de usar indice.
+ *
+ * ao criar ou alterar uma consulta em um CRUD ou relatorio, registre a forma aqui.
+ */
+public class ConsultasRegistradas {
+
+    /**
+     * uma forma de consulta: find (filtro + ordem opcional) ou aggregate (pipeline).
+     * varreduraPermitida marca as listagens completas, que por natureza leem a collection toda.
+     */
+    record Consulta(String nome, String colecao, Bson filtro, Bson ordem,
+                    List<? extends Bson> pipeline, boolean varreduraPermitida) {
+
+        static Consulta find(String nome, String colecao, Bson filtro) {
+            return new Consulta(nome, colecao, filtro, null, null, false);
+        }
+
+        static Consulta listagem(String nome, String colecao) {
+            return new Consulta(nome, colecao, new Document(), null, null, true);
+        }
+
+        static Consulta aggregate(String nome, String colecao, List<? extends Bson> pipeline,
+                                  boolean varreduraPermitida) {
+            return new Consulta(nome, colecao, null, null, pipeline, varreduraPermitida);
+        }
+
+        boolean isAggregate() {
+            return pipeline != null;
+        }
+    }
+
+    // valores de exemplo, iguais aos gerados com qualquer semente
+    private static final ObjectId CLIENTE     = GeradorDados.id(GeradorDados.TIPO_CLIENTE, 0);
+    private static final ObjectId TELEFONE    = GeradorDados.id(GeradorDados.TIPO_TELEFONE, 0);
+    private static final ObjectId PLANO       = GeradorDados.id(GeradorDados.TIPO_PLANO, 0);
+    private static final ObjectId BENEFICIO   = GeradorDados.id(GeradorDados.TIPO_BENEFICIO, 0);
+    private static final ObjectId CARGO       = GeradorDados.id(GeradorDados.TIPO_CARGO, 0);
+    private static final ObjectId FUNCIONARIO = GeradorDados.id(GeradorDados.TIPO_FUNCIONARIO, 0);
+    private static final ObjectId EQUIPAMENTO = GeradorDados.id(GeradorDados.TIPO_EQUIPAMENTO, 0);
+    private static final Date CORTE_ARQUIVO   = new Date(System.currentTimeMillis() - 365L * 86_400_000L);
+    private static final String COMPETENCIA   = "2024-01";
+    private static final Date INICIO_CHECKINS = new Date(System.currentTimeMillis() - 30L * 86_400_000L);
+
+    private static Bson buscaPorNome(String campo, String busca) {
+        return Filters.regex(campo, ".*" + busca + ".*", "i");
+    }
+
+    public static List<Consulta> todas() {
+        return List.of(
+            // BeneficioCRUD
+            Consulta.find("beneficio.porNome", "beneficios", Filters.eq("nome", "Sauna")),
+            Consulta.find("beneficio.nomeDuplicado", "beneficios",
+                Filters.and(Filters.eq("nome", "Sauna"), Filters.ne("_id", BENEFICIO))),
+            Consulta.find("beneficio.buscar", "beneficios", buscaPorNome("nome", "sauna")),
+            Consulta.listagem("beneficio.listar", "beneficios"),
+            Consulta.find("beneficio.planosDoBeneficio", "planos", Filters.eq("beneficios", BENEFICIO)),
+
+            // CargoCRUD
+            Consulta.find("cargo.porNome", "cargos", Filters.eq("nome", "Instrutor")),
+            Consulta.find("cargo.nomeDuplicado", "cargos",
+                Filters.and(Filters.eq("nome", "Instrutor"), Filters.ne("_id", CARGO))),
+            Consulta.find("cargo.buscar", "cargos", buscaPorNome("nome", "instr")),
+            Consulta.listagem("cargo.listar", "cargos"),
+
+            // ClienteCRUD
+            Consulta.find("cliente.buscar", "clientes", buscaPorNome("nome", "souza")),
+            Consulta.find("cliente.telefonePorNumero", "telefones", Filters.eq("numero", "47900000000")),
+            Consulta.find("cliente.telefonePorId", "telefones", Filters.eq("_id", TELEFONE)),
+            Consulta.find("cliente.planoPorId", "planos", Filters.eq("_id", PLANO)),
+            Consulta.find("cliente.buscarPlano", "planos", buscaPorNome("nome", "plano 1")),
+            Consulta.find("cliente.porId", "clientes", Filters.eq("_id", CLIENTE)),
+            Consulta.listagem("cliente.listar", "clientes"),
+            Consulta.find("cliente.telefoneEmUso", "clientes", Filters.and(
+                Filters.or(Filters.eq("telefone.numero", "47900000000"), Filters.eq("id_telefone", TELEFONE)),
+                Filters.ne("_id", CLIENTE))),
+
+            // EquipamentoCRUD
+            Consulta.find("equipamento.porModelo", "equipamentos", Filters.eq("modelo", "Esteira 1")),
+            Consulta.find("equipamento.modeloDuplicado", "equipamentos",
+                Filters.and(Filters.eq("modelo", "Esteira 1"), Filters.ne("_id", EQUIPAMENTO))),
+            Consulta.find("equipamento.buscar", "equipamentos", buscaPorNome("modelo", "esteira")),
+            Consulta.find("equipamento.manutencaoVinculada", "manutencoes", Filters.eq("id_equipamento", EQUIPAMENTO)),
+            Consulta.listagem("equipamento.listar", "equipamentos"),
+            Consulta.find("equipamento.disponiveis", "equipamentos", EquipamentoCRUD.disponiveis()),
+            Consulta.aggregate("equipamento.manutencoesAbertas", "manutencoes",
+                EquipamentoCRUD.pipelineManutencoesAbertas(), false),
+
+            // FuncionarioCRUD
+            Consulta.find("funcionario.porTelefone", "funcionarios", Filters.eq("telefone", "48900000000")),
+            Consulta.find("funcionario.telefoneDuplicado", "funcionarios",
+                Filters.and(Filters.eq("telefone", "48900000000"), Filters.ne("_id", FUNCIONARIO))),
+            Consulta.find("funcionario.porId", "funcionarios", Filters.eq("_id", FUNCIONARIO)),
+            Consulta.find("funcionario.buscar", "funcionarios", buscaPorNome("nome", "silva")),
+            Consulta.aggregate("funcionario.listar", "funcionarios", FuncionarioCRUD.pipelineListagem(), true),
+
+            // ManutencaoCRUD
+            Consulta.find("manutencao.buscarPorId", "manutencoes", Filters.regex("_id", "692e")),
+            Consulta.aggregate("manutencao.listar", "manutencoes", ManutencaoCRUD.pipelineListagem(), true),
+
+            // CustosManutencao: o $inc de cada escrita de manutencao
+            Consulta.find("custos.agregado", CustosManutencao.COLECAO,
+                CustosManutencao.chave(COMPETENCIA, EQUIPAMENTO, FUNCIONARIO)),
+            new Consulta("custos.loteDaReconstrucao", "manutencoes",
+                CustosManutencao.loteDaReconstrucao(GeradorDados.id(GeradorDados.TIPO_MANUTENCAO, 0),
+                                                    GeradorDados.id(GeradorDados.TIPO_MANUTENCAO, 1000)),
+                Sorts.ascending("_id"), null, false),
+            Consulta.find("custos.checkpoint", "migracoes", Filters.eq("_id", CustosManutencao.ID_RECONSTRUCAO)),
+
+            // AgendaManutencoes
+            new Consulta("agenda.emAberto", "manutencoes", AgendaManutencoes.emAberto(),
+                Sorts.ascending("data_prevista"), null, false),
+            Consulta.find("agenda.equipamentos", "equipamentos", Filters.in("_id", EQUIPAMENTO)),
+            Consulta.find("agenda.funcionarios", "funcionarios", Filters.in("_id", FUNCIONARIO)),
+
+            // PlanoCRUD
+            Consulta.find("plano.porNome", "planos", Filters.eq("nome", "Plano 1")),
+            Consulta.find("plano.nomeDuplicado", "planos",
+                Filters.and(Filters.eq("nome", "Plano 1"), Filters.ne("_id", PLANO))),
+            Consulta.find("plano.buscar", "planos", buscaPorNome("nome", "plano 1")),
+            Consulta.find("plano.buscarBeneficio", "beneficios", buscaPorNome("nome", "sauna")),
+            Consulta.listagem("plano.listar", "planos"),
+            Consulta.find("plano.beneficiosLegado", "beneficios", Filters.in("_id", BENEFICIO)),
+            new Consulta("plano.comBeneficio", "planos",
+                Filters.and(Filters.eq("beneficios_resumo._id", BENEFICIO), Filters.gt("_id", PLANO)),
+                Sorts.ascending("_id"), null, false),
+
+            // TelefoneCRUD
+            Consulta.find("telefone.porNumero", "telefones", Filters.eq("numero", "47900000000")),
+            Consulta.find("telefone.numeroDuplicado", "telefones",
+                Filters.and(Filters.eq("numero", "47900000001"), Filters.ne("numero", "47900000000"))),
+            Consulta.find("telefone.buscar", "telefones", Filters.regex("numero", ".*4790000001.*")),
+            Consulta.listagem("telefone.listar", "telefones"),
+            Consulta.find("telefone.clientesPorNumero", "clientes", Filters.eq("telefone.numero", "47900000000")),
+            Consulta.find("telefone.clientesDoTelefone", "clientes",
+                Filters.or(Filters.eq("telefone.numero", "47900000000"), Filters.eq("id_telefone", TELEFONE))),
+
+            // MigracaoTelefones
+            new Consulta("migracao.lote", "clientes", Filters.gt("_id", CLIENTE), Sorts.ascending("_id"), null, false),
+            Consulta.find("migracao.telefonesDoLote", "telefones", Filters.in("_id", TELEFONE)),
+            Consulta.find("migracao.numerosEmUso", "clientes", MigracaoTelefones.numerosEmUso(List.of("47900000000"))),
+            Consulta.aggregate("migracao.telefonesRepetidos", "clientes", Indices.pipelineTelefonesRepetidos(), true),
+            Consulta.find("migracao.numeroDesatualizado", "clientes",
+                MigracaoTelefones.numeroDesatualizado(TELEFONE, "47900000000")),
+            Consulta.find("migracao.checkpoint", "migracoes", Filters.eq("_id", MigracaoTelefones.ID_MIGRACAO)),
+
+            // MigracaoResumoBeneficios
+            new Consulta("migracao.resumoLote", "planos", Filters.gt("_id", PLANO), Sorts.ascending("_id"), null, false),
+            Consulta.find("migracao.beneficiosDoLote", "beneficios", Filters.in("_id", BENEFICIO)),
+            Consulta.find("migracao.resumoCheckpoint", "migracoes", Filters.eq("_id", MigracaoResumoBeneficios.ID_MIGRACAO)),
+
+            // Arquivamento
+            Consulta.find("arquivamento.inativosSemData", "clientes",
+                Filters.and(Filters.eq("status", 0), Filters.exists("data_inativacao", false))),
+            new Consulta("arquivamento.clientes", "clientes",
+                Filters.and(Arquivamento.clientesArquivaveis(CORTE_ARQUIVO), Filters.gt("_id", CLIENTE)),
+                Sorts.ascending("_id"), null, false),
+            new Consulta("arquivamento.funcionarios", "funcionarios",
+                Filters.and(Arquivamento.funcionariosArquivaveis(CORTE_ARQUIVO), Filters.gt("_id", FUNCIONARIO)),
+                Sorts.ascending("_id"), null, false),
+            Consulta.find("arquivamento.manutencoesDoLote", "manutencoes", Filters.in("id_funcionario", FUNCIONARIO)),
+            Consulta.find("arquivamento.copia", "clientes_arquivo", Filters.eq("_id", CLIENTE)),
+            Consulta.find("arquivamento.buscarClientes", "clientes_arquivo", buscaPorNome("nome", "souza")),
+            Consulta.find("arquivamento.buscarFuncionarios", "funcionarios_arquivo", buscaPorNome("nome", "silva")),
+
+            // Checkins
+            Consulta.find("checkin.clientesAtivos", "clientes",
+                Filters.and(Filters.eq("status", 1), Filters.in("id_plano", PLANO))),
+            Consulta.find("checkin.clienteForaDoCache", "clientes", Filters.eq("_id", CLIENTE)),
+            Consulta.listagem("checkin.planos", "planos"),
+            Consulta.find("checkin.gravadosDoLote", "checkins",
+                Checkins.gravadosDoLote(List.of(CLIENTE), INICIO_CHECKINS, new Date())),
+
+            // Contratos
+            new Consulta("contratos.clientesDoPlano", "clientes", Contratos.clientesDoPlano(PLANO, CLIENTE),
+                Sorts.ascending("_id"), null, false),
+            Consulta.aggregate("relatorio.contratosAVencer", "clientes",
+                Contratos.pipelineAVencer(CORTE_ARQUIVO, new Date()), false),
+
+            // Faturamento
+            new Consulta("faturamento.lote", "clientes",
+                Faturamento.loteDaFaixa(CLIENTE, GeradorDados.id(GeradorDados.TIPO_CLIENTE, 1000), CLIENTE),
+                Sorts.ascending("_id"), null, false),
+            new Consulta("faturamento.limitesDasFaixas", "clientes", new Document(), Sorts.ascending("_id"), null, true),
+            Consulta.listagem("faturamento.planos", "planos"),
+            Consulta.find("faturamento.fatura", "faturas",
+                Filters.and(Filters.eq("id_cliente", CLIENTE), Filters.eq("competencia", COMPETENCIA))),
+            new Consulta("faturamento.faixas", "faturamentos", Filters.eq("competencia", COMPETENCIA),
+                Sorts.ascending("_id"), null, false),
+            Consulta.aggregate("faturamento.totalCompetencia", "faturas", Faturamento.pipelineTotalCompetencia(COMPETENCIA), false),
+
+            // FolhaPagamento: a folha percorre os funcionarios do mes, quase todos os cadastrados
+            new Consulta("folha.funcionarios", "funcionarios",
+                FolhaPagamento.funcionariosDoMes(FolhaPagamento.inicio(YearMonth.parse(COMPETENCIA)),
+                                                 FolhaPagamento.inicio(YearMonth.parse(COMPETENCIA).plusMonths(1))),
+                Sorts.ascending("_id"), null, true),
+            Consulta.listagem("folha.cargos", "cargos"),
+
+            // RetencaoCoortes: os dois $group percorrem juntos todos os clientes, por definicao
+            Consulta.aggregate("coortes.fechados", "clientes",
+                RetencaoCoortes.pipeline(RetencaoCoortes.filtroFechados(RetencaoCoortes.inicio(YearMonth.parse(COMPETENCIA)))), true),
+            Consulta.aggregate("coortes.mesCorrente", "clientes",
+                RetencaoCoortes.pipeline(RetencaoCoortes.filtroMesCorrente(RetencaoCoortes.inicio(YearMonth.parse(COMPETENCIA)))), true),
+
+            // Relatorios
+            Consulta.aggregate("relatorio.clientesPorPlano", "planos", Relatorios.pipelineClientesPorPlano(), true),
+            Consulta.aggregate("relatorio.manutencoesPendentes", "manutencoes", Relatorios.pipelineManutencoesPendentes(), false),
+            Consulta.aggregate("relatorio.funcionariosAtivosPorCargo", "cargos", Relatorios.pipelineFuncionariosAtivosPorCargo(), true),
+            Consulta.aggregate("relatorio.ocupacaoAtual", "checkins", Relatorios.pipelineOcupacaoAtual(INICIO_CHECKINS), false),
+            Consulta.aggregate("relatorio.entradasPorHora", "checkins", Relatorios.pipelineEntradasPorHora(INICIO_CHECKINS), false),
+            Consulta.aggregate("relatorio.mapaDeCalor", "checkins", Relatorios.pipelineMapaDeCalor(INICIO_CHECKINS), false),
+            Consulta.aggregate("relatorio.usoPorPlano", "checkins", Relatorios.pipelineUsoPorPlano(INICIO_CHECKINS), false),
+            // custos de manutencao: os agregados mensais sao poucos, os totais percorrem todos
+            Consulta.aggregate("relatorio.custosPorEquipamento", CustosManutencao.COLECAO,
+                CustosManutencao.pipelinePorEquipamento(), true),
+            Consulta.aggregate("relatorio.custosPorMes", CustosManutencao.COLECAO,
+                CustosManutencao.pipelinePorMes(COMPETENCIA), false),
+            Consulta.aggregate("relatorio.custosPorTecnico", CustosManutencao.COLECAO,
+                CustosManutencao.pipelinePorTecnico(), true),
+
+            // planos x beneficios: o catalogo inteiro e o $group de todos os clientes ativos
+            Consulta.aggregate("relatorio.matrizBeneficios", "beneficios", Relatorios.pipelinePlanosPorBeneficio(), true),
+            Consulta.aggregate("relatorio.clientesAtivosPorPlano", "clientes", Relatorios.pipelineClientesAtivosPorPlano(), true),
+            Consulta.listagem("relatorio.planosDaMatriz", "planos"),
+            Consulta.find("relatorio.planosComBeneficio", "planos", Relatorios.planosComBeneficio(BENEFICIO)),
+            Consulta.aggregate("relatorio.clientesAtivosDosPlanos", "clientes",
+                Relatorios.pipelineClientesAtivosDosPlanos(List.of(PLANO)), false),
+
+            // Estatisticas: sonda de collection vazia (limit 1)
+            Consulta.listagem("estatisticas.vazia", "clientes")
+        );
+    }
+}
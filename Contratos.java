@@ -0,0 +1,149 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * datas derivadas do contrato de cada cliente, gravadas em clientes:
+ * data_fim_contrato (adesao + duracao do plano, em meses) e data_fim_fidelidade
+ * (adesao + fidelidade; null em planos sem fidelidade). com elas, "contratos que
+ * vencem no periodo" e uma faixa no indice {status, data_fim_contrato} em vez de
+ * uma varredura com calculo de datas por cliente.
+ *
+ * - ClienteCRUD grava as datas ao cadastrar, ao mudar a adesao e ao vincular um plano
+ * - PlanoCRUD recalcula os clientes do plano quando duracao ou fidelidade mudam
+ * - recalcularTodos preenche bases anteriores aos campos (main, GeradorDados)
+ */
+public class Contratos {
+    private static final int LOTE = 1000;
+    private static final ZoneId FUSO = ZoneId.systemDefault();
+
+    static Date somarMeses(Date data, int meses) {
+        return Date.from(data.toInstant().atZone(FUSO).plusMonths(meses).toInstant());
+    }
+
+    /**
+     * campos derivados para um $set; sem plano ou sem adesao as duas datas ficam null
+     */
+    static Document campos(Date adesao, Document plano) {
+        if (adesao == null || plano == null) {
+            return new Document("data_fim_contrato", null).append("data_fim_fidelidade", null);
+        }
+        int fidelidade = plano.getInteger("fidelidade", 0);
+        return new Document("data_fim_contrato", somarMeses(adesao, plano.getInteger("duracao", 0)))
+            .append("data_fim_fidelidade", fidelidade > 0 ? somarMeses(adesao, fidelidade) : null);
+    }
+
+    /**
+     * lote de clientes de um plano depois de ultimoId, em ordem de _id
+     */
+    static Bson clientesDoPlano(Object idPlano, Object ultimoId) {
+        return ultimoId != null ? Filters.and(Filters.eq("id_plano", idPlano), Filters.gt("_id", ultimoId))
+                                : Filters.eq("id_plano", idPlano);
+    }
+
+    /**
+     * recalcula as datas dos clientes do plano em lotes, com um bulkWrite por lote.
+     * cada update repete o plano e a adesao lidos: um cliente vinculado a outro plano
+     * ou com a adesao alterada no meio do caminho ja recebeu as datas certas do
+     * ClienteCRUD e nao e sobrescrito.
+     * @return quantidade de clientes alterados
+     */
+    static long recalcularPlano(Colecao clientes, Document plano) {
+        Object idPlano = plano.get("_id");
+        long alterados = 0;
+        Object ultimoId = null;
+        while (true) {
+            List<Document> lote = clientes.find(clientesDoPlano(idPlano, ultimoId))
+                .projection(Projections.include("data_adesao"))
+                .sort(Sorts.ascending("_id"))
+                .limit(LOTE)
+                .into(new ArrayList<>());
+            if (lote.isEmpty()) {
+                return alterados;
+            }
+            List<WriteModel<Document>> operacoes = new ArrayList<>(lote.size());
+            for (Document cliente : lote) {
+                Date adesao = cliente.getDate("data_adesao");
+                operacoes.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("_id", cliente.get("_id")), Filters.eq("id_plano", idPlano),
+                                Filters.eq("data_adesao", adesao)),
+                    new Document("$set", campos(adesao, plano))));
+            }
+            alterados += clientes.bulkWrite(operacoes, false).getModifiedCount();
+            if (lote.size() < LOTE) {
+                return alterados;
+            }
+            ultimoId = lote.get(lote.size() - 1).get("_id");
+        }
+    }
+
+    /**
+     * recalcula os clientes de todos os planos
+     * @return quantidade de clientes alterados
+     */
+    static long recalcularTodos(Armazenamento armazenamento) {
+        Colecao clientes = armazenamento.colecao("clientes");
+        long alterados = 0;
+        for (Document plano : armazenamento.colecao("planos").find()
+                                            .projection(Projections.include("duracao", "fidelidade"))) {
+            alterados += recalcularPlano(clientes, plano);
+        }
+        return alterados;
+    }
+
+    /**
+     * contratos ativos que terminam em [de, ate), do mais proximo ao mais distante,
+     * com o nome do plano (colecao: clientes)
+     */
+    static List<Document> pipelineAVencer(Date de, Date ate) {
+        return List.of(
+            new Document("$match", new Document("status", 1)
+                .append("data_fim_contrato", new Document("$gte", de).append("$lt", ate))),
+            new Document("$sort", new Document("data_fim_contrato", 1)),
+            new Document("$lookup", new Document()
+                .append("from", "planos")
+                .append("localField", "id_plano")
+                .append("foreignField", "_id")
+                .append("as", "plano")),
+            new Document("$project", new Document()
+                .append("nome", "$nome")
+                .append("telefone", "$telefone.numero")
+                .append("plano", new Document("$arrayElemAt", List.of("$plano.nome", 0)))
+                .append("data_fim_contrato", "$data_fim_contrato")
+                .append("data_fim_fidelidade", "$data_fim_fidelidade"))
+        );
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"   -> uri = args[++i];
+                case "--banco" -> banco = args[++i];
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Armazenamento armazenamento = new ArmazenamentoMongo(new Conexao(uri, banco));
+        try {
+            Indices.garantir(armazenamento);
+            System.out.println("Datas de contrato recalculadas: " + recalcularTodos(armazenamento) + " cliente(s).");
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+}
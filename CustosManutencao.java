@@ -0,0 +1,291 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * agregados mensais do custo de manutencao em custos_manutencao: um documento por
+ * mes ("yyyy-MM"), equipamento e tecnico, com a soma de custo e a quantidade de
+ * manutencoes. os relatorios de custo (Relatorios) agrupam esses documentos, que sao
+ * poucos por mes, em vez de reagregar todo o historico de manutencoes.
+ *
+ * - ManutencaoCRUD aplica o delta com $inc (upsert) na mesma transacao em que grava
+ *   a manutencao: +1 ao cadastrar, -1 do estado lido e +1 do novo ao atualizar, -1 ao
+ *   deletar
+ * - o mes e o de data_realizada; sem ela (pendente, em andamento), o de data_prevista
+ * - reconstruir refaz a collection a partir de manutencoes (main, GeradorDados) para
+ *   bases anteriores aos agregados, em lotes retomaveis (checkpoint em migracoes);
+ *   garantir (Inicializacao) faz isso sozinho quando custos_manutencao esta vazia e
+ *   manutencoes nao, ou continua uma reconstrucao interrompida, antes do primeiro
+ *   uso, senao os relatorios ignorariam o historico e atualizar uma manutencao
+ *   antiga gravaria um agregado negativo
+ */
+public class CustosManutencao {
+    static final String COLECAO = "custos_manutencao";
+    // checkpoint da reconstrucao em migracoes
+    static final String ID_RECONSTRUCAO = "custos_manutencao";
+    private static final int LOTE = Integer.getInteger("academia.custos.lote", 1000);
+    private static final ZoneId FUSO = ZoneId.systemDefault();
+    private static final DateTimeFormatter MES = DateTimeFormatter.ofPattern("yyyy-MM");
+
+    static String mes(YearMonth mes) {
+        return mes.format(MES);
+    }
+
+    /**
+     * mes em que a manutencao entra nos agregados; null sem nenhuma das datas
+     */
+    static String mes(Document manutencao) {
+        Date data = manutencao.getDate("data_realizada");
+        if (data == null) {
+            data = manutencao.getDate("data_prevista");
+        }
+        return data != null ? mes(YearMonth.from(data.toInstant().atZone(FUSO))) : null;
+    }
+
+    /**
+     * documento agregado de um mes, equipamento e tecnico
+     */
+    static Bson chave(String mes, Object idEquipamento, Object idFuncionario) {
+        return Filters.and(Filters.eq("mes", mes), Filters.eq("id_equipamento", idEquipamento),
+                           Filters.eq("id_funcionario", idFuncionario));
+    }
+
+    /**
+     * soma (sinal 1) ou retira (sinal -1) a manutencao do agregado do mes dela
+     */
+    static void aplicar(Colecao custos, Document manutencao, int sinal) {
+        String mes = mes(manutencao);
+        if (mes == null) {
+            return;
+        }
+        custos.updateOne(chave(mes, manutencao.get("id_equipamento"), manutencao.get("id_funcionario")),
+            Updates.combine(Updates.inc("custo", sinal * custo(manutencao)), Updates.inc("quantidade", sinal)),
+            new UpdateOptions().upsert(true));
+    }
+
+    private static double custo(Document manutencao) {
+        return manutencao.get("custo") instanceof Number n ? n.doubleValue() : 0;
+    }
+
+    /**
+     * reconstroi os agregados se ainda nao existem e ha manutencoes, ou continua uma
+     * reconstrucao interrompida
+     * @return manutencoes somadas nesta execucao, ou -1 se nao precisou
+     */
+    static long garantir(Armazenamento armazenamento) {
+        Document checkpoint = armazenamento.colecao("migracoes").find(Filters.eq("_id", ID_RECONSTRUCAO)).first();
+        if (checkpoint != null && !checkpoint.getBoolean("concluida", false)) {
+            return continuar(armazenamento, checkpoint);
+        }
+        Estatisticas estatisticas = armazenamento.estatisticas();
+        if (!estatisticas.vazia(armazenamento.colecao(COLECAO))
+                || estatisticas.vazia(armazenamento.colecao("manutencoes"))) {
+            return -1;
+        }
+        return continuar(armazenamento, null);
+    }
+
+    /**
+     * refaz os agregados a partir de manutencoes, do zero
+     * @return quantidade de manutencoes somadas
+     */
+    static long reconstruir(Armazenamento armazenamento) {
+        armazenamento.colecao(COLECAO).deleteMany(new Document());
+        armazenamento.colecao("migracoes").deleteOne(Filters.eq("_id", ID_RECONSTRUCAO));
+        return continuar(armazenamento, null);
+    }
+
+    /**
+     * soma as manutencoes em lotes, em ordem de _id, ate o maior _id do inicio da
+     * reconstrucao; as cadastradas depois ja entram pelo ManutencaoCRUD. cada lote (o
+     * $inc dos agregados e o checkpoint) e uma transacao pequena, entao uma base
+     * grande nao estoura o tempo de vida de uma transacao e uma interrupcao continua
+     * do ultimo lote gravado
+     */
+    private static long continuar(Armazenamento armazenamento, Document checkpoint) {
+        Colecao manutencoes = armazenamento.colecao("manutencoes");
+        Colecao custos = armazenamento.colecao(COLECAO);
+        Colecao migracoes = armazenamento.colecao("migracoes");
+        Object limite;
+        Object ultimoId;
+        if (checkpoint != null) {
+            limite = checkpoint.get("limite");
+            ultimoId = checkpoint.get("ultimo_id");
+        } else {
+            Document maior = manutencoes.find().projection(Projections.include("_id"))
+                .sort(Sorts.descending("_id")).limit(1).first();
+            if (maior == null) {
+                return 0;
+            }
+            limite = maior.get("_id");
+            ultimoId = null;
+            migracoes.updateOne(Filters.eq("_id", ID_RECONSTRUCAO), Updates.combine(
+                Updates.set("limite", limite),
+                Updates.set("ultimo_id", null),
+                Updates.set("somadas", 0L),
+                Updates.set("concluida", false),
+                Updates.set("atualizado_em", new Date())
+            ), new UpdateOptions().upsert(true));
+        }
+
+        long somadas = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Document> pagina = manutencoes.find(loteDaReconstrucao(ultimoId, limite))
+                .projection(Projections.include("custo", "data_prevista", "data_realizada", "id_equipamento", "id_funcionario"))
+                .sort(Sorts.ascending("_id"))
+                .limit(LOTE)
+                .into(new ArrayList<>());
+            if (pagina.isEmpty()) {
+                migracoes.updateOne(Filters.eq("_id", ID_RECONSTRUCAO),
+                    Updates.combine(Updates.set("concluida", true), Updates.set("atualizado_em", new Date())));
+                break;
+            }
+
+            Map<List<Object>, double[]> agregados = new LinkedHashMap<>();
+            for (Document manutencao : pagina) {
+                String mes = mes(manutencao);
+                if (mes != null) {
+                    double[] total = agregados.computeIfAbsent(
+                        Arrays.asList(mes, manutencao.get("id_equipamento"), manutencao.get("id_funcionario")),
+                        k -> new double[2]);
+                    total[0] += custo(manutencao);
+                    total[1]++;
+                }
+            }
+            List<WriteModel<Document>> operacoes = new ArrayList<>(agregados.size());
+            agregados.forEach((chave, total) -> operacoes.add(new UpdateOneModel<>(
+                chave((String) chave.get(0), chave.get(1), chave.get(2)),
+                Updates.combine(Updates.inc("custo", total[0]), Updates.inc("quantidade", (int) total[1])),
+                new UpdateOptions().upsert(true))));
+
+            Object ultimoDoLote = pagina.get(pagina.size() - 1).get("_id");
+            armazenamento.transacao(() -> {
+                if (!operacoes.isEmpty()) {
+                    custos.bulkWrite(operacoes, false);
+                }
+                migracoes.updateOne(Filters.eq("_id", ID_RECONSTRUCAO), Updates.combine(
+                    Updates.set("ultimo_id", ultimoDoLote),
+                    Updates.inc("somadas", (long) pagina.size()),
+                    Updates.set("atualizado_em", new Date())));
+                return null;
+            });
+            ultimoId = ultimoDoLote;
+            somadas += pagina.size();
+        }
+        return somadas;
+    }
+
+    /**
+     * manutencoes depois de ultimoId (null: desde a primeira) ate limite, inclusive
+     */
+    static Bson loteDaReconstrucao(Object ultimoId, Object limite) {
+        return ultimoId != null ? Filters.and(Filters.gt("_id", ultimoId), Filters.lte("_id", limite))
+                                : Filters.lte("_id", limite);
+    }
+
+    /**
+     * custo e quantidade por equipamento, do maior custo para o menor, com modelo e
+     * valor do equipamento (colecao: custos_manutencao)
+     */
+    static List<Document> pipelinePorEquipamento() {
+        return List.of(
+            new Document("$group", new Document()
+                .append("_id", "$id_equipamento")
+                .append("custo", new Document("$sum", "$custo"))
+                .append("quantidade", new Document("$sum", "$quantidade"))),
+            new Document("$match", new Document("quantidade", new Document("$gt", 0))),
+            new Document("$sort", new Document("custo", -1)),
+            new Document("$lookup", new Document()
+                .append("from", "equipamentos")
+                .append("localField", "_id")
+                .append("foreignField", "_id")
+                .append("as", "equipamento")),
+            new Document("$project", new Document()
+                .append("modelo", new Document("$arrayElemAt", List.of("$equipamento.modelo", 0)))
+                .append("valor", new Document("$arrayElemAt", List.of("$equipamento.valor", 0)))
+                .append("custo", "$custo")
+                .append("quantidade", "$quantidade"))
+        );
+    }
+
+    /**
+     * custo e quantidade por mes a partir de "de" (inclusive), em ordem de mes
+     * (colecao: custos_manutencao)
+     */
+    static List<Document> pipelinePorMes(String de) {
+        return List.of(
+            new Document("$match", new Document("mes", new Document("$gte", de))),
+            new Document("$group", new Document()
+                .append("_id", "$mes")
+                .append("custo", new Document("$sum", "$custo"))
+                .append("quantidade", new Document("$sum", "$quantidade"))),
+            new Document("$match", new Document("quantidade", new Document("$gt", 0))),
+            new Document("$sort", new Document("_id", 1))
+        );
+    }
+
+    /**
+     * custo e quantidade por tecnico, do maior custo para o menor, com o nome
+     * (colecao: custos_manutencao)
+     */
+    static List<Document> pipelinePorTecnico() {
+        return List.of(
+            new Document("$group", new Document()
+                .append("_id", "$id_funcionario")
+                .append("custo", new Document("$sum", "$custo"))
+                .append("quantidade", new Document("$sum", "$quantidade"))),
+            new Document("$match", new Document("quantidade", new Document("$gt", 0))),
+            new Document("$sort", new Document("custo", -1)),
+            new Document("$lookup", new Document()
+                .append("from", "funcionarios")
+                .append("localField", "_id")
+                .append("foreignField", "_id")
+                .append("as", "funcionario")),
+            new Document("$project", new Document()
+                .append("nome", new Document("$arrayElemAt", List.of("$funcionario.nome", 0)))
+                .append("custo", "$custo")
+                .append("quantidade", "$quantidade"))
+        );
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"   -> uri = args[++i];
+                case "--banco" -> banco = args[++i];
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Armazenamento armazenamento = new ArmazenamentoMongo(new Conexao(uri, banco));
+        try {
+            Indices.garantir(armazenamento);
+            System.out.println("Custos de manutenção reconstruídos a partir de " + reconstruir(armazenamento)
+                + " manutenção(ões).");
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+}
@@ -0,0 +1,220 @@
+import com.mongodb.client.MongoClient;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * detector de operacoes lentas: todo find ou aggregate acima do limite e registrado
+ * em um arquivo de log rotativo (operacoes_lentas.N.log), aberto na primeira
+ * operacao lenta e compartilhado por todas as conexoes.
+ *
+ * o plano (explain("executionStats"), em segundo plano) precisa do comando, que
+ * so vale durante o callback: copiar cada find/aggregate custaria uma alocacao do
+ * tamanho do comando em todas as consultas, entao so 1 a cada N e copiado. uma
+ * operacao lenta fora da amostra entra no log sem o plano.
+ *
+ * configuracao: -Dacademia.lentas.limiteMs=100 -Dacademia.lentas.arquivo=operacoes_lentas
+ *               -Dacademia.lentas.amostra=10 (1: copia todos)
+ */
+public class DetectorLentas implements CommandListener {
+    private static final Set<String> COMANDOS = Set.of("find", "aggregate");
+    // campos adicionados pelo driver que nao podem ir dentro do explain
+    private static final Set<String> CAMPOS_DRIVER = Set.of(
+        "$db", "lsid", "$clusterTime", "$readPreference", "txnNumber",
+        "startTransaction", "autocommit", "readConcern", "writeConcern");
+    private static final int MAX_RECENTES = 20;
+
+    private record Pendente(String banco, BsonDocument comando) {
+    }
+
+    private final long limiteMicros;
+    private final int amostra;
+    private final AtomicLong comandos = new AtomicLong();
+    private final Map<Integer, Pendente> pendentes = new ConcurrentHashMap<>();
+    private final Deque<String> recentes = new ConcurrentLinkedDeque<>();
+    private final ThreadPoolExecutor executor;
+    private volatile MongoClient client;
+
+    public DetectorLentas() {
+        this.limiteMicros = Long.getLong("academia.lentas.limiteMs", 100) * 1000;
+        this.amostra = Math.max(1, Integer.getInteger("academia.lentas.amostra", 10));
+
+        // uma thread e fila curta: em rajadas de lentidao, os explains excedentes sao descartados
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(100), r -> {
+                Thread t = new Thread(r, "detector-lentas");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * log das operacoes lentas; a classe so e carregada (e o arquivo aberto) no
+     * primeiro registro, uma vez por JVM. o LogManager fecha o arquivo ao encerrar
+     */
+    private static final class Arquivo {
+        static final Logger LOG = abrir();
+
+        private static Logger abrir() {
+            Logger log = Logger.getLogger("academia.operacoes_lentas");
+            log.setUseParentHandlers(false);
+            try {
+                String arquivo = System.getProperty("academia.lentas.arquivo", "operacoes_lentas");
+                FileHandler handler = new FileHandler(arquivo + ".%g.log", 5 * 1024 * 1024, 5, true);
+                handler.setFormatter(new Formatter() {
+                    @Override
+                    public String format(LogRecord record) {
+                        return record.getMessage() + System.lineSeparator();
+                    }
+                });
+                log.addHandler(handler);
+            } catch (IOException e) {
+                Logger.getLogger(DetectorLentas.class.getName()).log(Level.WARNING,
+                    "Não foi possível abrir o log de operações lentas", e);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * o client so existe depois que as configuracoes com este listener foram criadas
+     */
+    public void setClient(MongoClient client) {
+        this.client = client;
+    }
+
+    public List<String> getRecentes() {
+        return new ArrayList<>(recentes);
+    }
+
+    public long getLimiteMs() {
+        return limiteMicros / 1000;
+    }
+
+    /**
+     * o arquivo de log fica aberto: ele e compartilhado com as outras conexoes
+     */
+    public void encerrar() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        if (!COMANDOS.contains(event.getCommandName())) return;
+        if (comandos.incrementAndGet() % amostra != 0) return;
+        // o documento do evento so e valido durante o callback, entao precisa ser copiado
+        pendentes.put(event.getRequestId(), new Pendente(event.getDatabaseName(), event.getCommand().clone()));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        if (!COMANDOS.contains(event.getCommandName())) return;
+        Pendente pendente = pendentes.remove(event.getRequestId());
+
+        long micros = event.getElapsedTime(TimeUnit.MICROSECONDS);
+        if (micros < limiteMicros) return;
+        if (pendente == null) {
+            // fora da amostra: o comando nao foi copiado, a colecao vem da resposta
+            String colecao = colecao(event.getResponse());
+            executor.execute(() -> registrar(linha(micros, event.getCommandName(), colecao)
+                .append(" | plano não capturado (fora da amostra)")));
+        } else if (client != null) {
+            executor.execute(() -> capturar(pendente, micros));
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        pendentes.remove(event.getRequestId());
+    }
+
+    private void capturar(Pendente pendente, long micros) {
+        BsonDocument comando = new BsonDocument();
+        for (Map.Entry<String, BsonValue> campo : pendente.comando().entrySet()) {
+            if (!CAMPOS_DRIVER.contains(campo.getKey())) {
+                comando.put(campo.getKey(), campo.getValue());
+            }
+        }
+        String nomeComando = comando.getFirstKey();
+        String colecao = comando.get(nomeComando).isString() ? comando.getString(nomeComando).getValue() : "-";
+
+        StringBuilder linha = linha(micros, nomeComando, colecao)
+            .append(" | ").append(formaConsulta(comando));
+
+        try {
+            Document explain = client.getDatabase(pendente.banco()).runCommand(
+                new BsonDocument("explain", comando).append("verbosity", new BsonString("executionStats")));
+            linha.append(" | ").append(AnalisePlano.de(explain).resumo());
+        } catch (Exception e) {
+            linha.append(" | explain falhou: ").append(e.getMessage());
+        }
+
+        registrar(linha);
+    }
+
+    private static StringBuilder linha(long micros, String nomeComando, String colecao) {
+        return new StringBuilder()
+            .append(LocalDateTime.now().withNano(0))
+            .append(" | ").append(micros / 1000).append(" ms")
+            .append(" | ").append(nomeComando).append(' ').append(colecao);
+    }
+
+    private void registrar(StringBuilder linha) {
+        String registro = linha.toString();
+        Arquivo.LOG.info(registro);
+        recentes.addFirst(registro);
+        while (recentes.size() > MAX_RECENTES) {
+            recentes.pollLast();
+        }
+    }
+
+    /**
+     * colecao do cursor da resposta de um find/aggregate ("banco.colecao" em cursor.ns)
+     */
+    private static String colecao(BsonDocument resposta) {
+        BsonValue cursor = resposta.get("cursor");
+        if (cursor != null && cursor.isDocument() && cursor.asDocument().isString("ns")) {
+            String ns = cursor.asDocument().getString("ns").getValue();
+            return ns.substring(ns.indexOf('.') + 1);
+        }
+        return "-";
+    }
+
+    /**
+     * filtro do find ou pipeline do aggregate, que identificam a forma da consulta
+     */
+    private static String formaConsulta(BsonDocument comando) {
+        if (comando.containsKey("filter")) {
+            String sort = comando.containsKey("sort") ? " sort=" + comando.get("sort").toString() : "";
+            return "filtro=" + comando.get("filter").toString() + sort;
+        }
+        if (comando.containsKey("pipeline")) {
+            return "pipeline=" + comando.get("pipeline").toString();
+        }
+        return "filtro={}";
+    }
+}
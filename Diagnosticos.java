@@ -0,0 +1,80 @@
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Scanner;
+
+public class Diagnosticos {
+    private MonitorComandos monitor;
+    private DetectorLentas detector;
+    private Scanner scanner;
+
+    public Diagnosticos(Conexao conexao, Scanner scanner) {
+        this.monitor = conexao.getMonitor();
+        this.detector = conexao.getDetector();
+        this.scanner = scanner;
+    }
+
+    public void menu() {
+        while (true) {
+            System.out.println("\n=== DIAGNÓSTICOS ===");
+            System.out.println("1. Exibir métricas do banco");
+            System.out.println("2. Exportar métricas para arquivo");
+            System.out.println("3. Zerar métricas");
+            System.out.println("4. Operações lentas recentes");
+            System.out.println("5. Voltar");
+            System.out.print("Escolha: ");
+
+            int opcao = scanner.nextInt();
+            scanner.nextLine();
+
+            switch (opcao) {
+                case 1  -> exibir();
+                case 2  -> exportar();
+                case 3  -> zerar();
+                case 4  -> operacoesLentas();
+                case 5  -> { return; }
+                default -> System.out.println("Opção inválida!");
+            }
+        }
+    }
+
+    private void exibir() {
+        System.out.println("\n--- MÉTRICAS DO BANCO ---");
+        System.out.print(monitor.relatorio());
+    }
+
+    private void exportar() {
+        String padrao = "diagnostico_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss")) + ".txt";
+        System.out.print("Arquivo (Enter para '" + padrao + "'): ");
+        String nome = scanner.nextLine().trim();
+        if (nome.isEmpty()) {
+            nome = padrao;
+        }
+
+        try {
+            monitor.exportar(Path.of(nome));
+            System.out.println("Métricas exportadas para " + Path.of(nome).toAbsolutePath());
+        } catch (Exception e) {
+            System.out.println("Erro ao exportar métricas: " + e.getMessage());
+        }
+    }
+
+    private void zerar() {
+        monitor.zerar();
+        System.out.println("Métricas zeradas.");
+    }
+
+    private void operacoesLentas() {
+        System.out.println("\n--- OPERAÇÕES LENTAS (acima de " + detector.getLimiteMs() + " ms) ---");
+        List<String> recentes = detector.getRecentes();
+        if (recentes.isEmpty()) {
+            System.out.println("Nenhuma operação lenta registrada.");
+            return;
+        }
+        for (String registro : recentes) {
+            System.out.println(registro);
+        }
+        System.out.println("Histórico completo em operacoes_lentas.0.log");
+    }
+}
@@ -1,21 +1,36 @@
-import com.mongodb.client.*;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.DeleteResult;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
+/**
+ * status (1 ativo, 0 inativo) e a situacao cadastral do equipamento; a
+ * disponibilidade vem de manutencoes_abertas, a quantidade de manutencoes pendentes
+ * ou em andamento do equipamento. o ManutencaoCRUD ajusta o contador na mesma
+ * transacao em que grava a manutencao, entao "equipamentos disponiveis" e uma
+ * consulta no indice {status, manutencoes_abertas}, sem $lookup em manutencoes.
+ */
 public class EquipamentoCRUD {
-    private MongoCollection<Document> collection;
-    private MongoDatabase database;
+    private Colecao collection;
+    private Armazenamento armazenamento;
+    private Estatisticas estatisticas;
     private Scanner scanner;
 
-    public EquipamentoCRUD(MongoDatabase database, Scanner scanner) {
-        this.database = database;
-        this.collection = database.getCollection("equipamentos");
+    public EquipamentoCRUD(Armazenamento armazenamento, Scanner scanner) {
+        this.armazenamento = armazenamento;
+        this.collection = armazenamento.colecao("equipamentos");
+        this.estatisticas = armazenamento.estatisticas();
         this.scanner = scanner;
     }
 
@@ -26,7 +41,9 @@ public class EquipamentoCRUD {
             System.out.println("2. Listar");
             System.out.println("3. Atualizar");
             System.out.println("4. Deletar");
-            System.out.println("5. Voltar");
+            System.out.println("5. Disponíveis");
+            System.out.println("6. Recalcular manutenções em aberto");
+            System.out.println("7. Voltar");
             System.out.print("Escolha: ");
 
             int opcao = scanner.nextInt();
@@ -34,10 +51,13 @@ public class EquipamentoCRUD {
 
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("equipamento.listar", "equipamentos", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
-                case 5 -> { return; }
+                case 5 -> Rastreio.executar("equipamento.disponiveis", "equipamentos", this::listarDisponiveis);
+                case 6 -> Rastreio.executar("equipamento.recalcular", "equipamentos", () -> System.out.println(
+                    "Contador corrigido em " + recalcularManutencoesAbertas(armazenamento) + " equipamento(s)."));
+                case 7 -> { return; }
                 default -> System.out.println("Opção inválida!");
             }
         }
@@ -53,7 +73,8 @@ public class EquipamentoCRUD {
         }
 
         // verifica se ja existe equipamento com mesmo modelo
-        Document equipamentoExistente = collection.find(Filters.eq("modelo", modelo)).first();
+        Document equipamentoExistente = Rastreio.executar("equipamento.cadastrar", "equipamentos",
+            () -> collection.find(Filters.eq("modelo", modelo)).first());
         if (equipamentoExistente != null) {
             System.out.println("Erro: Já existe um equipamento com este modelo!");
             return;
@@ -89,30 +110,109 @@ public class EquipamentoCRUD {
 
         Document doc = new Document("modelo", modelo)
                 .append("valor", valor)
-                .append("status", status);
+                .append("status", status)
+                .append("manutencoes_abertas", 0);
 
-        collection.insertOne(doc);
+        Rastreio.executar("equipamento.cadastrar", "equipamentos", () -> collection.insertOne(doc));
         System.out.println("Equipamento cadastrado com sucesso!");
     }
 
     private void listar() {
-        long total = collection.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(collection)) {
             System.out.println("Nenhum equipamento cadastrado.");
             return;
         }
+        long total = estatisticas.total(collection);
 
-        System.out.println("\n--- EQUIPAMENTOS CADASTRADOS ---");
+        Tabela tabela = new Tabela("EQUIPAMENTOS CADASTRADOS",
+            Tabela.coluna("ID", 24), Tabela.coluna("Modelo", 25), Tabela.numero("Valor", 12),
+            Tabela.coluna("Status", 13)).cabecalho();
         for (Document doc : collection.find()) {
-            String statusStr = doc.getInteger("status") == 1 ? "Ativo" : "Inativo";
-            System.out.printf("ID: %s | Modelo: %s | Valor: R$%.2f | Status: %s\n",
-                doc.getObjectId("_id").toHexString(),
-                doc.getString("modelo"),
-                doc.getDouble("valor"),
-                statusStr
-            );
+            tabela.texto(doc.getObjectId("_id").toHexString())
+                  .texto(doc.getString("modelo"))
+                  .moeda(doc.getDouble("valor"))
+                  .texto(situacao(doc))
+                  .fimLinha();
+        }
+        tabela.rodape("Total: " + total + " equipamento(s)");
+    }
+
+    private void listarDisponiveis() {
+        Tabela tabela = new Tabela("EQUIPAMENTOS DISPONÍVEIS",
+            Tabela.coluna("ID", 24), Tabela.coluna("Modelo", 25), Tabela.numero("Valor", 12));
+        List<Document> disponiveis = collection.find(disponiveis())
+            .projection(Projections.include("modelo", "valor")).into(new ArrayList<>());
+        if (disponiveis.isEmpty()) {
+            tabela.vazia(estatisticas.vazia(collection) ? "Nenhum equipamento cadastrado."
+                                                        : "Nenhum equipamento disponível.");
+            return;
+        }
+        tabela.cabecalho();
+        for (Document doc : disponiveis) {
+            tabela.texto(doc.getObjectId("_id").toHexString())
+                  .texto(doc.getString("modelo"))
+                  .moeda(doc.getDouble("valor"))
+                  .fimLinha();
+        }
+        tabela.rodape("Total: " + disponiveis.size() + " equipamento(s)");
+    }
+
+    /**
+     * equipamentos ativos sem manutencao em aberto
+     */
+    static Bson disponiveis() {
+        return Filters.and(Filters.eq("status", 1), Filters.eq("manutencoes_abertas", 0));
+    }
+
+    /**
+     * manutencao pendente (0) ou em andamento (1): conta em manutencoes_abertas
+     */
+    static boolean manutencaoAberta(int status) {
+        return status == 0 || status == 1;
+    }
+
+    static String situacao(Document equipamento) {
+        if (equipamento.getInteger("status") != 1) {
+            return "Inativo";
         }
-        System.out.printf("Total: %d equipamento(s)\n", total);
+        return equipamento.getInteger("manutencoes_abertas", 0) > 0 ? "Em manutenção" : "Ativo";
+    }
+
+    /**
+     * manutencoes em aberto por equipamento (colecao: manutencoes)
+     */
+    static List<Document> pipelineManutencoesAbertas() {
+        return List.of(
+            new Document("$match", new Document("status", new Document("$in", List.of(0, 1)))),
+            new Document("$group", new Document()
+                .append("_id", "$id_equipamento")
+                .append("abertas", new Document("$sum", 1))));
+    }
+
+    /**
+     * refaz manutencoes_abertas de todos os equipamentos a partir de manutencoes, numa
+     * transacao (a contagem e as correcoes veem o mesmo estado). preenche o campo em
+     * bases anteriores a ele e corrige contadores de escritas feitas sem transacao.
+     * @return quantidade de equipamentos corrigidos
+     */
+    static long recalcularManutencoesAbertas(Armazenamento armazenamento) {
+        Colecao equipamentos = armazenamento.colecao("equipamentos");
+        Colecao manutencoes = armazenamento.colecao("manutencoes");
+        return armazenamento.transacao(() -> {
+            Map<Object, Integer> abertas = new HashMap<>();
+            for (Document grupo : manutencoes.aggregate(pipelineManutencoesAbertas())) {
+                abertas.put(grupo.get("_id"), grupo.getInteger("abertas"));
+            }
+            List<WriteModel<Document>> correcoes = new ArrayList<>();
+            for (Document equipamento : equipamentos.find().projection(Projections.include("manutencoes_abertas"))) {
+                int correto = abertas.getOrDefault(equipamento.get("_id"), 0);
+                if (!Integer.valueOf(correto).equals(equipamento.get("manutencoes_abertas"))) {
+                    correcoes.add(new UpdateOneModel<>(Filters.eq("_id", equipamento.get("_id")),
+                        Updates.set("manutencoes_abertas", correto)));
+                }
+            }
+            return correcoes.isEmpty() ? 0L : (long) equipamentos.bulkWrite(correcoes, false).getModifiedCount();
+        });
     }
 
     private void atualizar() {
@@ -132,12 +232,12 @@ public class EquipamentoCRUD {
 
         // verifica se o novo modelo ja existe em outro equipamento
         if (!novoModelo.equals(modeloAtual)) {
-            Document equipamentoExistente = collection.find(
+            Document equipamentoExistente = Rastreio.executar("equipamento.atualizar", "equipamentos", () -> collection.find(
                 Filters.and(
                     Filters.eq("modelo", novoModelo),
                     Filters.ne("_id", id)
                 )
-            ).first();
+            ).first());
             
             if (equipamentoExistente != null) {
                 System.out.println("Erro: Já existe outro equipamento com este modelo!");
@@ -179,7 +279,8 @@ public class EquipamentoCRUD {
                 Updates.set("status", novoStatus)
         );
 
-        var result = collection.updateOne(Filters.eq("_id", id), update);
+        var result = Rastreio.executar("equipamento.atualizar", "equipamentos",
+            () -> collection.updateOne(Filters.eq("_id", id), update));
 
         if (result.getModifiedCount() > 0) {
             System.out.println("Equipamento atualizado com sucesso!");
@@ -199,18 +300,18 @@ public class EquipamentoCRUD {
         String confirmacao = scanner.nextLine();
         
         if (confirmacao.equalsIgnoreCase("s")) {
-            // verifica se o equipamento esta vinculado a manutencoes
-            MongoCollection<Document> manutencoes = database.getCollection("manutencoes");
-            Document manutencaoVinculada = manutencoes.find(Filters.eq("id_equipamento", id)).first();
-            
-            if (manutencaoVinculada != null) {
+            // null: o equipamento esta vinculado a manutencoes
+            DeleteResult result = Rastreio.executar("equipamento.deletar", "equipamentos", () -> {
+                Colecao manutencoes = armazenamento.colecao("manutencoes");
+                if (manutencoes.find(Filters.eq("id_equipamento", id)).first() != null) {
+                    return null;
+                }
+                return collection.deleteOne(Filters.eq("_id", id));
+            });
+
+            if (result == null) {
                 System.out.println("Erro: Não é possível deletar este equipamento pois ele está vinculado a uma ou mais manutenções!");
-                return;
-            }
-
-            var result = collection.deleteOne(Filters.eq("_id", id));
-
-            if (result.getDeletedCount() > 0) {
+            } else if (result.getDeletedCount() > 0) {
                 System.out.println("Equipamento deletado com sucesso!");
             } else {
                 System.out.println("Erro ao deletar equipamento!");
@@ -231,8 +332,8 @@ public class EquipamentoCRUD {
 
         if (busca.isEmpty()) {
             // se busca vazia, lista todos os equipamentos
-            List<Document> todosEquipamentos = new ArrayList<>();
-            collection.find().into(todosEquipamentos);
+            List<Document> todosEquipamentos = Rastreio.executar("equipamento.buscar", "equipamentos",
+                () -> collection.find().into(new ArrayList<>()));
             
             if (todosEquipamentos.isEmpty()) {
                 System.out.println("Nenhum equipamento cadastrado.");
@@ -243,9 +344,9 @@ public class EquipamentoCRUD {
         }
 
         // busca por modelos que contenham o texto digitado (case insensitive)
-        List<Document> resultados = new ArrayList<>();
-        collection.find(Filters.regex("modelo", ".*" + busca + ".*", "i"))
-                 .into(resultados);
+        List<Document> resultados = Rastreio.executar("equipamento.buscar", "equipamentos",
+            () -> collection.find(Filters.regex("modelo", ".*" + busca + ".*", "i"))
+                            .into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhum equipamento encontrado com: " + busca);
@@ -0,0 +1,93 @@
+import org.bson.Document;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * contagens de documentos por collection, para as verificacoes de "existe algum?"
+ * e os totais exibidos nos menus, sem um countDocuments (agregacao que percorre o
+ * indice de _id inteiro) a cada acao.
+ *
+ * - vazia(): sonda com limit(1), ou o total em cache se ainda valido
+ * - total(): estimatedDocumentCount (metadado da collection), guardado por um TTL
+ *   (-Dacademia.estatisticas.ttlMs, padrao 10000) e ajustado a cada escrita feita
+ *   por esta aplicacao (registrar/invalidar); o TTL cobre escritas de outros processos
+ * - totalExato(): countDocuments, so onde o numero precisa ser exato
+ */
+public class Estatisticas {
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Entrada> entradas = new ConcurrentHashMap<>();
+
+    private record Entrada(long total, long lidoEm) {
+    }
+
+    public Estatisticas() {
+        this(Long.getLong("academia.estatisticas.ttlMs", 10_000));
+    }
+
+    /**
+     * ttlMs = 0 desliga o cache (cada total consulta a collection)
+     */
+    public Estatisticas(long ttlMs) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    public boolean vazia(Colecao colecao) {
+        Entrada entrada = valida(colecao.getNome());
+        if (entrada != null) {
+            return entrada.total() == 0;
+        }
+        boolean vazia = colecao.find().projection(new Document("_id", 1)).limit(1).first() == null;
+        if (vazia) {
+            guardar(colecao.getNome(), 0);
+        }
+        return vazia;
+    }
+
+    public long total(Colecao colecao) {
+        Entrada entrada = valida(colecao.getNome());
+        if (entrada != null) {
+            return entrada.total();
+        }
+        return guardar(colecao.getNome(), colecao.estimatedDocumentCount());
+    }
+
+    public long totalExato(Colecao colecao) {
+        return guardar(colecao.getNome(), colecao.countDocuments());
+    }
+
+    /**
+     * escrita feita por esta aplicacao: soma delta ao total em cache (sem renovar o TTL)
+     */
+    void registrar(String colecao, long delta) {
+        if (delta != 0) {
+            entradas.computeIfPresent(colecao,
+                (nome, entrada) -> new Entrada(Math.max(0, entrada.total() + delta), entrada.lidoEm()));
+        }
+    }
+
+    /**
+     * descarta o total em cache (escrita com resultado desconhecido, drop)
+     */
+    void invalidar(String colecao) {
+        entradas.remove(colecao);
+    }
+
+    private Entrada valida(String colecao) {
+        if (ttlNanos == 0) {
+            return null;
+        }
+        Entrada entrada = entradas.get(colecao);
+        if (entrada == null || System.nanoTime() - entrada.lidoEm() > ttlNanos) {
+            return null;
+        }
+        return entrada;
+    }
+
+    private long guardar(String colecao, long total) {
+        if (ttlNanos != 0) {
+            entradas.put(colecao, new Entrada(total, System.nanoTime()));
+        }
+        return total;
+    }
+}
@@ -0,0 +1,384 @@
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * faturamento mensal: gera em faturas uma fatura por cliente ativo e competencia
+ * (mes, "yyyy-MM") com o valor do plano, vencendo no dia da adesao.
+ *
+ * - em paralelo: clientes e dividido em faixas de _id (uma leitura so dos _id, pelo
+ *   indice) e cada faixa e processada por uma thread do pool
+ *   (-Dacademia.faturamento.threads, padrao o numero de processadores), em lotes de
+ *   -Dacademia.faturamento.lote (padrao 1000) clientes
+ * - planos ficam num mapa em memoria, lido uma vez por execucao: nenhum $lookup
+ * - idempotente: cada fatura e um upsert com $setOnInsert filtrado por
+ *   (id_cliente, competencia), com indice unico; repetir a execucao nao duplica nem
+ *   altera faturas ja emitidas (ex.: pagas)
+ * - retomavel: as faixas e o ultimo _id processado em cada uma ficam em faturamentos
+ *   ({_id: "yyyy-MM/NN"}); uma nova execucao da mesma competencia reaproveita as
+ *   faixas e continua de onde cada uma parou. a ultima faixa, aberta no fim, roda
+ *   de novo mesmo concluida, a partir do seu ultimo_id: pega os clientes
+ *   cadastrados depois da execucao anterior
+ *
+ * entram os clientes com status 1, plano existente e adesao ate o fim da competencia;
+ * os demais contam como ignorados.
+ */
+public class Faturamento {
+    private static final int THREADS = Integer.getInteger("academia.faturamento.threads", Runtime.getRuntime().availableProcessors());
+    private static final int LOTE = Integer.getInteger("academia.faturamento.lote", 1000);
+    // mais faixas que threads: uma faixa lenta nao segura as demais
+    private static final int FAIXAS_POR_THREAD = 4;
+    private static final int CHAVE_DUPLICADA = 11000;
+    private static final ZoneId FUSO = ZoneId.systemDefault();
+
+    private final Armazenamento armazenamento;
+    private final Colecao clientes;
+    private final Colecao planos;
+    private final Colecao faturas;
+    private final Colecao faturamentos;
+    private final int threads;
+    private final int lote;
+
+    /**
+     * totais da competencia, somados dos checkpoints de todas as faixas
+     */
+    record Resultado(String competencia, long geradas, long existentes, long ignorados,
+                     int faixas, int faixasPendentes, long millis) {
+    }
+
+    public Faturamento(Armazenamento armazenamento) {
+        this(armazenamento, THREADS, LOTE);
+    }
+
+    public Faturamento(Armazenamento armazenamento, int threads, int lote) {
+        this.armazenamento = armazenamento;
+        this.clientes = armazenamento.colecao("clientes");
+        this.planos = armazenamento.colecao("planos");
+        this.faturas = armazenamento.colecao("faturas");
+        this.faturamentos = armazenamento.colecao("faturamentos");
+        this.threads = Math.max(1, threads);
+        this.lote = Math.max(1, lote);
+    }
+
+    static String competencia(YearMonth mes) {
+        return mes.toString();
+    }
+
+    /**
+     * "yyyy-MM" da competencia; vazio ou invalido devolve null
+     */
+    static YearMonth lerCompetencia(String texto) {
+        try {
+            return YearMonth.parse(texto.trim());
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * filtro de um lote da faixa [inicio, fim), depois de ultimoId; limites null ficam abertos
+     */
+    static Bson loteDaFaixa(Object inicio, Object fim, Object ultimoId) {
+        List<Bson> condicoes = new ArrayList<>();
+        if (ultimoId != null) {
+            condicoes.add(Filters.gt("_id", ultimoId));
+        } else if (inicio != null) {
+            condicoes.add(Filters.gte("_id", inicio));
+        }
+        if (fim != null) {
+            condicoes.add(Filters.lt("_id", fim));
+        }
+        condicoes.add(Filters.eq("status", 1));
+        return Filters.and(condicoes);
+    }
+
+    public Resultado executar(YearMonth mes) {
+        long inicio = System.currentTimeMillis();
+        String competencia = competencia(mes);
+        Map<Object, Document> planosPorId = new HashMap<>();
+        for (Document plano : planos.find().projection(Projections.include("nome", "valor", "fidelidade"))) {
+            planosPorId.put(plano.get("_id"), plano);
+        }
+
+        List<Document> faixas = faixas(competencia);
+        List<Document> pendentes = new ArrayList<>();
+        for (Document faixa : faixas) {
+            if (!faixa.getBoolean("concluida", false) || faixa.get("fim") == null) {
+                pendentes.add(faixa);
+            }
+        }
+
+        AtomicInteger contador = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, pendentes.size())), tarefa -> {
+            Thread thread = new Thread(tarefa, "academia-faturamento-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futuros = new ArrayList<>();
+            for (Document faixa : pendentes) {
+                futuros.add(executor.submit(() -> processarFaixa(faixa, mes, planosPorId)));
+            }
+            for (Future<?> futuro : futuros) {
+                try {
+                    futuro.get();
+                } catch (ExecutionException e) {
+                    // a faixa para no ultimo lote gravado; as demais seguem e a proxima execucao continua dela
+                    System.out.println("Erro no faturamento de uma faixa: " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return resultado(competencia, System.currentTimeMillis() - inicio);
+    }
+
+    /**
+     * faixas da competencia: as do checkpoint, se a competencia ja foi iniciada, ou
+     * novas, com limites a cada total/faixas _id (uma leitura de clientes so pelo
+     * indice de _id). a primeira e a ultima ficam abertas, cobrindo clientes
+     * cadastrados depois
+     */
+    private List<Document> faixas(String competencia) {
+        List<Document> existentes = faturamentos.find(Filters.eq("competencia", competencia))
+            .sort(Sorts.ascending("_id")).into(new ArrayList<>());
+        if (!existentes.isEmpty()) {
+            return existentes;
+        }
+
+        int quantidade = threads * FAIXAS_POR_THREAD;
+        long passo = Math.max(lote, (clientes.estimatedDocumentCount() + quantidade - 1) / quantidade);
+        List<Object> limites = new ArrayList<>();
+        long lidos = 0;
+        for (Document cliente : clientes.find().projection(Projections.include("_id"))
+                                        .sort(Sorts.ascending("_id")).batchSize(10_000)) {
+            if (lidos > 0 && lidos % passo == 0) {
+                limites.add(cliente.get("_id"));
+            }
+            lidos++;
+        }
+
+        List<WriteModel<Document>> novas = new ArrayList<>();
+        for (int i = 0; i <= limites.size(); i++) {
+            String id = String.format("%s/%02d", competencia, i);
+            // $setOnInsert: duas execucoes simultaneas ficam com as faixas da primeira
+            novas.add(new UpdateOneModel<>(Filters.eq("_id", id), Updates.combine(
+                Updates.setOnInsert("competencia", competencia),
+                Updates.setOnInsert("inicio", i > 0 ? limites.get(i - 1) : null),
+                Updates.setOnInsert("fim", i < limites.size() ? limites.get(i) : null),
+                Updates.setOnInsert("ultimo_id", null),
+                Updates.setOnInsert("geradas", 0L),
+                Updates.setOnInsert("existentes", 0L),
+                Updates.setOnInsert("ignorados", 0L),
+                Updates.setOnInsert("concluida", false)
+            ), new UpdateOptions().upsert(true)));
+        }
+        // todas as faixas de uma vez: um checkpoint com parte das faixas deixaria clientes de fora
+        armazenamento.transacao(() -> faturamentos.bulkWrite(novas, true));
+        return faturamentos.find(Filters.eq("competencia", competencia)).sort(Sorts.ascending("_id")).into(new ArrayList<>());
+    }
+
+    private void processarFaixa(Document faixa, YearMonth mes, Map<Object, Document> planosPorId) {
+        String competencia = competencia(mes);
+        Date fimCompetencia = Date.from(mes.plusMonths(1).atDay(1).atStartOfDay(FUSO).toInstant());
+        Object ultimoId = faixa.get("ultimo_id");
+        boolean concluida = false;
+        while (!concluida && !Thread.currentThread().isInterrupted()) {
+            List<Document> pagina = clientes.find(loteDaFaixa(faixa.get("inicio"), faixa.get("fim"), ultimoId))
+                .projection(Projections.include("id_plano", "data_adesao"))
+                .sort(Sorts.ascending("_id"))
+                .limit(lote)
+                .into(new ArrayList<>());
+            concluida = pagina.size() < lote;
+            if (pagina.isEmpty()) {
+                salvar(faixa.getString("_id"), ultimoId, 0, 0, 0, true);
+                break;
+            }
+
+            List<WriteModel<Document>> operacoes = new ArrayList<>(pagina.size());
+            long ignorados = 0;
+            for (Document cliente : pagina) {
+                Document plano = planosPorId.get(cliente.get("id_plano"));
+                Date adesao = cliente.getDate("data_adesao");
+                if (plano == null || adesao == null || !adesao.before(fimCompetencia)) {
+                    ignorados++;
+                    continue;
+                }
+                operacoes.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("id_cliente", cliente.get("_id")), Filters.eq("competencia", competencia)),
+                    Updates.setOnInsert(fatura(plano, adesao, mes)),
+                    new UpdateOptions().upsert(true)));
+            }
+
+            long geradas = 0;
+            long existentes = 0;
+            if (!operacoes.isEmpty()) {
+                try {
+                    BulkWriteResult resultado = faturas.bulkWrite(operacoes, false);
+                    geradas = resultado.getUpserts().size();
+                    existentes = resultado.getMatchedCount();
+                } catch (MongoBulkWriteException e) {
+                    // chave duplicada: outra execucao inseriu a mesma fatura entre a busca e a insercao do upsert
+                    for (BulkWriteError erro : e.getWriteErrors()) {
+                        if (erro.getCode() != CHAVE_DUPLICADA) {
+                            throw e;
+                        }
+                    }
+                    geradas = e.getWriteResult().getUpserts().size();
+                    existentes = operacoes.size() - geradas;
+                }
+            }
+            ultimoId = pagina.get(pagina.size() - 1).get("_id");
+            salvar(faixa.getString("_id"), ultimoId, geradas, existentes, ignorados, concluida);
+        }
+    }
+
+    /**
+     * campos gravados so na criacao da fatura; id_cliente e competencia vem do filtro do upsert
+     */
+    private static Document fatura(Document plano, Date adesao, YearMonth mes) {
+        LocalDate dataAdesao = adesao.toInstant().atZone(FUSO).toLocalDate();
+        LocalDate vencimento = mes.atDay(Math.min(dataAdesao.getDayOfMonth(), mes.lengthOfMonth()));
+        // parcela 1 no mes da adesao
+        long parcela = Math.max(1, ChronoUnit.MONTHS.between(YearMonth.from(dataAdesao), mes) + 1);
+        return new Document("id_plano", plano.get("_id"))
+            .append("valor", plano.get("valor"))
+            .append("vencimento", Date.from(vencimento.atStartOfDay(FUSO).toInstant()))
+            .append("parcela", (int) parcela)
+            .append("em_fidelidade", parcela <= plano.getInteger("fidelidade", 0))
+            .append("status", 0)
+            .append("gerada_em", new Date());
+    }
+
+    private void salvar(String idFaixa, Object ultimoId, long geradas, long existentes, long ignorados, boolean concluida) {
+        faturamentos.updateOne(Filters.eq("_id", idFaixa), Updates.combine(
+            Updates.set("ultimo_id", ultimoId),
+            Updates.inc("geradas", geradas),
+            Updates.inc("existentes", existentes),
+            Updates.inc("ignorados", ignorados),
+            Updates.set("concluida", concluida),
+            Updates.set("atualizado_em", new Date())
+        ));
+    }
+
+    public Resultado resultado(String competencia, long millis) {
+        long geradas = 0;
+        long existentes = 0;
+        long ignorados = 0;
+        int faixas = 0;
+        int pendentes = 0;
+        for (Document faixa : faturamentos.find(Filters.eq("competencia", competencia))) {
+            geradas += faixa.get("geradas", 0L);
+            existentes += faixa.get("existentes", 0L);
+            ignorados += faixa.get("ignorados", 0L);
+            faixas++;
+            if (!faixa.getBoolean("concluida", false)) {
+                pendentes++;
+            }
+        }
+        return new Resultado(competencia, geradas, existentes, ignorados, faixas, pendentes, millis);
+    }
+
+    /**
+     * quantidade e soma das faturas da competencia (colecao: faturas)
+     */
+    static List<Document> pipelineTotalCompetencia(String competencia) {
+        return List.of(
+            new Document("$match", new Document("competencia", competencia)),
+            new Document("$group", new Document()
+                .append("_id", null)
+                .append("faturas", new Document("$sum", 1))
+                .append("valor", new Document("$sum", "$valor"))));
+    }
+
+    /**
+     * execucao pelo menu: pergunta a competencia (padrao o mes atual) e mostra os totais
+     */
+    static void executarMenu(Armazenamento armazenamento, Scanner scanner) {
+        YearMonth atual = YearMonth.now(FUSO);
+        System.out.print("Competência (aaaa-mm) [" + competencia(atual) + "]: ");
+        String texto = scanner.nextLine().trim();
+        YearMonth mes = texto.isEmpty() ? atual : lerCompetencia(texto);
+        if (mes == null) {
+            System.out.println("Erro: competência inválida!");
+            return;
+        }
+        Rastreio.executar("faturamento.executar", "faturas", () -> imprimir(new Faturamento(armazenamento).executar(mes)));
+        for (Document total : armazenamento.colecao("faturas").aggregate(pipelineTotalCompetencia(competencia(mes)))) {
+            System.out.println("Total da competência: " + total.getInteger("faturas") + " fatura(s), "
+                + Tabela.formatarMoeda(((Number) total.get("valor")).doubleValue()));
+        }
+    }
+
+    private static void imprimir(Resultado resultado) {
+        System.out.printf("Faturamento %s: %d fatura(s) gerada(s), %d já existente(s), %d cliente(s) ignorado(s) em %d ms%n",
+            resultado.competencia(), resultado.geradas(), resultado.existentes(), resultado.ignorados(), resultado.millis());
+        if (resultado.faixasPendentes() > 0) {
+            System.out.printf("Atenção: %d de %d faixa(s) não concluída(s); execute novamente para continuar.%n",
+                resultado.faixasPendentes(), resultado.faixas());
+        }
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+        YearMonth mes = YearMonth.now(FUSO);
+        int threads = THREADS;
+        int lote = LOTE;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"         -> uri = args[++i];
+                case "--banco"       -> banco = args[++i];
+                case "--competencia" -> mes = lerCompetencia(args[++i]);
+                case "--threads"     -> threads = Integer.parseInt(args[++i]);
+                case "--lote"        -> lote = Integer.parseInt(args[++i]);
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+        if (mes == null) {
+            System.out.println("Competência inválida (use aaaa-mm).");
+            return;
+        }
+
+        Armazenamento armazenamento = new ArmazenamentoMongo(new Conexao(uri, banco));
+        try {
+            Indices.garantir(armazenamento);
+            imprimir(new Faturamento(armazenamento, threads, lote).executar(mes));
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+}
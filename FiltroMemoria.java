@@ -0,0 +1,207 @@
+import org.bson.BsonRegularExpression;
+import org.bson.Document;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * avaliacao de filtros de consulta sobre documentos em memoria, com a mesma
+ * semantica do servidor para arrays, nulos e comparacao entre tipos.
+ * operadores suportados: $eq $ne $gt $gte $lt $lte $in $nin $exists $regex
+ * $not $size $elemMatch $all e os logicos $and $or $nor.
+ */
+final class FiltroMemoria {
+    // o mesmo filtro e avaliado contra cada documento; compila cada regex uma vez so
+    private static final Map<String, Pattern> PADROES = new ConcurrentHashMap<>();
+
+    private FiltroMemoria() {
+    }
+
+    static boolean corresponde(Document doc, Document filtro) {
+        for (Map.Entry<String, Object> entrada : filtro.entrySet()) {
+            String chave = entrada.getKey();
+            Object condicao = entrada.getValue();
+            boolean ok = switch (chave) {
+                case "$and" -> todos(doc, condicao);
+                case "$or"  -> algum(doc, condicao);
+                case "$nor" -> !algum(doc, condicao);
+                default -> {
+                    if (chave.startsWith("$")) {
+                        throw naoSuportado(chave);
+                    }
+                    yield campo(BsonMemoria.valores(doc, chave), condicao);
+                }
+            };
+            if (!ok) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean todos(Document doc, Object condicoes) {
+        for (Object condicao : (List<?>) condicoes) {
+            if (!corresponde(doc, (Document) condicao)) return false;
+        }
+        return true;
+    }
+
+    private static boolean algum(Document doc, Object condicoes) {
+        for (Object condicao : (List<?>) condicoes) {
+            if (corresponde(doc, (Document) condicao)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * condicao sobre os valores de um campo: valor literal (igualdade), regex ou documento de operadores
+     */
+    static boolean campo(List<Object> valores, Object condicao) {
+        if (ehOperadores(condicao)) {
+            Document operadores = (Document) condicao;
+            for (Map.Entry<String, Object> op : operadores.entrySet()) {
+                if (op.getKey().equals("$options")) {
+                    continue;
+                }
+                if (!operador(valores, op.getKey(), op.getValue(), operadores)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (regex(condicao) != null) {
+            return algumRegex(valores, regex(condicao));
+        }
+        return igual(valores, condicao);
+    }
+
+    static boolean ehOperadores(Object condicao) {
+        return condicao instanceof Document d && !d.isEmpty() && d.keySet().iterator().next().startsWith("$");
+    }
+
+    private static boolean operador(List<Object> valores, String op, Object arg, Document operadores) {
+        return switch (op) {
+            case "$eq"  -> igual(valores, arg);
+            case "$ne"  -> !igual(valores, arg);
+            case "$gt"  -> algumComparavel(valores, arg, c -> c > 0);
+            case "$gte" -> algumComparavel(valores, arg, c -> c >= 0);
+            case "$lt"  -> algumComparavel(valores, arg, c -> c < 0);
+            case "$lte" -> algumComparavel(valores, arg, c -> c <= 0);
+            case "$in"  -> dentro(valores, (List<?>) arg);
+            case "$nin" -> !dentro(valores, (List<?>) arg);
+            case "$exists" -> (arg instanceof Number n ? n.intValue() != 0 : Boolean.TRUE.equals(arg)) != valores.isEmpty();
+            case "$regex" -> algumRegex(valores, padrao(arg, operadores.getString("$options")));
+            case "$not" -> !campo(valores, arg);
+            case "$size" -> {
+                for (Object valor : valores) {
+                    if (valor instanceof List<?> lista && lista.size() == ((Number) arg).intValue()) yield true;
+                }
+                yield false;
+            }
+            case "$elemMatch" -> {
+                Document sub = (Document) arg;
+                for (Object valor : valores) {
+                    if (valor instanceof List<?> lista) {
+                        for (Object item : lista) {
+                            if (ehOperadores(sub) ? campo(Collections.singletonList(item), sub)
+                                                  : item instanceof Document d && corresponde(d, sub)) {
+                                yield true;
+                            }
+                        }
+                    }
+                }
+                yield false;
+            }
+            case "$all" -> {
+                for (Object esperado : (List<?>) arg) {
+                    if (!igual(valores, esperado)) yield false;
+                }
+                yield true;
+            }
+            default -> throw naoSuportado(op);
+        };
+    }
+
+    private static boolean igual(List<Object> valores, Object esperado) {
+        if (valores.isEmpty()) {
+            // campo ausente so e igual a null
+            return esperado == null;
+        }
+        for (Object valor : valores) {
+            if (BsonMemoria.iguais(valor, esperado)) return true;
+        }
+        return false;
+    }
+
+    private static boolean dentro(List<Object> valores, List<?> opcoes) {
+        for (Object opcao : opcoes) {
+            Pattern padrao = regex(opcao);
+            if (padrao != null ? algumRegex(valores, padrao) : igual(valores, opcao)) return true;
+        }
+        return false;
+    }
+
+    private interface Criterio {
+        boolean aceita(int comparacao);
+    }
+
+    private static boolean algumComparavel(List<Object> valores, Object limite, Criterio criterio) {
+        if (valores.isEmpty()) {
+            // campo ausente compara como null: {$gte: null} e {$lte: null} o encontram
+            return limite == null && criterio.aceita(0);
+        }
+        for (Object valor : valores) {
+            // como no servidor, $gt/$lt so comparam valores do mesmo tipo
+            if (BsonMemoria.tipo(valor) == BsonMemoria.tipo(limite)
+                    && criterio.aceita(BsonMemoria.comparar(valor, limite))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean algumRegex(List<Object> valores, Pattern padrao) {
+        for (Object valor : valores) {
+            if (valor instanceof String s && padrao.matcher(s).find()) return true;
+        }
+        return false;
+    }
+
+    static Pattern regex(Object valor) {
+        if (valor instanceof Pattern p) return p;
+        if (valor instanceof BsonRegularExpression r) return padrao(r.getPattern(), r.getOptions());
+        return null;
+    }
+
+    private static Pattern padrao(Object arg, String opcoes) {
+        Pattern existente = regex(arg);
+        if (existente != null) {
+            return existente;
+        }
+        String chave = opcoes + "/" + arg;
+        Pattern compilado = PADROES.get(chave);
+        if (compilado != null) {
+            return compilado;
+        }
+        int flags = 0;
+        if (opcoes != null) {
+            if (opcoes.indexOf('i') >= 0) flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+            if (opcoes.indexOf('m') >= 0) flags |= Pattern.MULTILINE;
+            if (opcoes.indexOf('s') >= 0) flags |= Pattern.DOTALL;
+            if (opcoes.indexOf('x') >= 0) flags |= Pattern.COMMENTS;
+        }
+        compilado = Pattern.compile((String) arg, flags);
+        if (PADROES.size() > 1000) {
+            PADROES.clear();
+        }
+        PADROES.put(chave, compilado);
+        return compilado;
+    }
+
+    static UnsupportedOperationException naoSuportado(String operador) {
+        return new UnsupportedOperationException("Operador não suportado no armazenamento em memória: " + operador);
+    }
+}
@@ -0,0 +1,288 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * folha de pagamento mensal: salario do cargo de cada funcionario proporcional aos
+ * dias do mes entre data_admissao e data_demissao (inclusive), somado por cargo e no
+ * total.
+ *
+ * - uma passada so: funcionarios (e funcionarios_arquivo, para meses antigos) e lido
+ *   como cursor, com projecao, em ordem de _id; cada funcionario vira uma linha do
+ *   CSV de detalhe, gravada por um BufferedWriter, e so os totais por cargo ficam em
+ *   memoria. a memoria nao cresce com o numero de funcionarios
+ * - cargos fica num mapa em memoria, lido uma vez por execucao: nenhum $lookup
+ * - funcionario sem cargo existente entra no detalhe com valor 0 e conta como sem cargo
+ *
+ * o CSV usa ";" como separador e "." nos decimais.
+ */
+public class FolhaPagamento {
+    private static final int LOTE = Integer.getInteger("academia.folha.lote", 1000);
+    private static final ZoneId FUSO = ZoneId.systemDefault();
+    static final String SEPARADOR = ";";
+
+    private final Armazenamento armazenamento;
+
+    /**
+     * totais de um cargo no mes
+     */
+    record TotalCargo(String cargo, double salario, int funcionarios, long dias, double valor) {
+    }
+
+    /**
+     * resultado de uma folha: totais por cargo (em ordem de nome) e geral
+     */
+    record Resultado(YearMonth mes, List<TotalCargo> cargos, int funcionarios, int semCargo, double total, long millis) {
+    }
+
+    private record Cargo(String nome, double salario) {
+    }
+
+    public FolhaPagamento(Armazenamento armazenamento) {
+        this.armazenamento = armazenamento;
+    }
+
+    /**
+     * funcionarios com algum dia trabalhado em [inicio, fim): admitidos antes do fim
+     * e nao demitidos antes do inicio
+     */
+    static Bson funcionariosDoMes(Date inicio, Date fim) {
+        return Filters.and(Filters.lt("data_admissao", fim),
+            Filters.or(Filters.eq("data_demissao", null), Filters.gte("data_demissao", inicio)));
+    }
+
+    static Date inicio(YearMonth mes) {
+        return Date.from(mes.atDay(1).atStartOfDay(FUSO).toInstant());
+    }
+
+    /**
+     * dias trabalhados no mes, de max(admissao, dia 1) a min(demissao, ultimo dia)
+     */
+    static long diasTrabalhados(YearMonth mes, Date admissao, Date demissao) {
+        LocalDate de = mes.atDay(1);
+        LocalDate ate = mes.atEndOfMonth();
+        if (admissao != null) {
+            LocalDate dia = admissao.toInstant().atZone(FUSO).toLocalDate();
+            de = dia.isAfter(de) ? dia : de;
+        }
+        if (demissao != null) {
+            LocalDate dia = demissao.toInstant().atZone(FUSO).toLocalDate();
+            ate = dia.isBefore(ate) ? dia : ate;
+        }
+        return ate.isBefore(de) ? 0 : ChronoUnit.DAYS.between(de, ate) + 1;
+    }
+
+    /**
+     * calcula a folha do mes gravando o detalhe (uma linha por funcionario) em saida
+     */
+    public Resultado gerar(YearMonth mes, Writer saida) throws IOException {
+        long inicioExecucao = System.nanoTime();
+        Map<Object, Cargo> cargos = new HashMap<>();
+        for (Document cargo : armazenamento.colecao("cargos").find().projection(Projections.include("nome", "salario"))) {
+            Object salario = cargo.get("salario");
+            cargos.put(cargo.get("_id"), new Cargo(cargo.getString("nome"),
+                salario instanceof Number n ? n.doubleValue() : 0));
+        }
+
+        Bson filtro = funcionariosDoMes(inicio(mes), inicio(mes.plusMonths(1)));
+        int diasNoMes = mes.lengthOfMonth();
+        String competencia = Faturamento.competencia(mes);
+        // por _id do cargo: funcionarios, dias, valor
+        Map<Object, double[]> porCargo = new HashMap<>();
+        int funcionarios = 0;
+        int semCargo = 0;
+
+        saida.write(String.join(SEPARADOR, "competencia", "id_funcionario", "nome", "cargo",
+                                "salario", "dias", "valor"));
+        saida.write('\n');
+        for (String colecao : List.of("funcionarios", "funcionarios" + Arquivamento.SUFIXO)) {
+            for (Document funcionario : armazenamento.colecao(colecao).find(filtro)
+                    .projection(Projections.include("nome", "id_cargo", "data_admissao", "data_demissao"))
+                    .sort(Sorts.ascending("_id"))
+                    .batchSize(LOTE)) {
+                Cargo cargo = cargos.get(funcionario.get("id_cargo"));
+                long dias = diasTrabalhados(mes, funcionario.getDate("data_admissao"), funcionario.getDate("data_demissao"));
+                double valor = cargo != null ? centavos(cargo.salario() * dias / diasNoMes) : 0;
+                funcionarios++;
+                if (cargo == null) {
+                    semCargo++;
+                } else {
+                    double[] total = porCargo.computeIfAbsent(funcionario.get("id_cargo"), k -> new double[3]);
+                    total[0]++;
+                    total[1] += dias;
+                    total[2] += valor;
+                }
+                saida.write(String.join(SEPARADOR, competencia, funcionario.get("_id").toString(),
+                    campo(funcionario.getString("nome")), campo(cargo != null ? cargo.nome() : ""),
+                    decimal(cargo != null ? cargo.salario() : 0), Long.toString(dias), decimal(valor)));
+                saida.write('\n');
+            }
+        }
+
+        List<TotalCargo> totais = new ArrayList<>();
+        double total = 0;
+        for (Map.Entry<Object, double[]> entrada : porCargo.entrySet()) {
+            Cargo cargo = cargos.get(entrada.getKey());
+            double[] valores = entrada.getValue();
+            totais.add(new TotalCargo(cargo.nome(), cargo.salario(), (int) valores[0], (long) valores[1],
+                                      centavos(valores[2])));
+            total += valores[2];
+        }
+        totais.sort((a, b) -> a.cargo().compareToIgnoreCase(b.cargo()));
+        return new Resultado(mes, totais, funcionarios, semCargo, centavos(total),
+                             (System.nanoTime() - inicioExecucao) / 1_000_000);
+    }
+
+    /**
+     * grava o resumo (uma linha por cargo e a linha TOTAL) em saida
+     */
+    static void exportarResumo(Resultado resultado, Writer saida) throws IOException {
+        String competencia = Faturamento.competencia(resultado.mes());
+        saida.write(String.join(SEPARADOR, "competencia", "cargo", "salario", "funcionarios", "dias", "valor"));
+        saida.write('\n');
+        for (TotalCargo cargo : resultado.cargos()) {
+            saida.write(String.join(SEPARADOR, competencia, campo(cargo.cargo()), decimal(cargo.salario()),
+                Integer.toString(cargo.funcionarios()), Long.toString(cargo.dias()), decimal(cargo.valor())));
+            saida.write('\n');
+        }
+        saida.write(String.join(SEPARADOR, competencia, "TOTAL", "", Integer.toString(resultado.funcionarios()), "",
+                                decimal(resultado.total())));
+        saida.write('\n');
+    }
+
+    /**
+     * grava folha-aaaa-mm.csv (detalhe) e folha-aaaa-mm-cargos.csv (resumo) no diretorio
+     */
+    public Resultado exportar(YearMonth mes, Path diretorio) throws IOException {
+        String prefixo = "folha-" + Faturamento.competencia(mes);
+        Files.createDirectories(diretorio);
+        Resultado resultado;
+        try (BufferedWriter detalhe = Files.newBufferedWriter(diretorio.resolve(prefixo + ".csv"), StandardCharsets.UTF_8)) {
+            resultado = gerar(mes, detalhe);
+        }
+        try (BufferedWriter resumo = Files.newBufferedWriter(diretorio.resolve(prefixo + "-cargos.csv"), StandardCharsets.UTF_8)) {
+            exportarResumo(resultado, resumo);
+        }
+        return resultado;
+    }
+
+    private static double centavos(double valor) {
+        return Math.round(valor * 100) / 100.0;
+    }
+
+    private static String decimal(double valor) {
+        return String.format(Locale.ROOT, "%.2f", valor);
+    }
+
+    /**
+     * texto entre aspas quando tem separador, aspas ou quebra de linha
+     */
+    static String campo(String texto) {
+        if (texto == null) {
+            return "";
+        }
+        if (texto.contains(SEPARADOR) || texto.contains("\"") || texto.contains("\n")) {
+            return "\"" + texto.replace("\"", "\"\"") + "\"";
+        }
+        return texto;
+    }
+
+    static void executarMenu(Armazenamento armazenamento, Scanner scanner) {
+        YearMonth atual = YearMonth.now(FUSO);
+        System.out.print("Competência (aaaa-mm) [" + Faturamento.competencia(atual) + "]: ");
+        String texto = scanner.nextLine().trim();
+        YearMonth mes = texto.isEmpty() ? atual : Faturamento.lerCompetencia(texto);
+        if (mes == null) {
+            System.out.println("Erro: competência inválida!");
+            return;
+        }
+        System.out.print("Diretório dos arquivos [.]: ");
+        String diretorio = scanner.nextLine().trim();
+        Path destino = Path.of(diretorio.isEmpty() ? "." : diretorio);
+        Rastreio.executar("folha.gerar", "funcionarios", () -> {
+            try {
+                imprimir(new FolhaPagamento(armazenamento).exportar(mes, destino), destino);
+            } catch (IOException e) {
+                System.out.println("Erro ao gravar a folha: " + e.getMessage());
+            }
+        });
+    }
+
+    private static void imprimir(Resultado resultado, Path destino) {
+        String competencia = Faturamento.competencia(resultado.mes());
+        Tabela tabela = new Tabela("FOLHA DE PAGAMENTO " + competencia,
+            Tabela.coluna("Cargo", 20), Tabela.numero("Salário", 12), Tabela.numero("Funcionários", 12),
+            Tabela.numero("Valor", 14));
+        if (resultado.funcionarios() == 0) {
+            tabela.vazia("Nenhum funcionário trabalhou na competência.");
+        } else {
+            tabela.cabecalho();
+            for (TotalCargo cargo : resultado.cargos()) {
+                tabela.texto(cargo.cargo())
+                      .moeda(cargo.salario())
+                      .inteiro(cargo.funcionarios())
+                      .moeda(cargo.valor())
+                      .fimLinha();
+            }
+            tabela.rodape("Total: " + resultado.funcionarios() + " funcionário(s), " + Tabela.formatarMoeda(resultado.total()));
+        }
+        if (resultado.semCargo() > 0) {
+            System.out.println("Atenção: " + resultado.semCargo() + " funcionário(s) sem cargo cadastrado (valor 0).");
+        }
+        System.out.printf("Arquivos gravados em %s (folha-%s.csv e folha-%s-cargos.csv) em %d ms%n",
+            destino.toAbsolutePath().normalize(), competencia, competencia, resultado.millis());
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+        YearMonth mes = YearMonth.now(FUSO);
+        Path diretorio = Path.of(".");
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"         -> uri = args[++i];
+                case "--banco"       -> banco = args[++i];
+                case "--competencia" -> mes = Faturamento.lerCompetencia(args[++i]);
+                case "--dir"         -> diretorio = Path.of(args[++i]);
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+        if (mes == null) {
+            System.out.println("Competência inválida (use aaaa-mm).");
+            return;
+        }
+
+        Armazenamento armazenamento = new ArmazenamentoMongo(new Conexao(uri, banco));
+        try {
+            imprimir(new FolhaPagamento(armazenamento).exportar(mes, diretorio), diretorio);
+        } catch (IOException e) {
+            System.out.println("Erro ao gravar a folha: " + e.getMessage());
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+}
@@ -1,4 +1,3 @@
-import com.mongodb.client.*;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Updates;
 import org.bson.Document;
@@ -12,13 +11,17 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 
 public class FuncionarioCRUD {
-    private MongoCollection<Document> collection;
-    private MongoCollection<Document> cargos;
+    private Armazenamento armazenamento;
+    private Colecao collection;
+    private Colecao cargos;
+    private Estatisticas estatisticas;
     private Scanner scanner;
 
-    public FuncionarioCRUD(MongoDatabase database, Scanner scanner) {
-        this.collection = database.getCollection("funcionarios");
-        this.cargos = database.getCollection("cargos");
+    public FuncionarioCRUD(Armazenamento armazenamento, Scanner scanner) {
+        this.armazenamento = armazenamento;
+        this.collection = armazenamento.colecao("funcionarios");
+        this.cargos = armazenamento.colecao("cargos");
+        this.estatisticas = armazenamento.estatisticas();
         this.scanner = scanner;
     }
 
@@ -29,7 +32,8 @@ public class FuncionarioCRUD {
             System.out.println("2. Listar");
             System.out.println("3. Atualizar");
             System.out.println("4. Deletar");
-            System.out.println("5. Voltar");
+            System.out.println("5. Buscar (incluindo arquivados)");
+            System.out.println("6. Voltar");
             System.out.print("Escolha: ");
 
             int opcao = scanner.nextInt();
@@ -37,10 +41,11 @@ public class FuncionarioCRUD {
 
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("funcionario.listar", "funcionarios", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
-                case 5 -> { return; }
+                case 5 -> buscarComArquivados();
+                case 6 -> { return; }
                 default -> System.out.println("Opção inválida!");
             }
         }
@@ -48,7 +53,7 @@ public class FuncionarioCRUD {
 
     private void cadastrar() {
         // verifica se existem cargos cadastrados
-        if (cargos.countDocuments() == 0) {
+        if (estatisticas.vazia(cargos)) {
             System.out.println("Erro: Não existem cargos cadastrados. Cadastre um cargo primeiro!");
             return;
         }
@@ -143,13 +148,6 @@ public class FuncionarioCRUD {
         String cargoId = selecionarCargo();
         if (cargoId == null) return;
 
-        // verifica se ja existe funcionario com mesmo telefone
-        Document funcionarioExistente = collection.find(Filters.eq("telefone", telefone)).first();
-        if (funcionarioExistente != null) {
-            System.out.println("Erro: Já existe um funcionário cadastrado com este telefone!");
-            return;
-        }
-
         Document doc = new Document("nome", nome)
             .append("data_nascimento", dataNascimento)
             .append("data_admissao", dataAdmissao)
@@ -158,19 +156,26 @@ public class FuncionarioCRUD {
             .append("telefone", telefone)
             .append("id_cargo", new ObjectId(cargoId));
 
-        collection.insertOne(doc);
-        System.out.println("Funcionário cadastrado com sucesso!");
-    }
-
-    private void listar() {
-        long total = collection.countDocuments();
-        if (total == 0) {
-            System.out.println("Nenhum funcionário cadastrado.");
+        // verifica se ja existe funcionario com mesmo telefone
+        boolean gravado = Rastreio.executar("funcionario.cadastrar", "funcionarios", () -> {
+            if (collection.find(Filters.eq("telefone", doc.getString("telefone"))).first() != null) {
+                return false;
+            }
+            collection.insertOne(doc);
+            return true;
+        });
+        if (!gravado) {
+            System.out.println("Erro: Já existe um funcionário cadastrado com este telefone!");
             return;
         }
+        System.out.println("Funcionário cadastrado com sucesso!");
+    }
 
-        // busca funcionarios com informacoes do cargo
-        AggregateIterable<Document> result = collection.aggregate(List.of(
+    /**
+     * funcionarios com o nome do cargo, para a listagem (colecao: funcionarios)
+     */
+    static List<Document> pipelineListagem() {
+        return List.of(
             new Document("$lookup", new Document()
                 .append("from", "cargos")
                 .append("localField", "id_cargo")
@@ -185,23 +190,34 @@ public class FuncionarioCRUD {
                 .append("status", 1)
                 .append("telefone", 1)
                 .append("cargo_nome", "$cargo_info.nome"))
-        ));
+        );
+    }
 
-        System.out.println("\n--- FUNCIONÁRIOS CADASTRADOS ---");
-        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
+    private void listar() {
+        if (estatisticas.vazia(collection)) {
+            System.out.println("Nenhum funcionário cadastrado.");
+            return;
+        }
+        long total = estatisticas.total(collection);
+
+        // busca funcionarios com informacoes do cargo
+        Resultados result = collection.aggregate(pipelineListagem());
+
+        Tabela tabela = new Tabela("FUNCIONÁRIOS CADASTRADOS",
+            Tabela.coluna("Nome", 30), Tabela.coluna("Nascimento", 10), Tabela.coluna("Admissão", 10),
+            Tabela.coluna("Demissão", 10), Tabela.coluna("Status", 7), Tabela.coluna("Telefone", 15),
+            Tabela.coluna("Cargo", 0)).cabecalho();
         for (Document doc : result) {
-            System.out.printf(
-                "Nome: %s | Nascimento: %s | Admissão: %s | Demissão: %s | Status: %s | Telefone: %s | Cargo: %s\n",
-                doc.getString("nome"),
-                sdf.format(doc.getDate("data_nascimento")),
-                sdf.format(doc.getDate("data_admissao")),
-                doc.get("data_demissao") != null ? sdf.format(doc.getDate("data_demissao")) : "N/A",
-                doc.getInteger("status") == 1 ? "Ativo" : "Inativo",
-                doc.getString("telefone"),
-                doc.getString("cargo_nome")
-            );
+            tabela.texto(doc.getString("nome"))
+                  .data(doc.getDate("data_nascimento"))
+                  .data(doc.getDate("data_admissao"))
+                  .data(doc.getDate("data_demissao"))
+                  .texto(doc.getInteger("status") == 1 ? "Ativo" : "Inativo")
+                  .texto(doc.getString("telefone"))
+                  .texto(doc.getString("cargo_nome"))
+                  .fimLinha();
         }
-        System.out.printf("Total: %d funcionário(s)\n", total);
+        tabela.rodape("Total: " + total + " funcionário(s)");
     }
 
     private void atualizar() {
@@ -291,20 +307,6 @@ public class FuncionarioCRUD {
             }
         }
 
-        // verifica duplicidade de telefone se for alterado
-        if (!telefone.isEmpty()) {
-            Document funcionarioExistente = collection.find(
-                Filters.and(
-                    Filters.eq("telefone", telefone),
-                    Filters.ne("_id", new ObjectId(funcionarioId))
-                )
-            ).first();
-            if (funcionarioExistente != null) {
-                System.out.println("Erro: Já existe outro funcionário com este telefone!");
-                return;
-            }
-        }
-
         // monta updates apenas para campos que foram alterados
         List<Document> updates = new ArrayList<>();
         if (!nome.isEmpty()) updates.add(new Document("$set", new Document("nome", nome)));
@@ -322,9 +324,25 @@ public class FuncionarioCRUD {
             return;
         }
 
-        // aplica todos os updates
-        for (Document update : updates) {
-            collection.updateOne(Filters.eq("_id", new ObjectId(funcionarioId)), update);
+        // verifica duplicidade de telefone se for alterado e aplica todos os updates
+        String novoTelefone = telefone;
+        boolean gravado = Rastreio.executar("funcionario.atualizar", "funcionarios", () -> {
+            if (!novoTelefone.isEmpty() && collection.find(
+                    Filters.and(
+                        Filters.eq("telefone", novoTelefone),
+                        Filters.ne("_id", new ObjectId(funcionarioId))
+                    )
+                ).first() != null) {
+                return false;
+            }
+            for (Document update : updates) {
+                collection.updateOne(Filters.eq("_id", new ObjectId(funcionarioId)), update);
+            }
+            return true;
+        });
+        if (!gravado) {
+            System.out.println("Erro: Já existe outro funcionário com este telefone!");
+            return;
         }
 
         System.out.println("Funcionário atualizado com sucesso!");
@@ -335,7 +353,8 @@ public class FuncionarioCRUD {
         if (funcionarioId == null) return;
 
         // busca o funcionário para mostrar informacoes
-        Document funcionario = collection.find(Filters.eq("_id", new ObjectId(funcionarioId))).first();
+        Document funcionario = Rastreio.executar("funcionario.buscar", "funcionarios",
+            () -> collection.find(Filters.eq("_id", new ObjectId(funcionarioId))).first());
         if (funcionario == null) {
             System.out.println("Funcionário não encontrado!");
             return;
@@ -346,13 +365,65 @@ public class FuncionarioCRUD {
         String confirmacao = scanner.nextLine();
         
         if (confirmacao.equalsIgnoreCase("s")) {
-            collection.deleteOne(Filters.eq("_id", new ObjectId(funcionarioId)));
+            Rastreio.executar("funcionario.deletar", "funcionarios",
+                () -> collection.deleteOne(Filters.eq("_id", new ObjectId(funcionarioId))));
             System.out.println("Funcionário deletado com sucesso!");
         } else {
             System.out.println("Operação cancelada.");
         }
     }
 
+    /**
+     * busca por nome em funcionarios e em funcionarios_arquivo; um arquivado pode ser
+     * restaurado para voltar a ser editado
+     */
+    private void buscarComArquivados() {
+        System.out.print("Digite o nome ou parte do nome para buscar: ");
+        String busca = scanner.nextLine();
+
+        List<Document> resultados = Rastreio.executar("funcionario.buscarArquivados", "funcionarios",
+            () -> Arquivamento.buscar(armazenamento, "funcionarios", Filters.regex("nome", ".*" + busca + ".*", "i"), true));
+        if (resultados.isEmpty()) {
+            System.out.println("Nenhum funcionário encontrado com: " + busca);
+            return;
+        }
+
+        Tabela tabela = new Tabela("FUNCIONÁRIOS ENCONTRADOS",
+            Tabela.numero("#", 3), Tabela.coluna("Nome", 25), Tabela.coluna("Telefone", 15),
+            Tabela.coluna("Demissão", 10), Tabela.coluna("Situação", 0)).cabecalho();
+        int arquivados = 0;
+        for (int i = 0; i < resultados.size(); i++) {
+            Document doc = resultados.get(i);
+            boolean arquivado = doc.getBoolean("arquivado", false);
+            if (arquivado) arquivados++;
+            tabela.inteiro(i + 1)
+                  .texto(doc.getString("nome"))
+                  .texto(doc.getString("telefone"))
+                  .data(doc.getDate("data_demissao"))
+                  .texto(arquivado ? "Arquivado em " + Tabela.formatarData(doc.getDate("arquivado_em")) : "Em uso")
+                  .fimLinha();
+        }
+        tabela.rodape("Total: " + resultados.size() + " funcionário(s), " + arquivados + " arquivado(s)");
+        if (arquivados == 0) return;
+
+        System.out.print("Número do funcionário arquivado para restaurar (Enter para voltar): ");
+        String escolha = scanner.nextLine().trim();
+        if (escolha.isEmpty()) return;
+        try {
+            Document doc = resultados.get(Integer.parseInt(escolha) - 1);
+            if (!doc.getBoolean("arquivado", false)) {
+                System.out.println("Este funcionário não está arquivado.");
+            } else if (Rastreio.executar("funcionario.restaurar", "funcionarios",
+                           () -> Arquivamento.restaurar(armazenamento, "funcionarios", doc.get("_id")))) {
+                System.out.println("Funcionário restaurado com sucesso!");
+            } else {
+                System.out.println("Funcionário não encontrado no arquivo.");
+            }
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            System.out.println("Seleção inválida!");
+        }
+    }
+
     /**
      * metodo auxiliar para selecionar um funcionario
      */
@@ -361,9 +432,9 @@ public class FuncionarioCRUD {
         String busca = scanner.nextLine();
 
         // busca por nomes que contenham o texto digitado
-        List<Document> resultados = new ArrayList<>();
-        collection.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
-                 .into(resultados);
+        List<Document> resultados = Rastreio.executar("funcionario.buscar", "funcionarios",
+            () -> collection.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
+                            .into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhum funcionário encontrado com: " + busca);
@@ -414,8 +485,8 @@ public class FuncionarioCRUD {
      * metodo auxiliar para selecionar um cargo
      */
     private String selecionarCargo() {
-        List<Document> listaCargos = new ArrayList<>();
-        cargos.find().into(listaCargos);
+        List<Document> listaCargos = Rastreio.executar("cargo.buscar", "cargos",
+            () -> cargos.find().into(new ArrayList<>()));
 
         if (listaCargos.isEmpty()) {
             System.out.println("Nenhum cargo disponível!");
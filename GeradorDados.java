@@ -0,0 +1,382 @@
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.nio.ByteBuffer;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * gerador deterministico de dados sinteticos para testes de escala.
+ * a mesma semente e a mesma escala sempre produzem os mesmos documentos,
+ * inclusive os _id, entao as referencias entre collections sao calculadas
+ * a partir do indice de cada documento, sem nenhuma consulta ao banco.
+ *
+ * uso: java -cp ".:lib/*" GeradorDados --clientes 1000000 [--semente 42]
+ *      [--threads 8] [--lote 1000] [--limpar] [--uri mongodb://...] [--banco academia_bd]
+ */
+public class GeradorDados {
+    // prefixos dos _id gerados, um por collection
+    static final byte TIPO_BENEFICIO   = 1;
+    static final byte TIPO_PLANO       = 2;
+    static final byte TIPO_TELEFONE    = 3;
+    static final byte TIPO_CLIENTE     = 4;
+    static final byte TIPO_CARGO       = 5;
+    static final byte TIPO_FUNCIONARIO = 6;
+    static final byte TIPO_EQUIPAMENTO = 7;
+    static final byte TIPO_MANUTENCAO  = 8;
+
+    // 2024-01-01T00:00:00Z, usado como timestamp fixo dos _id
+    private static final int BASE_TIMESTAMP = 1704067200;
+    private static final long DIA_MS = 24L * 60 * 60 * 1000;
+    private static final long ANO_MS = 365L * DIA_MS;
+    private static final ZoneId FUSO = ZoneId.systemDefault();
+
+    private static final String[] NOMES = {
+        "Ana", "Bruno", "Carla", "Daniel", "Eduarda", "Felipe", "Gabriela", "Henrique",
+        "Isabela", "João", "Larissa", "Lucas", "Mariana", "Mateus", "Natália", "Otávio",
+        "Paula", "Rafael", "Sofia", "Thiago", "Vitória", "Pedro", "Júlia", "Gustavo"
+    };
+    private static final String[] SOBRENOMES = {
+        "Silva", "Santos", "Oliveira", "Souza", "Lima", "Pereira", "Ferreira", "Costa",
+        "Rodrigues", "Almeida", "Nascimento", "Carvalho", "Gomes", "Martins", "Araújo", "Ribeiro"
+    };
+    private static final String[] CARGOS = {
+        "Instrutor", "Personal Trainer", "Recepcionista", "Gerente", "Nutricionista",
+        "Fisioterapeuta", "Técnico de Manutenção", "Auxiliar de Limpeza", "Coordenador",
+        "Professor de Natação", "Professor de Dança", "Vendedor"
+    };
+    private static final double[] SALARIOS = {
+        2800, 4200, 2100, 7500, 5200, 5600, 3300, 1800, 6100, 3500, 3200, 2500
+    };
+    private static final String[] BENEFICIOS = {
+        "Acesso à piscina", "Avaliação física", "Aulas coletivas", "Sauna", "Armário",
+        "Estacionamento", "Toalha", "Acompanhamento nutricional", "Acesso 24h", "Convidado"
+    };
+    private static final String[] EQUIPAMENTOS = {
+        "Esteira", "Bicicleta Ergométrica", "Elíptico", "Leg Press", "Supino",
+        "Puxador", "Cadeira Extensora", "Remo", "Smith", "Crossover"
+    };
+    private static final int[] DURACOES = { 1, 3, 6, 12, 24 };
+
+    private final Armazenamento armazenamento;
+    private final long semente;
+    private final int threads;
+    private final int lote;
+
+    // quantidades derivadas da escala
+    final long qtdClientes;
+    final long qtdBeneficios;
+    final long qtdPlanos;
+    final long qtdCargos;
+    final long qtdFuncionarios;
+    final long qtdEquipamentos;
+    final long qtdManutencoes;
+
+    public GeradorDados(Armazenamento armazenamento, long qtdClientes, long semente, int threads, int lote) {
+        this.armazenamento = armazenamento;
+        this.semente = semente;
+        this.threads = threads;
+        this.lote = lote;
+
+        this.qtdClientes     = qtdClientes;
+        this.qtdBeneficios   = Math.max(10, qtdClientes / 10_000);
+        this.qtdPlanos       = Math.max(5, qtdClientes / 2_000);
+        this.qtdCargos       = CARGOS.length;
+        this.qtdFuncionarios = Math.max(10, qtdClientes / 100);
+        this.qtdEquipamentos = Math.max(10, qtdClientes / 200);
+        this.qtdManutencoes  = qtdEquipamentos * 4;
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+        long clientes = 10_000;
+        long semente = 42;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int lote = 1000;
+        boolean limpar = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"      -> uri = args[++i];
+                case "--banco"    -> banco = args[++i];
+                case "--clientes" -> clientes = Long.parseLong(args[++i]);
+                case "--semente"  -> semente = Long.parseLong(args[++i]);
+                case "--threads"  -> threads = Integer.parseInt(args[++i]);
+                case "--lote"     -> lote = Integer.parseInt(args[++i]);
+                case "--limpar"   -> limpar = true;
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Conexao conexao = new Conexao(uri, banco);
+        try {
+            GeradorDados gerador = new GeradorDados(new ArmazenamentoMongo(conexao.getDatabase()), clientes, semente, threads, lote);
+            if (limpar) {
+                gerador.limpar();
+            }
+            gerador.gerarTudo();
+        } finally {
+            conexao.closeConnection();
+        }
+    }
+
+    /**
+     * remove as collections geradas antes de uma nova carga
+     */
+    public void limpar() {
+        for (String nome : List.of("beneficios", "planos", "telefones", "clientes",
+                                   "cargos", "funcionarios", "equipamentos", "manutencoes")) {
+            armazenamento.colecao(nome).drop();
+        }
+    }
+
+    public void gerarTudo() {
+        long inicio = System.nanoTime();
+        System.out.printf("Gerando dados (clientes=%d, semente=%d, threads=%d, lote=%d)%n",
+            qtdClientes, semente, threads, lote);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            gerar(executor, "beneficios",   TIPO_BENEFICIO,   qtdBeneficios,   this::beneficio);
+            gerar(executor, "planos",       TIPO_PLANO,       qtdPlanos,       this::plano);
+            gerar(executor, "telefones",    TIPO_TELEFONE,    qtdClientes,     this::telefone);
+            gerar(executor, "clientes",     TIPO_CLIENTE,     qtdClientes,     this::cliente);
+            gerar(executor, "cargos",       TIPO_CARGO,       qtdCargos,       this::cargo);
+            gerar(executor, "funcionarios", TIPO_FUNCIONARIO, qtdFuncionarios, this::funcionario);
+            gerar(executor, "equipamentos", TIPO_EQUIPAMENTO, qtdEquipamentos, this::equipamento);
+            gerar(executor, "manutencoes",  TIPO_MANUTENCAO,  qtdManutencoes,  this::manutencao);
+        } finally {
+            executor.shutdown();
+        }
+        // campos derivados do plano (datas de fim de contrato e de fidelidade)
+        long contratos = System.nanoTime();
+        long alterados = Contratos.recalcularTodos(armazenamento);
+        System.out.printf("  %-13s %,12d docs em %6.1f s%n", "contratos", alterados, (System.nanoTime() - contratos) / 1e9);
+        EquipamentoCRUD.recalcularManutencoesAbertas(armazenamento);
+        CustosManutencao.reconstruir(armazenamento);
+
+        System.out.printf("Concluído em %.1f s%n", (System.nanoTime() - inicio) / 1e9);
+    }
+
+    interface Fabrica {
+        Document criar(ObjectId id, long indice, Random random);
+    }
+
+    /**
+     * divide a collection em lotes e insere cada lote em paralelo com insertMany
+     * nao ordenado. cada lote tem o seu proprio Random, derivado da semente e do
+     * numero do lote, entao o resultado nao depende da ordem de execucao das threads.
+     */
+    private void gerar(ExecutorService executor, String nomeCollection, byte tipo,
+                       long quantidade, Fabrica fabrica) {
+        Colecao colecao = armazenamento.colecao(nomeCollection);
+        Semaphore emVoo = new Semaphore(threads * 2);
+        AtomicLong inseridos = new AtomicLong();
+        List<Future<?>> pendentes = new ArrayList<>();
+        long inicio = System.nanoTime();
+
+        for (long ini = 0; ini < quantidade; ini += lote) {
+            final long loteIni = ini;
+            final long loteFim = Math.min(quantidade, ini + lote);
+            emVoo.acquireUninterruptibly();
+            pendentes.add(executor.submit(() -> {
+                try {
+                    Random random = new Random(semente(tipo, loteIni / lote));
+                    List<Document> docs = new ArrayList<>((int) (loteFim - loteIni));
+                    for (long i = loteIni; i < loteFim; i++) {
+                        docs.add(fabrica.criar(id(tipo, i), i, random));
+                    }
+                    colecao.insertMany(docs, false);
+                    inseridos.addAndGet(docs.size());
+                } finally {
+                    emVoo.release();
+                }
+            }));
+            // descarta os lotes ja concluidos para nao acumular futures
+            if (pendentes.size() >= threads * 64) {
+                aguardar(pendentes);
+            }
+        }
+        aguardar(pendentes);
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        System.out.printf("  %-13s %,12d docs em %6.1f s (%,.0f docs/s)%n",
+            nomeCollection, inseridos.get(), segundos, inseridos.get() / Math.max(segundos, 1e-9));
+    }
+
+    private void aguardar(List<Future<?>> pendentes) {
+        for (Future<?> f : pendentes) {
+            try {
+                f.get(1, TimeUnit.HOURS);
+            } catch (Exception e) {
+                throw new RuntimeException("Erro ao inserir lote: " + e.getMessage(), e);
+            }
+        }
+        pendentes.clear();
+    }
+
+    private long semente(byte tipo, long numeroLote) {
+        long h = semente * 0x9E3779B97F4A7C15L + tipo;
+        h ^= numeroLote * 0xC2B2AE3D27D4EB4FL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * _id deterministico: timestamp fixo + tipo da collection + indice do documento
+     */
+    static ObjectId id(byte tipo, long indice) {
+        ByteBuffer buffer = ByteBuffer.allocate(12);
+        buffer.putInt(BASE_TIMESTAMP);
+        buffer.putLong(((long) tipo << 56) | indice);
+        buffer.flip();
+        return new ObjectId(buffer);
+    }
+
+    // fabricas de documentos, com os mesmos campos gravados pelos CRUDs
+
+    private Document beneficio(ObjectId id, long i, Random r) {
+        String base = BENEFICIOS[(int) (i % BENEFICIOS.length)];
+        return new Document("_id", id)
+                .append("nome", nomeBeneficio(i))
+                .append("descricao", "Benefício " + base.toLowerCase());
+    }
+
+    private static String nomeBeneficio(long i) {
+        String base = BENEFICIOS[(int) (i % BENEFICIOS.length)];
+        return i < BENEFICIOS.length ? base : base + " " + (i / BENEFICIOS.length + 1);
+    }
+
+    private Document plano(ObjectId id, long i, Random r) {
+        int duracao = DURACOES[r.nextInt(DURACOES.length)];
+        int fidelidade = Math.min(duracao, new int[] { 0, 0, 3, 6, 12 }[r.nextInt(5)]);
+
+        int qtd = 1 + r.nextInt((int) Math.min(6, qtdBeneficios));
+        List<ObjectId> beneficios = new ArrayList<>(qtd);
+        List<Document> resumo = new ArrayList<>(qtd);
+        while (beneficios.size() < qtd) {
+            long indice = (long) (r.nextDouble() * qtdBeneficios);
+            ObjectId b = id(TIPO_BENEFICIO, indice);
+            if (!beneficios.contains(b)) {
+                beneficios.add(b);
+                resumo.add(new Document("_id", b).append("nome", nomeBeneficio(indice)));
+            }
+        }
+
+        return new Document("_id", id)
+                .append("nome", "Plano " + (i + 1))
+                .append("descricao", duracao + " meses" + (fidelidade > 0 ? " com fidelidade" : ""))
+                .append("valor", dinheiro(59.9 + r.nextInt(25) * 10))
+                .append("duracao", duracao)
+                .append("fidelidade", fidelidade)
+                .append("beneficios", beneficios)
+                .append("beneficios_resumo", resumo);
+    }
+
+    private Document telefone(ObjectId id, long i, Random r) {
+        return new Document("_id", id)
+                .append("numero", String.format("479%08d", i));
+    }
+
+    private Document cliente(ObjectId id, long i, Random r) {
+        long agora = BASE_TIMESTAMP * 1000L;
+        Date nascimento = new Date(agora - 16 * ANO_MS - (long) (r.nextDouble() * 50 * ANO_MS));
+        Date adesao = new Date(agora - (long) (r.nextDouble() * 5 * ANO_MS));
+
+        // ~5% dos clientes ainda sem plano vinculado
+        ObjectId plano = r.nextInt(100) < 5 ? null : id(TIPO_PLANO, (long) (r.nextDouble() * qtdPlanos));
+
+        Document cliente = new Document("_id", id)
+                .append("nome", nomeAleatorio(r))
+                .append("data_nascimento", diaCheio(nascimento))
+                .append("data_adesao", diaCheio(adesao))
+                .append("status", r.nextInt(100) < 80 ? 1 : 0)
+                .append("id_telefone", id(TIPO_TELEFONE, i))
+                .append("id_plano", plano);
+        // inativos: inativados em algum dia entre a adesao e hoje (Arquivamento)
+        if (cliente.getInteger("status") == 0) {
+            cliente.append("data_inativacao", diaCheio(new Date(adesao.getTime()
+                + (long) (r.nextDouble() * (agora - adesao.getTime())))));
+        }
+        return cliente;
+    }
+
+    private Document cargo(ObjectId id, long i, Random r) {
+        return new Document("_id", id)
+                .append("nome", CARGOS[(int) i])
+                .append("descricao", "Cargo de " + CARGOS[(int) i].toLowerCase())
+                .append("salario", SALARIOS[(int) i]);
+    }
+
+    private Document funcionario(ObjectId id, long i, Random r) {
+        long agora = BASE_TIMESTAMP * 1000L;
+        Date nascimento = new Date(agora - 18 * ANO_MS - (long) (r.nextDouble() * 40 * ANO_MS));
+        Date admissao = new Date(agora - (long) (r.nextDouble() * 10 * ANO_MS));
+
+        // ~15% dos funcionarios ja foram demitidos
+        Date demissao = null;
+        if (r.nextInt(100) < 15) {
+            long diasTrabalhados = 30 + (long) (r.nextDouble() * (agora - admissao.getTime()) / DIA_MS);
+            demissao = diaCheio(new Date(Math.min(agora, admissao.getTime() + diasTrabalhados * DIA_MS)));
+        }
+
+        return new Document("_id", id)
+                .append("nome", nomeAleatorio(r))
+                .append("data_nascimento", diaCheio(nascimento))
+                .append("data_admissao", diaCheio(admissao))
+                .append("data_demissao", demissao)
+                .append("status", demissao == null ? 1 : 0)
+                .append("telefone", String.format("489%08d", i))
+                .append("id_cargo", id(TIPO_CARGO, r.nextInt((int) qtdCargos)));
+    }
+
+    private Document equipamento(ObjectId id, long i, Random r) {
+        return new Document("_id", id)
+                .append("modelo", EQUIPAMENTOS[(int) (i % EQUIPAMENTOS.length)] + " " + (i + 1))
+                .append("valor", dinheiro(1500 + r.nextInt(300) * 100))
+                .append("status", r.nextInt(100) < 90 ? 1 : 0);
+    }
+
+    private Document manutencao(ObjectId id, long i, Random r) {
+        long agora = BASE_TIMESTAMP * 1000L;
+        int status = r.nextInt(3);
+        Date prevista = diaCheio(new Date(agora - 2 * ANO_MS + (long) (r.nextDouble() * 2.5 * ANO_MS)));
+        Date realizada = status == 2 ? new Date(prevista.getTime() + r.nextInt(15) * DIA_MS) : null;
+
+        return new Document("_id", id)
+                .append("custo", dinheiro(80 + r.nextDouble() * 2000))
+                .append("status", status)
+                .append("data_prevista", prevista)
+                .append("data_realizada", realizada)
+                .append("id_equipamento", id(TIPO_EQUIPAMENTO, i % qtdEquipamentos))
+                .append("id_funcionario", id(TIPO_FUNCIONARIO, (long) (r.nextDouble() * qtdFuncionarios)));
+    }
+
+    // helpers
+
+    private static String nomeAleatorio(Random r) {
+        return NOMES[r.nextInt(NOMES.length)] + " " + SOBRENOMES[r.nextInt(SOBRENOMES.length)]
+             + " " + SOBRENOMES[r.nextInt(SOBRENOMES.length)];
+    }
+
+    private static double dinheiro(double valor) {
+        return Math.round(valor * 100) / 100.0;
+    }
+
+    // trunca para meia-noite no fuso local, como as datas digitadas sem horario (SimpleDateFormat, LocalDate)
+    private static Date diaCheio(Date data) {
+        return Date.from(data.toInstant().atZone(FUSO).toLocalDate().atStartOfDay(FUSO).toInstant());
+    }
+}
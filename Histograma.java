@@ -0,0 +1,102 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * histograma log-linear sem locks, no estilo do HdrHistogram: cada potencia de 2
+ * e dividida em 32 faixas, o que da ~3% de erro relativo nos percentis.
+ * pode ser gravado por varias threads ao mesmo tempo sem sincronizacao.
+ */
+public class Histograma {
+    private static final int SUB_FAIXAS = 32;
+    private static final int BITS_SUB = 5;
+    // valores acima de 2^40 (~12 dias em micros) caem na ultima faixa
+    private static final int MAIOR_EXPOENTE = 40;
+    private static final int TOTAL_FAIXAS = (MAIOR_EXPOENTE - BITS_SUB + 2) * SUB_FAIXAS;
+
+    private final AtomicLongArray faixas = new AtomicLongArray(TOTAL_FAIXAS);
+    private final LongAdder contagem = new LongAdder();
+    private final LongAdder soma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    public void registrar(long valor) {
+        if (valor < 0) valor = 0;
+        faixas.incrementAndGet(indice(valor));
+        contagem.increment();
+        soma.add(valor);
+        if (valor > maximo.get()) {
+            maximo.accumulateAndGet(valor, Math::max);
+        }
+    }
+
+    public long getContagem() {
+        return contagem.sum();
+    }
+
+    public long getSoma() {
+        return soma.sum();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    public double getMedia() {
+        long n = contagem.sum();
+        return n == 0 ? 0 : (double) soma.sum() / n;
+    }
+
+    /**
+     * valor do percentil p (0-100), aproximado pelo limite superior da faixa
+     */
+    public long percentil(double p) {
+        long total = 0;
+        long[] copia = new long[TOTAL_FAIXAS];
+        for (int i = 0; i < TOTAL_FAIXAS; i++) {
+            copia[i] = faixas.get(i);
+            total += copia[i];
+        }
+        if (total == 0) return 0;
+
+        long alvo = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long acumulado = 0;
+        for (int i = 0; i < TOTAL_FAIXAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    public void zerar() {
+        for (int i = 0; i < TOTAL_FAIXAS; i++) {
+            faixas.set(i, 0);
+        }
+        contagem.reset();
+        soma.reset();
+        maximo.set(0);
+    }
+
+    // helpers
+
+    static int indice(long valor) {
+        if (valor < SUB_FAIXAS) {
+            return (int) valor;
+        }
+        valor = Math.min(valor, (1L << (MAIOR_EXPOENTE + 1)) - 1);
+        int expoente = 63 - Long.numberOfLeadingZeros(valor);
+        int deslocamento = expoente - BITS_SUB;
+        int sub = (int) ((valor >>> deslocamento) & (SUB_FAIXAS - 1));
+        return (expoente - BITS_SUB + 1) * SUB_FAIXAS + sub;
+    }
+
+    static long limiteSuperior(int indice) {
+        if (indice < SUB_FAIXAS) {
+            return indice;
+        }
+        int deslocamento = indice / SUB_FAIXAS - 1;
+        long sub = indice % SUB_FAIXAS;
+        return ((SUB_FAIXAS + sub + 1) << deslocamento) - 1;
+    }
+}
@@ -0,0 +1,133 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * indices que sustentam as consultas registradas em ConsultasRegistradas.
+ * createIndex e idempotente, entao garantir() pode rodar a cada inicializacao.
+ */
+public class Indices {
+
+    record Indice(String colecao, Bson chaves, IndexOptions opcoes) {
+        Indice(String colecao, Bson chaves) {
+            this(colecao, chaves, new IndexOptions());
+        }
+    }
+
+    static List<Indice> todos() {
+        return List.of(
+            new Indice("beneficios",   Indexes.ascending("nome")),
+            new Indice("cargos",       Indexes.ascending("nome")),
+            new Indice("planos",       Indexes.ascending("nome")),
+            new Indice("planos",       Indexes.ascending("beneficios_resumo._id")),
+            // multikey: planos de um beneficio, inclusive os ainda sem resumo (BeneficioCRUD, Relatorios)
+            new Indice("planos",       Indexes.ascending("beneficios")),
+            new Indice("clientes",     Indexes.ascending("nome")),
+            // id_plano + _id: os clientes de um plano em lotes ordenados por _id (Contratos)
+            new Indice("clientes",     Indexes.ascending("id_plano", "_id")),
+            new Indice("clientes",     Indexes.ascending("id_telefone")),
+            new Indice("clientes",     Indexes.ascending("status", "data_inativacao")),
+            new Indice("clientes",     Indexes.ascending("status", "data_fim_contrato")),
+            // status + id_plano: clientes ativos por plano so com chaves do indice (Relatorios)
+            new Indice("clientes",     Indexes.ascending("status", "id_plano")),
+            TELEFONE_UNICO,
+            new Indice("telefones",    Indexes.ascending("numero")),
+            new Indice("funcionarios", Indexes.ascending("nome")),
+            new Indice("funcionarios", Indexes.ascending("telefone")),
+            new Indice("funcionarios", Indexes.ascending("id_cargo")),
+            new Indice("funcionarios", Indexes.ascending("data_demissao")),
+            // Arquivamento: a busca com arquivados e por nome
+            new Indice("clientes_arquivo",     Indexes.ascending("nome")),
+            new Indice("funcionarios_arquivo", Indexes.ascending("nome")),
+            new Indice("equipamentos", Indexes.ascending("modelo")),
+            new Indice("equipamentos", Indexes.ascending("status", "manutencoes_abertas")),
+            // checkins e serie temporal (garantir): os relatorios de ocupacao filtram por periodo
+            new Indice("checkins",     Indexes.ascending("data_hora")),
+            new Indice("checkins",     Indexes.compoundIndex(Indexes.ascending("meta.id_cliente"), Indexes.descending("data_hora"))),
+            // Faturamento: o upsert de cada fatura filtra por cliente e competencia
+            new Indice("faturas",      Indexes.ascending("id_cliente", "competencia"), new IndexOptions().unique(true)),
+            new Indice("faturas",      Indexes.ascending("competencia")),
+            new Indice("faturamentos", Indexes.ascending("competencia")),
+            // status + data_prevista: pendentes em ordem de data (relatorio, AgendaManutencoes)
+            new Indice("manutencoes",  Indexes.ascending("status", "data_prevista")),
+            new Indice("manutencoes",  Indexes.ascending("id_equipamento")),
+            new Indice("manutencoes",  Indexes.ascending("id_funcionario")),
+            // CustosManutencao: o $inc de cada manutencao acha o agregado pela chave; os
+            // relatorios por periodo filtram pelo prefixo mes
+            new Indice(CustosManutencao.COLECAO, Indexes.ascending("mes", "id_equipamento", "id_funcionario"),
+                new IndexOptions().unique(true))
+        );
+    }
+
+    // telefone embutido (MigracaoTelefones): um numero por cliente; clientes ainda no
+    // formato antigo, sem o campo, ficam fora do indice
+    static final Indice TELEFONE_UNICO = new Indice("clientes", Indexes.ascending("telefone.numero"),
+        new IndexOptions().unique(true).partialFilterExpression(Filters.exists("telefone.numero")));
+
+    /**
+     * numeros embutidos em mais de um cliente, com a quantidade de clientes de cada
+     * um (colecao: clientes)
+     */
+    static List<Document> pipelineTelefonesRepetidos() {
+        return List.of(
+            new Document("$match", new Document("telefone.numero", new Document("$exists", true))),
+            new Document("$group", new Document("_id", "$telefone.numero").append("clientes", new Document("$sum", 1))),
+            new Document("$match", new Document("clientes", new Document("$gt", 1)))
+        );
+    }
+
+    /**
+     * cria o indice unico de telefone.numero se nenhum numero estiver embutido em
+     * dois clientes. com repetidos o createIndex falharia, entao o indice nao e
+     * criado e a unicidade nao vale ate os repetidos serem corrigidos e a migracao
+     * de telefones rodar de novo (que tenta outra vez e mostra a quantidade)
+     * @return quantidade de numeros repetidos; 0 se o indice existe ou foi criado
+     */
+    static long garantirTelefoneUnico(Armazenamento armazenamento) {
+        Colecao clientes = armazenamento.colecao(TELEFONE_UNICO.colecao());
+        long repetidos = 0;
+        for (Document ignorado : clientes.aggregate(pipelineTelefonesRepetidos())) {
+            repetidos++;
+        }
+        if (repetidos > 0) {
+            Logger.getLogger(Indices.class.getName()).log(Level.WARNING,
+                "Índice único de telefone.numero não criado: " + repetidos + " número(s) embutido(s) em mais de um cliente.");
+            return repetidos;
+        }
+        try {
+            clientes.createIndex(TELEFONE_UNICO.chaves(), TELEFONE_UNICO.opcoes());
+        } catch (Exception e) {
+            Logger.getLogger(Indices.class.getName()).log(Level.WARNING,
+                "Falha ao criar índice em " + TELEFONE_UNICO.colecao() + ": " + e.getMessage());
+        }
+        return 0;
+    }
+
+    public static void garantir(Armazenamento armazenamento) {
+        // antes dos indices: o createIndex criaria checkins como collection comum
+        try {
+            armazenamento.criarSerieTemporal("checkins", "data_hora", "meta");
+        } catch (Exception e) {
+            Logger.getLogger(Indices.class.getName()).log(Level.WARNING,
+                "Falha ao criar a série temporal checkins: " + e.getMessage());
+        }
+        for (Indice indice : todos()) {
+            if (indice == TELEFONE_UNICO) {
+                garantirTelefoneUnico(armazenamento);
+                continue;
+            }
+            try {
+                armazenamento.colecao(indice.colecao()).createIndex(indice.chaves(), indice.opcoes());
+            } catch (Exception e) {
+                Logger.getLogger(Indices.class.getName()).log(Level.WARNING,
+                    "Falha ao criar índice em " + indice.colecao() + ": " + e.getMessage());
+            }
+        }
+    }
+}
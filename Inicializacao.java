@@ -0,0 +1,114 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * inicializacao do armazenamento em segundo plano: abrir a conexao, selecionar o
+ * servidor, aquecer o pool, garantir os indices, (no modo memoria) carregar os
+ * dados e montar os agregados de custo de uma base anterior a eles rodam numa
+ * thread propria enquanto o menu ja aparece. a primeira escolha que precisa do
+ * banco espera em armazenamento() so o que ainda faltar.
+ *
+ * mede o tempo ate o primeiro prompt, ate o banco ficar pronto e ate a primeira
+ * consulta (quanto o usuario esperou, se esperou), contados desde o inicio da JVM.
+ */
+public class Inicializacao {
+    private final long inicioMain = System.nanoTime();
+    private final CompletableFuture<Armazenamento> pronto;
+    // offset entre o inicio da JVM e o main, calculado na thread de fundo (JMX e caro de carregar)
+    private volatile long jvmAteMainNanos;
+    private volatile long prontoNanos = -1;
+    private volatile long primeiroPromptNanos = -1;
+    private volatile long primeiraConsultaNanos = -1;
+    private volatile long esperaNanos;
+    // manutencoes somadas por CustosManutencao.garantir (-1: nao precisou); a thread
+    // principal avisa na primeira consulta, para nao misturar com o menu
+    private volatile long custosSomados = -1;
+
+    public Inicializacao() {
+        pronto = new CompletableFuture<>();
+        Thread thread = new Thread(this::preparar, "academia-inicializacao");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void preparar() {
+        try {
+            jvmAteMainNanos = Math.max(0, TimeUnit.MILLISECONDS.toNanos(ManagementFactory.getRuntimeMXBean().getUptime())
+                                          - (System.nanoTime() - inicioMain));
+            Armazenamento armazenamento = Armazenamento.abrir();
+            armazenamento.aquecer();
+            Indices.garantir(armazenamento);
+            popularMemoria(armazenamento);
+            custosSomados = CustosManutencao.garantir(armazenamento);
+            prontoNanos = System.nanoTime() - inicioMain;
+            pronto.complete(armazenamento);
+        } catch (Throwable e) {
+            pronto.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * no armazenamento em memoria, -Dacademia.memoria.clientes=N carrega dados do GeradorDados
+     */
+    private static void popularMemoria(Armazenamento armazenamento) {
+        long clientes = Long.getLong("academia.memoria.clientes", 0);
+        if (armazenamento instanceof ArmazenamentoMemoria && clientes > 0) {
+            new GeradorDados(armazenamento, clientes, 42, Runtime.getRuntime().availableProcessors(), 1000).gerarTudo();
+        }
+    }
+
+    public void marcarPrompt() {
+        if (primeiroPromptNanos < 0) {
+            primeiroPromptNanos = System.nanoTime() - inicioMain;
+        }
+    }
+
+    /**
+     * armazenamento pronto para uso; bloqueia enquanto a inicializacao nao terminar.
+     * a primeira chamada conta como a primeira consulta.
+     */
+    public Armazenamento armazenamento() {
+        if (!pronto.isDone()) {
+            System.out.println("Aguardando conexão com o armazenamento...");
+        }
+        long inicio = System.nanoTime();
+        Armazenamento armazenamento;
+        try {
+            armazenamento = pronto.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException r ? r : e;
+        }
+        if (primeiraConsultaNanos < 0) {
+            esperaNanos = System.nanoTime() - inicio;
+            primeiraConsultaNanos = System.nanoTime() - inicioMain;
+            if (custosSomados >= 0) {
+                System.out.println("Custos de manutenção montados a partir de " + custosSomados + " manutenção(ões) do histórico.");
+            }
+        }
+        return armazenamento;
+    }
+
+    /**
+     * fecha o armazenamento se ele chegou a abrir; uma inicializacao ainda em curso
+     * e abandonada (a thread e daemon)
+     */
+    public void encerrar() {
+        Armazenamento armazenamento = pronto.getNow(null);
+        if (armazenamento != null) {
+            armazenamento.fechar();
+        }
+    }
+
+    public String resumo() {
+        return "Inicialização: primeiro prompt em " + desdeJvm(primeiroPromptNanos)
+            + ", armazenamento pronto em " + desdeJvm(prontoNanos)
+            + ", primeira consulta em " + desdeJvm(primeiraConsultaNanos)
+            + (primeiraConsultaNanos >= 0 ? " (espera de " + TimeUnit.NANOSECONDS.toMillis(esperaNanos) + " ms)" : "");
+    }
+
+    private String desdeJvm(long nanos) {
+        return nanos < 0 ? "-" : TimeUnit.NANOSECONDS.toMillis(jvmAteMainNanos + nanos) + " ms";
+    }
+}
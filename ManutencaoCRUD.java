@@ -1,7 +1,7 @@
-import com.mongodb.client.*;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Updates;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.time.LocalDate;
@@ -14,15 +14,23 @@ import java.util.List;
 import java.util.Scanner;
 
 public class ManutencaoCRUD {
-    private MongoCollection<Document> collection;
+    private Armazenamento armazenamento;
+    private Colecao collection;
     private Scanner scanner;
-    private MongoCollection<Document> equipamentos;
-    private MongoCollection<Document> funcionarios;
+    private Colecao equipamentos;
+    private Colecao funcionarios;
+    private Estatisticas estatisticas;
+    private AgendaManutencoes agenda;
+    private Colecao custos;
     
-    public ManutencaoCRUD(MongoDatabase database, Scanner scanner) {
-        this.collection = database.getCollection("manutencoes");
-        this.equipamentos = database.getCollection("equipamentos");
-        this.funcionarios = database.getCollection("funcionarios");
+    public ManutencaoCRUD(Armazenamento armazenamento, AgendaManutencoes agenda, Scanner scanner) {
+        this.armazenamento = armazenamento;
+        this.collection = armazenamento.colecao("manutencoes");
+        this.agenda = agenda;
+        this.custos = armazenamento.colecao(CustosManutencao.COLECAO);
+        this.equipamentos = armazenamento.colecao("equipamentos");
+        this.funcionarios = armazenamento.colecao("funcionarios");
+        this.estatisticas = armazenamento.estatisticas();
         this.scanner = scanner;
     }
     
@@ -33,7 +41,8 @@ public class ManutencaoCRUD {
             System.out.println("2. Listar");
             System.out.println("3. Atualizar");
             System.out.println("4. Deletar");
-            System.out.println("5. Voltar");
+            System.out.println("5. Agenda");
+            System.out.println("6. Voltar");
             System.out.print("Escolha: ");
 
             int opcao = scanner.nextInt();
@@ -41,10 +50,11 @@ public class ManutencaoCRUD {
 
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("manutencao.listar", "manutencoes", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
-                case 5 -> { return; }
+                case 5 -> agenda.menu(scanner);
+                case 6 -> { return; }
                 default -> System.out.println("Opção inválida!");
             }
         }
@@ -52,13 +62,13 @@ public class ManutencaoCRUD {
 
     private void cadastrar() {
         // verifica se existem equipamentos cadastrados
-        if (equipamentos.countDocuments() == 0) {
+        if (estatisticas.vazia(equipamentos)) {
             System.out.println("Erro: Não existem equipamentos cadastrados!");
             return;
         }
 
         // verifica se existem funcionarios cadastrados
-        if (funcionarios.countDocuments() == 0) {
+        if (estatisticas.vazia(funcionarios)) {
             System.out.println("Erro: Não existem funcionários cadastrados!");
             return;
         }
@@ -127,21 +137,24 @@ public class ManutencaoCRUD {
                 .append("id_equipamento", idEquipamento)
                 .append("id_funcionario", idFuncionario);
 
-        collection.insertOne(doc);
+        // a manutencao, o contador do equipamento e o custo do mes na mesma transacao
+        Rastreio.executar("manutencao.cadastrar", "manutencoes", () -> {
+            armazenamento.transacao(() -> {
+                collection.insertOne(doc);
+                ajustarEquipamento(idEquipamento, EquipamentoCRUD.manutencaoAberta(status) ? 1 : 0);
+                CustosManutencao.aplicar(custos, doc, 1);
+                return null;
+            });
+            agenda.registrar(doc);
+        });
         System.out.println("Manutenção cadastrada com sucesso!");
     }
 
-    private void listar() {
-        long total = collection.countDocuments();
-        if (total == 0) {
-            System.out.println("Nenhuma manutenção cadastrada.");
-            return;
-        }
-
-        System.out.println("\n--- MANUTENÇÕES CADASTRADAS ---");
-        
-        // busca manutencoes com informacoes dos relacionamentos
-        AggregateIterable<Document> results = collection.aggregate(List.of(
+    /**
+     * manutencoes com o equipamento e o funcionario, para a listagem (colecao: manutencoes)
+     */
+    static List<Document> pipelineListagem() {
+        return List.of(
             new Document("$lookup", new Document()
                 .append("from", "equipamentos")
                 .append("localField", "id_equipamento")
@@ -154,9 +167,23 @@ public class ManutencaoCRUD {
                 .append("as", "funcionario")),
             new Document("$unwind", "$equipamento"),
             new Document("$unwind", "$funcionario")
-        ));
+        );
+    }
 
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    private void listar() {
+        if (estatisticas.vazia(collection)) {
+            System.out.println("Nenhuma manutenção cadastrada.");
+            return;
+        }
+        long total = estatisticas.total(collection);
+
+        // busca manutencoes com informacoes dos relacionamentos
+        Resultados results = collection.aggregate(pipelineListagem());
+
+        Tabela tabela = new Tabela("MANUTENÇÕES CADASTRADAS",
+            Tabela.coluna("ID", 24), Tabela.numero("Custo", 12), Tabela.coluna("Status", 12),
+            Tabela.coluna("Prevista", 10), Tabela.coluna("Realizada", 10), Tabela.coluna("Equipamento", 25),
+            Tabela.coluna("Funcionário", 0)).cabecalho();
         
         for (Document doc : results) {
             String statusStr = switch(doc.getInteger("status")) {
@@ -166,29 +193,16 @@ public class ManutencaoCRUD {
                 default -> "Desconhecido";
             };
 
-            Date dataPrevista = doc.getDate("data_prevista");
-            Date dataRealizada = doc.getDate("data_realizada");
-            
-            String dataPrevistaStr = dataPrevista != null ? 
-                dataPrevista.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().format(formatter) : "N/A";
-            String dataRealizadaStr = dataRealizada != null ? 
-                dataRealizada.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().format(formatter) : "N/A";
-
-            System.out.printf("ID: %s | Custo: R$%.2f | Status: %s\n",
-                doc.getObjectId("_id").toHexString(),
-                doc.getDouble("custo"),
-                statusStr
-            );
-            System.out.printf("  Prevista: %s | Realizada: %s\n",
-                dataPrevistaStr,
-                dataRealizadaStr
-            );
-            System.out.printf("  Equipamento: %s | Funcionário: %s\n\n",
-                doc.get("equipamento", Document.class).getString("modelo"),
-                doc.get("funcionario", Document.class).getString("nome")
-            );
+            tabela.texto(doc.getObjectId("_id").toHexString())
+                  .moeda(doc.getDouble("custo"))
+                  .texto(statusStr)
+                  .data(doc.getDate("data_prevista"))
+                  .data(doc.getDate("data_realizada"))
+                  .texto(doc.get("equipamento", Document.class).getString("modelo"))
+                  .texto(doc.get("funcionario", Document.class).getString("nome"))
+                  .fimLinha();
         }
-        System.out.printf("Total: %d manutenção(ões)\n", total);
+        tabela.rodape("Total: " + total + " manutenção(ões)");
     }
 
     private void atualizar() {
@@ -244,16 +258,40 @@ public class ManutencaoCRUD {
             }
         }
 
-        // atualiza documento
-        collection.updateOne(
-            Filters.eq("_id", id),
-            Updates.combine(
-                Updates.set("custo", custo),
-                Updates.set("status", status),
-                Updates.set("data_prevista", toDate(dataPrevista)),
-                Updates.set("data_realizada", dataRealizada != null ? toDate(dataRealizada) : null)
-            )
+        // atualiza documento; o filtro repete os campos lidos para o contador do equipamento
+        // e os custos do mes valerem so para a alteracao que de fato aconteceu
+        int statusAnterior = manutencao.getInteger("status");
+        Document atualizado = new Document(manutencao)
+            .append("custo", custo)
+            .append("status", status)
+            .append("data_prevista", toDate(dataPrevista))
+            .append("data_realizada", dataRealizada != null ? toDate(dataRealizada) : null);
+        Bson update = Updates.combine(
+            Updates.set("custo", custo),
+            Updates.set("status", status),
+            Updates.set("data_prevista", toDate(dataPrevista)),
+            Updates.set("data_realizada", dataRealizada != null ? toDate(dataRealizada) : null)
         );
+        boolean atualizada = Rastreio.executar("manutencao.atualizar", "manutencoes", () -> {
+            boolean gravada = armazenamento.transacao(() -> {
+                if (collection.updateOne(comoLida(manutencao), update).getMatchedCount() == 0) {
+                    return false;
+                }
+                ajustarEquipamento(manutencao.get("id_equipamento"),
+                    (EquipamentoCRUD.manutencaoAberta(status) ? 1 : 0) - (EquipamentoCRUD.manutencaoAberta(statusAnterior) ? 1 : 0));
+                CustosManutencao.aplicar(custos, manutencao, -1);
+                CustosManutencao.aplicar(custos, atualizado, 1);
+                return true;
+            });
+            if (gravada) {
+                agenda.registrar(atualizado);
+            }
+            return gravada;
+        });
+        if (!atualizada) {
+            System.out.println("Erro: A manutenção foi alterada ou removida enquanto era editada. Tente novamente.");
+            return;
+        }
 
         System.out.println("Manutenção atualizada com sucesso!");
     }
@@ -267,19 +305,59 @@ public class ManutencaoCRUD {
         String confirmacao = scanner.nextLine();
         
         if (confirmacao.equalsIgnoreCase("s")) {
-            collection.deleteOne(Filters.eq("_id", manutencao.getObjectId("_id")));
+            int statusAnterior = manutencao.getInteger("status");
+            long deletadas = Rastreio.executar("manutencao.deletar", "manutencoes", () -> {
+                long removidas = armazenamento.transacao(() -> {
+                    long quantidade = collection.deleteOne(comoLida(manutencao)).getDeletedCount();
+                    if (quantidade > 0) {
+                        ajustarEquipamento(manutencao.get("id_equipamento"),
+                            EquipamentoCRUD.manutencaoAberta(statusAnterior) ? -1 : 0);
+                        CustosManutencao.aplicar(custos, manutencao, -1);
+                    }
+                    return quantidade;
+                });
+                if (removidas > 0) {
+                    agenda.remover(manutencao.getObjectId("_id"));
+                }
+                return removidas;
+            });
+            if (deletadas == 0) {
+                System.out.println("Erro: A manutenção foi alterada ou removida enquanto era editada. Tente novamente.");
+                return;
+            }
             System.out.println("Manutenção deletada com sucesso!");
         } else {
             System.out.println("Operação cancelada.");
         }
     }
 
+    /**
+     * metodo auxiliar: a manutencao com os campos que entram no contador do equipamento
+     * e nos custos do mes ainda como foram lidos
+     */
+    private static Bson comoLida(Document manutencao) {
+        return Filters.and(
+            Filters.eq("_id", manutencao.getObjectId("_id")),
+            Filters.eq("status", manutencao.get("status")),
+            Filters.eq("custo", manutencao.get("custo")),
+            Filters.eq("data_prevista", manutencao.get("data_prevista")),
+            Filters.eq("data_realizada", manutencao.get("data_realizada")));
+    }
+
+    /**
+     * metodo auxiliar que soma delta em manutencoes_abertas do equipamento
+     */
+    private void ajustarEquipamento(Object idEquipamento, int delta) {
+        if (delta != 0 && idEquipamento != null) {
+            equipamentos.updateOne(Filters.eq("_id", idEquipamento), Updates.inc("manutencoes_abertas", delta));
+        }
+    }
+
     /**
      * metodo auxiliar para selecionar uma manutencao
      */
     private Document selecionarManutencao(String operacao) {
-        long total = collection.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(collection)) {
             System.out.println("Nenhuma manutenção cadastrada.");
             return null;
         }
@@ -287,13 +365,10 @@ public class ManutencaoCRUD {
         System.out.print("Digite parte do ID ou 'listar' para ver todas: ");
         String busca = scanner.nextLine();
 
-        List<Document> resultados = new ArrayList<>();
-        
-        if (busca.equalsIgnoreCase("listar") || busca.isBlank()) {
-            collection.find().into(resultados);
-        } else {
-            collection.find(Filters.regex("_id", busca)).into(resultados);
-        }
+        List<Document> resultados = Rastreio.executar("manutencao.buscar", "manutencoes",
+            () -> busca.equalsIgnoreCase("listar") || busca.isBlank()
+                ? collection.find().into(new ArrayList<>())
+                : collection.find(Filters.regex("_id", busca)).into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhuma manutenção encontrada.");
@@ -353,8 +428,8 @@ public class ManutencaoCRUD {
      * metodo auxiliar para selecionar equipamento
      */
     private ObjectId selecionarEquipamento() {
-        List<Document> equipamentosList = new ArrayList<>();
-        equipamentos.find().into(equipamentosList);
+        List<Document> equipamentosList = Rastreio.executar("equipamento.buscar", "equipamentos",
+            () -> equipamentos.find().into(new ArrayList<>()));
 
         if (equipamentosList.isEmpty()) {
             System.out.println("Nenhum equipamento disponível.");
@@ -394,8 +469,8 @@ public class ManutencaoCRUD {
      * metodo auxiliar para selecionar funcionario
      */
     private ObjectId selecionarFuncionario() {
-        List<Document> funcionariosList = new ArrayList<>();
-        funcionarios.find().into(funcionariosList);
+        List<Document> funcionariosList = Rastreio.executar("funcionario.buscar", "funcionarios",
+            () -> funcionarios.find().into(new ArrayList<>()));
 
         if (funcionariosList.isEmpty()) {
             System.out.println("Nenhum funcionário disponível.");
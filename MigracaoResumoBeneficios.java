@@ -0,0 +1,198 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * migracao online que preenche planos.beneficios_resumo ({_id, nome} de cada
+ * beneficio) nos planos gravados antes do resumo existir. a listagem e a renomeacao
+ * de beneficios (PlanoCRUD) leem so o resumo, entao esses planos ficariam de fora ate
+ * passarem por aqui; os relatorios de beneficios (Relatorios) leem a lista beneficios.
+ *
+ * - em lotes: planos em ordem de _id, um $in em beneficios e um bulkWrite por lote
+ * - retomavel: o ultimo _id processado fica em migracoes ({_id: "beneficios_resumo"})
+ *   depois de cada lote; uma nova execucao continua dali
+ * - online: cada update so vale se beneficios ainda for o lido e o plano ainda nao
+ *   tiver resumo, entao nao sobrescreve um vinculo feito durante a migracao
+ * - beneficio que nao existe mais fica fora do resumo (e continua em beneficios)
+ *
+ * PlanoCRUD.vincular monta o resumo inteiro quando o plano ainda nao tem um, entao
+ * um $push nunca deixa o resumo so com o beneficio novo.
+ *
+ * uso: java -cp ".:lib/*" MigracaoResumoBeneficios [--lote 500] [--reiniciar]
+ *      [--uri mongodb://...] [--banco academia_bd]
+ */
+public class MigracaoResumoBeneficios {
+    static final String ID_MIGRACAO = "beneficios_resumo";
+
+    private final Colecao planos;
+    private final Colecao beneficios;
+    private final Colecao migracoes;
+    private final int lote;
+
+    /**
+     * situacao da migracao, como gravada no checkpoint
+     */
+    record Progresso(Object ultimoId, long preenchidos, boolean concluida) {
+    }
+
+    public MigracaoResumoBeneficios(Armazenamento armazenamento, int lote) {
+        this.planos = armazenamento.colecao("planos");
+        this.beneficios = armazenamento.colecao("beneficios");
+        this.migracoes = armazenamento.colecao("migracoes");
+        this.lote = lote;
+    }
+
+    /**
+     * resumo {_id, nome} dos beneficios, na ordem de ids; ids sem beneficio ficam de fora
+     */
+    static List<Document> resumo(Colecao beneficios, List<?> ids) {
+        Map<Object, String> nomes = nomes(beneficios, ids);
+        List<Document> resumo = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            if (nomes.containsKey(id)) {
+                resumo.add(new Document("_id", id).append("nome", nomes.get(id)));
+            }
+        }
+        return resumo;
+    }
+
+    private static Map<Object, String> nomes(Colecao beneficios, List<?> ids) {
+        Map<Object, String> nomes = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (Document beneficio : beneficios.find(Filters.in("_id", ids)).projection(Projections.include("nome"))) {
+                nomes.put(beneficio.get("_id"), beneficio.getString("nome"));
+            }
+        }
+        return nomes;
+    }
+
+    public Progresso progresso() {
+        Document checkpoint = migracoes.find(Filters.eq("_id", ID_MIGRACAO)).first();
+        if (checkpoint == null) {
+            return new Progresso(null, 0, false);
+        }
+        return new Progresso(checkpoint.get("ultimo_id"), checkpoint.get("preenchidos", 0L),
+                             checkpoint.getBoolean("concluida", false));
+    }
+
+    /**
+     * descarta o checkpoint; a proxima execucao recomeca do primeiro plano
+     * (quem ja tem resumo e pulado)
+     */
+    public void reiniciar() {
+        migracoes.deleteOne(Filters.eq("_id", ID_MIGRACAO));
+    }
+
+    /**
+     * processa lotes ate o fim da collection ou ate a thread ser interrompida
+     */
+    public Progresso executar() {
+        Progresso progresso = progresso();
+        while (!progresso.concluida() && !Thread.currentThread().isInterrupted()) {
+            progresso = executarLote(progresso);
+        }
+        return progresso;
+    }
+
+    private Progresso executarLote(Progresso anterior) {
+        Bson filtro = anterior.ultimoId() != null ? Filters.gt("_id", anterior.ultimoId()) : new Document();
+        List<Document> pagina = planos.find(filtro)
+            .projection(Projections.include("beneficios", "beneficios_resumo"))
+            .sort(Sorts.ascending("_id"))
+            .limit(lote)
+            .into(new ArrayList<>());
+        if (pagina.isEmpty()) {
+            return salvar(anterior.ultimoId(), 0, true);
+        }
+
+        // nomes de todos os beneficios do lote em uma consulta
+        List<Object> idsBeneficio = new ArrayList<>();
+        for (Document plano : pagina) {
+            if (plano.get("beneficios_resumo") == null && plano.get("beneficios") instanceof List<?> ids) {
+                idsBeneficio.addAll(ids);
+            }
+        }
+        Map<Object, String> nomes = nomes(beneficios, idsBeneficio);
+
+        List<WriteModel<Document>> operacoes = new ArrayList<>();
+        for (Document plano : pagina) {
+            if (plano.get("beneficios_resumo") != null) {
+                continue;
+            }
+            List<?> ids = plano.get("beneficios") instanceof List<?> lista ? lista : List.of();
+            List<Document> resumo = new ArrayList<>(ids.size());
+            for (Object id : ids) {
+                if (nomes.containsKey(id)) {
+                    resumo.add(new Document("_id", id).append("nome", nomes.get(id)));
+                }
+            }
+            operacoes.add(new UpdateOneModel<>(
+                Filters.and(
+                    Filters.eq("_id", plano.get("_id")),
+                    Filters.eq("beneficios", plano.get("beneficios")),
+                    Filters.exists("beneficios_resumo", false)),
+                Updates.set("beneficios_resumo", resumo)));
+        }
+
+        long preenchidos = operacoes.isEmpty() ? 0 : planos.bulkWrite(operacoes, false).getModifiedCount();
+        Object ultimoId = pagina.get(pagina.size() - 1).get("_id");
+        return salvar(ultimoId, preenchidos, pagina.size() < lote);
+    }
+
+    /**
+     * grava o checkpoint depois do lote; o contador e somado no proprio servidor
+     */
+    private Progresso salvar(Object ultimoId, long preenchidos, boolean concluida) {
+        migracoes.updateOne(Filters.eq("_id", ID_MIGRACAO), Updates.combine(
+            Updates.set("ultimo_id", ultimoId),
+            Updates.inc("preenchidos", preenchidos),
+            Updates.set("concluida", concluida),
+            Updates.set("atualizado_em", new Date())
+        ), new UpdateOptions().upsert(true));
+        return progresso();
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+        int lote = 500;
+        boolean reiniciar = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"       -> uri = args[++i];
+                case "--banco"     -> banco = args[++i];
+                case "--lote"      -> lote = Integer.parseInt(args[++i]);
+                case "--reiniciar" -> reiniciar = true;
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Armazenamento armazenamento = new ArmazenamentoMongo(new Conexao(uri, banco));
+        try {
+            MigracaoResumoBeneficios migracao = new MigracaoResumoBeneficios(armazenamento, lote);
+            if (reiniciar) {
+                migracao.reiniciar();
+            }
+            Progresso progresso = migracao.executar();
+            System.out.println("Resumo de benefícios preenchido em " + progresso.preenchidos() + " plano(s).");
+        } finally {
+            armazenamento.fechar();
+        }
+    }
+}
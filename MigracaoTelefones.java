@@ -0,0 +1,314 @@
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * migracao online que embute o telefone em cada cliente: clientes.telefone passa a
+ * ser {_id, numero}, copia do documento de telefones apontado por id_telefone, e a
+ * listagem deixa de fazer uma consulta extra por cliente.
+ *
+ * - em lotes: clientes em ordem de _id, um $in em telefones e um bulkWrite por lote
+ * - retomavel: o ultimo _id processado fica em migracoes ({_id: "telefones_embutidos"})
+ *   depois de cada lote; uma nova execucao continua dali
+ * - online: cada update so vale se id_telefone ainda for o lido e o cliente ainda nao
+ *   tiver o telefone embutido, entao nao sobrescreve alteracoes feitas durante a migracao.
+ *   um numero trocado (TelefoneCRUD.atualizar) entre a leitura de telefones e o update
+ *   nao chega ao cliente ainda nao embutido, entao depois do bulkWrite os numeros do
+ *   lote sao lidos de novo e os que mudaram sao corrigidos nos clientes; como atualizar
+ *   grava telefones antes dos clientes, ou a releitura ve o numero novo ou o
+ *   updateMany de atualizar ja encontra o cliente embutido
+ * - unicidade: um numero ja embutido em outro cliente (lido antes de cada lote, ou
+ *   repetido dentro do lote, como nos clientes que compartilhavam um telefone) nao e
+ *   embutido; o indice unico parcial em telefone.numero (Indices) recusa o que
+ *   escapar dessa leitura. esses clientes sao contados como conflito e continuam no
+ *   formato antigo. o indice nao e criado se a base ja tem numeros repetidos
+ *   embutidos; ao terminar, a migracao tenta cria-lo de novo e guarda em repetidos
+ *   quantos numeros ainda impedem a criacao
+ *
+ * durante a transicao os dois formatos convivem: ClienteCRUD e TelefoneCRUD gravam
+ * id_telefone e o telefone embutido, e as leituras usam o embutido quando existe
+ * (numero) e caem para a consulta em telefones quando nao.
+ *
+ * uso: java -cp ".:lib/*" MigracaoTelefones [--lote 500] [--pausa-ms 0] [--reiniciar]
+ *      [--uri mongodb://...] [--banco academia_bd]
+ */
+public class MigracaoTelefones {
+    static final String ID_MIGRACAO = "telefones_embutidos";
+    private static final int CHAVE_DUPLICADA = 11000;
+
+    private final Armazenamento armazenamento;
+    private final Colecao clientes;
+    private final Colecao telefones;
+    private final Colecao migracoes;
+    private final int lote;
+    private final long pausaMs;
+
+    /**
+     * situacao da migracao, como gravada no checkpoint
+     */
+    record Progresso(Object ultimoId, long migrados, long conflitos, long semTelefone, long repetidos,
+                     boolean concluida) {
+    }
+
+    public MigracaoTelefones(Armazenamento armazenamento, int lote, long pausaMs) {
+        this.armazenamento = armazenamento;
+        this.clientes = armazenamento.colecao("clientes");
+        this.telefones = armazenamento.colecao("telefones");
+        this.migracoes = armazenamento.colecao("migracoes");
+        this.lote = lote;
+        this.pausaMs = pausaMs;
+    }
+
+    /**
+     * telefone embutido do cliente, ou null se o cliente ainda esta no formato antigo
+     */
+    static String numeroEmbutido(Document cliente) {
+        Object telefone = cliente.get("telefone");
+        return telefone instanceof Document d ? d.getString("numero") : null;
+    }
+
+    /**
+     * valor do campo embutido, gravado junto com id_telefone nas escritas da transicao
+     */
+    static Document telefoneEmbutido(ObjectId idTelefone, String numero) {
+        return new Document("_id", idTelefone).append("numero", numero);
+    }
+
+    public Progresso progresso() {
+        Document checkpoint = migracoes.find(Filters.eq("_id", ID_MIGRACAO)).first();
+        if (checkpoint == null) {
+            return new Progresso(null, 0, 0, 0, 0, false);
+        }
+        return new Progresso(checkpoint.get("ultimo_id"),
+            checkpoint.get("migrados", 0L), checkpoint.get("conflitos", 0L),
+            checkpoint.get("sem_telefone", 0L), checkpoint.get("repetidos", 0L),
+            checkpoint.getBoolean("concluida", false));
+    }
+
+    /**
+     * descarta o checkpoint; a proxima execucao recomeca do primeiro cliente
+     * (quem ja tem o telefone embutido e pulado)
+     */
+    public void reiniciar() {
+        migracoes.deleteOne(Filters.eq("_id", ID_MIGRACAO));
+    }
+
+    /**
+     * processa lotes ate o fim da collection ou ate a thread ser interrompida
+     */
+    public Progresso executar() {
+        Progresso progresso = progresso();
+        while (!progresso.concluida() && !Thread.currentThread().isInterrupted()) {
+            progresso = executarLote(progresso);
+            System.out.printf("Migração de telefones: %d migrados, %d conflitos, %d sem telefone%n",
+                progresso.migrados(), progresso.conflitos(), progresso.semTelefone());
+            if (pausaMs > 0 && !progresso.concluida()) {
+                try {
+                    Thread.sleep(pausaMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (progresso.concluida() && progresso.repetidos() > 0) {
+            System.out.println("Atenção: " + progresso.repetidos() + " número(s) embutido(s) em mais de um cliente; "
+                + "o índice único de telefone.numero não foi criado e a unicidade não é garantida. "
+                + "Corrija esses clientes e execute a migração novamente.");
+        }
+        return progresso;
+    }
+
+    private Progresso executarLote(Progresso anterior) {
+        Bson filtro = anterior.ultimoId() != null ? Filters.gt("_id", anterior.ultimoId()) : new Document();
+        List<Document> pagina = clientes.find(filtro)
+            .projection(Projections.include("id_telefone", "telefone"))
+            .sort(Sorts.ascending("_id"))
+            .limit(lote)
+            .into(new ArrayList<>());
+        if (pagina.isEmpty()) {
+            return concluir(anterior.ultimoId(), 0, 0, 0);
+        }
+
+        // numeros de todos os telefones do lote em uma consulta
+        List<Object> idsTelefone = new ArrayList<>();
+        for (Document cliente : pagina) {
+            if (cliente.get("telefone") == null && cliente.get("id_telefone") != null) {
+                idsTelefone.add(cliente.get("id_telefone"));
+            }
+        }
+        Map<Object, String> numeros = new HashMap<>();
+        if (!idsTelefone.isEmpty()) {
+            for (Document telefone : telefones.find(Filters.in("_id", idsTelefone))) {
+                numeros.put(telefone.get("_id"), telefone.getString("numero"));
+            }
+        }
+
+        // numeros do lote ja embutidos em algum cliente
+        Set<String> emUso = new HashSet<>();
+        if (!numeros.isEmpty()) {
+            for (Document cliente : clientes.find(numerosEmUso(new ArrayList<>(numeros.values())))
+                                            .projection(Projections.include("telefone.numero"))) {
+                emUso.add(numeroEmbutido(cliente));
+            }
+        }
+
+        List<WriteModel<Document>> operacoes = new ArrayList<>();
+        long semTelefone = 0;
+        long conflitos = 0;
+        for (Document cliente : pagina) {
+            if (cliente.get("telefone") != null) {
+                continue;
+            }
+            Object idTelefone = cliente.get("id_telefone");
+            String numero = numeros.get(idTelefone);
+            if (numero == null) {
+                // sem telefone ou referencia para um telefone que nao existe mais
+                semTelefone++;
+                continue;
+            }
+            if (!emUso.add(numero)) {
+                conflitos++;
+                continue;
+            }
+            operacoes.add(new UpdateOneModel<>(
+                Filters.and(
+                    Filters.eq("_id", cliente.get("_id")),
+                    Filters.eq("id_telefone", idTelefone),
+                    Filters.exists("telefone", false)),
+                Updates.set("telefone", telefoneEmbutido((ObjectId) idTelefone, numero))));
+        }
+
+        long migrados = 0;
+        if (!operacoes.isEmpty()) {
+            try {
+                migrados = clientes.bulkWrite(operacoes, false).getModifiedCount();
+            } catch (MongoBulkWriteException e) {
+                for (BulkWriteError erro : e.getWriteErrors()) {
+                    if (erro.getCode() != CHAVE_DUPLICADA) {
+                        throw e;
+                    }
+                    conflitos++;
+                }
+                migrados = e.getWriteResult().getModifiedCount();
+            }
+        }
+
+        if (migrados > 0) {
+            corrigirNumerosAlterados(numeros);
+        }
+
+        Object ultimoId = pagina.get(pagina.size() - 1).get("_id");
+        if (pagina.size() < lote) {
+            return concluir(ultimoId, migrados, conflitos, semTelefone);
+        }
+        return salvar(ultimoId, migrados, conflitos, semTelefone, null, false);
+    }
+
+    /**
+     * clientes com algum dos numeros embutido
+     */
+    static Bson numerosEmUso(List<String> numeros) {
+        return Filters.in("telefone.numero", numeros);
+    }
+
+    /**
+     * metodo auxiliar do ultimo lote: tenta o indice unico e grava o checkpoint final
+     */
+    private Progresso concluir(Object ultimoId, long migrados, long conflitos, long semTelefone) {
+        long repetidos = Indices.garantirTelefoneUnico(armazenamento);
+        return salvar(ultimoId, migrados, conflitos, semTelefone, repetidos, true);
+    }
+
+    /**
+     * metodo auxiliar que rele os telefones embutidos no lote e leva aos clientes o
+     * numero dos que mudaram depois da primeira leitura (telefone removido sai do
+     * cliente em TelefoneCRUD.deletar, pela referencia id_telefone)
+     */
+    private void corrigirNumerosAlterados(Map<Object, String> lidos) {
+        for (Document telefone : telefones.find(Filters.in("_id", new ArrayList<>(lidos.keySet())))) {
+            String lido = lidos.get(telefone.get("_id"));
+            String atual = telefone.getString("numero");
+            if (atual != null && !atual.equals(lido)) {
+                clientes.updateMany(numeroDesatualizado(telefone.get("_id"), lido), Updates.set("telefone.numero", atual));
+            }
+        }
+    }
+
+    /**
+     * clientes com a copia antiga do numero do telefone
+     */
+    static Bson numeroDesatualizado(Object idTelefone, String numeroAntigo) {
+        return Filters.and(Filters.eq("id_telefone", idTelefone), Filters.eq("telefone.numero", numeroAntigo));
+    }
+
+    /**
+     * grava o checkpoint depois do lote; os contadores sao somados no proprio servidor
+     */
+    private Progresso salvar(Object ultimoId, long migrados, long conflitos, long semTelefone, Long repetidos,
+                             boolean concluida) {
+        List<Bson> campos = new ArrayList<>(List.of(
+            Updates.set("ultimo_id", ultimoId),
+            Updates.inc("migrados", migrados),
+            Updates.inc("conflitos", conflitos),
+            Updates.inc("sem_telefone", semTelefone),
+            Updates.set("concluida", concluida),
+            Updates.set("atualizado_em", new Date())));
+        if (repetidos != null) {
+            campos.add(Updates.set("repetidos", repetidos));
+        }
+        migracoes.updateOne(Filters.eq("_id", ID_MIGRACAO), Updates.combine(campos), new UpdateOptions().upsert(true));
+        return progresso();
+    }
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd";
+        int lote = 500;
+        long pausaMs = 0;
+        boolean reiniciar = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"       -> uri = args[++i];
+                case "--banco"     -> banco = args[++i];
+                case "--lote"      -> lote = Integer.parseInt(args[++i]);
+                case "--pausa-ms"  -> pausaMs = Long.parseLong(args[++i]);
+                case "--reiniciar" -> reiniciar = true;
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        Conexao conexao = new Conexao(uri, banco);
+        try {
+            Armazenamento armazenamento = new ArmazenamentoMongo(conexao.getDatabase());
+            Indices.garantir(armazenamento);
+            MigracaoTelefones migracao = new MigracaoTelefones(armazenamento, lote, pausaMs);
+            if (reiniciar) {
+                migracao.reiniciar();
+            }
+            migracao.executar();
+        } finally {
+            conexao.closeConnection();
+        }
+    }
+}
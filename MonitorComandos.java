@@ -0,0 +1,278 @@
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionAddedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolListener;
+import com.mongodb.event.ConnectionPoolListenerAdapter;
+import com.mongodb.event.ConnectionPoolWaitQueueEnteredEvent;
+import com.mongodb.event.ConnectionPoolWaitQueueExitedEvent;
+import com.mongodb.event.ConnectionRemovedEvent;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonDocument;
+import org.bson.BsonReader;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * instrumentacao do driver: registra a latencia de cada comando por collection
+ * e tipo de comando, os bytes trafegados e o tempo de espera no pool de conexoes.
+ * e registrado no MongoClient pela Conexao e exibido pelo menu de Diagnosticos.
+ */
+public class MonitorComandos implements CommandListener {
+    // documento dos eventos do driver sobre o buffer da mensagem (classe interna, so o nome)
+    private static final String DOCUMENTO_BUFFER = "com.mongodb.internal.connection.ByteBufBsonDocument";
+
+    /**
+     * metricas acumuladas de um par (collection, comando)
+     */
+    static class Metricas {
+        final Histograma latenciaMicros = new Histograma();
+        final LongAdder bytesEnviados = new LongAdder();
+        final LongAdder bytesRecebidos = new LongAdder();
+        final LongAdder falhas = new LongAdder();
+    }
+
+    private record Pendente(String chave, long bytesEnviados) {
+    }
+
+    private final Map<String, Metricas> metricas = new ConcurrentHashMap<>();
+    private final Map<Integer, Pendente> pendentes = new ConcurrentHashMap<>();
+
+    // pool de conexoes
+    private final Histograma esperaPoolMicros = new Histograma();
+    private final ThreadLocal<long[]> inicioEspera = ThreadLocal.withInitial(() -> new long[1]);
+    private final AtomicInteger conexoesAbertas = new AtomicInteger();
+    private final AtomicInteger conexoesEmUso = new AtomicInteger();
+
+    private final ConnectionPoolListener poolListener = new ConnectionPoolListenerAdapter() {
+        // os eventos de fila de espera sao os unicos que marcam o inicio do checkout no driver 3.x
+        @SuppressWarnings("deprecation")
+        @Override
+        public void waitQueueEntered(ConnectionPoolWaitQueueEnteredEvent event) {
+            inicioEspera.get()[0] = System.nanoTime();
+        }
+
+        @SuppressWarnings("deprecation")
+        @Override
+        public void waitQueueExited(ConnectionPoolWaitQueueExitedEvent event) {
+            long inicio = inicioEspera.get()[0];
+            if (inicio != 0) {
+                esperaPoolMicros.registrar((System.nanoTime() - inicio) / 1000);
+                inicioEspera.get()[0] = 0;
+            }
+        }
+
+        @Override
+        public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+            conexoesEmUso.incrementAndGet();
+        }
+
+        @Override
+        public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+            conexoesEmUso.decrementAndGet();
+        }
+
+        @Override
+        public void connectionAdded(ConnectionAddedEvent event) {
+            conexoesAbertas.incrementAndGet();
+        }
+
+        @Override
+        public void connectionRemoved(ConnectionRemovedEvent event) {
+            conexoesAbertas.decrementAndGet();
+        }
+    };
+
+    public ConnectionPoolListener getPoolListener() {
+        return poolListener;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String chave = colecao(event.getCommandName(), event.getCommand()) + " " + event.getCommandName();
+        pendentes.put(event.getRequestId(), new Pendente(chave, tamanhoBson(event.getCommand())));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        Pendente pendente = pendentes.remove(event.getRequestId());
+        if (pendente == null) return;
+
+        Metricas m = metricas.computeIfAbsent(pendente.chave(), k -> new Metricas());
+        m.latenciaMicros.registrar(event.getElapsedTime(TimeUnit.MICROSECONDS));
+        long bytesRecebidos = tamanhoBson(event.getResponse());
+        m.bytesEnviados.add(pendente.bytesEnviados());
+        m.bytesRecebidos.add(bytesRecebidos);
+
+        // soma na operacao gravada pelo JFR, se houver uma em andamento nesta thread
+        Rastreio.Contexto contexto = Rastreio.atual();
+        if (contexto != null) {
+            contexto.registrar(pendente.bytesEnviados(), bytesRecebidos, documentos(event.getResponse()));
+        }
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        Pendente pendente = pendentes.remove(event.getRequestId());
+        if (pendente == null) return;
+
+        Metricas m = metricas.computeIfAbsent(pendente.chave(), k -> new Metricas());
+        m.latenciaMicros.registrar(event.getElapsedTime(TimeUnit.MICROSECONDS));
+        m.bytesEnviados.add(pendente.bytesEnviados());
+        m.falhas.increment();
+    }
+
+    public void zerar() {
+        metricas.clear();
+        esperaPoolMicros.zerar();
+    }
+
+    /**
+     * tabela com as metricas atuais, usada tanto no console quanto no arquivo exportado
+     */
+    public String relatorio() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Diagnóstico gerado em ").append(LocalDateTime.now().withNano(0)).append('\n');
+        sb.append(String.format("%-32s %8s %6s %10s %10s %10s %10s %12s %12s%n",
+            "collection comando", "qtd", "falhas", "p50 µs", "p99 µs", "p99.9 µs", "max µs", "enviados", "recebidos"));
+
+        for (Map.Entry<String, Metricas> e : new TreeMap<>(metricas).entrySet()) {
+            Metricas m = e.getValue();
+            Histograma h = m.latenciaMicros;
+            sb.append(String.format("%-32s %8d %6d %10d %10d %10d %10d %12s %12s%n",
+                e.getKey(), h.getContagem(), m.falhas.sum(),
+                h.percentil(50), h.percentil(99), h.percentil(99.9), h.getMaximo(),
+                bytes(m.bytesEnviados.sum()), bytes(m.bytesRecebidos.sum())));
+        }
+        if (metricas.isEmpty()) {
+            sb.append("Nenhum comando registrado.\n");
+        }
+
+        sb.append(String.format("%nPool: %d conexão(ões) aberta(s), %d em uso%n",
+            conexoesAbertas.get(), conexoesEmUso.get()));
+        sb.append(String.format("Espera no pool: %d checkout(s) | p50 %d µs | p99 %d µs | p99.9 %d µs | max %d µs%n",
+            esperaPoolMicros.getContagem(), esperaPoolMicros.percentil(50), esperaPoolMicros.percentil(99),
+            esperaPoolMicros.percentil(99.9), esperaPoolMicros.getMaximo()));
+        return sb.toString();
+    }
+
+    public void exportar(Path arquivo) throws IOException {
+        Files.writeString(arquivo, relatorio(), StandardCharsets.UTF_8);
+    }
+
+    // helpers
+
+    private static String colecao(String comando, BsonDocument command) {
+        // no getMore o nome da collection fica no campo "collection"
+        BsonValue valor = command.get(comando.equals("getMore") ? "collection" : comando);
+        return valor != null && valor.isString() ? valor.asString().getValue() : "-";
+    }
+
+    /**
+     * documentos lidos (lote do cursor) ou afetados ("n" das escritas) por um comando
+     */
+    private static long documentos(BsonDocument resposta) {
+        if (resposta == null) return 0;
+        if (resposta.get("cursor") instanceof BsonDocument cursor) {
+            BsonValue lote = cursor.containsKey("firstBatch") ? cursor.get("firstBatch") : cursor.get("nextBatch");
+            return lote != null && lote.isArray() ? lote.asArray().size() : 0;
+        }
+        BsonValue n = resposta.get("n");
+        return n != null && n.isNumber() ? n.asNumber().longValue() : 0;
+    }
+
+    /**
+     * tamanho em bytes do documento sem serializar de novo: os eventos do driver
+     * trazem ByteBufBsonDocument (o buffer da mensagem), cujo tamanho vem do int32 no
+     * inicio do proprio buffer. comandos com payload (insert, update e delete em lote) chegam como
+     * BsonDocument comum com os documentos do payload em ByteBufBsonDocument, e o
+     * tamanho e somado campo a campo pelas regras de codificacao do BSON.
+     */
+    static long tamanhoBson(BsonDocument doc) {
+        if (doc == null) return 0;
+        long buffer = tamanhoBuffer(doc);
+        if (buffer >= 0) return buffer;
+        long total = 5; // int32 do tamanho + terminador
+        for (Map.Entry<String, BsonValue> campo : doc.entrySet()) {
+            total += tamanhoCampo(campo.getKey(), campo.getValue());
+        }
+        return total;
+    }
+
+    /**
+     * tamanho lido do buffer de RawBsonDocument ou ByteBufBsonDocument; -1 nos demais.
+     * os dois entregam um BsonBinaryReader sobre os bytes, sem decodificar: o int32
+     * na posicao atual e o tamanho do documento inteiro
+     */
+    private static long tamanhoBuffer(BsonDocument doc) {
+        if (doc instanceof RawBsonDocument raw) {
+            return raw.getByteBuffer().remaining();
+        }
+        // so o documento do buffer da mensagem: em outras subclasses (BsonDocumentWrapper)
+        // o asBsonReader serializaria o documento
+        if (!doc.getClass().getName().equals(DOCUMENTO_BUFFER)) {
+            return -1;
+        }
+        try (BsonReader leitor = doc.asBsonReader()) {
+            return leitor instanceof BsonBinaryReader binario ? binario.getBsonInput().readInt32() : -1;
+        }
+    }
+
+    /** metodo auxiliar: tipo + nome (cstring) + valor */
+    private static long tamanhoCampo(String nome, BsonValue valor) {
+        return 1 + nome.getBytes(StandardCharsets.UTF_8).length + 1 + tamanhoValor(valor);
+    }
+
+    private static long tamanhoValor(BsonValue valor) {
+        return switch (valor.getBsonType()) {
+            case DOCUMENT -> tamanhoBson(valor.asDocument());
+            case ARRAY -> {
+                long total = 5;
+                int indice = 0;
+                for (BsonValue item : valor.asArray()) {
+                    total += tamanhoCampo(Integer.toString(indice++), item);
+                }
+                yield total;
+            }
+            case STRING -> tamanhoTexto(valor.asString().getValue());
+            case SYMBOL -> tamanhoTexto(valor.asSymbol().getSymbol());
+            case JAVASCRIPT -> tamanhoTexto(valor.asJavaScript().getCode());
+            case BINARY -> 4 + 1 + valor.asBinary().getData().length;
+            case OBJECT_ID -> 12;
+            case BOOLEAN -> 1;
+            case INT32 -> 4;
+            case INT64, DOUBLE, DATE_TIME, TIMESTAMP -> 8;
+            case DECIMAL128 -> 16;
+            case REGULAR_EXPRESSION -> valor.asRegularExpression().getPattern().getBytes(StandardCharsets.UTF_8).length + 1
+                                     + valor.asRegularExpression().getOptions().length() + 1;
+            // null, undefined, min/max key e tipos raros: conta so o cabecalho do campo
+            default -> 0;
+        };
+    }
+
+    /** metodo auxiliar: int32 do tamanho + bytes + terminador */
+    private static long tamanhoTexto(String texto) {
+        return 4 + texto.getBytes(StandardCharsets.UTF_8).length + 1;
+    }
+
+    private static String bytes(long n) {
+        if (n < 1024) return n + " B";
+        if (n < 1024 * 1024) return String.format("%.1f KB", n / 1024.0);
+        return String.format("%.1f MB", n / (1024.0 * 1024));
+    }
+}
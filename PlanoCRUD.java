@@ -1,6 +1,6 @@
-import com.mongodb.client.*;
 import com.mongodb.client.model.*;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import java.util.ArrayList;
@@ -8,13 +8,22 @@ import java.util.List;
 import java.util.Scanner;
 
 public class PlanoCRUD {
-    private MongoCollection<Document> planos;
-    private MongoCollection<Document> beneficios;
+    // planos atualizados por updateMany na propagacao de um nome de beneficio
+    private static final int LOTE_RESUMO = 500;
+
+    private Armazenamento armazenamento;
+    private Colecao planos;
+    private Colecao beneficios;
+    private Colecao clientes;
+    private Estatisticas estatisticas;
     private Scanner scanner;
 
-    public PlanoCRUD(MongoDatabase database, Scanner scanner) {
-        this.planos = database.getCollection("planos");
-        this.beneficios = database.getCollection("beneficios");
+    public PlanoCRUD(Armazenamento armazenamento, Scanner scanner) {
+        this.armazenamento = armazenamento;
+        this.planos = armazenamento.colecao("planos");
+        this.beneficios = armazenamento.colecao("beneficios");
+        this.clientes = armazenamento.colecao("clientes");
+        this.estatisticas = armazenamento.estatisticas();
         this.scanner = scanner;
     }
 
@@ -26,7 +35,8 @@ public class PlanoCRUD {
             System.out.println("3. Atualizar");
             System.out.println("4. Deletar");
             System.out.println("5. Vincular Benefício");
-            System.out.println("6. Voltar");
+            System.out.println("6. Preencher resumo de benefícios (planos antigos)");
+            System.out.println("7. Voltar");
             System.out.print("Escolha: ");
 
             int opcao = scanner.nextInt();
@@ -34,11 +44,12 @@ public class PlanoCRUD {
 
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("plano.listar", "planos", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
                 case 5 -> vincular();
-                case 6 -> { return; }
+                case 6 -> preencherResumo();
+                case 7 -> { return; }
                 default -> System.out.println("Opção inválida!");
             }
         }
@@ -49,7 +60,8 @@ public class PlanoCRUD {
         String nome = scanner.nextLine();
         
         // verifica se ja existe plano com mesmo nome
-        Document planoExistente = planos.find(Filters.eq("nome", nome)).first();
+        Document planoExistente = Rastreio.executar("plano.cadastrar", "planos",
+            () -> planos.find(Filters.eq("nome", nome)).first());
         if (planoExistente != null) {
             System.out.println("Erro: Já existe um plano com este nome!");
             return;
@@ -107,52 +119,43 @@ public class PlanoCRUD {
                 .append("valor", valor)
                 .append("duracao", duracao)
                 .append("fidelidade", fidelidade)
-                .append("beneficios", new ArrayList<ObjectId>());
+                .append("beneficios", new ArrayList<ObjectId>())
+                .append("beneficios_resumo", new ArrayList<Document>());
 
-        planos.insertOne(doc);
+        Rastreio.executar("plano.cadastrar", "planos", () -> planos.insertOne(doc));
         System.out.println("Plano cadastrado com sucesso!");
     }
 
     private void listar() {
-        long total = planos.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(planos)) {
             System.out.println("Nenhum plano cadastrado.");
             return;
         }
+        long total = estatisticas.total(planos);
 
-        AggregateIterable<Document> result = planos.aggregate(List.of(
-            new Document("$lookup", new Document()
-                .append("from", "beneficios")
-                .append("localField", "beneficios")
-                .append("foreignField", "_id")
-                .append("as", "beneficios_info")),
-            new Document("$project", new Document()
-                .append("nome", 1)
-                .append("descricao", 1)
-                .append("valor", 1)
-                .append("duracao", 1)
-                .append("fidelidade", 1)
-                .append("beneficios", "$beneficios_info.nome"))
-        ));
-
-        System.out.println("\n--- PLANOS CADASTRADOS ---");
+        // os nomes vem do resumo embutido em cada plano (vincular/BeneficioCRUD), sem $lookup
+        Resultados result = planos.find().projection(Projections.include(
+            "nome", "descricao", "valor", "duracao", "fidelidade", "beneficios", "beneficios_resumo"));
+
+        Tabela tabela = new Tabela("PLANOS CADASTRADOS",
+            Tabela.coluna("Nome", 20), Tabela.coluna("Descrição", 30), Tabela.numero("Valor", 12),
+            Tabela.numero("Duração (meses)", 15), Tabela.numero("Fidelidade (meses)", 18),
+            Tabela.coluna("Benefícios", 0)).cabecalho();
         for (Document doc : result) {
-            List<String> beneficiosNomes = doc.getList("beneficios", String.class);
+            List<String> beneficiosNomes = nomesBeneficios(doc);
             String beneficiosStr = beneficiosNomes != null && !beneficiosNomes.isEmpty() 
                 ? String.join(", ", beneficiosNomes)
                 : "Nenhum benefício vinculado";
                 
-            System.out.printf(
-                "Nome: %s | Descrição: %s | Valor: R$%.2f | Duração: %d meses | Fidelidade: %d meses | Benefícios: %s\n",
-                doc.getString("nome"),
-                doc.getString("descricao"),
-                doc.getDouble("valor"),
-                doc.getInteger("duracao"),
-                doc.getInteger("fidelidade"),
-                beneficiosStr
-            );
+            tabela.texto(doc.getString("nome"))
+                  .texto(doc.getString("descricao"))
+                  .moeda(doc.getDouble("valor"))
+                  .inteiro(doc.getInteger("duracao"))
+                  .inteiro(doc.getInteger("fidelidade"))
+                  .texto(beneficiosStr)
+                  .fimLinha();
         }
-        System.out.printf("Total: %d plano(s)\n", total);
+        tabela.rodape("Total: " + total + " plano(s)");
     }
 
     private void atualizar() {
@@ -168,12 +171,13 @@ public class PlanoCRUD {
             novoNome = nomeAtual;
         } else {
             // verifica se o novo nome ja existe (exceto para o proprio plano)
-            Document planoExistente = planos.find(
+            String nome = novoNome;
+            Document planoExistente = Rastreio.executar("plano.atualizar", "planos", () -> planos.find(
                 Filters.and(
-                    Filters.eq("nome", novoNome),
+                    Filters.eq("nome", nome),
                     Filters.ne("_id", plano.getObjectId("_id"))
                 )
-            ).first();
+            ).first());
             
             if (planoExistente != null) {
                 System.out.println("Erro: Já existe um plano com este nome!");
@@ -241,18 +245,27 @@ public class PlanoCRUD {
             }
         }
 
-        planos.updateOne(
-            Filters.eq("_id", plano.getObjectId("_id")),
-            Updates.combine(
-                Updates.set("nome", novoNome),
-                Updates.set("descricao", novaDescricao),
-                Updates.set("valor", novoValor),
-                Updates.set("duracao", novaDuracao),
-                Updates.set("fidelidade", novaFidelidade)
-            )
+        Bson update = Updates.combine(
+            Updates.set("nome", novoNome),
+            Updates.set("descricao", novaDescricao),
+            Updates.set("valor", novoValor),
+            Updates.set("duracao", novaDuracao),
+            Updates.set("fidelidade", novaFidelidade)
         );
+        // datas de fim de contrato e de fidelidade gravadas nos clientes do plano
+        boolean recalcular = novaDuracao != plano.getInteger("duracao") || novaFidelidade != plano.getInteger("fidelidade");
+        Document contrato = new Document("_id", plano.getObjectId("_id"))
+            .append("duracao", novaDuracao)
+            .append("fidelidade", novaFidelidade);
+        long alterados = Rastreio.executar("plano.atualizar", "planos", () -> {
+            planos.updateOne(Filters.eq("_id", plano.getObjectId("_id")), update);
+            return recalcular ? Contratos.recalcularPlano(clientes, contrato) : 0L;
+        });
 
         System.out.println("Plano atualizado com sucesso!");
+        if (recalcular) {
+            System.out.println("Datas de contrato recalculadas em " + alterados + " cliente(s).");
+        }
     }
 
     private void deletar() {
@@ -265,7 +278,7 @@ public class PlanoCRUD {
         String confirmacao = scanner.nextLine();
         
         if (confirmacao.equalsIgnoreCase("s")) {
-            planos.deleteOne(Filters.eq("_id", plano.getObjectId("_id")));
+            Rastreio.executar("plano.deletar", "planos", () -> planos.deleteOne(Filters.eq("_id", plano.getObjectId("_id"))));
             System.out.println("Plano deletado com sucesso!");
         } else {
             System.out.println("Operação cancelada.");
@@ -274,7 +287,7 @@ public class PlanoCRUD {
 
     private void vincular() {
         // verifica se existem beneficios
-        if (beneficios.countDocuments() == 0) {
+        if (estatisticas.vazia(beneficios)) {
             System.out.println("Nenhum benefício cadastrado no sistema.");
             return;
         }
@@ -294,19 +307,126 @@ public class PlanoCRUD {
             return;
         }
 
+        Rastreio.executar("plano.vincular", "planos", () -> vincularBeneficio(plano, beneficio));
+
+        System.out.println("Benefício '" + beneficio.getString("nome") + "' vinculado com sucesso ao plano '" + plano.getString("nome") + "'!");
+    }
+
+    /**
+     * metodo auxiliar que grava o vinculo. plano gravado antes de beneficios_resumo
+     * existir recebe o resumo inteiro, montado de beneficios, em vez do $push, que
+     * deixaria no resumo so o beneficio novo
+     */
+    private void vincularBeneficio(Document plano, Document beneficio) {
+        ObjectId idPlano = plano.getObjectId("_id");
+        ObjectId beneficioId = beneficio.getObjectId("_id");
+        if (plano.get("beneficios_resumo") == null) {
+            List<Object> ids = new ArrayList<>(plano.getList("beneficios", Object.class, List.of()));
+            ids.add(beneficioId);
+            long gravados = planos.updateOne(
+                Filters.and(Filters.eq("_id", idPlano), Filters.exists("beneficios_resumo", false)),
+                Updates.combine(
+                    Updates.push("beneficios", beneficioId),
+                    Updates.set("beneficios_resumo", MigracaoResumoBeneficios.resumo(beneficios, ids))
+                )
+            ).getMatchedCount();
+            if (gravados > 0) {
+                return;
+            }
+            // a migracao preencheu o resumo depois da leitura: segue com o $push
+        }
         planos.updateOne(
-            Filters.eq("_id", plano.getObjectId("_id")),
-            Updates.push("beneficios", beneficioId)
+            Filters.eq("_id", idPlano),
+            Updates.combine(
+                Updates.push("beneficios", beneficioId),
+                Updates.push("beneficios_resumo", resumoBeneficio(beneficio))
+            )
         );
+    }
 
-        System.out.println("Benefício '" + beneficio.getString("nome") + "' vinculado com sucesso ao plano '" + plano.getString("nome") + "'!");
+    /**
+     * preenche beneficios_resumo nos planos antigos (MigracaoResumoBeneficios);
+     * continua de onde parou se uma execucao anterior foi interrompida
+     */
+    private void preencherResumo() {
+        MigracaoResumoBeneficios migracao = new MigracaoResumoBeneficios(armazenamento, 500);
+        MigracaoResumoBeneficios.Progresso progresso = Rastreio.executar("plano.preencherResumo", "planos", migracao::progresso);
+        if (progresso.concluida()) {
+            System.out.print("Resumo já preenchido (" + progresso.preenchidos() + " plano(s)). Executar novamente? (s/n): ");
+            if (!scanner.nextLine().equalsIgnoreCase("s")) {
+                return;
+            }
+            Rastreio.executar("plano.preencherResumo", "planos", migracao::reiniciar);
+        }
+        progresso = Rastreio.executar("plano.preencherResumo", "planos", migracao::executar);
+        System.out.println("Resumo de benefícios preenchido em " + progresso.preenchidos() + " plano(s).");
+    }
+
+    /**
+     * metodo auxiliar que monta a entrada de beneficios_resumo: {_id, nome} do beneficio
+     */
+    static Document resumoBeneficio(Document beneficio) {
+        return new Document("_id", beneficio.getObjectId("_id")).append("nome", beneficio.getString("nome"));
+    }
+
+    /**
+     * metodo auxiliar que le os nomes dos beneficios do resumo embutido; planos gravados
+     * antes do resumo existir caem para uma consulta em beneficios
+     */
+    private List<String> nomesBeneficios(Document plano) {
+        List<Document> resumo = plano.getList("beneficios_resumo", Document.class);
+        List<String> nomes = new ArrayList<>();
+        if (resumo != null) {
+            for (Document beneficio : resumo) {
+                nomes.add(beneficio.getString("nome"));
+            }
+            return nomes;
+        }
+        List<ObjectId> ids = plano.getList("beneficios", ObjectId.class);
+        if (ids != null && !ids.isEmpty()) {
+            for (Document beneficio : beneficios.find(Filters.in("_id", ids)).projection(Projections.include("nome"))) {
+                nomes.add(beneficio.getString("nome"));
+            }
+        }
+        return nomes;
+    }
+
+    /**
+     * propaga o novo nome de um beneficio para o resumo embutido nos planos. os planos
+     * afetados sao lidos pelo indice de beneficios_resumo._id e atualizados em lotes de
+     * LOTE_RESUMO por updateMany com arrayFilters, para nao prender um unico update
+     * longo sobre a collection inteira
+     * @return quantidade de planos alterados
+     */
+    static long renomearBeneficio(Colecao planos, ObjectId idBeneficio, String nome) {
+        Bson contemBeneficio = Filters.eq("beneficios_resumo._id", idBeneficio);
+        UpdateOptions opcoes = new UpdateOptions().arrayFilters(List.of(Filters.eq("b._id", idBeneficio)));
+        long alterados = 0;
+        Object ultimoId = null;
+        while (true) {
+            Bson filtro = ultimoId != null ? Filters.and(contemBeneficio, Filters.gt("_id", ultimoId)) : contemBeneficio;
+            List<Object> lote = new ArrayList<>(LOTE_RESUMO);
+            for (Document plano : planos.find(filtro).projection(Projections.include("_id"))
+                                        .sort(Sorts.ascending("_id")).limit(LOTE_RESUMO)) {
+                lote.add(plano.get("_id"));
+            }
+            if (lote.isEmpty()) {
+                return alterados;
+            }
+            alterados += planos.updateMany(Filters.in("_id", lote),
+                Updates.set("beneficios_resumo.$[b].nome", nome), opcoes).getModifiedCount();
+            if (lote.size() < LOTE_RESUMO) {
+                return alterados;
+            }
+            ultimoId = lote.get(lote.size() - 1);
+        }
     }
 
     /**
      * metodo auxiliar para selecionar um plano pelo nome
      */
     private Document selecionarPlano(String operacao) {
-        if (planos.countDocuments() == 0) {
+        if (estatisticas.vazia(planos)) {
             System.out.println("Nenhum plano cadastrado.");
             return null;
         }
@@ -320,9 +440,9 @@ public class PlanoCRUD {
         }
 
         // busca por planos que contenham o texto digitado no nome
-        List<Document> resultados = new ArrayList<>();
-        planos.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
-              .into(resultados);
+        List<Document> resultados = Rastreio.executar("plano.buscar", "planos",
+            () -> planos.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
+                        .into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhum plano encontrado com: \"" + busca + "\"");
@@ -372,7 +492,7 @@ public class PlanoCRUD {
      * metodo auxiliar para selecionar um beneficio pelo nome
      */
     private Document selecionarBeneficio() {
-        if (beneficios.countDocuments() == 0) {
+        if (estatisticas.vazia(beneficios)) {
             System.out.println("Nenhum benefício cadastrado.");
             return null;
         }
@@ -386,9 +506,9 @@ public class PlanoCRUD {
         }
 
         // busca por beneficios que contenham o texto digitado no nome
-        List<Document> resultados = new ArrayList<>();
-        beneficios.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
-                  .into(resultados);
+        List<Document> resultados = Rastreio.executar("beneficio.buscar", "beneficios",
+            () -> beneficios.find(Filters.regex("nome", ".*" + busca + ".*", "i"))
+                            .into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhum benefício encontrado com: \"" + busca + "\"");
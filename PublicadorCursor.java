@@ -0,0 +1,126 @@
+import org.bson.Document;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * publica os documentos de uma consulta como Flow.Publisher respeitando a demanda:
+ * o cursor so avanca quando o assinante pede mais (request(n)), entao um consumidor
+ * lento nunca faz a consulta acumular documentos em memoria. cada assinatura abre
+ * o proprio cursor, que e fechado no fim, em erro ou no cancelamento.
+ */
+class PublicadorCursor implements Flow.Publisher<Document> {
+    private final Supplier<Resultados> consulta;
+    private final Executor executor;
+
+    PublicadorCursor(Supplier<Resultados> consulta, Executor executor) {
+        this.consulta = consulta;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Document> assinante) {
+        Assinatura assinatura = new Assinatura(assinante);
+        assinante.onSubscribe(assinatura);
+    }
+
+    private final class Assinatura implements Flow.Subscription {
+        private final Flow.Subscriber<? super Document> assinante;
+        private final AtomicLong demanda = new AtomicLong();
+        // garante um unico laco de entrega por vez, em qualquer thread do executor
+        private final AtomicInteger pendentes = new AtomicInteger();
+        private volatile boolean cancelada;
+        // request(n <= 0): sinalizado pelo laco de entrega, como os demais sinais
+        private volatile Throwable pedidoInvalido;
+        private boolean encerrada;
+        private Resultados.Cursor cursor;
+
+        Assinatura(Flow.Subscriber<? super Document> assinante) {
+            this.assinante = assinante;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                pedidoInvalido = new IllegalArgumentException("request(n) exige n > 0, recebeu " + n);
+                agendar();
+                return;
+            }
+            // soma limitada a Long.MAX_VALUE, que significa demanda ilimitada
+            demanda.accumulateAndGet(n, (atual, pedido) -> atual + pedido < 0 ? Long.MAX_VALUE : atual + pedido);
+            agendar();
+        }
+
+        @Override
+        public void cancel() {
+            cancelada = true;
+            agendar();
+        }
+
+        private void agendar() {
+            if (pendentes.getAndIncrement() == 0) {
+                executor.execute(this::entregar);
+            }
+        }
+
+        private void entregar() {
+            int perdidos = 1;
+            do {
+                if (!encerrada) {
+                    try {
+                        entregarDemanda();
+                    } catch (Throwable e) {
+                        encerrar();
+                        assinante.onError(e);
+                    }
+                }
+                perdidos = pendentes.addAndGet(-perdidos);
+            } while (perdidos != 0);
+        }
+
+        private void entregarDemanda() {
+            if (pedidoInvalido != null) {
+                encerrar();
+                assinante.onError(pedidoInvalido);
+                return;
+            }
+            if (cancelada) {
+                encerrar();
+                return;
+            }
+            if (cursor == null) {
+                cursor = consulta.get().iterator();
+            }
+            while (demanda.get() > 0 && !cancelada) {
+                if (!cursor.hasNext()) {
+                    encerrar();
+                    assinante.onComplete();
+                    return;
+                }
+                assinante.onNext(cursor.next());
+                if (demanda.get() != Long.MAX_VALUE) {
+                    demanda.decrementAndGet();
+                }
+            }
+            if (cancelada) {
+                encerrar();
+                return;
+            }
+            // demanda atendida por inteiro: se o cursor acabou, completa sem esperar outro request
+            if (pedidoInvalido == null && !cursor.hasNext()) {
+                encerrar();
+                assinante.onComplete();
+            }
+        }
+
+        private void encerrar() {
+            encerrada = true;
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
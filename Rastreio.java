@@ -0,0 +1,137 @@
+import jdk.jfr.AnnotationElement;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.EventFactory;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.ValueDescriptor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * eventos do Java Flight Recorder para cada operacao logica da aplicacao
+ * (cliente.cadastrar, plano.vincular, relatorio.manutencoesPendentes, ...).
+ * cada operacao vira um tipo de evento proprio (academia.cliente.cadastrar),
+ * com a collection principal e os documentos e bytes trafegados pelos comandos
+ * executados durante a operacao, somados pelo MonitorComandos.
+ *
+ * o evento envolve so o acesso a dados, nunca a espera pelo Scanner: nos menus
+ * interativos cada trecho de leitura ou gravacao entre os prompts e um evento.
+ *
+ * com a gravacao desligada o custo e uma consulta ao mapa de tipos e um isEnabled(),
+ * sem instanciar o evento.
+ * para gravar: java -XX:StartFlightRecording=filename=academia.jfr -cp ".:lib/*" AcademiaApp
+ */
+public class Rastreio {
+    // indices dos campos, na ordem de CAMPOS
+    private static final int COLECAO = 0;
+    private static final int DOCUMENTOS = 1;
+    private static final int BYTES_ENVIADOS = 2;
+    private static final int BYTES_RECEBIDOS = 3;
+    private static final int COMANDOS = 4;
+
+    private static final List<ValueDescriptor> CAMPOS = List.of(
+        new ValueDescriptor(String.class, "colecao", List.of(new AnnotationElement(Label.class, "Collection"))),
+        new ValueDescriptor(long.class, "documentos", List.of(new AnnotationElement(Label.class, "Documentos"))),
+        new ValueDescriptor(long.class, "bytesEnviados", List.of(
+            new AnnotationElement(Label.class, "Bytes Enviados"),
+            new AnnotationElement(DataAmount.class, DataAmount.BYTES))),
+        new ValueDescriptor(long.class, "bytesRecebidos", List.of(
+            new AnnotationElement(Label.class, "Bytes Recebidos"),
+            new AnnotationElement(DataAmount.class, DataAmount.BYTES))),
+        new ValueDescriptor(int.class, "comandos", List.of(new AnnotationElement(Label.class, "Comandos")))
+    );
+
+    private static final Map<String, EventFactory> TIPOS = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Contexto> ATUAL = new ThreadLocal<>();
+
+    /**
+     * totais dos comandos executados pela thread durante a operacao em andamento
+     */
+    static final class Contexto {
+        long documentos;
+        long bytesEnviados;
+        long bytesRecebidos;
+        int comandos;
+
+        void registrar(long enviados, long recebidos, long docs) {
+            bytesEnviados += enviados;
+            bytesRecebidos += recebidos;
+            documentos += docs;
+            comandos++;
+        }
+
+        private void somar(Contexto outro) {
+            bytesEnviados += outro.bytesEnviados;
+            bytesRecebidos += outro.bytesRecebidos;
+            documentos += outro.documentos;
+            comandos += outro.comandos;
+        }
+    }
+
+    /**
+     * contexto da operacao em andamento na thread atual, ou null se nada esta sendo gravado
+     */
+    static Contexto atual() {
+        return ATUAL.get();
+    }
+
+    public static void executar(String operacao, String colecao, Runnable acao) {
+        executar(operacao, colecao, () -> {
+            acao.run();
+            return null;
+        });
+    }
+
+    /**
+     * executa acao dentro do evento da operacao e devolve o resultado. o evento deve
+     * cobrir so o acesso a dados: leitura do Scanner e impressao ficam de fora
+     */
+    public static <T> T executar(String operacao, String colecao, Supplier<T> acao) {
+        EventFactory fabrica = TIPOS.computeIfAbsent(operacao, Rastreio::criarTipo);
+        if (!fabrica.getEventType().isEnabled()) {
+            return acao.get();
+        }
+
+        Event evento = fabrica.newEvent();
+        Contexto anterior = ATUAL.get();
+        Contexto contexto = new Contexto();
+        ATUAL.set(contexto);
+        evento.begin();
+        try {
+            return acao.get();
+        } finally {
+            evento.end();
+            ATUAL.set(anterior);
+            // operacoes aninhadas tambem contam para a operacao externa
+            if (anterior != null) {
+                anterior.somar(contexto);
+            }
+            if (evento.shouldCommit()) {
+                evento.set(COLECAO, colecao);
+                evento.set(DOCUMENTOS, contexto.documentos);
+                evento.set(BYTES_ENVIADOS, contexto.bytesEnviados);
+                evento.set(BYTES_RECEBIDOS, contexto.bytesRecebidos);
+                evento.set(COMANDOS, contexto.comandos);
+                evento.commit();
+            }
+        }
+    }
+
+    private static EventFactory criarTipo(String operacao) {
+        String area = operacao.contains(".") ? operacao.substring(0, operacao.indexOf('.')) : operacao;
+        EventFactory fabrica = EventFactory.create(List.of(
+            new AnnotationElement(Name.class, "academia." + operacao),
+            new AnnotationElement(Label.class, operacao),
+            new AnnotationElement(Category.class, new String[] { "Academia", area }),
+            new AnnotationElement(StackTrace.class, false)
+        ), CAMPOS);
+        fabrica.register();
+        return fabrica;
+    }
+}
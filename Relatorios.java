@@ -1,16 +1,141 @@
-import com.mongodb.client.*;
+import com.mongodb.MongoExecutionTimeoutException;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
 import org.bson.Document;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.Scanner;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+import java.util.function.Supplier;
 
+/**
+ * relatorios agregados. cada relatorio e calculado (Relatorio com titulo e linhas)
+ * separado da impressao, o que permite o painel rodar varios ao mesmo tempo.
+ *
+ * os relatorios de ocupacao leem a serie temporal checkins de um periodo: o
+ * servidor agrupa por hora ($year, $month, $dayOfMonth e $hour no fuso local, que
+ * existem desde o 3.6, ao contrario de $dateTrunc, que exige 5.0), entao um ano de
+ * check-ins vira no maximo ~8760 grupos antes da agregacao final por hora ou dia
+ * da semana.
+ *
+ * os relatorios de custo de manutencao leem os agregados mensais de
+ * CustosManutencao, nao a collection manutencoes.
+ *
+ * planos x beneficios parte do catalogo: cada beneficio traz os planos que o
+ * incluem por um $lookup no indice multikey de planos.beneficios, e os clientes
+ * ativos de cada plano vem de um unico $group em clientes (indice {status,
+ * id_plano}), somados aqui. beneficio sem plano e plano sem clientes ativos aparecem
+ * com 0. "quais planos tem o beneficio" usa o mesmo indice. nenhum dos dois depende
+ * de beneficios_resumo, que falta nos planos gravados antes dele enquanto
+ * MigracaoResumoBeneficios nao roda.
+ */
 public class Relatorios {
-    private MongoDatabase database;
+    private Armazenamento armazenamento;
     private Scanner scanner;
+    // grupos fechados das coortes ficam em cache entre consultas
+    private final RetencaoCoortes coortes;
+    // limite de cada relatorio; tambem vai como maxTimeMS para o servidor abortar a agregacao
+    private final long tempoMaximoMs = Long.getLong("academia.relatorios.timeoutMs", 10_000);
+    private final int threadsPainel = Integer.getInteger("academia.relatorios.threads", 4);
+    // intervalo em que o painel confere os relatorios terminados e os prazos
+    private static final long INTERVALO_PAINEL_MS = 10;
+    private static final long NAO_INICIADO = Long.MIN_VALUE;
+    // fuso das horas e dias da semana; o servidor agrupa em UTC se nao receber um
+    private static final String FUSO = TimeZone.getDefault().getID();
+    // janela de "quem esta na academia agora": entradas dos ultimos N minutos
+    private static final long PERMANENCIA_MINUTOS = Long.getLong("academia.relatorios.permanenciaMin", 90);
+    // periodo em dias quando nao informado (menu e painel)
+    private static final int DIAS_PADRAO = 30;
+    // periodo em meses quando nao informado (menu e painel)
+    private static final int MESES_PADRAO = 12;
+    private static final String[] DIAS_SEMANA = { "Seg", "Ter", "Qua", "Qui", "Sex", "Sáb", "Dom" };
     
-    public Relatorios(MongoDatabase database, Scanner scanner) {
-        this.database = database;
+    public Relatorios(Armazenamento armazenamento, Scanner scanner) {
+        this.armazenamento = armazenamento;
         this.scanner  = scanner;
+        this.coortes  = new RetencaoCoortes(armazenamento);
     }
+
+    /**
+     * relatorio calculado, pronto para imprimir: celulas ja formatadas por coluna,
+     * ou so a mensagem quando nao ha linhas
+     */
+    record Relatorio(String titulo, Tabela.Coluna[] colunas, List<String[]> linhas, String mensagem) {
+    }
+
+    /**
+     * resultado de um relatorio no painel: relatorio calculado ou a falha (tempo esgotado, erro)
+     */
+    record Execucao(String titulo, Relatorio relatorio, String falha, long nanos) {
+    }
+
+    private record Definicao(String titulo, String operacao, String colecao, Supplier<Relatorio> calculo) {
+    }
+
+    /**
+     * relatorios do painel; os tres primeiros sao tambem as opcoes 1 a 3 do menu e os
+     * que pedem periodo usam o padrao do menu
+     */
+    private List<Definicao> definicoes() {
+        return List.of(
+            new Definicao(TITULO_CLIENTES_POR_PLANO, "relatorio.clientesPorPlano", "planos", this::clientesPorPlano),
+            new Definicao(TITULO_MANUTENCOES_PENDENTES, "relatorio.manutencoesPendentes", "manutencoes", this::manutencoesPendentes),
+            new Definicao(TITULO_FUNCIONARIOS_ATIVOS, "relatorio.funcionariosAtivosPorCargo", "cargos", this::funcionariosAtivosPorCargo),
+            new Definicao(TITULO_OCUPACAO_ATUAL, "relatorio.ocupacaoAtual", "checkins", this::ocupacaoAtual),
+            new Definicao(TITULO_ENTRADAS_POR_HORA, "relatorio.entradasPorHora", "checkins",
+                () -> entradasPorHora(DIAS_PADRAO)),
+            new Definicao(TITULO_MAPA_DE_CALOR, "relatorio.mapaDeCalor", "checkins", () -> mapaDeCalor(DIAS_PADRAO)),
+            new Definicao(TITULO_USO_POR_PLANO, "relatorio.usoPorPlano", "checkins", () -> usoPorPlano(DIAS_PADRAO)),
+            new Definicao(TITULO_CONTRATOS_A_VENCER, "relatorio.contratosAVencer", "clientes",
+                () -> contratosAVencer(DIAS_PADRAO)),
+            new Definicao(TITULO_CUSTOS_POR_EQUIPAMENTO, "relatorio.custosPorEquipamento", CustosManutencao.COLECAO,
+                this::custosPorEquipamento),
+            new Definicao(TITULO_CUSTOS_POR_MES, "relatorio.custosPorMes", CustosManutencao.COLECAO,
+                () -> custosPorMes(MESES_PADRAO)),
+            new Definicao(TITULO_CUSTOS_POR_TECNICO, "relatorio.custosPorTecnico", CustosManutencao.COLECAO,
+                this::custosPorTecnico),
+            new Definicao(TITULO_TENDENCIA_CUSTOS, "relatorio.tendenciaCustos", CustosManutencao.COLECAO,
+                this::tendenciaCustos),
+            new Definicao(TITULO_RETENCAO, "relatorio.retencaoCoortes", "clientes", () -> retencao(MESES_PADRAO)),
+            new Definicao(TITULO_MATRIZ_BENEFICIOS, "relatorio.matrizBeneficios", "clientes", this::matrizBeneficios)
+        );
+    }
+
+    private static final String TITULO_CLIENTES_POR_PLANO = "CLIENTES POR PLANO";
+    private static final String TITULO_MANUTENCOES_PENDENTES = "MANUTENÇÕES PENDENTES";
+    private static final String TITULO_FUNCIONARIOS_ATIVOS = "FUNCIONÁRIOS ATIVOS POR CARGO";
+    private static final String TITULO_OCUPACAO_ATUAL = "OCUPAÇÃO ATUAL";
+    private static final String TITULO_ENTRADAS_POR_HORA = "ENTRADAS POR HORA DO DIA";
+    private static final String TITULO_MAPA_DE_CALOR = "ENTRADAS POR DIA DA SEMANA E HORA";
+    private static final String TITULO_USO_POR_PLANO = "USO POR PLANO";
+    private static final String TITULO_CONTRATOS_A_VENCER = "CONTRATOS A VENCER";
+    private static final String TITULO_CUSTOS_POR_EQUIPAMENTO = "CUSTO DE MANUTENÇÃO POR EQUIPAMENTO";
+    private static final String TITULO_CUSTOS_POR_MES = "CUSTO DE MANUTENÇÃO POR MÊS";
+    private static final String TITULO_CUSTOS_POR_TECNICO = "CUSTO DE MANUTENÇÃO POR TÉCNICO";
+    private static final String TITULO_TENDENCIA_CUSTOS = "TENDÊNCIA DO CUSTO DE MANUTENÇÃO (12 MESES)";
+    private static final String TITULO_RETENCAO = "RETENÇÃO POR COORTE DE ADESÃO";
+    private static final String TITULO_MATRIZ_BENEFICIOS = "BENEFÍCIOS X PLANOS";
+    private static final String TITULO_PLANOS_COM_BENEFICIO = "PLANOS COM O BENEFÍCIO";
+    // tamanho da matriz: beneficios (linhas) e planos (colunas) com mais clientes
+    private static final int MATRIZ_BENEFICIOS = Integer.getInteger("academia.matriz.beneficios", 30);
+    private static final int MATRIZ_PLANOS = Integer.getInteger("academia.matriz.planos", 8);
     
     public void menu() {
         while (true) {
@@ -18,84 +143,830 @@ public class Relatorios {
             System.out.println("1. Número de clientes por plano");
             System.out.println("2. Manutenções pendentes");
             System.out.println("3. Funcionários ativos por cargo");
-            System.out.println("4. Voltar");
+            System.out.println("4. Painel (todos os relatórios)");
+            System.out.println("5. Ocupação (check-ins)");
+            System.out.println("6. Contratos a vencer");
+            System.out.println("7. Custos de manutenção");
+            System.out.println("8. Retenção por coorte");
+            System.out.println("9. Planos x benefícios");
+            System.out.println("10. Voltar");
             System.out.print("Escolha: ");
             
             int opcao = scanner.nextInt();
             scanner.nextLine();
             
             switch (opcao) {
-                case 1  -> clientesPorPlano();
-                case 2  -> manutencoesPendentes();
-                case 3  -> funcionariosAtivosPorCargo();
-                case 4  -> { return; }
+                case 1, 2, 3 -> imprimir(calcular(definicoes().get(opcao - 1)));
+                case 4  -> Rastreio.executar("relatorio.painel", "*", this::painel);
+                case 5  -> menuOcupacao();
+                case 6  -> {
+                    int dias = lerDias();
+                    imprimir(calcular(new Definicao(TITULO_CONTRATOS_A_VENCER, "relatorio.contratosAVencer",
+                        "clientes", () -> contratosAVencer(dias))));
+                }
+                case 7  -> menuCustos();
+                case 8  -> {
+                    System.out.print("Coortes dos últimos meses [" + MESES_PADRAO + "]: ");
+                    String valor = scanner.nextLine().trim();
+                    int meses;
+                    try {
+                        meses = valor.isEmpty() ? MESES_PADRAO : Math.max(1, Integer.parseInt(valor));
+                    } catch (NumberFormatException e) {
+                        meses = MESES_PADRAO;
+                    }
+                    int periodo = meses;
+                    imprimir(calcular(new Definicao(TITULO_RETENCAO, "relatorio.retencaoCoortes",
+                        "clientes", () -> retencao(periodo))));
+                }
+                case 9  -> menuBeneficios();
+                case 10 -> { return; }
                 default -> System.out.println("Opção inválida!");
             }
         }
     }
-    
-    private void clientesPorPlano() {
-        MongoCollection<Document> planos = database.getCollection("planos");
-        MongoCollection<Document> clientes = database.getCollection("clientes");
-        
-        if (planos.countDocuments() == 0) {
-            System.out.println("\n--- CLIENTES POR PLANO ---");
-            System.out.println("Nenhum plano cadastrado.");
-            return;
+
+    private void menuBeneficios() {
+        while (true) {
+            System.out.println("\n=== PLANOS X BENEFÍCIOS ===");
+            System.out.println("1. Matriz benefício x plano");
+            System.out.println("2. Planos com um benefício");
+            System.out.println("3. Voltar");
+            System.out.print("Escolha: ");
+
+            int opcao = scanner.nextInt();
+            scanner.nextLine();
+
+            switch (opcao) {
+                case 1 -> imprimir(calcular(new Definicao(TITULO_MATRIZ_BENEFICIOS, "relatorio.matrizBeneficios",
+                              "clientes", this::matrizBeneficios)));
+                case 2 -> {
+                    Document beneficio = selecionarBeneficio();
+                    if (beneficio != null) {
+                        imprimir(calcular(new Definicao(TITULO_PLANOS_COM_BENEFICIO, "relatorio.planosComBeneficio",
+                            "planos", () -> planosComBeneficio(beneficio))));
+                    }
+                }
+                case 3 -> { return; }
+                default -> System.out.println("Opção inválida!");
+            }
         }
-        
-        if (clientes.countDocuments() == 0) {
-            System.out.println("\n--- CLIENTES POR PLANO ---");
-            System.out.println("Nenhum cliente cadastrado.");
+    }
+
+    private void menuCustos() {
+        while (true) {
+            System.out.println("\n=== CUSTOS DE MANUTENÇÃO ===");
+            System.out.println("1. Por equipamento (custo x valor)");
+            System.out.println("2. Por mês");
+            System.out.println("3. Por técnico");
+            System.out.println("4. Tendência (12 meses)");
+            System.out.println("5. Voltar");
+            System.out.print("Escolha: ");
+
+            int opcao = scanner.nextInt();
+            scanner.nextLine();
+
+            switch (opcao) {
+                case 1 -> imprimir(calcular(new Definicao(TITULO_CUSTOS_POR_EQUIPAMENTO, "relatorio.custosPorEquipamento",
+                              CustosManutencao.COLECAO, this::custosPorEquipamento)));
+                case 2 -> {
+                    System.out.print("Meses [" + MESES_PADRAO + "]: ");
+                    String valor = scanner.nextLine().trim();
+                    int meses;
+                    try {
+                        meses = valor.isEmpty() ? MESES_PADRAO : Math.max(1, Integer.parseInt(valor));
+                    } catch (NumberFormatException e) {
+                        meses = MESES_PADRAO;
+                    }
+                    int periodo = meses;
+                    imprimir(calcular(new Definicao(TITULO_CUSTOS_POR_MES, "relatorio.custosPorMes",
+                        CustosManutencao.COLECAO, () -> custosPorMes(periodo))));
+                }
+                case 3 -> imprimir(calcular(new Definicao(TITULO_CUSTOS_POR_TECNICO, "relatorio.custosPorTecnico",
+                              CustosManutencao.COLECAO, this::custosPorTecnico)));
+                case 4 -> imprimir(calcular(new Definicao(TITULO_TENDENCIA_CUSTOS, "relatorio.tendenciaCustos",
+                              CustosManutencao.COLECAO, this::tendenciaCustos)));
+                case 5 -> { return; }
+                default -> System.out.println("Opção inválida!");
+            }
+        }
+    }
+
+    private void menuOcupacao() {
+        while (true) {
+            System.out.println("\n=== OCUPAÇÃO ===");
+            System.out.println("1. Ocupação atual");
+            System.out.println("2. Entradas por hora do dia");
+            System.out.println("3. Mapa de calor (dia da semana x hora)");
+            System.out.println("4. Uso por plano");
+            System.out.println("5. Voltar");
+            System.out.print("Escolha: ");
+
+            int opcao = scanner.nextInt();
+            scanner.nextLine();
+
+            switch (opcao) {
+                case 1 -> imprimir(calcular(new Definicao(TITULO_OCUPACAO_ATUAL, "relatorio.ocupacaoAtual",
+                              "checkins", this::ocupacaoAtual)));
+                case 2 -> {
+                    int dias = lerDias();
+                    imprimir(calcular(new Definicao(TITULO_ENTRADAS_POR_HORA, "relatorio.entradasPorHora",
+                        "checkins", () -> entradasPorHora(dias))));
+                }
+                case 3 -> {
+                    int dias = lerDias();
+                    imprimir(calcular(new Definicao(TITULO_MAPA_DE_CALOR, "relatorio.mapaDeCalor",
+                        "checkins", () -> mapaDeCalor(dias))));
+                }
+                case 4 -> {
+                    int dias = lerDias();
+                    imprimir(calcular(new Definicao(TITULO_USO_POR_PLANO, "relatorio.usoPorPlano",
+                        "checkins", () -> usoPorPlano(dias))));
+                }
+                case 5 -> { return; }
+                default -> System.out.println("Opção inválida!");
+            }
+        }
+    }
+
+    private int lerDias() {
+        System.out.print("Período em dias [" + DIAS_PADRAO + "]: ");
+        String valor = scanner.nextLine().trim();
+        try {
+            return valor.isEmpty() ? DIAS_PADRAO : Math.max(1, Integer.parseInt(valor));
+        } catch (NumberFormatException e) {
+            return DIAS_PADRAO;
+        }
+    }
+
+    private Relatorio calcular(Definicao definicao) {
+        Relatorio[] relatorio = new Relatorio[1];
+        Rastreio.executar(definicao.operacao(), definicao.colecao(), () -> relatorio[0] = definicao.calculo().get());
+        return relatorio[0];
+    }
+
+    private static void imprimir(Relatorio relatorio) {
+        Tabela tabela = new Tabela(relatorio.titulo(), relatorio.colunas());
+        if (relatorio.linhas().isEmpty()) {
+            tabela.vazia(relatorio.mensagem());
             return;
         }
+        tabela.cabecalho();
+        for (String[] linha : relatorio.linhas()) {
+            for (String celula : linha) {
+                tabela.texto(celula);
+            }
+            tabela.fimLinha();
+        }
+        tabela.fechar();
+    }
+
+    /**
+     * roda os relatorios em um pool limitado (-Dacademia.relatorios.threads), cada um
+     * com seu limite de tempo contado do inicio dele, nao da fila: um relatorio que
+     * espera por uma thread livre nao perde o prazo por isso. o tempo total fica entre
+     * o relatorio mais lento e a soma dividida pelo numero de threads; relatorios que
+     * estouram o limite ou falham entram como falha e os demais sao devolvidos
+     * normalmente. as agregacoes tambem levam o limite como maxTimeMS.
+     */
+    List<Execucao> executarTodos() {
+        List<Definicao> definicoes = definicoes();
+        int quantidade = definicoes.size();
+        AtomicInteger contador = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(quantidade, threadsPainel), tarefa -> {
+            Thread thread = new Thread(tarefa, "academia-relatorio-" + contador.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<Relatorio>> futuros = new ArrayList<>();
+            // escritos pelas threads do pool, lidos pela que acompanha os prazos
+            AtomicLongArray inicios = new AtomicLongArray(quantidade);
+            AtomicLongArray fins = new AtomicLongArray(quantidade);
+            for (int i = 0; i < quantidade; i++) {
+                Definicao definicao = definicoes.get(i);
+                int indice = i;
+                inicios.set(i, NAO_INICIADO);
+                futuros.add(executor.submit(() -> {
+                    inicios.set(indice, System.nanoTime());
+                    try {
+                        return calcular(definicao);
+                    } finally {
+                        fins.set(indice, System.nanoTime());
+                    }
+                }));
+            }
+
+            long limite = TimeUnit.MILLISECONDS.toNanos(tempoMaximoMs);
+            Execucao[] execucoes = new Execucao[quantidade];
+            int restantes = quantidade;
+            while (restantes > 0) {
+                for (int i = 0; i < quantidade; i++) {
+                    if (execucoes[i] != null) {
+                        continue;
+                    }
+                    String titulo = definicoes.get(i).titulo();
+                    Future<Relatorio> futuro = futuros.get(i);
+                    long inicio = inicios.get(i);
+                    if (futuro.isDone()) {
+                        execucoes[i] = concluida(titulo, futuro, fins.get(i) - inicio);
+                        restantes--;
+                    } else if (inicio != NAO_INICIADO && System.nanoTime() - inicio > limite) {
+                        futuro.cancel(true);
+                        execucoes[i] = new Execucao(titulo, null, "tempo esgotado (" + tempoMaximoMs + " ms)", -1);
+                        restantes--;
+                    }
+                }
+                if (restantes > 0) {
+                    try {
+                        Thread.sleep(INTERVALO_PAINEL_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        for (int i = 0; i < quantidade; i++) {
+                            if (execucoes[i] == null) {
+                                execucoes[i] = new Execucao(definicoes.get(i).titulo(), null, "interrompido", -1);
+                            }
+                        }
+                        break;
+                    }
+                }
+            }
+            return Arrays.asList(execucoes);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * metodo auxiliar que le o resultado de um relatorio ja terminado
+     */
+    private Execucao concluida(String titulo, Future<Relatorio> futuro, long nanos) {
+        try {
+            return new Execucao(titulo, futuro.get(), null, nanos);
+        } catch (ExecutionException e) {
+            String falha = e.getCause() instanceof MongoExecutionTimeoutException
+                ? "tempo esgotado (" + tempoMaximoMs + " ms)"
+                : "erro: " + e.getCause().getMessage();
+            return new Execucao(titulo, null, falha, nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Execucao(titulo, null, "interrompido", -1);
+        }
+    }
+
+    private void painel() {
+        long inicio = System.nanoTime();
+        List<Execucao> execucoes = executarTodos();
+        long total = System.nanoTime() - inicio;
+
+        long soma = 0;
+        int falhas = 0;
+        for (Execucao execucao : execucoes) {
+            if (execucao.relatorio() != null) {
+                imprimir(execucao.relatorio());
+            } else {
+                falhas++;
+                new Tabela(execucao.titulo()).vazia("Relatório indisponível: " + execucao.falha());
+            }
+            if (execucao.nanos() > 0) {
+                soma += execucao.nanos();
+            }
+        }
+        System.out.printf("\nPainel: %d de %d relatórios em %d ms (soma dos tempos individuais: %d ms)\n",
+            execucoes.size() - falhas, execucoes.size(),
+            TimeUnit.NANOSECONDS.toMillis(total), TimeUnit.NANOSECONDS.toMillis(soma));
+    }
+
+    private Relatorio clientesPorPlano() {
+        Colecao planos = armazenamento.colecao("planos");
+        Colecao clientes = armazenamento.colecao("clientes");
         
-        AggregateIterable<Document> result = planos.aggregate(Arrays.asList(
-            new Document("$lookup", new Document()
-                .append("from", "clientes")
-                .append("localField", "_id")
-                .append("foreignField", "id_plano")
-                .append("as", "clientes")),
-            new Document("$project", new Document()
-                .append("plano", "$nome")
-                .append("quantidade", new Document("$size", "$clientes")))
-        ));
-        
-        System.out.println("\n--- CLIENTES POR PLANO ---");
-        boolean encontrouClientes = false;
-        for (Document doc : result) {
+        List<String[]> linhas = new ArrayList<>();
+        boolean encontrouPlanos = false;
+        for (Document doc : planos.aggregate(pipelineClientesPorPlano(), tempoMaximoMs)) {
+            encontrouPlanos = true;
             int quantidade = doc.getInteger("quantidade");
             if (quantidade > 0) {
-                encontrouClientes = true;
-                System.out.printf("Plano: %s | Clientes: %d\n",
-                    doc.getString("plano"),
-                    quantidade);
+                linhas.add(new String[] { doc.getString("plano"), Integer.toString(quantidade) });
             }
         }
         
-        if (!encontrouClientes) {
-            System.out.println("Nenhum cliente vinculado aos planos existentes.");
+        String mensagem = null;
+        if (!encontrouPlanos) {
+            mensagem = "Nenhum plano cadastrado.";
+        } else if (linhas.isEmpty()) {
+            mensagem = armazenamento.estatisticas().vazia(clientes) ? "Nenhum cliente cadastrado."
+                                                                    : "Nenhum cliente vinculado aos planos existentes.";
         }
+        return new Relatorio(TITULO_CLIENTES_POR_PLANO, new Tabela.Coluna[] {
+            Tabela.coluna("Plano", 20), Tabela.numero("Clientes", 8)
+        }, linhas, mensagem);
     }
     
-    private void manutencoesPendentes() {
-        MongoCollection<Document> manutencoes = database.getCollection("manutencoes");
-        MongoCollection<Document> equipamentos = database.getCollection("equipamentos");
+    private Relatorio manutencoesPendentes() {
+        Colecao manutencoes = armazenamento.colecao("manutencoes");
+        Colecao equipamentos = armazenamento.colecao("equipamentos");
         
-        if (manutencoes.countDocuments() == 0) {
-            System.out.println("\n--- MANUTENÇÕES PENDENTES ---");
-            System.out.println("Nenhuma manutenção cadastrada.");
-            return;
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : manutencoes.aggregate(pipelineManutencoesPendentes(), tempoMaximoMs)) {
+            linhas.add(new String[] {
+                doc.getString("modelo"),
+                Tabela.formatarData(doc.getDate("data_prevista")),
+                Tabela.formatarMoeda(doc.getDouble("custo"))
+            });
         }
         
-        if (equipamentos.countDocuments() == 0) {
-            System.out.println("\n--- MANUTENÇÕES PENDENTES ---");
-            System.out.println("Nenhum equipamento cadastrado.");
-            return;
+        String mensagem = null;
+        if (linhas.isEmpty()) {
+            if (armazenamento.estatisticas().vazia(manutencoes)) {
+                mensagem = "Nenhuma manutenção cadastrada.";
+            } else if (armazenamento.estatisticas().vazia(equipamentos)) {
+                mensagem = "Nenhum equipamento cadastrado.";
+            } else {
+                mensagem = "Nenhuma manutenção pendente encontrada.";
+            }
+        }
+        return new Relatorio(TITULO_MANUTENCOES_PENDENTES, new Tabela.Coluna[] {
+            Tabela.coluna("Equipamento", 25), Tabela.coluna("Data Prevista", 13), Tabela.numero("Custo", 12)
+        }, linhas, mensagem);
+    }
+    
+    private Relatorio funcionariosAtivosPorCargo() {
+        Colecao cargos = armazenamento.colecao("cargos");
+        Colecao funcionarios = armazenamento.colecao("funcionarios");
+        
+        List<String[]> linhas = new ArrayList<>();
+        boolean encontrouCargos = false;
+        for (Document doc : cargos.aggregate(pipelineFuncionariosAtivosPorCargo(), tempoMaximoMs)) {
+            encontrouCargos = true;
+            int quantidade = doc.getInteger("quantidade_ativos");
+            if (quantidade > 0) {
+                linhas.add(new String[] { doc.getString("cargo"), Integer.toString(quantidade) });
+            }
         }
         
-        AggregateIterable<Document> result = manutencoes.aggregate(Arrays.asList(
+        String mensagem = null;
+        if (!encontrouCargos) {
+            mensagem = "Nenhum cargo cadastrado.";
+        } else if (linhas.isEmpty()) {
+            mensagem = armazenamento.estatisticas().vazia(funcionarios) ? "Nenhum funcionário cadastrado."
+                                                                        : "Nenhum funcionário ativo encontrado nos cargos existentes.";
+        }
+        return new Relatorio(TITULO_FUNCIONARIOS_ATIVOS, new Tabela.Coluna[] {
+            Tabela.coluna("Cargo", 20), Tabela.numero("Funcionários Ativos", 19)
+        }, linhas, mensagem);
+    }
+
+    private Relatorio ocupacaoAtual() {
+        Colecao checkins = armazenamento.colecao("checkins");
+        Date desde = new Date(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(PERMANENCIA_MINUTOS));
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : checkins.aggregate(pipelineOcupacaoAtual(desde), tempoMaximoMs)) {
+            linhas.add(new String[] {
+                doc.getString("catraca"),
+                Integer.toString(doc.getInteger("clientes")),
+                Integer.toString(doc.getInteger("entradas"))
+            });
+        }
+        return new Relatorio(TITULO_OCUPACAO_ATUAL + " (últimos " + PERMANENCIA_MINUTOS + " min)", new Tabela.Coluna[] {
+            Tabela.coluna("Catraca", 15), Tabela.numero("Clientes", 8), Tabela.numero("Entradas", 8)
+        }, linhas, mensagemCheckins(checkins, "Nenhuma entrada nos últimos " + PERMANENCIA_MINUTOS + " minutos."));
+    }
+
+    private Relatorio entradasPorHora(int dias) {
+        Colecao checkins = armazenamento.colecao("checkins");
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : checkins.aggregate(pipelineEntradasPorHora(inicioPeriodo(dias)), tempoMaximoMs)) {
+            int total = doc.getInteger("entradas");
+            linhas.add(new String[] {
+                String.format("%02dh", doc.getInteger("_id")),
+                Integer.toString(total),
+                String.format("%.1f", (double) total / dias),
+                Integer.toString(doc.getInteger("pico"))
+            });
+        }
+        return new Relatorio(TITULO_ENTRADAS_POR_HORA + " (" + dias + " dias)", new Tabela.Coluna[] {
+            Tabela.coluna("Hora", 4), Tabela.numero("Entradas", 8), Tabela.numero("Média/dia", 9), Tabela.numero("Pico", 6)
+        }, linhas, mensagemCheckins(checkins, "Nenhuma entrada no período."));
+    }
+
+    /**
+     * uma linha por hora com entradas e uma coluna por dia da semana
+     */
+    private Relatorio mapaDeCalor(int dias) {
+        Colecao checkins = armazenamento.colecao("checkins");
+
+        Map<Integer, int[]> porHora = new HashMap<>();
+        for (Document doc : checkins.aggregate(pipelineMapaDeCalor(inicioPeriodo(dias)), tempoMaximoMs)) {
+            Document chave = doc.get("_id", Document.class);
+            porHora.computeIfAbsent(chave.getInteger("hora"), h -> new int[DIAS_SEMANA.length])
+                [chave.getInteger("dia") - 1] = doc.getInteger("entradas");
+        }
+
+        List<String[]> linhas = new ArrayList<>();
+        for (int hora = 0; hora < 24; hora++) {
+            int[] entradas = porHora.get(hora);
+            if (entradas == null) {
+                continue;
+            }
+            String[] linha = new String[DIAS_SEMANA.length + 1];
+            linha[0] = String.format("%02dh", hora);
+            for (int dia = 0; dia < entradas.length; dia++) {
+                linha[dia + 1] = Integer.toString(entradas[dia]);
+            }
+            linhas.add(linha);
+        }
+        Tabela.Coluna[] colunas = new Tabela.Coluna[DIAS_SEMANA.length + 1];
+        colunas[0] = Tabela.coluna("Hora", 4);
+        for (int dia = 0; dia < DIAS_SEMANA.length; dia++) {
+            colunas[dia + 1] = Tabela.numero(DIAS_SEMANA[dia], 6);
+        }
+        return new Relatorio(TITULO_MAPA_DE_CALOR + " (" + dias + " dias)", colunas, linhas,
+            mensagemCheckins(checkins, "Nenhuma entrada no período."));
+    }
+
+    private Relatorio usoPorPlano(int dias) {
+        Colecao checkins = armazenamento.colecao("checkins");
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : checkins.aggregate(pipelineUsoPorPlano(inicioPeriodo(dias)), tempoMaximoMs)) {
+            int clientes = doc.getInteger("clientes");
+            int entradas = doc.getInteger("entradas");
+            linhas.add(new String[] {
+                doc.getString("plano"),
+                Integer.toString(clientes),
+                Integer.toString(entradas),
+                String.format("%.1f", (double) entradas / clientes)
+            });
+        }
+        return new Relatorio(TITULO_USO_POR_PLANO + " (" + dias + " dias)", new Tabela.Coluna[] {
+            Tabela.coluna("Plano", 20), Tabela.numero("Clientes", 8), Tabela.numero("Entradas", 8),
+            Tabela.numero("Entradas/cliente", 16)
+        }, linhas, mensagemCheckins(checkins, "Nenhuma entrada no período."));
+    }
+
+    /**
+     * contratos de clientes ativos que terminam de hoje ate hoje + dias
+     */
+    private Relatorio contratosAVencer(int dias) {
+        Colecao clientes = armazenamento.colecao("clientes");
+        Date hoje = inicioPeriodo(1);
+        Date ate = Date.from(LocalDate.now().plusDays(dias + 1L).atStartOfDay(TimeZone.getDefault().toZoneId()).toInstant());
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : clientes.aggregate(Contratos.pipelineAVencer(hoje, ate), tempoMaximoMs)) {
+            Date fimFidelidade = doc.getDate("data_fim_fidelidade");
+            linhas.add(new String[] {
+                doc.getString("nome"),
+                doc.getString("telefone"),
+                doc.getString("plano"),
+                Tabela.formatarData(doc.getDate("data_fim_contrato")),
+                fimFidelidade != null && !fimFidelidade.before(hoje) ? Tabela.formatarData(fimFidelidade) : "-"
+            });
+        }
+        return new Relatorio(TITULO_CONTRATOS_A_VENCER + " (próximos " + dias + " dias)", new Tabela.Coluna[] {
+            Tabela.coluna("Cliente", 25), Tabela.coluna("Telefone", 11), Tabela.coluna("Plano", 12),
+            Tabela.coluna("Fim do contrato", 15), Tabela.coluna("Fim da fidelidade", 17)
+        }, linhas, armazenamento.estatisticas().vazia(clientes) ? "Nenhum cliente cadastrado."
+                                                                : "Nenhum contrato ativo vence no período.");
+    }
+
+    /**
+     * custo acumulado de cada equipamento e a proporcao sobre o valor dele
+     */
+    private Relatorio custosPorEquipamento() {
+        Colecao custos = armazenamento.colecao(CustosManutencao.COLECAO);
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : custos.aggregate(CustosManutencao.pipelinePorEquipamento(), tempoMaximoMs)) {
+            double custo = doc.getDouble("custo");
+            Object valor = doc.get("valor");
+            linhas.add(new String[] {
+                doc.getString("modelo"),
+                Integer.toString(doc.getInteger("quantidade")),
+                Tabela.formatarMoeda(custo),
+                valor instanceof Number n ? Tabela.formatarMoeda(n.doubleValue()) : "-",
+                valor instanceof Number n && n.doubleValue() > 0 ? String.format("%.1f%%", 100 * custo / n.doubleValue()) : "-"
+            });
+        }
+        return new Relatorio(TITULO_CUSTOS_POR_EQUIPAMENTO, new Tabela.Coluna[] {
+            Tabela.coluna("Equipamento", 25), Tabela.numero("Manutenções", 11), Tabela.numero("Custo", 12),
+            Tabela.numero("Valor", 12), Tabela.numero("Custo/Valor", 11)
+        }, linhas, mensagemCustos("Nenhum custo de manutenção registrado."));
+    }
+
+    private Relatorio custosPorMes(int meses) {
+        Colecao custos = armazenamento.colecao(CustosManutencao.COLECAO);
+        String de = CustosManutencao.mes(YearMonth.now().minusMonths(meses - 1L));
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : custos.aggregate(CustosManutencao.pipelinePorMes(de), tempoMaximoMs)) {
+            double custo = doc.getDouble("custo");
+            int quantidade = doc.getInteger("quantidade");
+            linhas.add(new String[] {
+                doc.getString("_id"),
+                Integer.toString(quantidade),
+                Tabela.formatarMoeda(custo),
+                Tabela.formatarMoeda(custo / quantidade)
+            });
+        }
+        return new Relatorio(TITULO_CUSTOS_POR_MES + " (" + meses + " meses)", new Tabela.Coluna[] {
+            Tabela.coluna("Mês", 7), Tabela.numero("Manutenções", 11), Tabela.numero("Custo", 12), Tabela.numero("Média", 12)
+        }, linhas, mensagemCustos("Nenhum custo de manutenção no período."));
+    }
+
+    private Relatorio custosPorTecnico() {
+        Colecao custos = armazenamento.colecao(CustosManutencao.COLECAO);
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document doc : custos.aggregate(CustosManutencao.pipelinePorTecnico(), tempoMaximoMs)) {
+            double custo = doc.getDouble("custo");
+            int quantidade = doc.getInteger("quantidade");
+            linhas.add(new String[] {
+                doc.getString("nome"),
+                Integer.toString(quantidade),
+                Tabela.formatarMoeda(custo),
+                Tabela.formatarMoeda(custo / quantidade)
+            });
+        }
+        return new Relatorio(TITULO_CUSTOS_POR_TECNICO, new Tabela.Coluna[] {
+            Tabela.coluna("Técnico", 25), Tabela.numero("Manutenções", 11), Tabela.numero("Custo", 12), Tabela.numero("Média", 12)
+        }, linhas, mensagemCustos("Nenhum custo de manutenção registrado."));
+    }
+
+    /**
+     * ultimos 12 meses com o custo do mes e o acumulado dos 12 meses terminados nele;
+     * le 23 meses de agregados para o acumulado do primeiro mes da janela
+     */
+    private Relatorio tendenciaCustos() {
+        Colecao custos = armazenamento.colecao(CustosManutencao.COLECAO);
+        YearMonth atual = YearMonth.now();
+
+        Map<String, Double> porMes = new HashMap<>();
+        for (Document doc : custos.aggregate(CustosManutencao.pipelinePorMes(CustosManutencao.mes(atual.minusMonths(22))),
+                                             tempoMaximoMs)) {
+            porMes.put(doc.getString("_id"), doc.getDouble("custo"));
+        }
+
+        List<String[]> linhas = new ArrayList<>();
+        if (!porMes.isEmpty()) {
+            double acumulado = 0;
+            for (int i = 22; i >= 12; i--) {
+                acumulado += porMes.getOrDefault(CustosManutencao.mes(atual.minusMonths(i)), 0.0);
+            }
+            for (int i = 11; i >= 0; i--) {
+                String mes = CustosManutencao.mes(atual.minusMonths(i));
+                double custo = porMes.getOrDefault(mes, 0.0);
+                acumulado += custo;
+                linhas.add(new String[] {
+                    mes,
+                    Tabela.formatarMoeda(custo),
+                    Tabela.formatarMoeda(acumulado),
+                    Tabela.formatarMoeda(acumulado / 12)
+                });
+                acumulado -= porMes.getOrDefault(CustosManutencao.mes(atual.minusMonths(i + 11L)), 0.0);
+            }
+        }
+        return new Relatorio(TITULO_TENDENCIA_CUSTOS, new Tabela.Coluna[] {
+            Tabela.coluna("Mês", 7), Tabela.numero("Custo", 12), Tabela.numero("Acumulado 12m", 13),
+            Tabela.numero("Média mensal 12m", 16)
+        }, linhas, mensagemCustos("Nenhum custo de manutenção nos últimos 23 meses."));
+    }
+
+    /**
+     * por coorte, a linha de todos os planos e depois uma por plano, com o percentual
+     * de clientes ainda ativos no fim de cada mes depois da adesao
+     */
+    private Relatorio retencao(int meses) {
+        List<RetencaoCoortes.Curva> curvas = coortes.curvas(YearMonth.now().minusMonths(meses - 1L));
+        Map<Object, String> nomes = new HashMap<>();
+        for (Document plano : armazenamento.colecao("planos").find()) {
+            nomes.put(plano.get("_id"), plano.getString("nome"));
+        }
+
+        Map<YearMonth, List<RetencaoCoortes.Curva>> porCoorte = new TreeMap<>();
+        for (RetencaoCoortes.Curva curva : curvas) {
+            porCoorte.computeIfAbsent(curva.coorte(), c -> new ArrayList<>()).add(curva);
+        }
+        List<String[]> linhas = new ArrayList<>();
+        porCoorte.forEach((coorte, doMes) -> {
+            doMes.sort(Comparator.comparing((RetencaoCoortes.Curva c) -> nomePlano(nomes, c.idPlano())));
+            linhas.add(linhaRetencao(RetencaoCoortes.total(coorte, doMes), "(todos)"));
+            if (doMes.size() > 1) {
+                for (RetencaoCoortes.Curva curva : doMes) {
+                    linhas.add(linhaRetencao(curva, nomePlano(nomes, curva.idPlano())));
+                }
+            }
+        });
+
+        Tabela.Coluna[] colunas = new Tabela.Coluna[RetencaoCoortes.MESES + 3];
+        colunas[0] = Tabela.coluna("Coorte", 7);
+        colunas[1] = Tabela.coluna("Plano", 15);
+        colunas[2] = Tabela.numero("Clientes", 8);
+        for (int n = 1; n <= RetencaoCoortes.MESES; n++) {
+            colunas[n + 2] = Tabela.numero("M" + n, 4);
+        }
+        return new Relatorio(TITULO_RETENCAO + " (" + meses + " meses)", colunas, linhas,
+            armazenamento.estatisticas().vazia(armazenamento.colecao("clientes")) ? "Nenhum cliente cadastrado."
+                                                                                  : "Nenhuma adesão no período.");
+    }
+
+    /**
+     * beneficios com mais clientes ativos com acesso (linhas) contra os planos com mais
+     * clientes ativos (colunas), com o total de planos e de clientes de cada beneficio
+     */
+    private Relatorio matrizBeneficios() {
+        Map<Object, Integer> clientesPorPlano = new HashMap<>();
+        for (Document doc : armazenamento.colecao("clientes").aggregate(pipelineClientesAtivosPorPlano(), tempoMaximoMs)) {
+            clientesPorPlano.put(doc.get("_id"), doc.getInteger("clientes"));
+        }
+
+        // todos os planos, com 0 para os que nao tem clientes ativos
+        Map<Object, Document> planos = new HashMap<>();
+        for (Document plano : armazenamento.colecao("planos").find().projection(Projections.include("nome"))) {
+            planos.put(plano.get("_id"), new Document("_id", plano.get("_id"))
+                .append("nome", plano.getString("nome"))
+                .append("clientes", clientesPorPlano.getOrDefault(plano.get("_id"), 0)));
+        }
+
+        List<Document> beneficios = new ArrayList<>();
+        for (Document doc : armazenamento.colecao("beneficios").aggregate(pipelinePlanosPorBeneficio(), tempoMaximoMs)) {
+            List<Document> planosDoBeneficio = new ArrayList<>();
+            int clientes = 0;
+            for (Document plano : doc.getList("planos", Document.class)) {
+                Document comClientes = planos.get(plano.get("_id"));
+                if (comClientes != null) {
+                    planosDoBeneficio.add(comClientes);
+                    clientes += comClientes.getInteger("clientes");
+                }
+            }
+            beneficios.add(new Document("beneficio", doc.getString("nome"))
+                .append("clientes", clientes)
+                .append("planos", planosDoBeneficio));
+        }
+        beneficios.sort(Comparator.comparing((Document b) -> b.getInteger("clientes")).reversed()
+            .thenComparing(b -> b.getString("beneficio")));
+
+        List<Document> colunasPlanos = new ArrayList<>(planos.values());
+        colunasPlanos.sort(Comparator.comparing((Document p) -> p.getInteger("clientes")).reversed()
+            .thenComparing(p -> p.getString("nome")));
+        colunasPlanos = colunasPlanos.subList(0, Math.min(MATRIZ_PLANOS, colunasPlanos.size()));
+
+        Tabela.Coluna[] colunas = new Tabela.Coluna[colunasPlanos.size() + 3];
+        colunas[0] = Tabela.coluna("Benefício", 26);
+        colunas[1] = Tabela.numero("Planos", 6);
+        colunas[2] = Tabela.numero("Clientes", 8);
+        for (int i = 0; i < colunasPlanos.size(); i++) {
+            String nome = colunasPlanos.get(i).getString("nome");
+            colunas[i + 3] = Tabela.coluna(nome.length() > 10 ? nome.substring(0, 10) : nome, 3);
+        }
+
+        List<String[]> linhas = new ArrayList<>();
+        for (Document beneficio : beneficios.subList(0, Math.min(MATRIZ_BENEFICIOS, beneficios.size()))) {
+            List<Document> planosDoBeneficio = beneficio.getList("planos", Document.class);
+            String[] linha = new String[colunas.length];
+            linha[0] = beneficio.getString("beneficio");
+            linha[1] = Integer.toString(planosDoBeneficio.size());
+            linha[2] = Integer.toString(beneficio.getInteger("clientes"));
+            for (int i = 0; i < colunasPlanos.size(); i++) {
+                Object idPlano = colunasPlanos.get(i).get("_id");
+                linha[i + 3] = planosDoBeneficio.stream().anyMatch(p -> idPlano.equals(p.get("_id"))) ? "X" : "";
+            }
+            linhas.add(linha);
+        }
+        String titulo = TITULO_MATRIZ_BENEFICIOS + " (clientes ativos; " + linhas.size() + " de " + beneficios.size()
+            + " benefícios, " + colunasPlanos.size() + " de " + planos.size() + " planos)";
+        return new Relatorio(titulo, colunas, linhas, "Nenhum benefício cadastrado.");
+    }
+
+    /**
+     * planos que incluem o beneficio, com os clientes ativos de cada um
+     */
+    private Relatorio planosComBeneficio(Document beneficio) {
+        List<Document> planos = armazenamento.colecao("planos").find(planosComBeneficio(beneficio.get("_id")))
+            .projection(Projections.include("nome", "valor"))
+            .into(new ArrayList<>());
+
+        Map<Object, Integer> clientes = new HashMap<>();
+        if (!planos.isEmpty()) {
+            List<Object> ids = planos.stream().map(p -> p.get("_id")).toList();
+            for (Document doc : armazenamento.colecao("clientes").aggregate(pipelineClientesAtivosDosPlanos(ids), tempoMaximoMs)) {
+                clientes.put(doc.get("_id"), doc.getInteger("clientes"));
+            }
+        }
+        planos.sort(Comparator.comparing((Document p) -> clientes.getOrDefault(p.get("_id"), 0)).reversed());
+
+        List<String[]> linhas = new ArrayList<>();
+        int total = 0;
+        for (Document plano : planos) {
+            int doPlano = clientes.getOrDefault(plano.get("_id"), 0);
+            total += doPlano;
+            linhas.add(new String[] {
+                plano.getString("nome"),
+                plano.get("valor") instanceof Number n ? Tabela.formatarMoeda(n.doubleValue()) : "-",
+                Integer.toString(doPlano)
+            });
+        }
+        return new Relatorio(TITULO_PLANOS_COM_BENEFICIO + " " + beneficio.getString("nome").toUpperCase()
+            + " (" + planos.size() + " plano(s), " + total + " cliente(s) ativo(s) com acesso)", new Tabela.Coluna[] {
+            Tabela.coluna("Plano", 20), Tabela.numero("Valor", 12), Tabela.numero("Clientes ativos", 15)
+        }, linhas, "Nenhum plano inclui o benefício.");
+    }
+
+    /**
+     * pede parte do nome e escolhe entre os beneficios encontrados
+     */
+    private Document selecionarBeneficio() {
+        System.out.print("Benefício (parte do nome): ");
+        String busca = scanner.nextLine().trim();
+        List<Document> encontrados = armazenamento.colecao("beneficios")
+            .find(Filters.regex("nome", ".*" + Pattern.quote(busca) + ".*", "i"))
+            .projection(Projections.include("nome"))
+            .sort(Sorts.ascending("nome"))
+            .limit(20)
+            .into(new ArrayList<>());
+        if (encontrados.isEmpty()) {
+            System.out.println("Nenhum benefício encontrado.");
+            return null;
+        }
+        if (encontrados.size() == 1) {
+            return encontrados.get(0);
+        }
+        for (int i = 0; i < encontrados.size(); i++) {
+            System.out.println((i + 1) + ". " + encontrados.get(i).getString("nome"));
+        }
+        System.out.print("Selecione o benefício (1-" + encontrados.size() + "): ");
+        try {
+            int escolha = Integer.parseInt(scanner.nextLine().trim());
+            if (escolha >= 1 && escolha <= encontrados.size()) {
+                return encontrados.get(escolha - 1);
+            }
+        } catch (NumberFormatException e) {
+            // cai na mensagem abaixo
+        }
+        System.out.println("Erro: Seleção inválida!");
+        return null;
+    }
+
+    private static String nomePlano(Map<Object, String> nomes, Object idPlano) {
+        return idPlano == null ? "Sem plano" : nomes.getOrDefault(idPlano, "?");
+    }
+
+    private static String[] linhaRetencao(RetencaoCoortes.Curva curva, String plano) {
+        String[] linha = new String[RetencaoCoortes.MESES + 3];
+        linha[0] = CustosManutencao.mes(curva.coorte());
+        linha[1] = plano;
+        linha[2] = Integer.toString(curva.clientes());
+        for (int n = 1; n <= RetencaoCoortes.MESES; n++) {
+            linha[n + 2] = n < curva.retidos().length
+                ? Math.round(100.0 * curva.retidos()[n] / curva.clientes()) + "%" : "";
+        }
+        return linha;
+    }
+
+    private String mensagemCustos(String semResultado) {
+        return armazenamento.estatisticas().vazia(armazenamento.colecao("manutencoes")) ? "Nenhuma manutenção cadastrada."
+                                                                                       : semResultado;
+    }
+
+    private String mensagemCheckins(Colecao checkins, String semResultado) {
+        return armazenamento.estatisticas().vazia(checkins) ? "Nenhum check-in registrado." : semResultado;
+    }
+
+    /**
+     * meia-noite local de (hoje - dias + 1), para o periodo cobrir dias inteiros
+     */
+    private static Date inicioPeriodo(int dias) {
+        return Date.from(LocalDate.now().minusDays(dias - 1L).atStartOfDay(TimeZone.getDefault().toZoneId()).toInstant());
+    }
+
+    // pipelines dos relatorios, expostos para reuso fora do menu (benchmarks)
+
+    /**
+     * planos com a quantidade de clientes vinculados (colecao: planos)
+     */
+    static List<Document> pipelineClientesPorPlano() {
+        return Arrays.asList(
+            new Document("$lookup", new Document()
+                .append("from", "clientes")
+                .append("localField", "_id")
+                .append("foreignField", "id_plano")
+                .append("as", "clientes")),
+            new Document("$project", new Document()
+                .append("plano", "$nome")
+                .append("quantidade", new Document("$size", "$clientes")))
+        );
+    }
+
+    /**
+     * manutencoes pendentes com o modelo do equipamento, da data prevista mais antiga
+     * para a mais recente (colecao: manutencoes)
+     */
+    static List<Document> pipelineManutencoesPendentes() {
+        return Arrays.asList(
             new Document("$match", new Document("status", 0)),
+            new Document("$sort", new Document("data_prevista", 1)),
             new Document("$lookup", new Document()
                 .append("from", "equipamentos")
                 .append("localField", "id_equipamento")
@@ -106,40 +977,14 @@ public class Relatorios {
                 .append("modelo", "$equipamento.modelo")
                 .append("data_prevista", "$data_prevista")
                 .append("custo", "$custo"))
-        ));
-        
-        System.out.println("\n--- MANUTENÇÕES PENDENTES ---");
-        boolean encontrouPendentes = false;
-        for (Document doc : result) {
-            encontrouPendentes = true;
-            System.out.printf("Equipamento: %s | Data Prevista: %s | Custo: R$%.2f\n",
-                doc.getString("modelo"),
-                doc.getDate("data_prevista"),
-                doc.getDouble("custo"));
-        }
-        
-        if (!encontrouPendentes) {
-            System.out.println("Nenhuma manutenção pendente encontrada.");
-        }
+        );
     }
-    
-    private void funcionariosAtivosPorCargo() {
-        MongoCollection<Document> cargos = database.getCollection("cargos");
-        MongoCollection<Document> funcionarios = database.getCollection("funcionarios");
-        
-        if (cargos.countDocuments() == 0) {
-            System.out.println("\n--- FUNCIONÁRIOS ATIVOS POR CARGO ---");
-            System.out.println("Nenhum cargo cadastrado.");
-            return;
-        }
-        
-        if (funcionarios.countDocuments() == 0) {
-            System.out.println("\n--- FUNCIONÁRIOS ATIVOS POR CARGO ---");
-            System.out.println("Nenhum funcionário cadastrado.");
-            return;
-        }
-        
-        AggregateIterable<Document> result = cargos.aggregate(Arrays.asList(
+
+    /**
+     * cargos com a quantidade de funcionarios ativos (colecao: cargos)
+     */
+    static List<Document> pipelineFuncionariosAtivosPorCargo() {
+        return Arrays.asList(
             new Document("$lookup", new Document()
                 .append("from", "funcionarios")
                 .append("localField", "_id")
@@ -156,22 +1001,144 @@ public class Relatorios {
             new Document("$project", new Document()
                 .append("cargo", "$cargo")
                 .append("quantidade_ativos", new Document("$size", "$funcionarios_ativos")))
-        ));
-        
-        System.out.println("\n--- FUNCIONÁRIOS ATIVOS POR CARGO ---");
-        boolean encontrouAtivos = false;
-        for (Document doc : result) {
-            int quantidade = doc.getInteger("quantidade_ativos");
-            if (quantidade > 0) {
-                encontrouAtivos = true;
-                System.out.printf("Cargo: %s | Funcionários Ativos: %d\n",
-                    doc.getString("cargo"),
-                    quantidade);
-            }
-        }
-        
-        if (!encontrouAtivos) {
-            System.out.println("Nenhum funcionário ativo encontrado nos cargos existentes.");
-        }
+        );
+    }
+
+    /**
+     * clientes distintos e entradas por catraca desde a data (colecao: checkins)
+     */
+    static List<Document> pipelineOcupacaoAtual(Date desde) {
+        return Arrays.asList(
+            new Document("$match", new Document("data_hora", new Document("$gte", desde))),
+            new Document("$group", new Document()
+                .append("_id", new Document("catraca", "$catraca").append("cliente", "$meta.id_cliente"))
+                .append("entradas", new Document("$sum", 1))),
+            new Document("$group", new Document()
+                .append("_id", "$_id.catraca")
+                .append("clientes", new Document("$sum", 1))
+                .append("entradas", new Document("$sum", "$entradas"))),
+            new Document("$project", new Document()
+                .append("catraca", "$_id")
+                .append("clientes", "$clientes")
+                .append("entradas", "$entradas")),
+            new Document("$sort", new Document("catraca", 1))
+        );
+    }
+
+    /**
+     * entradas por hora do dia (0-23) desde a data, com o total e a hora mais cheia de
+     * cada faixa; primeiro agrupa por hora do calendario (ano, mes, dia e hora no fuso
+     * local), depois pela hora do dia (colecao: checkins)
+     */
+    static List<Document> pipelineEntradasPorHora(Date desde) {
+        return Arrays.asList(
+            new Document("$match", new Document("data_hora", new Document("$gte", desde))),
+            new Document("$group", new Document()
+                .append("_id", new Document()
+                    .append("ano", new Document("$year", new Document("date", "$data_hora").append("timezone", FUSO)))
+                    .append("mes", new Document("$month", new Document("date", "$data_hora").append("timezone", FUSO)))
+                    .append("dia", new Document("$dayOfMonth", new Document("date", "$data_hora").append("timezone", FUSO)))
+                    .append("hora", new Document("$hour", new Document("date", "$data_hora").append("timezone", FUSO))))
+                .append("entradas", new Document("$sum", 1))),
+            new Document("$group", new Document()
+                .append("_id", "$_id.hora")
+                .append("entradas", new Document("$sum", "$entradas"))
+                .append("pico", new Document("$max", "$entradas"))),
+            new Document("$sort", new Document("_id", 1))
+        );
+    }
+
+    /**
+     * entradas por dia da semana ISO (1 = segunda) e hora desde a data (colecao: checkins)
+     */
+    static List<Document> pipelineMapaDeCalor(Date desde) {
+        return Arrays.asList(
+            new Document("$match", new Document("data_hora", new Document("$gte", desde))),
+            new Document("$group", new Document()
+                .append("_id", new Document()
+                    .append("dia", new Document("$isoDayOfWeek", new Document("date", "$data_hora").append("timezone", FUSO)))
+                    .append("hora", new Document("$hour", new Document("date", "$data_hora").append("timezone", FUSO))))
+                .append("entradas", new Document("$sum", 1)))
+        );
+    }
+
+    /**
+     * clientes distintos e entradas por plano desde a data; o plano vem do meta do
+     * check-in, entao so o resultado (um documento por plano) passa pelo $lookup
+     * (colecao: checkins)
+     */
+    static List<Document> pipelineUsoPorPlano(Date desde) {
+        return Arrays.asList(
+            new Document("$match", new Document("data_hora", new Document("$gte", desde))),
+            new Document("$group", new Document()
+                .append("_id", new Document("plano", "$meta.id_plano").append("cliente", "$meta.id_cliente"))
+                .append("entradas", new Document("$sum", 1))),
+            new Document("$group", new Document()
+                .append("_id", "$_id.plano")
+                .append("clientes", new Document("$sum", 1))
+                .append("entradas", new Document("$sum", "$entradas"))),
+            new Document("$lookup", new Document()
+                .append("from", "planos")
+                .append("localField", "_id")
+                .append("foreignField", "_id")
+                .append("as", "plano")),
+            new Document("$project", new Document()
+                .append("plano", new Document("$ifNull", Arrays.asList(
+                    new Document("$arrayElemAt", Arrays.asList("$plano.nome", 0)), "(plano excluído)")))
+                .append("clientes", "$clientes")
+                .append("entradas", "$entradas")),
+            new Document("$sort", new Document("entradas", -1))
+        );
+    }
+
+    /**
+     * cada beneficio com os planos que o incluem ({_id, nome}); beneficio sem plano
+     * vem com a lista vazia (colecao: beneficios)
+     */
+    static List<Document> pipelinePlanosPorBeneficio() {
+        return Arrays.asList(
+            new Document("$lookup", new Document()
+                .append("from", "planos")
+                .append("localField", "_id")
+                .append("foreignField", "beneficios")
+                .append("as", "planos")),
+            new Document("$project", new Document()
+                .append("nome", 1)
+                .append("planos", new Document("$map", new Document()
+                    .append("input", "$planos")
+                    .append("as", "p")
+                    .append("in", new Document("_id", "$$p._id").append("nome", "$$p.nome")))))
+        );
+    }
+
+    /**
+     * clientes ativos por plano; planos sem clientes ativos nao aparecem (colecao: clientes)
+     */
+    static List<Document> pipelineClientesAtivosPorPlano() {
+        return Arrays.asList(
+            new Document("$match", new Document("status", 1).append("id_plano", new Document("$ne", null))),
+            new Document("$group", new Document()
+                .append("_id", "$id_plano")
+                .append("clientes", new Document("$sum", 1)))
+        );
+    }
+
+    /**
+     * planos que incluem o beneficio (indice multikey de beneficios)
+     */
+    static Document planosComBeneficio(Object idBeneficio) {
+        return new Document("beneficios", idBeneficio);
+    }
+
+    /**
+     * clientes ativos de cada um dos planos (colecao: clientes)
+     */
+    static List<Document> pipelineClientesAtivosDosPlanos(List<Object> idsPlanos) {
+        return Arrays.asList(
+            new Document("$match", new Document("status", 1).append("id_plano", new Document("$in", idsPlanos))),
+            new Document("$group", new Document()
+                .append("_id", "$id_plano")
+                .append("clientes", new Document("$sum", 1)))
+        );
     }
-}
\ No newline at end of file
+}
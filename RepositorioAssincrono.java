@@ -0,0 +1,142 @@
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * variante assincrona do acesso a dados, para API e cargas em lote: cada operacao
+ * da Colecao tem um metodo que devolve CompletableFuture, e listagens podem ser
+ * consumidas como Flow.Publisher com contrapressao (PublicadorCursor).
+ *
+ * o driver do projeto e o sincrono, entao as operacoes rodam em um pool proprio e
+ * limitado (-Dacademia.async.threads, padrao 32, abaixo das 100 conexoes do pool do
+ * driver). o ganho vem de disparar leituras independentes em paralelo em vez de
+ * esperar uma de cada vez; funciona igual sobre o armazenamento em memoria.
+ */
+public class RepositorioAssincrono implements AutoCloseable {
+    private final Armazenamento armazenamento;
+    private final ExecutorService executor;
+
+    public RepositorioAssincrono(Armazenamento armazenamento) {
+        this(armazenamento, Integer.getInteger("academia.async.threads", 32));
+    }
+
+    public RepositorioAssincrono(Armazenamento armazenamento, int threads) {
+        this.armazenamento = armazenamento;
+        AtomicInteger contador = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), tarefa -> {
+                Thread thread = new Thread(tarefa, "academia-async-" + contador.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public CompletableFuture<Document> buscarPorId(String colecao, Object id) {
+        return buscarPrimeiro(colecao, Filters.eq("_id", id));
+    }
+
+    public CompletableFuture<Document> buscarPrimeiro(String colecao, Bson filtro) {
+        return CompletableFuture.supplyAsync(() -> armazenamento.colecao(colecao).find(filtro).first(), executor);
+    }
+
+    public CompletableFuture<List<Document>> buscar(String colecao, Bson filtro) {
+        return CompletableFuture.supplyAsync(
+            () -> armazenamento.colecao(colecao).find(filtro).into(new ArrayList<>()), executor);
+    }
+
+    public CompletableFuture<List<Document>> agregar(String colecao, List<? extends Bson> pipeline) {
+        return CompletableFuture.supplyAsync(
+            () -> armazenamento.colecao(colecao).aggregate(pipeline).into(new ArrayList<>()), executor);
+    }
+
+    public CompletableFuture<Long> contar(String colecao, Bson filtro) {
+        return CompletableFuture.supplyAsync(() -> armazenamento.colecao(colecao).countDocuments(filtro), executor);
+    }
+
+    /**
+     * insere e devolve o proprio documento, ja com o _id
+     */
+    public CompletableFuture<Document> inserir(String colecao, Document documento) {
+        return CompletableFuture.supplyAsync(() -> {
+            armazenamento.colecao(colecao).insertOne(documento);
+            return documento;
+        }, executor);
+    }
+
+    public CompletableFuture<UpdateResult> atualizar(String colecao, Bson filtro, Bson atualizacao) {
+        return CompletableFuture.supplyAsync(
+            () -> armazenamento.colecao(colecao).updateOne(filtro, atualizacao), executor);
+    }
+
+    public CompletableFuture<DeleteResult> excluir(String colecao, Bson filtro) {
+        return CompletableFuture.supplyAsync(() -> armazenamento.colecao(colecao).deleteOne(filtro), executor);
+    }
+
+    /**
+     * documentos do filtro sob demanda; o lote do cursor acompanha a demanda tipica
+     */
+    public Flow.Publisher<Document> transmitir(String colecao, Bson filtro, int lote) {
+        return new PublicadorCursor(() -> armazenamento.colecao(colecao).find(filtro).batchSize(lote), executor);
+    }
+
+    public Flow.Publisher<Document> transmitirAgregacao(String colecao, List<? extends Bson> pipeline) {
+        return new PublicadorCursor(() -> armazenamento.colecao(colecao).aggregate(pipeline), executor);
+    }
+
+    /**
+     * resolve telefone e plano de uma pagina de clientes com todas as leituras em voo
+     * ao mesmo tempo (uma por _id distinto), em vez de duas consultas em sequencia por
+     * cliente como na listagem sincrona. devolve copias com "telefone" e "plano" embutidos.
+     * clientes ja migrados (MigracaoTelefones) trazem o telefone e nao geram leitura.
+     */
+    public CompletableFuture<List<Document>> detalharClientes(List<Document> clientes) {
+        Map<Object, CompletableFuture<Document>> telefones = new HashMap<>();
+        Map<Object, CompletableFuture<Document>> planos = new HashMap<>();
+        for (Document cliente : clientes) {
+            Object idTelefone = cliente.get("id_telefone");
+            if (idTelefone != null && MigracaoTelefones.numeroEmbutido(cliente) == null) {
+                telefones.computeIfAbsent(idTelefone, id -> buscarPorId("telefones", id));
+            }
+            Object idPlano = cliente.get("id_plano");
+            if (idPlano != null) {
+                planos.computeIfAbsent(idPlano, id -> buscarPorId("planos", id));
+            }
+        }
+
+        List<CompletableFuture<Document>> todas = new ArrayList<>(telefones.values());
+        todas.addAll(planos.values());
+        return CompletableFuture.allOf(todas.toArray(new CompletableFuture<?>[0])).thenApply(nada -> {
+            List<Document> detalhados = new ArrayList<>(clientes.size());
+            for (Document cliente : clientes) {
+                CompletableFuture<Document> telefone = telefones.get(cliente.get("id_telefone"));
+                CompletableFuture<Document> plano = planos.get(cliente.get("id_plano"));
+                Object embutido = cliente.get("telefone");
+                detalhados.add(new Document(cliente)
+                    .append("telefone", embutido instanceof Document ? embutido : telefone != null ? telefone.join() : null)
+                    .append("plano", plano != null ? plano.join() : null));
+            }
+            return detalhados;
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
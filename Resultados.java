@@ -0,0 +1,41 @@
+import org.bson.Document;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * resultado de uma consulta ou pipeline em qualquer armazenamento.
+ * a execucao so acontece ao iterar, em first() ou em into().
+ */
+public interface Resultados extends Iterable<Document> {
+
+    /**
+     * cursor sobre os documentos; feche quando nao for ate o fim
+     */
+    interface Cursor extends Iterator<Document>, Closeable {
+        @Override
+        void close();
+    }
+
+    @Override
+    Cursor iterator();
+
+    /**
+     * primeiro documento do resultado, ou null se vazio
+     */
+    default Document first() {
+        try (Cursor cursor = iterator()) {
+            return cursor.hasNext() ? cursor.next() : null;
+        }
+    }
+
+    default <A extends Collection<? super Document>> A into(A destino) {
+        try (Cursor cursor = iterator()) {
+            while (cursor.hasNext()) {
+                destino.add(cursor.next());
+            }
+        }
+        return destino;
+    }
+}
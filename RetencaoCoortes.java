@@ -0,0 +1,198 @@
+import org.bson.Document;
+
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * retencao por coorte: dos clientes que aderiram no mes X (data_adesao), quantos
+ * continuam ativos N meses depois, por plano. um cliente deixa a coorte no mes de
+ * data_inativacao; inativo sem a data conta como saida no proprio mes de adesao.
+ * clientes_arquivo entra na conta, senao os cancelados antigos sumiriam das coortes.
+ * coortes depois do mes corrente (data_adesao no futuro) ficam de fora.
+ *
+ * um unico $group por (coorte, plano, mes de saida) faz o trabalho no servidor; o
+ * resultado tem no maximo coortes x planos x meses grupos, e as curvas sao montadas
+ * aqui. os grupos se dividem em duas partes:
+ *
+ * - fechados: inativados antes do mes corrente. nao mudam mais, entao ficam em cache
+ *   por coorte ate a virada do mes ou -Dacademia.coortes.cacheMs (padrao 3600000,
+ *   para pegar reativacoes, que apagam data_inativacao)
+ * - do mes corrente: ativos e inativados neste mes, recontados a cada consulta pelo
+ *   indice {status, data_inativacao}
+ */
+public class RetencaoCoortes {
+    static final int MESES = Integer.getInteger("academia.coortes.meses", 12);
+    private static final long CACHE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("academia.coortes.cacheMs", 3_600_000));
+    private static final ZoneId FUSO = ZoneId.systemDefault();
+
+    private final Armazenamento armazenamento;
+
+    /**
+     * clientes de uma coorte e plano que sairam no mes saida (null: ativos)
+     */
+    record Grupo(YearMonth coorte, Object idPlano, YearMonth saida, int clientes) {
+    }
+
+    /**
+     * curva de uma coorte e plano: retidos[n] e quantos seguiam ativos no fim do mes
+     * coorte + n, ate o mes corrente ou MESES
+     */
+    record Curva(YearMonth coorte, Object idPlano, int clientes, int[] retidos) {
+    }
+
+    private final Map<YearMonth, List<Grupo>> fechados = new TreeMap<>();
+    private YearMonth mesDoCache;
+    private long carregadoEm;
+
+    public RetencaoCoortes(Armazenamento armazenamento) {
+        this.armazenamento = armazenamento;
+    }
+
+    static Date inicio(YearMonth mes) {
+        return Date.from(mes.atDay(1).atStartOfDay(FUSO).toInstant());
+    }
+
+    /**
+     * inativados antes de inicioMes (ou sem data de inativacao)
+     */
+    static Document filtroFechados(Date inicioMes) {
+        return new Document("status", 0).append("$or", List.of(
+            new Document("data_inativacao", new Document("$lt", inicioMes)),
+            new Document("data_inativacao", null)));
+    }
+
+    /**
+     * ativos e inativados a partir de inicioMes
+     */
+    static Document filtroMesCorrente(Date inicioMes) {
+        return new Document("$or", List.of(
+            new Document("status", 1),
+            new Document("status", 0).append("data_inativacao", new Document("$gte", inicioMes))));
+    }
+
+    /**
+     * quantidade de clientes por coorte, plano e mes de saida (null para ativos)
+     * (colecao: clientes, clientes_arquivo)
+     */
+    static List<Document> pipeline(Document filtro) {
+        return List.of(
+            new Document("$match", new Document("$and", List.of(filtro,
+                new Document("data_adesao", new Document("$ne", null))))),
+            new Document("$group", new Document()
+                .append("_id", new Document()
+                    .append("coorte", anoMes("$data_adesao"))
+                    .append("plano", "$id_plano")
+                    .append("saida", new Document("$cond", Arrays.asList(
+                        new Document("$eq", List.of("$status", 1)),
+                        null,
+                        anoMes(new Document("$ifNull", List.of("$data_inativacao", "$data_adesao")))))))
+                .append("clientes", new Document("$sum", 1)))
+        );
+    }
+
+    /**
+     * {ano, mes} da data no fuso local; $year e $month com timezone existem desde o
+     * 3.6, ao contrario de $dateTrunc (5.0)
+     */
+    private static Document anoMes(Object data) {
+        String fuso = FUSO.getId();
+        return new Document()
+            .append("ano", new Document("$year", new Document("date", data).append("timezone", fuso)))
+            .append("mes", new Document("$month", new Document("date", data).append("timezone", fuso)));
+    }
+
+    /**
+     * curvas das coortes a partir de "de", em ordem de coorte
+     */
+    public synchronized List<Curva> curvas(YearMonth de) {
+        YearMonth atual = YearMonth.now(FUSO);
+        Date inicioMes = inicio(atual);
+        if (!atual.equals(mesDoCache) || System.nanoTime() - carregadoEm > CACHE_NANOS) {
+            fechados.clear();
+            for (Grupo grupo : grupos(filtroFechados(inicioMes))) {
+                fechados.computeIfAbsent(grupo.coorte(), c -> new ArrayList<>()).add(grupo);
+            }
+            mesDoCache = atual;
+            carregadoEm = System.nanoTime();
+        }
+
+        Map<YearMonth, List<Grupo>> porCoorte = new TreeMap<>();
+        fechados.forEach((coorte, grupos) -> {
+            if (!coorte.isBefore(de)) {
+                porCoorte.computeIfAbsent(coorte, c -> new ArrayList<>()).addAll(grupos);
+            }
+        });
+        for (Grupo grupo : grupos(filtroMesCorrente(inicioMes))) {
+            if (!grupo.coorte().isBefore(de)) {
+                porCoorte.computeIfAbsent(grupo.coorte(), c -> new ArrayList<>()).add(grupo);
+            }
+        }
+
+        List<Curva> curvas = new ArrayList<>();
+        porCoorte.forEach((coorte, grupos) -> {
+            // data_adesao no futuro (digitada errada ou agendada) ainda nao tem curva
+            if (coorte.isAfter(atual)) {
+                return;
+            }
+            int meses = (int) Math.min(MESES, ChronoUnit.MONTHS.between(coorte, atual));
+            Map<Object, int[]> porPlano = new HashMap<>();
+            Map<Object, Integer> clientes = new HashMap<>();
+            for (Grupo grupo : grupos) {
+                clientes.merge(grupo.idPlano(), grupo.clientes(), Integer::sum);
+                int[] retidos = porPlano.computeIfAbsent(grupo.idPlano(), p -> new int[meses + 1]);
+                // a saida no mes coorte + n tira o cliente de retidos[n] em diante
+                int saiu = grupo.saida() == null ? meses + 1
+                    : (int) Math.max(0, ChronoUnit.MONTHS.between(coorte, grupo.saida()));
+                for (int n = 0; n < Math.min(saiu, meses + 1); n++) {
+                    retidos[n] += grupo.clientes();
+                }
+            }
+            porPlano.forEach((plano, retidos) -> curvas.add(new Curva(coorte, plano, clientes.get(plano), retidos)));
+        });
+        return curvas;
+    }
+
+    /**
+     * soma as curvas de uma coorte (todos os planos)
+     */
+    static Curva total(YearMonth coorte, List<Curva> curvas) {
+        int clientes = 0;
+        int[] retidos = null;
+        for (Curva curva : curvas) {
+            clientes += curva.clientes();
+            if (retidos == null) {
+                retidos = new int[curva.retidos().length];
+            }
+            for (int n = 0; n < retidos.length; n++) {
+                retidos[n] += curva.retidos()[n];
+            }
+        }
+        return new Curva(coorte, null, clientes, retidos != null ? retidos : new int[0]);
+    }
+
+    private List<Grupo> grupos(Document filtro) {
+        List<Grupo> grupos = new ArrayList<>();
+        for (String colecao : List.of("clientes", "clientes" + Arquivamento.SUFIXO)) {
+            for (Document doc : armazenamento.colecao(colecao).aggregate(pipeline(filtro))) {
+                Document chave = doc.get("_id", Document.class);
+                Document saida = chave.get("saida", Document.class);
+                grupos.add(new Grupo(mes(chave.get("coorte", Document.class)), chave.get("plano"),
+                    saida != null ? mes(saida) : null, doc.getInteger("clientes")));
+            }
+        }
+        return grupos;
+    }
+
+    private static YearMonth mes(Document anoMes) {
+        return YearMonth.of(((Number) anoMes.get("ano")).intValue(), ((Number) anoMes.get("mes")).intValue());
+    }
+}
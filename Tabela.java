@@ -0,0 +1,232 @@
+import java.io.PrintStream;
+import java.text.DecimalFormatSymbols;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * renderizacao de listagens em colunas. as linhas sao montadas em um unico
+ * StringBuilder grande e escritas no destino uma pagina por vez
+ * (-Dacademia.saida.pagina linhas, padrao 1000), em vez de um printf sincronizado
+ * por linha. numeros, valores e datas sao escritos direto no buffer, sem
+ * String.format nem SimpleDateFormat por linha.
+ *
+ * uso: cabecalho(), depois para cada linha texto()/inteiro()/moeda()/data() e
+ * fimLinha(), e por fim rodape() ou fechar().
+ */
+public class Tabela {
+    private static final int PAGINA = Integer.getInteger("academia.saida.pagina", 1000);
+    private static final int LIMITE_BUFFER = 64 * 1024;
+    private static final String SEPARADOR = " | ";
+    private static final long MILIS_DIA = 86_400_000L;
+    // TimeZone.getDefault() devolve uma copia a cada chamada
+    private static final TimeZone FUSO = TimeZone.getDefault();
+    private static final char DECIMAL = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+
+    /**
+     * coluna com largura minima; direita alinha numeros e valores
+     */
+    public record Coluna(String titulo, int largura, boolean direita) {
+    }
+
+    public static Coluna coluna(String titulo, int largura) {
+        return new Coluna(titulo, largura, false);
+    }
+
+    public static Coluna numero(String titulo, int largura) {
+        return new Coluna(titulo, largura, true);
+    }
+
+    private final PrintStream destino;
+    private final String titulo;
+    private final Coluna[] colunas;
+    private final StringBuilder buffer = new StringBuilder(LIMITE_BUFFER + 1024);
+    private int coluna;
+    private int inicioCelula;
+    private int linhasPendentes;
+    private long linhas;
+
+    public Tabela(String titulo, Coluna... colunas) {
+        this(System.out, titulo, colunas);
+    }
+
+    public Tabela(PrintStream destino, String titulo, Coluna... colunas) {
+        this.destino = destino;
+        this.titulo = titulo;
+        this.colunas = colunas;
+    }
+
+    /**
+     * titulo da listagem e nomes das colunas
+     */
+    public Tabela cabecalho() {
+        buffer.append("\n--- ").append(titulo).append(" ---\n");
+        int largura = 0;
+        for (Coluna c : colunas) {
+            texto(c.titulo());
+            largura += Math.max(c.largura(), c.titulo().length());
+        }
+        buffer.append('\n');
+        coluna = 0;
+        repetir('-', largura + SEPARADOR.length() * (colunas.length - 1));
+        buffer.append('\n');
+        return this;
+    }
+
+    public Tabela texto(String valor) {
+        abrirCelula();
+        buffer.append(valor != null ? valor : "N/A");
+        return fecharCelula();
+    }
+
+    public Tabela inteiro(long valor) {
+        abrirCelula();
+        buffer.append(valor);
+        return fecharCelula();
+    }
+
+    /**
+     * valor monetario com duas casas, como "R$%.2f"
+     */
+    public Tabela moeda(double valor) {
+        abrirCelula();
+        escreverMoeda(buffer, valor);
+        return fecharCelula();
+    }
+
+    /**
+     * data no fuso local como dd/MM/yyyy; null vira "N/A"
+     */
+    public Tabela data(Date valor) {
+        abrirCelula();
+        if (valor == null) {
+            buffer.append("N/A");
+        } else {
+            escreverData(buffer, valor.getTime());
+        }
+        return fecharCelula();
+    }
+
+    public void fimLinha() {
+        buffer.append('\n');
+        coluna = 0;
+        linhas++;
+        if (++linhasPendentes >= PAGINA || buffer.length() >= LIMITE_BUFFER) {
+            descarregar();
+        }
+    }
+
+    public long getLinhas() {
+        return linhas;
+    }
+
+    /**
+     * linha livre depois da tabela (ex.: "Total: 10 cliente(s)") e descarga final
+     */
+    public void rodape(String texto) {
+        buffer.append(texto).append('\n');
+        fechar();
+    }
+
+    /**
+     * mensagem no lugar das linhas (ex.: "Nenhum cliente cadastrado.") e descarga final
+     */
+    public void vazia(String mensagem) {
+        buffer.append("\n--- ").append(titulo).append(" ---\n");
+        rodape(mensagem);
+    }
+
+    public void fechar() {
+        descarregar();
+    }
+
+    private void descarregar() {
+        if (buffer.length() > 0) {
+            destino.print(buffer);
+            destino.flush();
+            buffer.setLength(0);
+        }
+        linhasPendentes = 0;
+    }
+
+    private void abrirCelula() {
+        if (coluna > 0) {
+            buffer.append(SEPARADOR);
+        }
+        inicioCelula = buffer.length();
+    }
+
+    private Tabela fecharCelula() {
+        Coluna c = coluna < colunas.length ? colunas[coluna] : null;
+        coluna++;
+        // a ultima coluna alinhada a esquerda dispensa preenchimento; valores maiores que a largura saem inteiros
+        if (c == null || (coluna == colunas.length && !c.direita())) {
+            return this;
+        }
+        int largura = Math.max(c.largura(), c.titulo().length());
+        int falta = largura - (buffer.length() - inicioCelula);
+        if (falta > 0) {
+            if (c.direita()) {
+                for (int i = 0; i < falta; i++) {
+                    buffer.insert(inicioCelula, ' ');
+                }
+            } else {
+                repetir(' ', falta);
+            }
+        }
+        return this;
+    }
+
+    private void repetir(char caractere, int vezes) {
+        for (int i = 0; i < vezes; i++) {
+            buffer.append(caractere);
+        }
+    }
+
+    static void escreverMoeda(StringBuilder saida, double valor) {
+        long centavos = Math.round(Math.abs(valor) * 100);
+        if (valor < 0 && centavos > 0) {
+            saida.append('-');
+        }
+        saida.append("R$").append(centavos / 100).append(DECIMAL);
+        long resto = centavos % 100;
+        if (resto < 10) {
+            saida.append('0');
+        }
+        saida.append(resto);
+    }
+
+    /**
+     * dd/MM/yyyy a partir dos milissegundos, com a conversao de dias para data
+     * civil feita na mao (algoritmo de Howard Hinnant) em vez de um formatter
+     */
+    static void escreverData(StringBuilder saida, long milis) {
+        long dias = Math.floorDiv(milis + FUSO.getOffset(milis), MILIS_DIA) + 719_468;
+        long era = Math.floorDiv(dias, 146_097);
+        long doe = dias - era * 146_097;
+        long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long dia = doy - (153 * mp + 2) / 5 + 1;
+        long mes = mp < 10 ? mp + 3 : mp - 9;
+        long ano = yoe + era * 400 + (mes <= 2 ? 1 : 0);
+        if (dia < 10) saida.append('0');
+        saida.append(dia).append('/');
+        if (mes < 10) saida.append('0');
+        saida.append(mes).append('/').append(ano);
+    }
+
+    static String formatarMoeda(double valor) {
+        StringBuilder saida = new StringBuilder(16);
+        escreverMoeda(saida, valor);
+        return saida.toString();
+    }
+
+    static String formatarData(Date valor) {
+        if (valor == null) {
+            return "N/A";
+        }
+        StringBuilder saida = new StringBuilder(10);
+        escreverData(saida, valor.getTime());
+        return saida.toString();
+    }
+}
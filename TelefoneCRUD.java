@@ -1,4 +1,3 @@
-import com.mongodb.client.*;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Updates;
 import org.bson.Document;
@@ -9,11 +8,17 @@ import java.util.List;
 import java.util.Scanner;
 
 public class TelefoneCRUD {
-    private MongoCollection<Document> telefones;
+    private Armazenamento armazenamento;
+    private Colecao telefones;
+    private Colecao clientes;
+    private Estatisticas estatisticas;
     private Scanner scanner;
 
-    public TelefoneCRUD(MongoDatabase database, Scanner scanner) {
-        this.telefones = database.getCollection("telefones");
+    public TelefoneCRUD(Armazenamento armazenamento, Scanner scanner) {
+        this.armazenamento = armazenamento;
+        this.telefones = armazenamento.colecao("telefones");
+        this.clientes = armazenamento.colecao("clientes");
+        this.estatisticas = armazenamento.estatisticas();
         this.scanner = scanner;
     }
 
@@ -24,7 +29,8 @@ public class TelefoneCRUD {
             System.out.println("2. Listar");
             System.out.println("3. Atualizar");
             System.out.println("4. Deletar");
-            System.out.println("5. Voltar");
+            System.out.println("5. Migrar telefones para clientes");
+            System.out.println("6. Voltar");
             System.out.print("Escolha: ");
 
             int opcao = scanner.nextInt();
@@ -32,10 +38,11 @@ public class TelefoneCRUD {
 
             switch (opcao) {
                 case 1 -> cadastrar();
-                case 2 -> listar();
+                case 2 -> Rastreio.executar("telefone.listar", "telefones", this::listar);
                 case 3 -> atualizar();
                 case 4 -> deletar();
-                case 5 -> { return; }
+                case 5 -> migrar();
+                case 6 -> { return; }
                 default -> System.out.println("Opção inválida!");
             }
         }
@@ -51,35 +58,39 @@ public class TelefoneCRUD {
             return;
         }
 
+        Document doc = new Document()
+                .append("numero", numero);
+
         // verifica se o numero ja existe
-        Document telefoneExistente = telefones.find(Filters.eq("numero", numero)).first();
-        if (telefoneExistente != null) {
+        boolean gravado = Rastreio.executar("telefone.cadastrar", "telefones", () -> {
+            if (telefones.find(Filters.eq("numero", numero)).first() != null) {
+                return false;
+            }
+            telefones.insertOne(doc);
+            return true;
+        });
+        if (!gravado) {
             System.out.println("Erro: Este número já está cadastrado!");
             return;
         }
-
-        Document doc = new Document()
-                .append("numero", numero);
-
-        telefones.insertOne(doc);
         System.out.println("Telefone cadastrado com sucesso!");
     }
 
     private void listar() {
-        long total = telefones.countDocuments();
-        if (total == 0) {
+        if (estatisticas.vazia(telefones)) {
             System.out.println("Nenhum telefone cadastrado.");
             return;
         }
+        long total = estatisticas.total(telefones);
 
-        System.out.println("\n--- TELEFONES CADASTRADOS ---");
+        Tabela tabela = new Tabela("TELEFONES CADASTRADOS",
+            Tabela.coluna("ID", 24), Tabela.coluna("Número", 15)).cabecalho();
         for (Document doc : telefones.find()) {
-            System.out.printf("ID: %s | Número: %s\n",
-                doc.getObjectId("_id").toHexString(),
-                doc.getString("numero")
-            );
+            tabela.texto(doc.getObjectId("_id").toHexString())
+                  .texto(doc.getString("numero"))
+                  .fimLinha();
         }
-        System.out.printf("Total: %d telefone(s)\n", total);
+        tabela.rodape("Total: " + total + " telefone(s)");
     }
 
     private void atualizar() {
@@ -95,24 +106,36 @@ public class TelefoneCRUD {
             return;
         }
 
-        // verifica se o novo numero ja existe (exceto para o proprio telefone)
-        Document telefoneExistente = telefones.find(
-            Filters.and(
-                Filters.eq("numero", novoNumero),
-                Filters.ne("numero", numeroAtual)
-            )
-        ).first();
-        
-        if (telefoneExistente != null) {
+        // telefones antes dos clientes e numa transacao: a MigracaoTelefones rele os
+        // numeros depois de embutir e corrige os que mudaram
+        boolean gravado = Rastreio.executar("telefone.atualizar", "telefones", () -> armazenamento.transacao(() -> {
+            // verifica se o novo numero ja existe (exceto para o proprio telefone)
+            Document telefoneExistente = telefones.find(
+                Filters.and(
+                    Filters.eq("numero", novoNumero),
+                    Filters.ne("numero", numeroAtual)
+                )
+            ).first();
+            if (telefoneExistente != null) {
+                return false;
+            }
+
+            telefones.updateOne(
+                Filters.eq("numero", numeroAtual),
+                Updates.set("numero", novoNumero)
+            );
+            // copia embutida nos clientes ja migrados
+            clientes.updateMany(
+                Filters.eq("telefone.numero", numeroAtual),
+                Updates.set("telefone.numero", novoNumero)
+            );
+            return true;
+        }));
+        if (!gravado) {
             System.out.println("Erro: Este número já está cadastrado em outro telefone!");
             return;
         }
 
-        telefones.updateOne(
-            Filters.eq("numero", numeroAtual),
-            Updates.set("numero", novoNumero)
-        );
-
         System.out.println("Telefone atualizado com sucesso!");
     }
 
@@ -125,13 +148,40 @@ public class TelefoneCRUD {
         String confirmacao = scanner.nextLine();
         
         if (confirmacao.equalsIgnoreCase("s")) {
-            telefones.deleteOne(Filters.eq("numero", numero));
+            Rastreio.executar("telefone.deletar", "telefones", () -> {
+                Document telefone = telefones.find(Filters.eq("numero", numero)).first();
+                if (telefone == null) return;
+                telefones.deleteOne(Filters.eq("_id", telefone.get("_id")));
+                // os dois formatos: a copia embutida e a referencia id_telefone
+                clientes.updateMany(
+                    Filters.or(Filters.eq("telefone.numero", numero), Filters.eq("id_telefone", telefone.get("_id"))),
+                    Updates.combine(Updates.unset("telefone"), Updates.unset("id_telefone")));
+            });
             System.out.println("Telefone deletado com sucesso!");
         } else {
             System.out.println("Operação cancelada.");
         }
     }
 
+    /**
+     * embute o telefone nos clientes (MigracaoTelefones); continua de onde parou se
+     * uma execucao anterior foi interrompida
+     */
+    private void migrar() {
+        MigracaoTelefones migracao = new MigracaoTelefones(armazenamento, 500, 0);
+        MigracaoTelefones.Progresso progresso = Rastreio.executar("telefone.migrar", "clientes", migracao::progresso);
+        if (progresso.concluida()) {
+            System.out.print("Migração já concluída (" + progresso.migrados() + " migrados). Executar novamente? (s/n): ");
+            if (!scanner.nextLine().equalsIgnoreCase("s")) {
+                return;
+            }
+            Rastreio.executar("telefone.migrar", "clientes", migracao::reiniciar);
+        }
+        progresso = Rastreio.executar("telefone.migrar", "clientes", migracao::executar);
+        System.out.println("Migração concluída: " + progresso.migrados() + " cliente(s) migrado(s), "
+            + progresso.conflitos() + " conflito(s), " + progresso.semTelefone() + " sem telefone.");
+    }
+
     /**
      * metodo auxiliar para selecionar um telefone pelo numero
      * @param operacao tipo de operacao (atualizar, deletar)
@@ -142,9 +192,9 @@ public class TelefoneCRUD {
         String busca = scanner.nextLine();
 
         // busca por numeros que contenham o texto digitado
-        List<Document> resultados = new ArrayList<>();
-        telefones.find(Filters.regex("numero", ".*" + busca + ".*"))
-                 .into(resultados);
+        List<Document> resultados = Rastreio.executar("telefone.buscar", "telefones",
+            () -> telefones.find(Filters.regex("numero", ".*" + busca + ".*"))
+                           .into(new ArrayList<>()));
 
         if (resultados.isEmpty()) {
             System.out.println("Nenhum telefone encontrado com: " + busca);
@@ -0,0 +1,362 @@
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import jdk.jfr.Recording;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * regressao do armazenamento em memoria: roda casos com o resultado que o servidor
+ * daria (nulos, arrays e comparacao entre tipos nos filtros, ordem entre tipos,
+ * $inc concorrente, upsert e bulkWrite) sobre ColecaoMemoria, com e sem indice no
+ * campo filtrado. falha (codigo de saida 1) se algum caso divergir.
+ *
+ * uso: java -cp ".:lib/*" VerificadorMemoria [--threads 8] [--incrementos 2000]
+ */
+public class VerificadorMemoria {
+
+    private interface Caso {
+        void verificar(Armazenamento armazenamento) throws Exception;
+    }
+
+    public static void main(String[] args) {
+        int threads = 8;
+        int incrementos = 2000;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads"     -> threads = Integer.parseInt(args[++i]);
+                case "--incrementos" -> incrementos = Integer.parseInt(args[++i]);
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        Armazenamento armazenamento = new ArmazenamentoMemoria();
+        int falhas;
+        try {
+            falhas = verificar(armazenamento, threads, incrementos);
+        } finally {
+            armazenamento.fechar();
+        }
+        System.exit(falhas == 0 ? 0 : 1);
+    }
+
+    /**
+     * roda todos os casos, cada um em collections proprias, e retorna quantos falharam
+     */
+    static int verificar(Armazenamento armazenamento, int threads, int incrementos) {
+        Map<String, Caso> casos = new LinkedHashMap<>();
+        casos.put("filtro.nulos", a -> nulos(a.colecao("nulos"), false));
+        casos.put("filtro.nulosIndexados", a -> nulos(a.colecao("nulos_indexados"), true));
+        casos.put("filtro.arrays", a -> arrays(a.colecao("arrays"), false));
+        casos.put("filtro.arraysIndexados", a -> arrays(a.colecao("arrays_indexados"), true));
+        casos.put("filtro.tipos", a -> tipos(a.colecao("tipos"), false));
+        casos.put("filtro.tiposIndexados", a -> tipos(a.colecao("tipos_indexados"), true));
+        casos.put("ordenacao.tipos", a -> ordenacao(a.colecao("ordenacao")));
+        casos.put("inc.tipos", a -> incrementoTipos(a.colecao("inc_tipos")));
+        casos.put("inc.concorrente", a -> incrementoConcorrente(a.colecao("inc_concorrente"), threads, incrementos));
+        casos.put("upsert", a -> upsert(a.colecao("upsert")));
+        casos.put("bulkWrite.ordenado", a -> bulkWriteErros(a.colecao("bulk_ordenado"), true));
+        casos.put("bulkWrite.naoOrdenado", a -> bulkWriteErros(a.colecao("bulk_nao_ordenado"), false));
+        casos.put("bulkWrite.misto", a -> bulkWriteMisto(a.colecao("bulk_misto")));
+        int falhas = 0;
+
+        System.out.printf("%nVerificando %d caso(s) do armazenamento em memória%n", casos.size());
+        for (Map.Entry<String, Caso> caso : casos.entrySet()) {
+            try {
+                caso.getValue().verificar(armazenamento);
+                System.out.printf("  ok     %s%n", caso.getKey());
+            } catch (Exception | AssertionError e) {
+                falhas++;
+                System.out.printf("  FALHOU %s%n", caso.getKey());
+                System.out.println("         - " + e.getMessage());
+            }
+        }
+
+        System.out.printf("%n%d caso(s) verificado(s), %d falha(s)%n", casos.size(), falhas);
+        return falhas;
+    }
+
+    // filtros: o mesmo resultado varrendo a collection ou pelo indice do campo
+
+    private static void nulos(Colecao colecao, boolean indexado) {
+        if (indexado) {
+            colecao.createIndex(Indexes.ascending("v"), new IndexOptions());
+        }
+        colecao.insertMany(List.of(
+            new Document("_id", "nulo").append("v", null),
+            new Document("_id", "ausente"),
+            new Document("_id", "zero").append("v", 0),
+            new Document("_id", "arrayComNulo").append("v", Arrays.asList(null, 1)),
+            new Document("_id", "arrayVazio").append("v", List.of())
+        ));
+        esperar("{v: null}", List.of("nulo", "ausente", "arrayComNulo"), ids(colecao, Filters.eq("v", null)));
+        esperar("{v: {$ne: null}}", List.of("zero", "arrayVazio"), ids(colecao, Filters.ne("v", null)));
+        esperar("{v: {$exists: false}}", List.of("ausente"), ids(colecao, Filters.exists("v", false)));
+        esperar("{v: {$in: [null, 0]}}", List.of("nulo", "ausente", "zero", "arrayComNulo"),
+            ids(colecao, Filters.in("v", Arrays.asList(null, 0))));
+        esperar("{v: {$nin: [null]}}", List.of("zero", "arrayVazio"), ids(colecao, Filters.nin("v", Arrays.asList((Object) null))));
+        esperar("{v: {$gte: null}}", List.of("nulo", "ausente", "arrayComNulo"), ids(colecao, Filters.gte("v", null)));
+        esperar("{v: {$lt: null}}", List.of(), ids(colecao, Filters.lt("v", null)));
+    }
+
+    private static void arrays(Colecao colecao, boolean indexado) {
+        if (indexado) {
+            colecao.createIndex(Indexes.ascending("t"), new IndexOptions());
+        }
+        colecao.insertMany(List.of(
+            new Document("_id", "xy").append("t", List.of("x", "y")),
+            new Document("_id", "x").append("t", "x"),
+            new Document("_id", "y").append("t", List.of("y")),
+            new Document("_id", "numeros").append("t", List.of(1, 7)),
+            new Document("_id", "aninhado").append("t", List.of(new Document("n", 3), new Document("n", 9)))
+        ));
+        esperar("{t: \"x\"}", List.of("xy", "x"), ids(colecao, Filters.eq("t", "x")));
+        esperar("{t: [\"x\", \"y\"]}", List.of("xy"), ids(colecao, Filters.eq("t", List.of("x", "y"))));
+        esperar("{t: [\"y\", \"x\"]}", List.of(), ids(colecao, Filters.eq("t", List.of("y", "x"))));
+        esperar("{t: {$size: 1}}", List.of("y"), ids(colecao, Filters.size("t", 1)));
+        esperar("{t: {$all: [\"y\", \"x\"]}}", List.of("xy"), ids(colecao, Filters.all("t", "y", "x")));
+        esperar("{t: {$gt: 5}}", List.of("numeros"), ids(colecao, Filters.gt("t", 5)));
+        esperar("{t: {$gt: 2, $lt: 5}}", List.of("numeros"), ids(colecao, Filters.and(Filters.gt("t", 2), Filters.lt("t", 5))));
+        esperar("{t: {$elemMatch: {$gt: 2, $lt: 5}}}", List.of(),
+            ids(colecao, Filters.elemMatch("t", new Document("$gt", 2).append("$lt", 5))));
+        esperar("{\"t.n\": 9}", List.of("aninhado"), ids(colecao, Filters.eq("t.n", 9)));
+        esperar("{\"t.1\": \"y\"}", List.of("xy"), ids(colecao, Filters.eq("t.1", "y")));
+    }
+
+    private static void tipos(Colecao colecao, boolean indexado) {
+        if (indexado) {
+            colecao.createIndex(Indexes.ascending("v"), new IndexOptions());
+        }
+        colecao.insertMany(List.of(
+            new Document("_id", "int").append("v", 1),
+            new Document("_id", "long").append("v", 2L),
+            new Document("_id", "double").append("v", 2.5),
+            new Document("_id", "texto").append("v", "3"),
+            new Document("_id", "nulo").append("v", null),
+            new Document("_id", "booleano").append("v", true)
+        ));
+        // $gt/$lt so comparam dentro do mesmo tipo; inteiros e double sao o mesmo tipo
+        esperar("{v: {$gt: 1}}", List.of("long", "double"), ids(colecao, Filters.gt("v", 1)));
+        esperar("{v: 2.0}", List.of("long"), ids(colecao, Filters.eq("v", 2.0)));
+        esperar("{v: {$in: [1L, 2]}}", List.of("int", "long"), ids(colecao, Filters.in("v", Arrays.<Object>asList(1L, 2))));
+        esperar("{v: {$lt: \"4\"}}", List.of("texto"), ids(colecao, Filters.lt("v", "4")));
+        esperar("{v: {$gte: false}}", List.of("booleano"), ids(colecao, Filters.gte("v", false)));
+        esperar("{v: \"1\"}", List.of(), ids(colecao, Filters.eq("v", "1")));
+    }
+
+    /**
+     * ordem entre tipos do servidor: null, numeros, texto, documento, ObjectId, booleano, data
+     */
+    private static void ordenacao(Colecao colecao) {
+        colecao.insertMany(List.of(
+            new Document("_id", "data").append("v", new Date(0)),
+            new Document("_id", "texto").append("v", "a"),
+            new Document("_id", "booleano").append("v", false),
+            new Document("_id", "documento").append("v", new Document("x", 1)),
+            new Document("_id", "long").append("v", 3L),
+            new Document("_id", "objectId").append("v", new ObjectId("000000000000000000000000")),
+            new Document("_id", "double").append("v", 2.5),
+            new Document("_id", "nulo").append("v", null),
+            new Document("_id", "int").append("v", 1)
+        ));
+        List<String> esperado = List.of("nulo", "int", "double", "long", "texto", "documento", "objectId", "booleano", "data");
+        esperar("find sort v: 1", esperado, ids(colecao.find().sort(Sorts.ascending("v"))));
+        List<String> inverso = new ArrayList<>(esperado);
+        Collections.reverse(inverso);
+        esperar("find sort v: -1", inverso, ids(colecao.find().sort(Sorts.descending("v"))));
+        esperar("$sort v: 1", esperado,
+            ids(colecao.aggregate(List.of(new Document("$sort", new Document("v", 1))))));
+    }
+
+    // updates
+
+    private static void incrementoTipos(Colecao colecao) {
+        colecao.insertOne(new Document("_id", 1).append("i", 1).append("l", 1).append("d", 1));
+        colecao.updateOne(Filters.eq("_id", 1),
+            Updates.combine(Updates.inc("i", 1), Updates.inc("l", 1L), Updates.inc("d", 0.5), Updates.inc("novo", 2)));
+        Document doc = colecao.find(Filters.eq("_id", 1)).first();
+        esperar("int + int", 2, doc.get("i"));
+        esperar("int + long", 2L, doc.get("l"));
+        esperar("int + double", 1.5, doc.get("d"));
+        esperar("$inc em campo ausente", 2, doc.get("novo"));
+    }
+
+    /**
+     * upserts com $inc na mesma chave (como os agregados de CustosManutencao) de varias
+     * threads: um documento so, sem perder incremento
+     */
+    private static void incrementoConcorrente(Colecao colecao, int threads, int incrementos) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tarefas = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                tarefas.add(executor.submit(() -> {
+                    for (int i = 0; i < incrementos; i++) {
+                        colecao.updateOne(Filters.and(Filters.eq("mes", "2024-01"), Filters.eq("chave", 1)),
+                            Updates.combine(Updates.inc("quantidade", 1), Updates.inc("custo", 0.5)),
+                            new UpdateOptions().upsert(true));
+                    }
+                }));
+            }
+            for (Future<?> tarefa : tarefas) {
+                tarefa.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        esperar("documentos", 1L, colecao.countDocuments());
+        Document doc = colecao.find().first();
+        esperar("quantidade", threads * incrementos, doc.get("quantidade"));
+        esperar("custo", threads * incrementos * 0.5, doc.get("custo"));
+    }
+
+    private static void upsert(Colecao colecao) {
+        Bson filtro = Filters.and(Filters.eq("a", 1), Filters.eq("b", "x"), Filters.gt("c", 5));
+        UpdateResult inserido = colecao.updateOne(filtro,
+            Updates.combine(Updates.set("d", 1), Updates.setOnInsert("e", 2)), new UpdateOptions().upsert(true));
+        esperar("upsert inserido: encontrados", 0L, inserido.getMatchedCount());
+        esperar("upsert inserido: _id gerado", true, inserido.getUpsertedId() != null);
+        Document doc = colecao.find(Filters.eq("a", 1)).projection(new Document("_id", 0)).first();
+        // so as igualdades do filtro entram no documento novo
+        esperar("documento inserido", new Document("a", 1).append("b", "x").append("d", 1).append("e", 2), doc);
+
+        colecao.updateOne(Filters.and(Filters.eq("a", 1), Filters.eq("b", "x")),
+            Updates.combine(Updates.set("d", 2), Updates.setOnInsert("e", 3)), new UpdateOptions().upsert(true));
+        doc = colecao.find(Filters.eq("a", 1)).first();
+        esperar("$setOnInsert sem insercao", 2, doc.get("e"));
+        esperar("$set no existente", 2, doc.get("d"));
+        esperar("documentos depois do segundo upsert", 1L, colecao.countDocuments());
+
+        UpdateResult comId = colecao.updateOne(Filters.eq("_id", "fixo"), Updates.inc("n", 1), new UpdateOptions().upsert(true));
+        esperar("upsert com _id no filtro", new BsonString("fixo"), comId.getUpsertedId());
+        UpdateResult semUpsert = colecao.updateOne(Filters.eq("_id", "outro"), Updates.inc("n", 1));
+        esperar("sem upsert nao insere", 0L, semUpsert.getMatchedCount() + colecao.countDocuments(Filters.eq("_id", "outro")));
+    }
+
+    private static void bulkWriteErros(Colecao colecao, boolean ordenado) {
+        colecao.createIndex(Indexes.ascending("k"), new IndexOptions().unique(true));
+        List<WriteModel<Document>> operacoes = List.of(
+            new InsertOneModel<>(new Document("_id", 1).append("k", 1)),
+            new InsertOneModel<>(new Document("_id", 2).append("k", 1)),
+            new InsertOneModel<>(new Document("_id", 3).append("k", 3)),
+            new UpdateOneModel<>(Filters.eq("_id", 3), Updates.set("k", 1))
+        );
+        try {
+            colecao.bulkWrite(operacoes, ordenado);
+            throw new AssertionError("bulkWrite com chave duplicada nao falhou");
+        } catch (MongoBulkWriteException e) {
+            List<Integer> indices = new ArrayList<>();
+            e.getWriteErrors().forEach(erro -> indices.add(erro.getIndex()));
+            // ordenado para no primeiro erro; nao ordenado segue e reporta todos
+            esperar("indices com erro", ordenado ? List.of(1) : List.of(1, 3), indices);
+            esperar("inseridos", ordenado ? 1 : 2, e.getWriteResult().getInsertedCount());
+        }
+        esperar("documentos gravados", ordenado ? List.of("1") : List.of("1", "3"), ids(colecao, new Document()));
+        if (!ordenado) {
+            esperar("k do documento 3 inalterado", 3, colecao.find(Filters.eq("_id", 3)).first().get("k"));
+        }
+    }
+
+    /**
+     * contagens do BulkWriteResult e documentos somados no evento JFR da operacao: uma
+     * vez cada, como no MonitorComandos com o MongoDB
+     */
+    private static void bulkWriteMisto(Colecao colecao) {
+        colecao.insertMany(List.of(
+            new Document("_id", 1).append("g", "a").append("n", 0),
+            new Document("_id", 2).append("g", "a").append("n", 0),
+            new Document("_id", 3).append("g", "b").append("n", 0)
+        ));
+        List<WriteModel<Document>> operacoes = List.of(
+            new InsertOneModel<>(new Document("_id", 4).append("g", "b")),
+            new UpdateOneModel<>(Filters.eq("_id", 1), Updates.inc("n", 1)),
+            new UpdateManyModel<>(Filters.eq("g", "a"), Updates.inc("n", 1)),
+            new UpdateOneModel<>(Filters.eq("_id", 5), Updates.set("g", "c"), new UpdateOptions().upsert(true)),
+            new UpdateOneModel<>(Filters.eq("_id", 3), Updates.set("n", 0)),
+            new ReplaceOneModel<>(Filters.eq("_id", 2), new Document("g", "d")),
+            new DeleteOneModel<>(Filters.eq("g", "b"))
+        );
+
+        BulkWriteResult[] resultado = new BulkWriteResult[1];
+        long[] documentos = new long[2];
+        try (Recording gravacao = new Recording()) {
+            gravacao.enable("academia.verificador.bulkWrite");
+            gravacao.start();
+            Rastreio.executar("verificador.bulkWrite", colecao.getNome(), () -> {
+                resultado[0] = colecao.bulkWrite(operacoes, true);
+                Rastreio.Contexto contexto = Rastreio.atual();
+                documentos[0] = contexto.documentos;
+                documentos[1] = contexto.comandos;
+            });
+        }
+        BulkWriteResult r = resultado[0];
+        esperar("inseridos", 1, r.getInsertedCount());
+        // updateOne 1, updateMany 2, $set sem mudanca 1, replace 1
+        esperar("encontrados", 5, r.getMatchedCount());
+        esperar("modificados", 4, r.getModifiedCount());
+        esperar("upserts", 1, r.getUpserts().size());
+        esperar("indice do upsert", 3, r.getUpserts().get(0).getIndex());
+        esperar("excluidos", 1, r.getDeletedCount());
+        esperar("documentos no evento", 7L, documentos[0]);
+        esperar("comandos no evento", 1L, documentos[1]);
+        esperar("documentos finais", List.of("1", "2", "4", "5"), ids(colecao, new Document()));
+        esperar("replace mantem o _id", new Document("_id", 2).append("g", "d"), colecao.find(Filters.eq("_id", 2)).first());
+        esperar("n do documento 1", 2, colecao.find(Filters.eq("_id", 1)).first().get("n"));
+    }
+
+    // auxiliares
+
+    private static List<String> ids(Colecao colecao, Bson filtro) {
+        return ids(colecao.find(filtro));
+    }
+
+    private static List<String> ids(Resultados resultados) {
+        List<String> ids = new ArrayList<>();
+        for (Document doc : resultados.into(new ArrayList<>())) {
+            ids.add(String.valueOf(doc.get("_id")));
+        }
+        return ids;
+    }
+
+    private static void esperar(String descricao, Object esperado, Object obtido) {
+        // numeros comparam tambem o tipo: 2 (int) e 2L nao sao o mesmo resultado de $inc
+        boolean iguais = esperado == null ? obtido == null
+            : esperado.equals(obtido) && (!(esperado instanceof Number) || esperado.getClass() == obtido.getClass());
+        if (!iguais) {
+            throw new AssertionError(descricao + ": esperado " + descrever(esperado) + ", obtido " + descrever(obtido));
+        }
+    }
+
+    private static String descrever(Object valor) {
+        return valor == null ? "null" : valor + " (" + valor.getClass().getSimpleName() + ")";
+    }
+}
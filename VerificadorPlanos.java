@@ -0,0 +1,140 @@
+import com.mongodb.MongoClientSettings;
+import com.mongodb.client.MongoDatabase;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.conversions.Bson;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * regressao de planos de consulta: popula um banco separado com o GeradorDados,
+ * cria os indices e roda explain em cada forma de ConsultasRegistradas. falha
+ * (codigo de saida 1) se alguma consulta fizer COLLSCAN nao permitido, ordenacao
+ * em memoria, $lookup sem indice ou examinar documentos demais por resultado.
+ *
+ * uso: java -cp ".:lib/*" VerificadorPlanos [--clientes 20000] [--razao 10]
+ *      [--sem-carga] [--uri mongodb://...] [--banco academia_bd_planos]
+ */
+public class VerificadorPlanos {
+    private static final CodecRegistry REGISTRO = MongoClientSettings.getDefaultCodecRegistry();
+
+    public static void main(String[] args) {
+        String uri = "mongodb://localhost:27017";
+        String banco = "academia_bd_planos";
+        long clientes = 20_000;
+        double razaoMaxima = 10;
+        boolean carregar = true;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--uri"       -> uri = args[++i];
+                case "--banco"     -> banco = args[++i];
+                case "--clientes"  -> clientes = Long.parseLong(args[++i]);
+                case "--razao"     -> razaoMaxima = Double.parseDouble(args[++i]);
+                case "--sem-carga" -> carregar = false;
+                default -> {
+                    System.out.println("Opção desconhecida: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+
+        Conexao conexao = new Conexao(uri, banco);
+        int falhas;
+        try {
+            MongoDatabase database = conexao.getDatabase();
+            if (carregar) {
+                database.drop();
+                new GeradorDados(new ArmazenamentoMongo(database), clientes, 42, Runtime.getRuntime().availableProcessors(), 1000).gerarTudo();
+            }
+            Indices.garantir(new ArmazenamentoMongo(database));
+            falhas = verificar(database, razaoMaxima);
+        } finally {
+            conexao.closeConnection();
+        }
+        System.exit(falhas == 0 ? 0 : 1);
+    }
+
+    /**
+     * roda o explain de todas as consultas registradas e retorna quantas falharam
+     */
+    static int verificar(MongoDatabase database, double razaoMaxima) {
+        List<ConsultasRegistradas.Consulta> consultas = ConsultasRegistradas.todas();
+        int falhas = 0;
+
+        System.out.printf("%nVerificando %d forma(s) de consulta%n", consultas.size());
+        for (ConsultasRegistradas.Consulta consulta : consultas) {
+            List<String> problemas = new ArrayList<>();
+            AnalisePlano analise = null;
+            try {
+                analise = AnalisePlano.de(database.runCommand(explain(consulta)));
+                problemas = problemas(consulta, analise, razaoMaxima);
+            } catch (Exception e) {
+                problemas.add("explain falhou: " + e.getMessage());
+            }
+
+            if (problemas.isEmpty()) {
+                System.out.printf("  ok     %-40s %s%n", consulta.nome(), analise.resumo());
+            } else {
+                falhas++;
+                System.out.printf("  FALHOU %-40s %s%n", consulta.nome(), analise != null ? analise.resumo() : "");
+                for (String problema : problemas) {
+                    System.out.println("         - " + problema);
+                }
+            }
+        }
+
+        System.out.printf("%n%d consulta(s) verificada(s), %d falha(s)%n", consultas.size(), falhas);
+        return falhas;
+    }
+
+    static List<String> problemas(ConsultasRegistradas.Consulta consulta, AnalisePlano analise, double razaoMaxima) {
+        List<String> problemas = new ArrayList<>();
+        if (!consulta.varreduraPermitida()) {
+            if (analise.varreduraCompleta()) {
+                problemas.add("COLLSCAN em " + consulta.colecao());
+            }
+            if (analise.razaoExaminados() > razaoMaxima) {
+                problemas.add(String.format("%.1f documentos examinados por retornado (máximo %.1f)",
+                    analise.razaoExaminados(), razaoMaxima));
+            }
+        }
+        if (analise.ordenacaoEmMemoria()) {
+            problemas.add("ordenação em memória (SORT sem índice)");
+        }
+        if (analise.varredurasLookup() > 0) {
+            problemas.add("$lookup fez " + analise.varredurasLookup() + " varredura(s) completa(s)");
+        }
+        return problemas;
+    }
+
+    private static BsonDocument explain(ConsultasRegistradas.Consulta consulta) {
+        BsonDocument comando;
+        if (consulta.isAggregate()) {
+            BsonArray pipeline = new BsonArray();
+            for (Bson estagio : consulta.pipeline()) {
+                pipeline.add(bson(estagio));
+            }
+            comando = new BsonDocument("aggregate", new BsonString(consulta.colecao()))
+                .append("pipeline", pipeline)
+                .append("cursor", new BsonDocument());
+        } else {
+            comando = new BsonDocument("find", new BsonString(consulta.colecao()))
+                .append("filter", bson(consulta.filtro()));
+            if (consulta.ordem() != null) {
+                comando.append("sort", bson(consulta.ordem()));
+            }
+        }
+        comando.append("maxTimeMS", new BsonInt32(60_000));
+        return new BsonDocument("explain", comando)
+            .append("verbosity", new BsonString("executionStats"));
+    }
+
+    private static BsonDocument bson(Bson valor) {
+        return valor.toBsonDocument(BsonDocument.class, REGISTRO);
+    }
+}